@@ -1,17 +1,18 @@
 package edu.escuelaing.arep;
 
 import edu.escuelaing.arep.annotations.*;
-import edu.escuelaing.arep.controller.Request;
 import edu.escuelaing.arep.server.HttpServer;
+import edu.escuelaing.arep.server.ServerConfig;
+import edu.escuelaing.arep.server.WarmUp;
 import edu.escuelaing.arep.server.WebFramework;
 
 import java.io.File;
-import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.net.URL;
 
 /**
  * Main class that starts the web server and automatically loads controllers.
+ * The controllers are registered from the route table generated by the build; the controller package is only
+ * scanned when the classes were compiled without the annotation processor.
  */
 public class Application {
 
@@ -35,11 +36,15 @@ public class Application {
                 } else {
                     System.err.println("La clase " + className + " no está anotada con @RestController.");
                 }
-            } else {
-                // Automatically load controllers if no POJO is specified
+            } else if (!WebFramework.loadRouteRegistry()) {
+                // Without the route table generated at compile time, scan the controller package
                 System.out.println("Cargando controladores automáticamente...");
                 loadControllers("edu.escuelaing.arep.controller");
             }
+            if (ServerConfig.getBoolean("server.warmup", false)) {
+                // Warm up the JIT before the port is bound, so the first requests do not run interpreted code
+                WarmUp.run();
+            }
             HttpServer.start();
         } catch (Exception e) {
             e.printStackTrace();
@@ -102,51 +107,13 @@ public class Application {
     }
 
     /**
-     * Registers methods annotated with @GetMapping, @PostMapping, and @DeleteMapping in the framework.
+     * Creates the single instance of a controller and registers its methods annotated with @GetMapping,
+     * @PostMapping, and @DeleteMapping in the framework.
      *
      * @param clazz The controller class.
-     * @throws Exception If an error occurs while registering the methods.
+     * @throws Exception If the controller cannot be instantiated.
      */
     private static void registerController(Class<?> clazz) throws Exception {
-        for (Method method : clazz.getDeclaredMethods()) {
-            if (method.isAnnotationPresent(GetMapping.class)) {
-                GetMapping annotation = method.getAnnotation(GetMapping.class);
-                String route = annotation.value();
-                WebFramework.get(route, (req, res) -> invokeMethod(method, clazz, req));
-            } else if (method.isAnnotationPresent(PostMapping.class)) {
-                PostMapping annotation = method.getAnnotation(PostMapping.class);
-                String route = annotation.value();
-                WebFramework.post(route, (req, res) -> invokeMethod(method, clazz, req));
-            } else if (method.isAnnotationPresent(DeleteMapping.class)) {
-                DeleteMapping annotation = method.getAnnotation(DeleteMapping.class);
-                String route = annotation.value();
-                WebFramework.delete(route, (req, res) -> invokeMethod(method, clazz, req));
-            }
-        }
-    }
-
-    /**
-     * Invokes a method from a controller and returns the response.
-     *
-     * @param method The method to invoke.
-     * @param clazz  The controller class.
-     * @param req    The HTTP request object.
-     * @return The response as a string.
-     */
-    private static String invokeMethod(Method method, Class<?> clazz, Request req) {
-        try {
-            Object[] args = new Object[method.getParameterCount()];
-            Parameter[] parameters = method.getParameters();
-            for (int i = 0; i < parameters.length; i++) {
-                if (parameters[i].isAnnotationPresent(RequestParam.class)) {
-                    RequestParam paramAnnotation = parameters[i].getAnnotation(RequestParam.class);
-                    String paramValue = req.getValues(paramAnnotation.value());
-                    args[i] = paramValue != null ? paramValue : paramAnnotation.defaultValue();
-                }
-            }
-            return (String) method.invoke(clazz.getDeclaredConstructor().newInstance(), args);
-        } catch (Exception e) {
-            throw new RuntimeException("Error invoking method", e);
-        }
+        WebFramework.registerControllers(clazz.getDeclaredConstructor().newInstance());
     }
 }
\ No newline at end of file
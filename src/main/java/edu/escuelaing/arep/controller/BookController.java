@@ -2,7 +2,17 @@ package edu.escuelaing.arep.controller;
 
 import edu.escuelaing.arep.annotations.*;
 import edu.escuelaing.arep.model.Book;
-import java.util.concurrent.ConcurrentHashMap;
+import edu.escuelaing.arep.repository.BookExporter;
+import edu.escuelaing.arep.repository.BookImporter;
+import edu.escuelaing.arep.repository.BookStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * REST controller for managing books.
@@ -10,25 +20,184 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 @RestController
 public class BookController {
-    private static final ConcurrentHashMap<String, Book> books = new ConcurrentHashMap<>();
+    private static final BookStore store = BookStore.open();
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_SEARCH_RESULTS = 100;
+    static final int IMPORT_BATCH_SIZE = 1000;
+
+    // Distinguishes the versions of this process from those of a previous one in the entity tags
+    private static final String EPOCH = Long.toHexString(System.currentTimeMillis());
+    private static volatile Snapshot snapshot = new Snapshot(0, "{ \"books\": [] }".getBytes(StandardCharsets.UTF_8), etag(0));
+
+    /**
+     * Serialized catalog of one version, shared by every read until the next write.
+     *
+     * @param version The version of the catalog.
+     * @param json    The UTF-8 bytes of the JSON document; never modified.
+     * @param etag    The strong entity tag of the version, or null if the snapshot raced with a write.
+     */
+    private record Snapshot(long version, byte[] json, String etag) {
+    }
 
     /**
      * Retrieves the list of all books in JSON format.
      *
      * @return A JSON string containing the list of books.
      */
-    @GetMapping("/getBooks")
     public String getBooks() {
-        StringBuilder json = new StringBuilder("{ \"books\": [");
-        books.values().forEach(book -> {
-            json.append("{\"title\": \"").append(book.getTitle())
-                    .append("\", \"author\": \"").append(book.getAuthor()).append("\"},");
-        });
-        if (!books.isEmpty()) {
-            json.deleteCharAt(json.length() - 1); // Eliminar la última coma
-        }
-        json.append("] }");
-        return json.toString();
+        return new String(snapshot().json(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends the list of books in JSON format.
+     *
+     * <p>Without parameters the whole catalog is sent, ordered by title. It is serialized once per version and
+     * the same bytes are sent to every client until a book is added or deleted. The response carries a strong
+     * ETag derived from the version, so a client whose copy is current gets a 304 Not Modified.</p>
+     *
+     * <p>With {@code limit}, {@code sort} or {@code cursor} a single page is sent: at most {@code limit} books
+     * (default 100, at most 1000) in the order given by {@code sort} ({@code title}, {@code author},
+     * {@code -title} or {@code -author}), starting after the book named by {@code cursor}. The page includes
+     * the cursor of the next page in {@code nextCursor}, or null if it is the last one.</p>
+     *
+     * @param req The request, whose If-None-Match header and paging parameters are checked.
+     * @param res The response where the list is written.
+     */
+    @GetMapping("/getBooks")
+    public void serveBooks(Request req, Response res) {
+        res.setContentType("application/json");
+        String limit = req.getValues("limit");
+        String sort = req.getValues("sort");
+        String cursor = req.getValues("cursor");
+        if (!limit.isEmpty() || !sort.isEmpty() || !cursor.isEmpty()) {
+            servePage(res, limit, sort, cursor);
+            return;
+        }
+        Snapshot current = snapshot();
+        if (current.etag() != null) {
+            res.setHeader("ETag", current.etag());
+            if (req.ifNoneMatch(current.etag())) {
+                res.setStatus(304);
+                return;
+            }
+        }
+        res.setBody(current.json());
+    }
+
+    private static void servePage(Response res, String limit, String sort, String cursor) {
+        int size;
+        try {
+            size = limit.isEmpty() ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            size = 0;
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            sendError(res, "El parámetro limit debe estar entre 1 y " + MAX_PAGE_SIZE + ".");
+            return;
+        }
+        BookStore.Page page;
+        try {
+            page = store.page(sort.isEmpty() ? BookStore.Sort.TITLE : BookStore.Sort.parse(sort),
+                    cursor.isEmpty() ? null : cursor, size);
+        } catch (IllegalArgumentException e) {
+            sendError(res, "Parámetros de paginación no válidos: sort debe ser title, author, -title o -author, "
+                    + "y cursor el recibido con la página anterior.");
+            return;
+        }
+        StringBuilder json = new StringBuilder(64 + 64 * page.books().size()).append("{ \"books\": ");
+        appendBooks(json, page.books());
+        json.append(", \"nextCursor\": ")
+                .append(page.nextCursor() == null ? "null" : "\"" + page.nextCursor() + "\"").append(" }");
+        res.setBody(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(Response res, String message) {
+        res.setStatus(400);
+        res.setBody(("{\"error\": \"" + message + "\"}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Retrieves the snapshot of the current version, serializing the catalog if a write happened since the last one.
+     */
+    private static Snapshot snapshot() {
+        Snapshot current = snapshot;
+        long before = store.version();
+        if (current.version() == before) {
+            return current;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer json = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            writeBooks(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A ByteArrayOutputStream does not fail
+        }
+        // The bytes belong to version "before" only if no write started or ended while they were written
+        if ((before & 1) != 0 || store.version() != before) {
+            return new Snapshot(before, bytes.toByteArray(), null);
+        }
+        Snapshot built = new Snapshot(before, bytes.toByteArray(), etag(before));
+        snapshot = built;
+        return built;
+    }
+
+    private static String etag(long version) {
+        return "\"books-" + EPOCH + "-" + Long.toHexString(version / 2) + "\"";
+    }
+
+    /**
+     * Finds the books with a title, ignoring case. The lookup uses the title index of the catalog, so it
+     * takes the same time however many books there are.
+     *
+     * @param title The title of the books to find.
+     * @return A JSON string with the books of that title, or an error message if there are none.
+     */
+    @GetMapping("/getBook")
+    public String getBook(@RequestParam("bookTitle") String title) {
+        if (title.isEmpty()) {
+            return "{\"error\": \"El título no puede estar vacío.\"}";
+        }
+        List<Book> found = store.findByTitle(title);
+        if (found.isEmpty()) {
+            return "{\"error\": \"Libro no encontrado\"}";
+        }
+        return appendBooks(new StringBuilder("{ \"books\": "), found).append(" }").toString();
+    }
+
+    /**
+     * Finds the books whose title or author contain every word of a query. The last word also matches as a
+     * prefix, so the endpoint can suggest books while the user types; accents and case are ignored.
+     *
+     * @param query The words to find, e.g. "garcia sol".
+     * @param limit The maximum number of books to return, from 1 to 100 (default 20).
+     * @return A JSON string with the books found, oldest first, or an error message.
+     */
+    @GetMapping("/searchBooks")
+    public String searchBooks(@RequestParam("q") String query,
+                              @RequestParam(value = "limit", defaultValue = "20") String limit) {
+        int size;
+        try {
+            size = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            size = 0;
+        }
+        if (size < 1 || size > MAX_SEARCH_RESULTS) {
+            return "{\"error\": \"El parámetro limit debe estar entre 1 y " + MAX_SEARCH_RESULTS + ".\"}";
+        }
+        return appendBooks(new StringBuilder("{ \"books\": "), store.search(query, size)).append(" }").toString();
+    }
+
+    private static StringBuilder appendBooks(StringBuilder json, List<Book> books) {
+        json.append('[');
+        for (int i = 0; i < books.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"title\": \"").append(BookExporter.escapeJson(books.get(i).getTitle()))
+                    .append("\", \"author\": \"").append(BookExporter.escapeJson(books.get(i).getAuthor())).append("\"}");
+        }
+        return json.append(']');
     }
 
     /**
@@ -45,16 +214,11 @@ public class BookController {
             return "{\"error\": \"El título y el autor no pueden estar vacíos.\"}";
         }
 
-        String key = title.toLowerCase() + "|" + author.toLowerCase();
-
-        // Verificar si el libro ya existe
-        if (books.containsKey(key)) {
+        // Añadir el libro si no existe
+        if (!store.add(new Book(title, author))) {
             return "{\"error\": \"El libro ya existe.\"}";
         }
-
-        // Añadir el libro si no existe
-        books.put(key, new Book(title, author));
-        return "{\"message\": \"Libro añadido: " + title + " por " + author + "\"}";
+        return "{\"message\": \"Libro añadido: " + BookExporter.escapeJson(title) + " por " + BookExporter.escapeJson(author) + "\"}";
     }
 
     /**
@@ -69,7 +233,110 @@ public class BookController {
             return "{\"error\": \"El título no puede estar vacío.\"}";
         }
         // Buscar y eliminar el libro por título
-        boolean removed = books.entrySet().removeIf(entry -> entry.getValue().getTitle().equalsIgnoreCase(title));
-        return removed ? "{\"message\": \"Libro eliminado: " + title + "\"}" : "{\"error\": \"Libro no encontrado\"}";
+        boolean removed = store.removeByTitle(title);
+        return removed ? "{\"message\": \"Libro eliminado: " + BookExporter.escapeJson(title) + "\"}" : "{\"error\": \"Libro no encontrado\"}";
+    }
+
+    /**
+     * Imports the books of the body, one record per line, as they are received: NDJSON objects with a
+     * {@code title} and an {@code author}, or CSV rows (see {@link BookImporter}). The format is taken from
+     * {@code format} ({@code ndjson} or {@code csv}) or else from the Content-Type, CSV for {@code text/csv}.
+     * The body is read as a stream, so it can be far larger than a regular request.
+     *
+     * <p>The books are added to the catalog in batches, and the rest of the body is only read once a batch is
+     * in, so a fast client waits for the catalog. Rejected records do not stop the import: the response
+     * counts the records imported, duplicated and rejected, and lists the first rejected lines.</p>
+     *
+     * @param req The request, whose body holds the books.
+     * @param res The response where the summary is written.
+     * @throws IOException If the connection fails while the body is read.
+     */
+    @PostMapping("/importBooks")
+    public void importBooks(Request req, Response res) throws IOException {
+        res.setContentType("application/json");
+        String formatName = req.getValues("format");
+        BookImporter.Format format;
+        try {
+            format = formatName.isEmpty() ? BookImporter.Format.of(req.getHeader("Content-Type"))
+                    : BookImporter.Format.parse(formatName);
+        } catch (IllegalArgumentException e) {
+            sendError(res, "El parámetro format debe ser ndjson o csv.");
+            return;
+        }
+        BookImporter importer = new BookImporter(store, format, IMPORT_BATCH_SIZE);
+        BookImporter.Summary summary;
+        String error = null;
+        try {
+            summary = importer.importFrom(req.getBodyStream());
+        } catch (RequestBodyException e) {
+            // The books read so far stay imported; the connection cannot be reused
+            res.setStatus(e.getStatus());
+            req.setKeepAlive(false);
+            summary = importer.summary();
+            error = e.getStatus() == 413 ? "El cuerpo supera el tamaño máximo permitido." : "El cuerpo de la solicitud no es válido.";
+        }
+        StringBuilder json = new StringBuilder(256)
+                .append("{\"records\": ").append(summary.records())
+                .append(", \"imported\": ").append(summary.imported())
+                .append(", \"duplicates\": ").append(summary.duplicates())
+                .append(", \"rejected\": ").append(summary.rejected())
+                .append(", \"millis\": ").append(summary.millis())
+                .append(", \"errors\": [");
+        for (int i = 0; i < summary.errors().size(); i++) {
+            BookImporter.LineError lineError = summary.errors().get(i);
+            json.append(i > 0 ? ", " : "").append("{\"line\": ").append(lineError.line())
+                    .append(", \"error\": \"").append(BookExporter.escapeJson(lineError.message())).append("\"}");
+        }
+        json.append(']');
+        if (error != null) {
+            json.append(", \"error\": \"").append(error).append('"');
+        }
+        res.setBody(json.append('}').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Exports the whole catalog as NDJSON or CSV records, ordered by title, in the formats taken by
+     * {@code /importBooks} (see {@link BookExporter}). The format is taken from {@code format}
+     * ({@code ndjson}, the default, or {@code csv}).
+     *
+     * <p>The books are written to a chunked response as the catalog is iterated, so memory use does not grow
+     * with the catalog. The export takes no lock: books added or deleted while it runs may or may not be in it,
+     * but every book that is in the catalog the whole time is exported exactly once.</p>
+     *
+     * @param req The request, whose {@code format} parameter is checked.
+     * @param res The response where the records are written.
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    @GetMapping("/exportBooks")
+    public void exportBooks(Request req, Response res) throws IOException {
+        String formatName = req.getValues("format");
+        BookImporter.Format format;
+        try {
+            format = formatName.isEmpty() ? BookImporter.Format.NDJSON : BookImporter.Format.parse(formatName);
+        } catch (IllegalArgumentException e) {
+            res.setContentType("application/json");
+            sendError(res, "El parámetro format debe ser ndjson o csv.");
+            return;
+        }
+        boolean csv = format == BookImporter.Format.CSV;
+        res.setContentType(csv ? "text/csv; charset=utf-8" : "application/x-ndjson");
+        BookExporter.export(store.books(), format, res.getWriter());
+    }
+
+    private static void writeBooks(Writer json) throws IOException {
+        json.write("{ \"books\": [");
+        boolean first = true;
+        for (Book book : store.books()) {
+            if (!first) {
+                json.write(',');
+            }
+            json.write("{\"title\": \"");
+            json.write(BookExporter.escapeJson(book.getTitle()));
+            json.write("\", \"author\": \"");
+            json.write(BookExporter.escapeJson(book.getAuthor()));
+            json.write("\"}");
+            first = false;
+        }
+        json.write("] }");
     }
-}
\ No newline at end of file
+}
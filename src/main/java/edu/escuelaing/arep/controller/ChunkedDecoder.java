@@ -0,0 +1,202 @@
+package edu.escuelaing.arep.controller;
+
+/**
+ * State machine that walks the framing of a {@code Transfer-Encoding: chunked} body: chunk sizes, chunk
+ * extensions, the CRLF after each chunk and the trailer section. The data bytes are not copied by the
+ * decoder; the caller takes {@link #dataRemaining()} bytes from its own buffer and reports them with
+ * {@link #consumeData(int)}, so the same decoder serves the buffered body of {@link HttpRequestParser}
+ * and the lazy {@link RequestBody} of the blocking engines.
+ */
+class ChunkedDecoder {
+
+    private enum State { SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER_START, TRAILER, TRAILER_LF, END_LF, DONE, ERROR }
+
+    private final long maxSize;
+    private State state = State.SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+    private long chunkRemaining;
+    private long total;
+    private int trailerSize;
+    private int errorStatus;
+
+    /**
+     * Creates a decoder for one body.
+     *
+     * @param maxSize The maximum size in bytes of the decoded body; a chunk that exceeds it is rejected with 413.
+     */
+    ChunkedDecoder(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Consumes framing bytes until the data of a chunk starts, the body ends or the framing is malformed.
+     *
+     * @param bytes  The buffer holding the bytes.
+     * @param offset The index of the first byte.
+     * @param count  The number of bytes available.
+     * @return The number of bytes consumed.
+     */
+    int parseFraming(byte[] bytes, int offset, int count) {
+        int i = offset;
+        int end = offset + count;
+        while (i < end && state != State.DATA && state != State.DONE && state != State.ERROR) {
+            step(bytes[i++]);
+        }
+        return i - offset;
+    }
+
+    private void step(byte b) {
+        switch (state) {
+            case SIZE -> {
+                int digit = Character.digit(b, 16);
+                if (digit >= 0 && sizeDigits < 15) {
+                    chunkSize = chunkSize * 16 + digit;
+                    sizeDigits++;
+                } else if (sizeDigits > 0 && (b == ';' || b == ' ' || b == '\t')) {
+                    state = State.EXTENSION;
+                } else if (sizeDigits > 0 && b == '\r') {
+                    state = State.SIZE_LF;
+                } else if (sizeDigits > 0 && b == '\n') {
+                    startChunk();
+                } else {
+                    fail(400);
+                }
+            }
+            case EXTENSION -> {
+                if (b == '\r') {
+                    state = State.SIZE_LF;
+                } else if (b == '\n') {
+                    startChunk();
+                } else if (++trailerSize > HttpRequestParser.MAX_HEADER_SIZE) {
+                    fail(400); // Chunk extensions are skipped, but not without limit
+                }
+            }
+            case SIZE_LF -> {
+                if (b == '\n') {
+                    startChunk();
+                } else {
+                    fail(400);
+                }
+            }
+            case DATA_CR -> {
+                if (b == '\r') {
+                    state = State.DATA_LF;
+                } else if (b == '\n') {
+                    state = State.SIZE;
+                } else {
+                    fail(400);
+                }
+            }
+            case DATA_LF -> {
+                if (b == '\n') {
+                    state = State.SIZE;
+                } else {
+                    fail(400);
+                }
+            }
+            case TRAILER_START -> {
+                if (b == '\r') {
+                    state = State.END_LF;
+                } else if (b == '\n') {
+                    state = State.DONE;
+                } else {
+                    state = State.TRAILER; // Trailer fields are read and discarded
+                }
+            }
+            case TRAILER -> {
+                if (++trailerSize > HttpRequestParser.MAX_HEADER_SIZE) {
+                    fail(400);
+                } else if (b == '\r') {
+                    state = State.TRAILER_LF;
+                } else if (b == '\n') {
+                    state = State.TRAILER_START;
+                }
+            }
+            case TRAILER_LF -> {
+                if (b == '\n') {
+                    state = State.TRAILER_START;
+                } else {
+                    fail(400);
+                }
+            }
+            case END_LF -> {
+                if (b == '\n') {
+                    state = State.DONE;
+                } else {
+                    fail(400);
+                }
+            }
+            default -> throw new IllegalStateException("Unexpected decoder state " + state);
+        }
+    }
+
+    private void startChunk() {
+        if (chunkSize == 0) {
+            state = State.TRAILER_START;
+            return;
+        }
+        total += chunkSize;
+        if (total > maxSize) {
+            fail(413); // Rejected as soon as the size is announced, before reading the data
+            return;
+        }
+        chunkRemaining = chunkSize;
+        chunkSize = 0;
+        sizeDigits = 0;
+        state = State.DATA;
+    }
+
+    private void fail(int status) {
+        errorStatus = status;
+        state = State.ERROR;
+    }
+
+    /**
+     * Retrieves the number of data bytes left in the current chunk.
+     *
+     * @return The number of bytes the caller can take, or 0 if framing bytes come next.
+     */
+    long dataRemaining() {
+        return state == State.DATA ? chunkRemaining : 0;
+    }
+
+    /**
+     * Reports that the caller has taken data bytes of the current chunk.
+     *
+     * @param n The number of bytes taken, at most {@link #dataRemaining()}.
+     */
+    void consumeData(int n) {
+        chunkRemaining -= n;
+        if (chunkRemaining == 0) {
+            state = State.DATA_CR;
+        }
+    }
+
+    /**
+     * Indicates whether the last chunk and the trailer section have been read.
+     *
+     * @return true if the body is complete.
+     */
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Indicates whether the framing is malformed or the body is too large.
+     *
+     * @return true if the body must be rejected with {@link #getErrorStatus()}.
+     */
+    boolean hasError() {
+        return state == State.ERROR;
+    }
+
+    /**
+     * Retrieves the status code of a rejected body: 400 or 413.
+     *
+     * @return The status code, or 0 if the body is not rejected.
+     */
+    int getErrorStatus() {
+        return errorStatus;
+    }
+}
@@ -0,0 +1,45 @@
+package edu.escuelaing.arep.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read side of a blocking connection: the socket stream and a buffer that is reused for all its requests.
+ * The request parser and the {@link RequestBody} of the current request take bytes from the same buffer,
+ * so the bytes of a pipelined request that arrive with a body stay there for the next request.
+ */
+class ConnectionInput {
+
+    final InputStream in;
+    final byte[] buffer;
+    int start;
+    int end;
+
+    ConnectionInput(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads more bytes from the socket if the buffer has none left.
+     *
+     * @return false if the client closed the connection.
+     * @throws IOException If an I/O error occurs, e.g. the idle timeout expires.
+     */
+    boolean fill() throws IOException {
+        if (start < end) {
+            return true;
+        }
+        int read = in.read(buffer);
+        if (read == -1) {
+            return false;
+        }
+        start = 0;
+        end = read;
+        return true;
+    }
+
+    int available() {
+        return end - start;
+    }
+}
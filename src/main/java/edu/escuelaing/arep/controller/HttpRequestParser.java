@@ -0,0 +1,615 @@
+package edu.escuelaing.arep.controller;
+
+import edu.escuelaing.arep.server.ServerConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.x request parser that works directly on bytes.
+ * The bytes of a connection are fed as they arrive; a state machine walks the request line, the headers
+ * and the body without decoding the stream to characters, splitting strings or using regular expressions.
+ * Tokens are accumulated in a scratch buffer that is reused for every request of the connection, and the
+ * common methods, protocols and header names are matched against constants instead of creating new strings.
+ * Header names are stored in lower case, and the size of the request line, the headers and the body are
+ * limited, so a client cannot make the server buffer an unbounded amount of data.
+ *
+ * <p>The body is either buffered by the parser, for the NIO engine, which cannot block on the socket, or left
+ * on the connection so the blocking engines read it lazily through a {@link RequestBody}. In both cases a
+ * {@code Content-Length} over the limit is rejected before reading the body, and a chunked body as soon as
+ * a chunk takes it over the limit.</p>
+ */
+public class HttpRequestParser {
+
+    // Longest request line accepted, answered with 414 URI Too Long
+    static final int MAX_REQUEST_LINE = ServerConfig.getInt("server.max.request.line", 8192);
+    // Total size of the header section accepted, answered with 431 Request Header Fields Too Large
+    static final int MAX_HEADER_SIZE = ServerConfig.getInt("server.max.header.size", 16384);
+    // Number of header fields accepted, answered with 431 Request Header Fields Too Large
+    static final int MAX_HEADERS = ServerConfig.getInt("server.max.headers", 100);
+
+    private static final String[] KNOWN_METHODS = {"GET", "POST", "DELETE", "PUT", "HEAD", "OPTIONS", "PATCH"};
+    private static final String[] KNOWN_PROTOCOLS = {"HTTP/1.1", "HTTP/1.0"};
+    private static final String[] KNOWN_HEADERS = {"host", "connection", "content-length", "content-type",
+            "accept", "accept-encoding", "accept-language", "user-agent", "if-none-match", "if-modified-since",
+            "range", "if-range", "cache-control", "cookie", "referer", "origin", "transfer-encoding", "pragma"};
+
+    private enum State {
+        METHOD, TARGET, QUERY, PROTOCOL, REQUEST_LINE_LF,
+        HEADER_START, HEADER_NAME, HEADER_VALUE_START, HEADER_VALUE, HEADER_LF, HEADERS_END_LF,
+        BODY, CHUNKED_BODY, DONE, ERROR
+    }
+
+    private final int maxBodySize;
+    private final boolean streamBody;
+    private final long maxStreamSize;
+    private byte[] scratch = new byte[256];
+    private int length;
+
+    private State state = State.METHOD;
+    private int requestLineSize;
+    private int headerSize;
+    private int headerCount;
+    private String method;
+    private String path;
+    private String protocol;
+    private Map<String, String> queryParams;
+    private Map<String, String> headers;
+    private String headerName;
+    private long contentLength;
+    private boolean chunked;
+    private ChunkedDecoder decoder;
+    private byte[] body;
+    private int bodyRead;
+    private int errorStatus;
+
+    /**
+     * Creates a parser for the requests of one connection that buffers the body of each request.
+     *
+     * @param maxBodySize The maximum size in bytes of a request body, answered with 413 Payload Too Large.
+     */
+    public HttpRequestParser(int maxBodySize) {
+        this(maxBodySize, false);
+    }
+
+    /**
+     * Creates a parser for the requests of one connection.
+     *
+     * @param maxBodySize The maximum size in bytes of a request body, answered with 413 Payload Too Large.
+     * @param streamBody  Whether parsing stops after the headers, leaving the body on the connection
+     *                    (see {@link #getContentLength()} and {@link #isChunked()}).
+     */
+    public HttpRequestParser(int maxBodySize, boolean streamBody) {
+        this(maxBodySize, streamBody, maxBodySize);
+    }
+
+    /**
+     * Creates a parser for the requests of one connection whose streamed bodies can be larger than the bodies
+     * it buffers: a handler that reads the body as a stream holds only a part of it in memory at a time. The
+     * {@link RequestBody} of the request enforces {@code maxBodySize} until the handler asks for the stream.
+     *
+     * @param maxBodySize   The maximum size in bytes of a body read whole, answered with 413 Payload Too Large.
+     * @param streamBody    Whether parsing stops after the headers, leaving the body on the connection.
+     * @param maxStreamSize The maximum size in bytes of a body left on the connection.
+     */
+    public HttpRequestParser(int maxBodySize, boolean streamBody, long maxStreamSize) {
+        this.maxBodySize = maxBodySize;
+        this.streamBody = streamBody;
+        this.maxStreamSize = streamBody ? Math.max(maxBodySize, maxStreamSize) : maxBodySize;
+        reset();
+    }
+
+    /**
+     * Prepares the parser for the next request of the connection. The scratch buffer is kept.
+     */
+    public void reset() {
+        state = State.METHOD;
+        length = 0;
+        requestLineSize = 0;
+        headerSize = 0;
+        headerCount = 0;
+        method = null;
+        path = null;
+        protocol = null;
+        queryParams = new HashMap<>();
+        headers = new HashMap<>();
+        headerName = null;
+        contentLength = 0;
+        chunked = false;
+        decoder = null;
+        body = null;
+        bodyRead = 0;
+        errorStatus = 0;
+    }
+
+    /**
+     * Consumes bytes of the connection. Parsing stops at the end of a request, so the bytes of a
+     * pipelined request that follows are left for the next call, after {@link #reset()}.
+     *
+     * @param bytes  The buffer holding the bytes.
+     * @param offset The index of the first byte to parse.
+     * @param count  The number of bytes available.
+     * @return The number of bytes consumed.
+     */
+    public int parse(byte[] bytes, int offset, int count) {
+        int i = offset;
+        int end = offset + count;
+        while (i < end && state != State.DONE && state != State.ERROR) {
+            if (state == State.BODY) {
+                int n = Math.min(end - i, body.length - bodyRead);
+                System.arraycopy(bytes, i, body, bodyRead, n);
+                bodyRead += n;
+                i += n;
+                if (bodyRead == body.length) {
+                    state = State.DONE;
+                }
+                continue;
+            }
+            if (state == State.CHUNKED_BODY) {
+                i += parseChunked(bytes, i, end);
+                continue;
+            }
+            byte b = bytes[i++];
+            if (state.ordinal() <= State.REQUEST_LINE_LF.ordinal()) {
+                if (++requestLineSize > MAX_REQUEST_LINE) {
+                    fail(state == State.TARGET || state == State.QUERY ? 414 : 400);
+                    break;
+                }
+            } else if (++headerSize > MAX_HEADER_SIZE) {
+                fail(431);
+                break;
+            }
+            step(b);
+        }
+        return i - offset;
+    }
+
+    private void step(byte b) {
+        switch (state) {
+            case METHOD -> {
+                if (b == ' ') {
+                    if (length == 0) {
+                        fail(400);
+                        return;
+                    }
+                    method = token(KNOWN_METHODS);
+                    state = State.TARGET;
+                } else if ((b == '\r' || b == '\n') && length == 0) {
+                    requestLineSize = 0; // Empty lines before a request are ignored
+                } else if (isTokenChar(b)) {
+                    append(b);
+                } else {
+                    fail(400);
+                }
+            }
+            case TARGET -> {
+                if (b == ' ' || b == '?' || b == '\r' || b == '\n') {
+                    if (length == 0) {
+                        fail(400);
+                        return;
+                    }
+                    path = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                    length = 0;
+                    endOfTarget(b);
+                } else if ((b >= 0 && b < 0x21) || b == 0x7f) {
+                    fail(400);
+                } else {
+                    append(b);
+                }
+            }
+            case QUERY -> {
+                if (b == ' ' || b == '\r' || b == '\n') {
+                    parseQuery(scratch, 0, length, queryParams);
+                    length = 0;
+                    endOfTarget(b);
+                } else if ((b >= 0 && b < 0x21) || b == 0x7f) {
+                    fail(400);
+                } else {
+                    append(b);
+                }
+            }
+            case PROTOCOL -> {
+                if (b == '\r' || b == '\n') {
+                    protocol = token(KNOWN_PROTOCOLS);
+                    if (!protocol.startsWith("HTTP/")) {
+                        fail(400);
+                        return;
+                    }
+                    state = b == '\r' ? State.REQUEST_LINE_LF : State.HEADER_START;
+                } else if (b > 0x20 && b < 0x7f) {
+                    append(b);
+                } else {
+                    fail(400);
+                }
+            }
+            case REQUEST_LINE_LF, HEADER_LF -> {
+                if (b != '\n') {
+                    fail(400);
+                    return;
+                }
+                state = State.HEADER_START;
+            }
+            case HEADER_START -> {
+                if (b == '\r') {
+                    state = State.HEADERS_END_LF;
+                } else if (b == '\n') {
+                    endOfHeaders();
+                } else if (isTokenChar(b)) {
+                    if (++headerCount > MAX_HEADERS) {
+                        fail(431);
+                        return;
+                    }
+                    append(lowerCase(b));
+                    state = State.HEADER_NAME;
+                } else {
+                    fail(400); // Folded headers (starting with whitespace) are not accepted
+                }
+            }
+            case HEADER_NAME -> {
+                if (b == ':') {
+                    headerName = token(KNOWN_HEADERS);
+                    state = State.HEADER_VALUE_START;
+                } else if (isTokenChar(b)) {
+                    append(lowerCase(b));
+                } else {
+                    fail(400); // Whitespace between the name and the colon is not accepted
+                }
+            }
+            case HEADER_VALUE_START, HEADER_VALUE -> {
+                if (b == '\r' || b == '\n') {
+                    int valueLength = length;
+                    while (valueLength > 0 && (scratch[valueLength - 1] == ' ' || scratch[valueLength - 1] == '\t')) {
+                        valueLength--;
+                    }
+                    length = 0;
+                    state = b == '\r' ? State.HEADER_LF : State.HEADER_START;
+                    addHeader(headerName, new String(scratch, 0, valueLength, StandardCharsets.ISO_8859_1));
+                } else if (state == State.HEADER_VALUE_START && (b == ' ' || b == '\t')) {
+                    // Skip the whitespace before the value
+                } else if ((b >= 0 && b < 0x20 && b != '\t') || b == 0x7f) {
+                    fail(400);
+                } else {
+                    append(b);
+                    state = State.HEADER_VALUE;
+                }
+            }
+            case HEADERS_END_LF -> {
+                if (b != '\n') {
+                    fail(400);
+                    return;
+                }
+                endOfHeaders();
+            }
+            default -> throw new IllegalStateException("Unexpected parser state " + state);
+        }
+    }
+
+    /**
+     * Moves past the request target. A request line without a protocol is read as HTTP/1.0.
+     */
+    private void endOfTarget(byte b) {
+        if (b == '?') {
+            state = State.QUERY;
+        } else if (b == ' ') {
+            state = State.PROTOCOL;
+        } else {
+            protocol = "HTTP/1.0";
+            state = b == '\r' ? State.REQUEST_LINE_LF : State.HEADER_START;
+        }
+    }
+
+    private void addHeader(String name, String value) {
+        String previous = headers.get(name);
+        if (previous == null) {
+            headers.put(name, value);
+        } else if (name.equals("content-length")) {
+            if (!previous.equals(value)) {
+                fail(400); // Conflicting lengths would let a proxy and the server split the body differently
+            }
+        } else {
+            headers.put(name, previous + ", " + value);
+        }
+    }
+
+    /**
+     * Reads the framing of the body once the headers are complete. The length is counted in bytes.
+     */
+    private void endOfHeaders() {
+        String transferEncoding = headers.get("transfer-encoding");
+        String length = headers.get("content-length");
+        if (transferEncoding != null) {
+            if (length != null) {
+                fail(400); // Both framings at once is how requests are smuggled past proxies
+                return;
+            }
+            if (!transferEncoding.equalsIgnoreCase("chunked")) {
+                fail(501);
+                return;
+            }
+            chunked = true;
+        } else if (length != null) {
+            if (length.isEmpty()) {
+                fail(400);
+                return;
+            }
+            for (int i = 0; i < length.length(); i++) {
+                char c = length.charAt(i);
+                if (c < '0' || c > '9' || contentLength > Long.MAX_VALUE / 100) {
+                    fail(400);
+                    return;
+                }
+                contentLength = contentLength * 10 + (c - '0');
+            }
+        }
+        if (contentLength > maxStreamSize) {
+            fail(413);
+            return;
+        }
+        if (streamBody || (!chunked && contentLength == 0)) {
+            state = State.DONE;
+        } else if (chunked) {
+            decoder = new ChunkedDecoder(maxBodySize);
+            body = new byte[256];
+            state = State.CHUNKED_BODY;
+        } else {
+            body = new byte[(int) contentLength];
+            state = State.BODY;
+        }
+    }
+
+    /**
+     * Buffers the data of a chunked body.
+     *
+     * @return The number of bytes consumed.
+     */
+    private int parseChunked(byte[] bytes, int offset, int end) {
+        long data = decoder.dataRemaining();
+        if (data == 0) {
+            int consumed = decoder.parseFraming(bytes, offset, end - offset);
+            if (decoder.hasError()) {
+                fail(decoder.getErrorStatus());
+            } else if (decoder.isDone()) {
+                state = State.DONE;
+            }
+            return consumed;
+        }
+        int n = (int) Math.min(data, end - offset);
+        if (bodyRead + n > body.length) {
+            byte[] bigger = new byte[Math.max(bodyRead + n, Math.min(maxBodySize, body.length * 2))];
+            System.arraycopy(body, 0, bigger, 0, bodyRead);
+            body = bigger;
+        }
+        System.arraycopy(bytes, offset, body, bodyRead, n);
+        bodyRead += n;
+        decoder.consumeData(n);
+        return n;
+    }
+
+    private void fail(int status) {
+        if (state != State.ERROR) {
+            errorStatus = status;
+            state = State.ERROR;
+        }
+    }
+
+    private void append(byte b) {
+        if (length == scratch.length) {
+            byte[] bigger = new byte[length * 2];
+            System.arraycopy(scratch, 0, bigger, 0, length);
+            scratch = bigger;
+        }
+        scratch[length++] = b;
+    }
+
+    /**
+     * Returns the token in the scratch buffer, reusing one of the known constants when it matches.
+     */
+    private String token(String[] known) {
+        String value = null;
+        for (String candidate : known) {
+            if (matches(candidate)) {
+                value = candidate;
+                break;
+            }
+        }
+        if (value == null) {
+            value = new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        length = 0;
+        return value;
+    }
+
+    private boolean matches(String candidate) {
+        if (candidate.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Checks whether a byte may appear in a method or a header name (the "tchar" set of RFC 9110).
+     */
+    private static boolean isTokenChar(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+            return true;
+        }
+        return switch (b) {
+            case '!', '#', '$', '%', '&', '\'', '*', '+', '-', '.', '^', '_', '`', '|', '~' -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Indicates whether a whole request has been parsed.
+     *
+     * @return true if {@link #getRequest()} can be called.
+     */
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Indicates whether the request is malformed or exceeds a limit.
+     *
+     * @return true if the connection must be answered with {@link #getErrorStatus()} and closed.
+     */
+    public boolean hasError() {
+        return state == State.ERROR;
+    }
+
+    /**
+     * Indicates whether part of a request has been received.
+     *
+     * @return true if the parser is in the middle of a request.
+     */
+    public boolean isStarted() {
+        return state != State.METHOD || length > 0;
+    }
+
+    /**
+     * Retrieves the status code of a rejected request: 400, 413, 414, 431 or 501 (a transfer coding other than chunked).
+     *
+     * @return The status code, or 0 if the request is not rejected.
+     */
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * Builds the request that has just been parsed.
+     *
+     * @return The request, with its headers and body.
+     */
+    public Request getRequest() {
+        if (state != State.DONE) {
+            throw new IllegalStateException("The request is not complete");
+        }
+        Request req = new Request(method, path, protocol, queryParams, headers);
+        if (body != null) {
+            req.setBody(bodyRead == body.length ? body : Arrays.copyOf(body, bodyRead));
+        }
+        return req;
+    }
+
+    /**
+     * Retrieves the length of the body, when the parser leaves it on the connection.
+     *
+     * @return The value of the Content-Length header, or 0 if there is none or the body is chunked.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Indicates whether the body is sent with {@code Transfer-Encoding: chunked}.
+     *
+     * @return true if the body is chunked.
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * Retrieves the request line of the parsed request, for logging.
+     *
+     * @return The method, path and protocol.
+     */
+    public String getRequestLine() {
+        return method + " " + path + " " + protocol;
+    }
+
+    /**
+     * Parses a URL-encoded list of parameters (e.g. "name=Pedro&age=20") without splitting strings.
+     * Percent-escapes are decoded as UTF-8 and '+' as a space; parameters without '=' or with an empty
+     * name or value are skipped.
+     *
+     * @param bytes  The encoded bytes.
+     * @param offset The index of the first byte.
+     * @param count  The number of bytes.
+     * @param params The map where the decoded parameters are stored.
+     */
+    public static void parseQuery(byte[] bytes, int offset, int count, Map<String, String> params) {
+        int end = offset + count;
+        int start = offset;
+        while (start < end) {
+            int amp = start;
+            int equals = -1;
+            while (amp < end && bytes[amp] != '&') {
+                if (equals < 0 && bytes[amp] == '=') {
+                    equals = amp;
+                }
+                amp++;
+            }
+            if (equals > start && equals + 1 < amp) {
+                params.put(decode(bytes, start, equals), decode(bytes, equals + 1, amp));
+            }
+            start = amp + 1;
+        }
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        ByteArrayOutputStream decoded = null;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '+' || b == '%') {
+                decoded = new ByteArrayOutputStream(end - start);
+                decoded.write(bytes, start, i - start);
+                for (int j = i; j < end; j++) {
+                    byte c = bytes[j];
+                    int high;
+                    int low;
+                    if (c == '+') {
+                        decoded.write(' ');
+                    } else if (c == '%' && j + 2 < end
+                            && (high = Character.digit(bytes[j + 1], 16)) >= 0
+                            && (low = Character.digit(bytes[j + 2], 16)) >= 0) {
+                        decoded.write(high << 4 | low);
+                        j += 2;
+                    } else {
+                        decoded.write(c);
+                    }
+                }
+                break;
+            }
+        }
+        if (decoded == null) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+        return decoded.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the response sent before closing a connection whose request was rejected.
+     *
+     * @param status The status code returned by {@link #getErrorStatus()}.
+     * @return The bytes of the response.
+     */
+    public static byte[] errorResponse(int status) {
+        String reason = switch (status) {
+            case 413 -> "Payload Too Large";
+            case 501 -> "Not Implemented";
+            case 414 -> "URI Too Long";
+            case 431 -> "Request Header Fields Too Large";
+            default -> "Bad Request";
+        };
+        String body = (reason.equals("Bad Request") ? 400 : status) + " " + reason;
+        return ("HTTP/1.1 " + body + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n" +
+                body).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,23 +1,44 @@
 package edu.escuelaing.arep.controller;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Represents an HTTP request.
  * This class contains the query parameters from the URL and provides methods to retrieve their values.
  * It also handles the parsing of the request body for POST requests.
+ * The body is read lazily: it stays on the connection until the handler reads it as a stream, as text or as
+ * form fields, and the form fields are parsed incrementally on the first access.
  */
 public class Request {
 
+    private static final String[] NO_NAMES = new String[0];
+
     // Mapa de parámetros de consulta extraídos de la URL
     private final Map<String, String> queryParams;
-    private Map<String, String> bodyParams = new HashMap<>();
-    private BufferedReader bodyReader;
-    private boolean bodyParsed = false;
+    private final String method;
+    private final String path;
+    private final String protocol;
+    // Encabezados con el nombre en minúsculas
+    private final Map<String, String> headers;
+    private Map<String, String> bodyParams;
+    private InputStream bodyStream = InputStream.nullInputStream();
+    private byte[] body; // The body, once it has been read whole
+    private boolean keepAlive = false;
+    // Names of the path variables and start/end index of each value in the path, set by the router
+    private String[] pathVariableNames = NO_NAMES;
+    private int[] pathVariableBounds;
 
     /**
      * Constructor for the Request class.
@@ -25,7 +46,127 @@ public class Request {
      * @param queryParams A map of query parameters extracted from the URL.
      */
     public Request(Map<String, String> queryParams) {
+        this("GET", "/", "HTTP/1.1", queryParams, new HashMap<>());
+    }
+
+    /**
+     * Constructor for a request read from a connection.
+     *
+     * @param method      The HTTP method (e.g., "GET", "POST", "DELETE").
+     * @param path        The requested resource path, without the query string.
+     * @param protocol    The protocol version of the request line (e.g., "HTTP/1.1").
+     * @param queryParams A map of query parameters extracted from the URL.
+     * @param headers     A map of headers whose names are in lower case.
+     */
+    public Request(String method, String path, String protocol, Map<String, String> queryParams, Map<String, String> headers) {
+        this.method = method;
+        this.path = path;
+        this.protocol = protocol;
         this.queryParams = queryParams;
+        this.headers = headers;
+    }
+
+    /**
+     * Retrieves the HTTP method of the request.
+     *
+     * @return The HTTP method.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Retrieves the requested resource path, without the query string.
+     *
+     * @return The resource path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Retrieves the protocol version of the request line.
+     *
+     * @return The protocol version, e.g. "HTTP/1.1".
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Retrieves the value of a header. Header names are case-insensitive.
+     *
+     * @param name The name of the header.
+     * @return The value of the header, or an empty string if the header is not present.
+     */
+    public String getHeader(String name) {
+        return headers.getOrDefault(name.toLowerCase(), "");
+    }
+
+    /**
+     * Retrieves the map of headers, keyed by the lower-case header name.
+     *
+     * @return The map of headers.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Indicates whether the client asked to keep the connection open after this request.
+     * HTTP/1.1 connections are persistent unless the client sends "Connection: close";
+     * HTTP/1.0 connections are persistent only with "Connection: keep-alive".
+     *
+     * @return true if the client supports a persistent connection.
+     */
+    public boolean wantsKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.1".equals(protocol)) {
+            return !connection.equalsIgnoreCase("close");
+        }
+        return connection.equalsIgnoreCase("keep-alive");
+    }
+
+    /**
+     * Indicates whether the server keeps the connection open after answering this request.
+     *
+     * @return true if the response is sent with "Connection: keep-alive".
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether the server keeps the connection open after answering this request.
+     *
+     * @param keepAlive true to answer with "Connection: keep-alive", false to close the connection.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Evaluates the If-None-Match header of the request against the current entity tag of a resource.
+     * If-None-Match uses the weak comparison, so a tag sent as {@code W/"..."} also matches.
+     *
+     * @param etag The current entity tag, including the quotes.
+     * @return true if the client's copy is current and a 304 Not Modified response can be sent.
+     */
+    public boolean ifNoneMatch(String etag) {
+        String ifNoneMatch = getHeader("If-None-Match");
+        if (ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -40,15 +181,101 @@ public class Request {
 
     /**
      * Assigns a BufferedReader to read the body of a POST request.
-     * Parses the body and stores the parameters in a map.
+     * The lines of the reader are joined without line breaks, as a form body is sent on one line.
      *
      * @param reader The BufferedReader to read the request body.
      */
     public void setBodyReader(BufferedReader reader) {
-        if (!bodyParsed) {
-            this.bodyParams = parseBody(reader);
-            bodyParsed = true;
+        setBody(reader.lines().collect(Collectors.joining()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Assigns the raw bytes of the request body, as buffered by the NIO engine.
+     *
+     * @param body The bytes of the body.
+     */
+    public void setBody(byte[] body) {
+        this.body = body;
+        this.bodyStream = new ByteArrayInputStream(body);
+    }
+
+    /**
+     * Assigns the stream of the request body, which the blocking engines read lazily from the connection.
+     *
+     * @param bodyStream The stream of the body.
+     */
+    public void setBody(InputStream bodyStream) {
+        this.body = null;
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * Retrieves the body as a stream, for handlers that process it without holding it in memory.
+     * The body can only be read once: reading the stream leaves nothing for {@link #getBody()} or the form fields.
+     * A stream read from the connection can be as large as {@code server.max.stream.size}, instead of the
+     * {@code server.max.request.size} of a body read whole.
+     *
+     * @return The stream of the body; it ends where the body ends, and chunked bodies are already decoded.
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream instanceof RequestBody streamed) {
+            streamed.allowStreaming();
         }
+        return bodyStream;
+    }
+
+    /**
+     * Retrieves the size of the body, e.g. for the metrics of the request. A chunked body that has not been read
+     * whole counts the bytes read so far.
+     *
+     * @return The size of the body in bytes, or 0 if the request has no body.
+     */
+    public long getBodySize() {
+        if (body != null) {
+            return body.length;
+        }
+        return bodyStream instanceof RequestBody streamed ? streamed.getLength() : 0;
+    }
+
+    /**
+     * Retrieves the body as a channel. See {@link #getBodyStream()}.
+     *
+     * @return A channel over the stream of the body.
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(getBodyStream());
+    }
+
+    /**
+     * Binds the path variables of the matched route. The values are cut from the path when they are asked for.
+     *
+     * @param names  The names of the variables, in the order they appear in the route.
+     * @param bounds The start and end index in the path of each value.
+     */
+    public void setPathVariables(String[] names, int[] bounds) {
+        this.pathVariableNames = names;
+        this.pathVariableBounds = bounds;
+    }
+
+    /**
+     * Retrieves the value of a path variable, e.g. "42" for {@code {id}} in the route "/books/{id}" and
+     * the path "/books/42". Percent-escapes are decoded as UTF-8.
+     *
+     * @param name The name of the variable; a bare {@code *} wildcard is named "*".
+     * @return The value of the variable, or null if the route has no variable with that name.
+     */
+    public String getPathVariable(String name) {
+        for (int i = 0; i < pathVariableNames.length; i++) {
+            if (pathVariableNames[i].equals(name)) {
+                String value = path.substring(pathVariableBounds[2 * i], pathVariableBounds[2 * i + 1]);
+                try {
+                    return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return value; // Malformed escape, the value is returned as it was sent
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -61,21 +288,31 @@ public class Request {
     }
 
     /**
-     * Reads the body of the POST request as a String.
+     * Reads the body of the POST request as a String, decoded as UTF-8.
      *
      * @return The body of the request as a String.
+     * @throws UncheckedIOException If the body cannot be read, e.g. it is larger than the limit.
      */
     public String getBody() {
-        if (bodyReader == null) return "";
-        return bodyReader.lines().reduce("", (acc, line) -> acc + line + "\n");
+        return new String(readBody(), StandardCharsets.UTF_8);
     }
 
     /**
      * Retrieves the map of body parameters.
+     * A URL-encoded body is parsed on the first call, one field at a time as it is read from the connection.
      *
      * @return The map of body parameters.
+     * @throws UncheckedIOException If the body cannot be read, e.g. it is larger than the limit.
      */
     public Map<String, String> getBodyParams() {
+        if (bodyParams == null) {
+            bodyParams = new HashMap<>();
+            if (body != null) {
+                HttpRequestParser.parseQuery(body, 0, body.length, bodyParams);
+            } else {
+                parseForm();
+            }
+        }
         return bodyParams;
     }
 
@@ -86,32 +323,54 @@ public class Request {
      * @return The value of the body parameter, or an empty string if the parameter is not found.
      */
     public String getBodyParam(String key) {
-        return bodyParams.getOrDefault(key, "");
+        return getBodyParams().getOrDefault(key, "");
     }
 
-    private Map<String, String> parseBody(BufferedReader reader) {
-        Map<String, String> params = new HashMap<>();
-        try {
-            StringBuilder bodyContent = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                bodyContent.append(line);
+    /**
+     * Reads the rest of the body stream, once.
+     */
+    private byte[] readBody() {
+        if (body == null) {
+            try {
+                body = bodyStream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        }
+        return body;
+    }
 
-            String body = bodyContent.toString();
-            if (!body.isEmpty()) {
-                String[] pairs = body.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=");
-                    if (keyValue.length == 2) {
-                        params.put(URLDecoder.decode(keyValue[0], "UTF-8"),
-                                URLDecoder.decode(keyValue[1], "UTF-8"));
+    /**
+     * Parses a URL-encoded body from the stream. Only the field being read is held in a buffer, and each
+     * field is decoded as soon as its '&' arrives. The bytes are also kept so {@link #getBody()} still works.
+     */
+    private void parseForm() {
+        byte[] chunk = new byte[4096];
+        byte[] field = new byte[256];
+        int fieldLength = 0;
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        try {
+            int read;
+            while ((read = bodyStream.read(chunk)) != -1) {
+                whole.write(chunk, 0, read);
+                for (int i = 0; i < read; i++) {
+                    if (chunk[i] == '&') {
+                        HttpRequestParser.parseQuery(field, 0, fieldLength, bodyParams);
+                        fieldLength = 0;
+                        continue;
+                    }
+                    if (fieldLength == field.length) {
+                        byte[] bigger = new byte[field.length * 2];
+                        System.arraycopy(field, 0, bigger, 0, fieldLength);
+                        field = bigger;
                     }
+                    field[fieldLength++] = chunk[i];
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
-        return params;
+        HttpRequestParser.parseQuery(field, 0, fieldLength, bodyParams);
+        body = whole.toByteArray();
     }
 }
@@ -0,0 +1,139 @@
+package edu.escuelaing.arep.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body of a request read by a blocking engine, exposed as a lazy, bounded stream.
+ * Nothing is read from the socket until the handler reads the body; a {@code Content-Length} body ends after
+ * its length and a {@code Transfer-Encoding: chunked} body is decoded as it is read, with its size limited
+ * as each chunk is announced. Whatever the handler leaves unread is skipped by {@link #drain()}, so the
+ * next request of the connection starts in the right place.
+ * The body can be larger when the handler reads it as a stream (see {@link #allowStreaming()}), since it is
+ * then never held in memory as a whole.
+ */
+public class RequestBody extends InputStream {
+
+    private final ConnectionInput input;
+    private long remaining; // Bytes left of a Content-Length body
+    private final ChunkedDecoder decoder; // Null for a Content-Length body
+    private long limit; // Bytes the handler can read
+    private final long maxStreamSize;
+    private long read;
+    private final long contentLength; // -1 for a chunked body
+
+    RequestBody(ConnectionInput input, long contentLength, boolean chunked, long maxSize) {
+        this(input, contentLength, chunked, maxSize, maxSize);
+    }
+
+    RequestBody(ConnectionInput input, long contentLength, boolean chunked, long maxSize, long maxStreamSize) {
+        this.input = input;
+        this.remaining = chunked ? 0 : contentLength;
+        this.contentLength = chunked ? -1 : contentLength;
+        this.decoder = chunked ? new ChunkedDecoder(Math.max(maxSize, maxStreamSize)) : null;
+        this.limit = maxSize;
+        this.maxStreamSize = Math.max(maxSize, maxStreamSize);
+    }
+
+    /**
+     * Raises the size limit of the body to the one of streamed bodies. Called when the handler asks for the
+     * body as a stream rather than as a whole.
+     */
+    void allowStreaming() {
+        limit = maxStreamSize;
+    }
+
+    /**
+     * Retrieves the length of the body: its Content-Length, or the bytes decoded so far of a chunked body.
+     *
+     * @return The length of the body in bytes.
+     */
+    public long getLength() {
+        return contentLength >= 0 ? contentLength : read;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (decoder == null) {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (read + remaining > limit) {
+                throw new RequestBodyException(413, "The request body is larger than the limit");
+            }
+            fill();
+            int n = (int) Math.min(Math.min(length, remaining), input.available());
+            count(n);
+            System.arraycopy(input.buffer, input.start, bytes, offset, n);
+            input.start += n;
+            remaining -= n;
+            return n;
+        }
+        while (decoder.dataRemaining() == 0) {
+            if (decoder.isDone()) {
+                return -1;
+            }
+            fill();
+            input.start += decoder.parseFraming(input.buffer, input.start, input.available());
+            if (decoder.hasError()) {
+                throw new RequestBodyException(decoder.getErrorStatus(), decoder.getErrorStatus() == 413
+                        ? "The request body is larger than the limit" : "Malformed chunked request body");
+            }
+        }
+        fill();
+        int n = (int) Math.min(Math.min(length, decoder.dataRemaining()), input.available());
+        count(n);
+        System.arraycopy(input.buffer, input.start, bytes, offset, n);
+        input.start += n;
+        decoder.consumeData(n);
+        return n;
+    }
+
+    private void count(int n) throws RequestBodyException {
+        read += n;
+        if (read > limit) {
+            throw new RequestBodyException(413, "The request body is larger than the limit");
+        }
+    }
+
+    private void fill() throws IOException {
+        if (!input.fill()) {
+            throw new EOFException("The connection was closed before the end of the request body");
+        }
+    }
+
+    /**
+     * Reads and discards the rest of the body.
+     *
+     * @throws IOException If the body is malformed or the connection fails.
+     */
+    public void drain() throws IOException {
+        if (decoder == null) {
+            if (read + remaining > limit) {
+                // Too much to skip for a handler that did not stream the body, the connection is closed instead
+                throw new RequestBodyException(413, "The request body is larger than the limit");
+            }
+            while (remaining > 0) {
+                fill();
+                int n = (int) Math.min(remaining, input.available());
+                input.start += n; // Skip the bytes in the buffer without copying them
+                remaining -= n;
+            }
+            return;
+        }
+        byte[] skipped = new byte[1024];
+        while (read(skipped, 0, skipped.length) != -1) {
+            // Discard the bytes the handler did not read
+        }
+    }
+}
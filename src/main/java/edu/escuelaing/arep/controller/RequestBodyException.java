@@ -0,0 +1,48 @@
+package edu.escuelaing.arep.controller;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request body is malformed or larger than the limit while it is being read.
+ * The server answers it with {@link #getStatus()} and closes the connection.
+ */
+public class RequestBodyException extends IOException {
+
+    private final int status;
+
+    /**
+     * Creates the exception.
+     *
+     * @param status  The status code of the response: 400 or 413.
+     * @param message The detail message.
+     */
+    public RequestBodyException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Retrieves the status code of the response.
+     *
+     * @return 400 for a malformed body, 413 for a body larger than the limit.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Finds a RequestBodyException in the causes of an exception thrown by a handler, which may have
+     * wrapped it (e.g. in an {@link java.io.UncheckedIOException}).
+     *
+     * @param e The exception thrown while handling a request.
+     * @return The RequestBodyException, or null if the exception was not caused by the body.
+     */
+    public static RequestBodyException find(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RequestBodyException bodyException) {
+                return bodyException;
+            }
+        }
+        return null;
+    }
+}
@@ -1,12 +1,17 @@
 package edu.escuelaing.arep.controller;
 
+import edu.escuelaing.arep.server.BlockingChannelOutputStream;
+import edu.escuelaing.arep.server.ServerConfig;
 import edu.escuelaing.arep.server.WebFramework;
-import edu.escuelaing.arep.model.Book;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.net.URLDecoder;
-import java.util.*;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Class responsible for handling HTTP requests from clients.
@@ -14,103 +19,132 @@ import java.util.*;
  */
 public class RequestHandler {
 
+    // Time an idle persistent connection waits for its next request
+    private static final int IDLE_TIMEOUT = ServerConfig.getInt("server.keepalive.timeout", 5000);
+    // Requests served on a persistent connection before it is closed
+    private static final int MAX_REQUESTS_PER_CONNECTION = ServerConfig.getInt("server.keepalive.max.requests", 100);
+    // Maximum size in bytes of a request body
+    private static final int MAX_REQUEST_SIZE = ServerConfig.getInt("server.max.request.size", 1024 * 1024);
+    // Maximum size in bytes of a request body that the handler reads as a stream
+    private static final long MAX_STREAM_SIZE = ServerConfig.getLong("server.max.stream.size", 16L << 30);
+    private static final int BUFFER_SIZE = 8192; // Size of the read buffer of each connection
+
     /**
-     * Handles a client request.
-     * Reads the request, extracts the HTTP method, resource, and query parameters,
-     * and then processes the request based on the HTTP method (GET, POST, DELETE).
+     * Handles the requests of a client connection.
+     * HTTP/1.1 connections are kept open for the next request until the client asks to close them,
+     * they stay idle longer than the idle timeout or they reach the maximum number of requests.
      *
      * @param clientSocket The client socket making the request.
      * @throws IOException If an I/O error occurs while handling the request.
      */
     public static void handleClient(Socket clientSocket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        OutputStream out = clientSocket.getOutputStream();
-
-        String requestLine = in.readLine();
-        if (requestLine == null || requestLine.trim().isEmpty()) {
-            sendBadRequest(out);
+        clientSocket.setSoTimeout(IDLE_TIMEOUT);
+        // Sockets accepted through a channel can send static files without copying them to the heap
+        OutputStream out = clientSocket.getChannel() != null
+                ? new BlockingChannelOutputStream(clientSocket.getChannel())
+                : clientSocket.getOutputStream();
+        try {
+            handleConnection(clientSocket.getInputStream(), out, true);
+        } catch (SocketTimeoutException e) {
+            // The connection was idle for too long, close it
+        } finally {
+            out.close();
             clientSocket.close();
-            return;
         }
+    }
 
-        System.out.println("Solicitud recibida: " + requestLine);
-        String[] requestParts = requestLine.split(" ");
-        if (requestParts.length < 2) {
-            sendBadRequest(out);
-            clientSocket.close();
-            return;
-        }
-        String method = requestParts[0];  // GET, POST, DELETE, etc.
-        String fullResource = requestParts[1]; // /App/hello?name=Pedro
+    /**
+     * Handles the requests read from the input of a connection until it ends or must be closed.
+     * The bytes are read into a buffer that is reused for every request and parsed by a
+     * {@link HttpRequestParser}, which builds the request that is dispatched to {@link WebFramework#handleRequest}.
+     * The body is left on the connection and read lazily through a {@link RequestBody}; whatever the handler
+     * does not read is skipped afterwards.
+     * Pipelined requests stay in the buffer after the previous one, so they are answered in order.
+     * The streams are not closed.
+     *
+     * @param input       The input of the connection.
+     * @param out         The output of the connection.
+     * @param logRequests Whether to log the request line of each request.
+     * @throws IOException If an I/O error occurs while handling the requests.
+     */
+    public static void handleConnection(InputStream input, OutputStream out, boolean logRequests) throws IOException {
+        ConnectionInput in = new ConnectionInput(input, BUFFER_SIZE);
+        HttpRequestParser parser = new HttpRequestParser(MAX_REQUEST_SIZE, true, MAX_STREAM_SIZE);
 
-        String resource = fullResource.split("\\?")[0];
-        Map<String, String> queryParams = new HashMap<>();
-        if (fullResource.contains("?")) {
-            String queryString = fullResource.split("\\?")[1];
-            for (String param : queryString.split("&")) {
-                String[] keyValue = param.split("=");
-                if (keyValue.length == 2) {
-                    queryParams.put(URLDecoder.decode(keyValue[0], "UTF-8"), URLDecoder.decode(keyValue[1], "UTF-8"));
+        int served = 0;
+        boolean keepAlive = true;
+        while (keepAlive) {
+            if (!in.fill()) {
+                // A connection closed before sending anything else is only an error on the first request
+                if (served == 0 || parser.isStarted()) {
+                    sendError(out, 400);
+                }
+                break;
+            }
+            in.start += parser.parse(in.buffer, in.start, in.available());
+            if (parser.hasError()) {
+                sendError(out, parser.getErrorStatus());
+                break;
+            }
+            if (!parser.isComplete()) {
+                continue; // Read the rest of the request
+            }
+            Request req = parser.getRequest();
+            RequestBody body = null;
+            if (parser.isChunked() || parser.getContentLength() > 0) {
+                body = new RequestBody(in, parser.getContentLength(), parser.isChunked(), MAX_REQUEST_SIZE, MAX_STREAM_SIZE);
+                req.setBody(body);
+            }
+            if (logRequests) {
+                System.out.println("Solicitud recibida: " + parser.getRequestLine());
+            }
+            parser.reset();
+            served++;
+            req.setKeepAlive(req.wantsKeepAlive() && served < MAX_REQUESTS_PER_CONNECTION);
+            try {
+                WebFramework.handleRequest(req, out);
+            } catch (IOException | RuntimeException e) {
+                RequestBodyException bodyError = RequestBodyException.find(e);
+                if (bodyError == null) {
+                    throw e;
+                }
+                sendError(out, bodyError.getStatus()); // The handler failed reading the body
+                break;
+            }
+            keepAlive = req.isKeepAlive(); // A streamed response may have to close the connection
+            if (keepAlive && body != null) {
+                try {
+                    body.drain(); // The next request starts after the body
+                } catch (RequestBodyException e) {
+                    break; // The response is already sent, just close the connection
                 }
             }
         }
-
-        HashMap<String, String> headers = readHeaders(in, out);
-        if (headers == null) {
-            clientSocket.close();
-            return;
-        }
-
-        int contentLength = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
-        StringBuilder body = new StringBuilder();
-        if (contentLength > 0) {
-            char[] buffer = new char[contentLength];
-            in.read(buffer, 0, contentLength);
-            body.append(buffer);
-        }
-
-        WebFramework.handleRequest(method, resource, queryParams, body.toString(), out);
-
-        out.close();
-        in.close();
-        clientSocket.close();
     }
 
     /**
-     * Reads the headers of the request.
+     * Parses a URL query string (e.g. "name=Pedro&age=20") into a map of decoded parameters.
      *
-     * @param in The input stream of the request.
-     * @param out The output stream to send the response.
-     * @return A map of key-value headers.
-     * @throws IOException If an I/O error occurs.
+     * @param queryString The query string, without the leading '?'.
+     * @return A map with the decoded parameter names and values.
      */
-    private static HashMap<String, String> readHeaders(BufferedReader in, OutputStream out) throws IOException {
-        HashMap<String, String> headers = new HashMap<>();
-        String line;
-        while (!(line = in.readLine()).isEmpty()) {
-            String[] headerParts = line.split(": ", 2);
-            if (headerParts.length == 2) {
-                headers.put(headerParts[0], headerParts[1]);
-            } else {
-                sendBadRequest(out);
-                return null;
-            }
-        }
-        return headers;
+    public static Map<String, String> parseQueryParams(String queryString) {
+        Map<String, String> queryParams = new HashMap<>();
+        byte[] bytes = queryString.getBytes(StandardCharsets.UTF_8);
+        HttpRequestParser.parseQuery(bytes, 0, bytes.length, queryParams);
+        return queryParams;
     }
 
     /**
-     * Sends an HTTP 400 Bad Request response.
+     * Sends the response to a rejected request: 400 Bad Request, 413 Payload Too Large, 414 URI Too Long,
+     * 431 Request Header Fields Too Large or 501 Not Implemented. The connection is closed afterwards.
      *
-     * @param out The output stream to send the response.
+     * @param out    The output stream to send the response.
+     * @param status The status code of the response.
      * @throws IOException If an I/O error occurs.
      */
-    private static void sendBadRequest(OutputStream out) throws IOException {
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                "Content-Type: text/plain\r\n" +
-                "\r\n" +
-                "400 Bad Request";
-        out.write(response.getBytes());
+    private static void sendError(OutputStream out, int status) throws IOException {
+        out.write(HttpRequestParser.errorResponse(status));
     }
 
 }
@@ -1,20 +1,165 @@
 package edu.escuelaing.arep.controller;
 
+import edu.escuelaing.arep.server.ChunkedOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Represents an HTTP response.
  * This class allows setting and retrieving the content type of the response.
+ * A handler can return its whole body as a string, hand over bytes it has already encoded with
+ * {@link #setBody(byte[])}, or stream it through {@link #getOutputStream()} or {@link #getWriter()}, which send
+ * it with {@code Transfer-Encoding: chunked} as it is written. The status code and extra headers apply to the
+ * first two forms.
  */
 public class Response {
 
+    private static final byte[] STATUS_200 = "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
     private String contentType = "text/plain";
+    private boolean contentTypeSet;
+    private int status = 200;
+    private String[] headers; // Names and values of the extra headers, one after the other
+    private int headerCount;
+    private byte[] content; // Body set as bytes
+    private final Request request;
+    private final OutputStream connection;
+    private ChunkedOutputStream body;
+    private Writer writer;
+
+    /**
+     * Creates a response that is not bound to a connection, so it cannot be streamed.
+     */
+    public Response() {
+        this(null, null);
+    }
+
+    /**
+     * Creates the response to a request read from a connection.
+     *
+     * @param request    The request being answered.
+     * @param connection The output stream of the connection.
+     */
+    public Response(Request request, OutputStream connection) {
+        this.request = request;
+        this.connection = connection;
+    }
 
     /**
      * Sets the content type of the HTTP response.
+     * A streamed response must set it before writing the body.
      *
      * @param contentType The content type to set.
      */
     public void setContentType(String contentType) {
         this.contentType = contentType;
+        this.contentTypeSet = true;
+    }
+
+    /**
+     * Indicates whether the handler chose the content type. A body returned as a string is sent as
+     * application/json unless it did.
+     *
+     * @return true if {@link #setContentType(String)} was called.
+     */
+    public boolean isContentTypeSet() {
+        return contentTypeSet;
+    }
+
+    /**
+     * Sets the status code of the response, 200 by default. A 204 or 304 response is sent without a body.
+     *
+     * @param status The status code.
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    /**
+     * Retrieves the status code of the response.
+     *
+     * @return The status code.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets an extra header of the response, replacing a previous value of the same header.
+     * Content-Type, Content-Length and Connection are set by the framework.
+     *
+     * @param name  The name of the header.
+     * @param value The value of the header.
+     */
+    public void setHeader(String name, String value) {
+        for (int i = 0; i < headerCount; i++) {
+            if (headers[2 * i].equalsIgnoreCase(name)) {
+                headers[2 * i + 1] = value;
+                return;
+            }
+        }
+        if (headers == null) {
+            headers = new String[8];
+        } else if (headers.length == 2 * headerCount) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        headers[2 * headerCount] = name;
+        headers[2 * headerCount + 1] = value;
+        headerCount++;
+    }
+
+    /**
+     * Retrieves the number of extra headers.
+     *
+     * @return The number of headers set with {@link #setHeader(String, String)}.
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Retrieves the name of an extra header.
+     *
+     * @param index The index of the header, below {@link #getHeaderCount()}.
+     * @return The name of the header.
+     */
+    public String getHeaderName(int index) {
+        return headers[2 * index];
+    }
+
+    /**
+     * Retrieves the value of an extra header.
+     *
+     * @param index The index of the header, below {@link #getHeaderCount()}.
+     * @return The value of the header.
+     */
+    public String getHeaderValue(int index) {
+        return headers[2 * index + 1];
+    }
+
+    /**
+     * Sets the body as bytes that are already encoded, e.g. a cached representation. The array is sent as it
+     * is, without being copied, so it must not be modified afterwards; the value returned by the handler is
+     * then ignored.
+     *
+     * @param body The bytes of the body.
+     */
+    public void setBody(byte[] body) {
+        this.content = body;
+    }
+
+    /**
+     * Retrieves the body set with {@link #setBody(byte[])}.
+     *
+     * @return The bytes of the body, or null if the handler did not set them.
+     */
+    public byte[] getBody() {
+        return content;
     }
 
     /**
@@ -25,4 +170,61 @@ public class Response {
     public String getContentType() {
         return contentType;
     }
+
+    /**
+     * Starts streaming the body of the response. The bytes are sent in chunks of
+     * {@code server.chunk.flush.threshold} bytes, or sooner when the stream is flushed;
+     * the value returned by the handler is then ignored.
+     *
+     * @return The stream of the body.
+     * @throws IllegalStateException If the response is not bound to a connection.
+     */
+    public OutputStream getOutputStream() {
+        if (body == null) {
+            if (connection == null) {
+                throw new IllegalStateException("The response is not bound to a connection");
+            }
+            // HTTP/1.0 clients do not understand chunked bodies, the end of the body is marked by closing the connection
+            boolean chunked = !"HTTP/1.0".equals(request.getProtocol());
+            body = new ChunkedOutputStream(connection, STATUS_200, this::getContentType,
+                    chunked, request.isKeepAlive(), ChunkedOutputStream.FLUSH_THRESHOLD);
+            request.setKeepAlive(body.isKeepAlive());
+        }
+        return body;
+    }
+
+    /**
+     * Starts streaming the body of the response as UTF-8 text. See {@link #getOutputStream()}.
+     *
+     * @return The writer of the body.
+     * @throws IllegalStateException If the response is not bound to a connection.
+     */
+    public Writer getWriter() {
+        if (writer == null) {
+            writer = new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8);
+        }
+        return writer;
+    }
+
+    /**
+     * Indicates whether the handler streamed the body.
+     *
+     * @return true if {@link #getOutputStream()} or {@link #getWriter()} was called.
+     */
+    public boolean isStreaming() {
+        return body != null;
+    }
+
+    /**
+     * Sends the rest of a streamed body and its last chunk. The connection is not closed.
+     *
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            writer.close();
+        } else if (body != null) {
+            body.close();
+        }
+    }
 }
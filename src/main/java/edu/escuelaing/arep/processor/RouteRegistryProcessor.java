@@ -0,0 +1,211 @@
+package edu.escuelaing.arep.processor;
+
+import edu.escuelaing.arep.annotations.DeleteMapping;
+import edu.escuelaing.arep.annotations.GetMapping;
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.PostMapping;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.RestController;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Annotation processor that generates the route table of the application at compile time.
+ * For every class annotated with @RestController it reads the methods annotated with @GetMapping, @PostMapping
+ * and @DeleteMapping and the @RequestParam and @PathVariable annotations of their parameters, and writes a
+ * {@value #REGISTRY_NAME} class whose {@code register()} method creates each controller once and registers a
+ * lambda per route that calls the method directly. At startup {@link edu.escuelaing.arep.Application} loads that
+ * class instead of scanning the controller package and reading the annotations by reflection.
+ *
+ * <p>Mapped methods and controller classes must be public, and controllers need a public no-argument
+ * constructor; otherwise the build fails with an error on the offending element.</p>
+ */
+@SupportedAnnotationTypes("edu.escuelaing.arep.annotations.RestController")
+public class RouteRegistryProcessor extends AbstractProcessor {
+
+    public static final String REGISTRY_NAME = "edu.escuelaing.arep.RouteRegistry";
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || annotations.isEmpty()) {
+            return false;
+        }
+        List<TypeElement> controllers = new ArrayList<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(RestController.class)) {
+            if (element.getKind() == ElementKind.CLASS && isInstantiable((TypeElement) element)) {
+                controllers.add((TypeElement) element);
+            }
+        }
+        StringBuilder source = new StringBuilder();
+        int packageEnd = REGISTRY_NAME.lastIndexOf('.');
+        source.append("package ").append(REGISTRY_NAME, 0, packageEnd).append(";\n\n")
+                .append("import edu.escuelaing.arep.server.WebFramework;\n\n")
+                .append("/**\n * Route table generated by ").append(RouteRegistryProcessor.class.getSimpleName())
+                .append(". Do not edit.\n */\n")
+                .append("public final class ").append(REGISTRY_NAME.substring(packageEnd + 1)).append(" {\n\n")
+                .append("    /**\n     * Creates the controllers and registers their routes.\n     *\n")
+                .append("     * @return The number of routes registered.\n     */\n")
+                .append("    public static int register() {\n");
+        int routes = 0;
+        for (int c = 0; c < controllers.size(); c++) {
+            TypeElement controller = controllers.get(c);
+            String variable = "controller" + c;
+            source.append("        ").append(controller.getQualifiedName()).append(' ').append(variable)
+                    .append(" = new ").append(controller.getQualifiedName()).append("();\n");
+            for (ExecutableElement method : ElementFilter.methodsIn(controller.getEnclosedElements())) {
+                String route = route(method);
+                if (route == null) {
+                    continue;
+                }
+                if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+                    error(method, "A mapped method must be public and not static");
+                    continue;
+                }
+                source.append("        WebFramework.").append(route).append(", (req, res) -> ");
+                appendCall(source, variable, method);
+                source.append(");\n");
+                routes++;
+            }
+        }
+        source.append("        return ").append(routes).append(";\n    }\n}\n");
+        try (Writer writer = processingEnv.getFiler().createSourceFile(REGISTRY_NAME, controllers.toArray(new Element[0])).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + REGISTRY_NAME + ": " + e);
+        }
+        generated = true;
+        return false;
+    }
+
+    /**
+     * Builds the start of the registration call of a method, e.g. {@code get("/greeting"}.
+     *
+     * @return The call, or null if the method is not mapped.
+     */
+    private static String route(ExecutableElement method) {
+        if (method.getAnnotation(GetMapping.class) != null) {
+            return "get(" + literal(method.getAnnotation(GetMapping.class).value());
+        } else if (method.getAnnotation(PostMapping.class) != null) {
+            return "post(" + literal(method.getAnnotation(PostMapping.class).value());
+        } else if (method.getAnnotation(DeleteMapping.class) != null) {
+            return "delete(" + literal(method.getAnnotation(DeleteMapping.class).value());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the body of the handler lambda: the call with its arguments resolved from the request, the
+     * conversion of the result into a String and, if the method throws checked exceptions, their wrapping.
+     */
+    private void appendCall(StringBuilder source, String variable, ExecutableElement method) {
+        StringBuilder call = new StringBuilder(variable).append('.').append(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append(argument(parameters.get(i)));
+        }
+        call.append(')');
+
+        String statement;
+        if (method.getReturnType().getKind() == TypeKind.VOID) {
+            statement = call + "; return null;";
+        } else if (method.getReturnType().toString().equals("java.lang.String")) {
+            statement = "return " + call + ";";
+        } else {
+            statement = "return java.util.Objects.toString(" + call + ", null);";
+        }
+        if (method.getThrownTypes().isEmpty()) {
+            source.append("{ ").append(statement).append(" }");
+        } else {
+            source.append("{\n            try {\n                ").append(statement).append("\n            }")
+                    .append(" catch (RuntimeException e) {\n                throw e;\n            }")
+                    .append(" catch (Exception e) {\n                throw new RuntimeException(\"Error invoking method\", e);\n            }")
+                    .append("\n        }");
+        }
+    }
+
+    private static String argument(VariableElement parameter) {
+        RequestParam requestParam = parameter.getAnnotation(RequestParam.class);
+        if (requestParam != null) {
+            return "req.getQueryParams().getOrDefault(" + literal(requestParam.value()) + ", "
+                    + literal(requestParam.defaultValue()) + ")";
+        }
+        PathVariable pathVariable = parameter.getAnnotation(PathVariable.class);
+        if (pathVariable != null) {
+            return "req.getPathVariable(" + literal(pathVariable.value()) + ")";
+        }
+        String type = parameter.asType().toString();
+        if (type.equals("edu.escuelaing.arep.controller.Request")) {
+            return "req";
+        } else if (type.equals("edu.escuelaing.arep.controller.Response")) {
+            return "res";
+        }
+        return parameter.asType().getKind().isPrimitive() ? "(" + type + ") 0" : "(" + type + ") null";
+    }
+
+    private boolean isInstantiable(TypeElement controller) {
+        boolean publicConstructor = ElementFilter.constructorsIn(controller.getEnclosedElements()).stream()
+                .anyMatch(constructor -> constructor.getParameters().isEmpty()
+                        && constructor.getModifiers().contains(Modifier.PUBLIC));
+        if (!controller.getModifiers().contains(Modifier.PUBLIC) || controller.getModifiers().contains(Modifier.ABSTRACT)
+                || !publicConstructor || controller.getNestingKind().isNested() && !controller.getModifiers().contains(Modifier.STATIC)) {
+            error(controller, "A @RestController must be a public concrete class with a public no-argument constructor");
+            return false;
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Writes a string as a Java literal.
+     */
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> literal.append("\\\"");
+                case '\\' -> literal.append("\\\\");
+                case '\n' -> literal.append("\\n");
+                case '\r' -> literal.append("\\r");
+                default -> {
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+                }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
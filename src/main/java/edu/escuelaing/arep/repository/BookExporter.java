@@ -0,0 +1,124 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes books as NDJSON or CSV records, in the formats read by {@link BookImporter}, so an export can be
+ * imported again as it is.
+ *
+ * <p>The books are written one by one as they are iterated, so the memory used does not depend on the number
+ * of books. Given {@link BookStore#books()}, whose iterator is weakly consistent, the export neither locks
+ * the catalog nor copies it: writes made meanwhile go on, and the export includes some of them.</p>
+ * <ul>
+ *     <li>NDJSON: one {@code {"title": ..., "author": ...}} object per line, with quotes, backslashes and
+ *     control characters escaped.</li>
+ *     <li>CSV (RFC 4180): a {@code title,author} header and one row per book. A field with a comma, a quote
+ *     or a line break is written between quotes, with its quotes written twice. Rows end in CRLF.</li>
+ * </ul>
+ */
+public final class BookExporter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BookExporter() {
+    }
+
+    /**
+     * Writes books in a format. The writer is neither flushed nor closed.
+     *
+     * @param books  The books to write.
+     * @param format The format of the records.
+     * @param out    The writer where the records are written.
+     * @return The number of books written.
+     * @throws IOException If an error occurs while writing.
+     */
+    public static long export(Iterable<Book> books, BookImporter.Format format, Writer out) throws IOException {
+        long written = 0;
+        if (format == BookImporter.Format.CSV) {
+            out.write("title,author\r\n");
+            for (Book book : books) {
+                writeCsv(out, book.getTitle());
+                out.write(',');
+                writeCsv(out, book.getAuthor());
+                out.write("\r\n");
+                written++;
+            }
+        } else {
+            for (Book book : books) {
+                out.write("{\"title\": \"");
+                out.write(escapeJson(book.getTitle()));
+                out.write("\", \"author\": \"");
+                out.write(escapeJson(book.getAuthor()));
+                out.write("\"}\n");
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Escapes a text for a JSON string: quotes, backslashes and control characters. A text with nothing to
+     * escape, the usual case, is returned as it is without copying it.
+     *
+     * @param text The text to escape.
+     * @return The text to write between the quotes of a JSON string.
+     */
+    public static String escapeJson(String text) {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                break;
+            }
+            i++;
+        }
+        if (i == text.length()) {
+            return text;
+        }
+        StringBuilder escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                case '\b' -> escaped.append("\\b");
+                case '\f' -> escaped.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void writeCsv(Writer out, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        int from = 0;
+        for (int i = field.indexOf('"'); i >= 0; i = field.indexOf('"', i + 1)) {
+            out.write(field, from, i + 1 - from);
+            out.write('"');
+            from = i + 1;
+        }
+        out.write(field, from, field.length() - from);
+        out.write('"');
+    }
+}
@@ -0,0 +1,542 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports books into a {@link BookStore} from a stream of NDJSON or CSV records.
+ *
+ * <p>The stream is read into one fixed buffer and parsed record by record as it arrives, so the memory used
+ * does not depend on the size of the import. The books are added in batches with {@link BookStore#addAll},
+ * and the next bytes are only read once the previous batch is in the catalog: an import goes as fast as the
+ * catalog takes the books, and a client that sends faster is held back by the connection.</p>
+ *
+ * <p>A record that cannot be imported is counted and reported with its line number, and the import goes on
+ * with the next one.</p>
+ * <ul>
+ *     <li>NDJSON: one JSON object per line, with the string fields {@code title} and {@code author}; other
+ *     fields are ignored.</li>
+ *     <li>CSV (RFC 4180): fields separated by commas, optionally between double quotes, where a quote is
+ *     written twice and line breaks are allowed. If the first record names a {@code title} and an
+ *     {@code author} column it is the header; otherwise the columns are title and author, in that order.</li>
+ * </ul>
+ * Blank lines are skipped in both formats.
+ */
+public class BookImporter {
+
+    // Records whose error is reported; the rest are only counted
+    public static final int MAX_REPORTED_ERRORS = 100;
+    // Longest record, in bytes; longer records are rejected without being buffered
+    static final int MAX_RECORD = 64 * 1024;
+
+    private final BookStore store;
+    private final Format format;
+    private final int batchSize;
+
+    private final List<Book> batch;
+    private final List<LineError> errors = new ArrayList<>();
+    private long records;
+    private long imported;
+    private long duplicates;
+    private long rejected;
+    private long start; // Time the import started, in nanoseconds
+    // Columns of the CSV header, found in the first record
+    private int titleColumn = -1;
+    private int authorColumn = -1;
+
+    /**
+     * Format of the records of an import.
+     */
+    public enum Format {
+        NDJSON, CSV;
+
+        /**
+         * Parses the name of a format: "ndjson" (or "jsonl") or "csv", ignoring case.
+         *
+         * @param name The name of the format.
+         * @return The format.
+         * @throws IllegalArgumentException If the name is not one of the above.
+         */
+        public static Format parse(String name) {
+            return switch (name.toLowerCase()) {
+                case "ndjson", "jsonl" -> NDJSON;
+                case "csv" -> CSV;
+                default -> throw new IllegalArgumentException("Unknown import format: " + name);
+            };
+        }
+
+        /**
+         * Chooses the format of a body from its content type: CSV for {@code text/csv}, NDJSON otherwise.
+         *
+         * @param contentType The content type of the body, or null.
+         * @return The format.
+         */
+        public static Format of(String contentType) {
+            return contentType != null && contentType.toLowerCase().contains("csv") ? CSV : NDJSON;
+        }
+    }
+
+    /**
+     * A record that could not be imported.
+     *
+     * @param line    The line where the record starts, from 1.
+     * @param message Why it was rejected.
+     */
+    public record LineError(long line, String message) {
+    }
+
+    /**
+     * Outcome of an import.
+     *
+     * @param records    The records read, without blank lines or the CSV header.
+     * @param imported   The books added to the catalog.
+     * @param duplicates The books skipped because they were already in the catalog.
+     * @param rejected   The records that could not be imported.
+     * @param errors     The first {@link #MAX_REPORTED_ERRORS} rejected records.
+     * @param millis     The time the import took, in milliseconds.
+     */
+    public record Summary(long records, long imported, long duplicates, long rejected, List<LineError> errors, long millis) {
+    }
+
+    /**
+     * Record that cannot be imported. It carries no stack trace, since it is expected.
+     */
+    private static final class BadRecord extends Exception {
+        BadRecord(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Creates an import into a catalog.
+     *
+     * @param store     The catalog.
+     * @param format    The format of the records.
+     * @param batchSize The number of books added to the catalog at once.
+     */
+    public BookImporter(BookStore store, Format format, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.store = store;
+        this.format = format;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Reads every record of a stream and imports its books. If the stream fails, the books of the records
+     * read before are kept in the catalog and counted in {@link #summary()}.
+     *
+     * @param in The stream of records, encoded as UTF-8.
+     * @return The outcome of the import.
+     * @throws IOException If the stream cannot be read.
+     */
+    public Summary importFrom(InputStream in) throws IOException {
+        start = System.nanoTime();
+        try {
+            readRecords(in);
+        } finally {
+            flush();
+        }
+        return summary();
+    }
+
+    /**
+     * Retrieves the outcome of the import so far.
+     *
+     * @return The records imported and rejected until now.
+     */
+    public Summary summary() {
+        return new Summary(records, imported, duplicates, rejected, List.copyOf(errors), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void readRecords(InputStream in) throws IOException {
+        byte[] buffer = new byte[MAX_RECORD];
+        int begin = 0; // Start of the current record
+        int end = 0; // End of the bytes read
+        int scanned = 0; // Bytes of the current record already searched for its end
+        boolean quoted = false; // Whether the scan is inside a CSV quoted field
+        boolean skipping = false; // Whether the current record is too long and is being discarded
+        long line = 1; // Line of the current record
+        long lines = 0; // Line breaks within the current record
+        boolean first = true;
+        while (true) {
+            // Finds the line break that ends the current record
+            int lineEnd = -1;
+            for (int i = scanned; i < end; i++) {
+                byte b = buffer[i];
+                if (b == '"' && format == Format.CSV && !skipping) {
+                    quoted = !quoted;
+                } else if (b == '\n') {
+                    if (!quoted) {
+                        lineEnd = i;
+                        break;
+                    }
+                    lines++;
+                }
+            }
+            if (lineEnd >= 0) {
+                if (skipping) {
+                    skipping = false;
+                } else {
+                    int from = first ? skipByteOrderMark(buffer, begin, lineEnd) : begin;
+                    first = false;
+                    record(buffer, from, lineEnd > from && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd, line);
+                }
+                line += lines + 1;
+                lines = 0;
+                begin = lineEnd + 1;
+                scanned = begin;
+                continue;
+            }
+            scanned = end;
+            if (begin > 0) {
+                // Moves the start of the record to the start of the buffer, to read the rest after it
+                System.arraycopy(buffer, begin, buffer, 0, end - begin);
+                end -= begin;
+                scanned -= begin;
+                begin = 0;
+            }
+            if (end == buffer.length) {
+                // The record does not fit in the buffer: it is rejected and the rest of it discarded
+                if (!skipping) {
+                    reject(line, "El registro ocupa más de " + MAX_RECORD + " bytes");
+                }
+                skipping = true;
+                quoted = false;
+                first = false;
+                end = 0;
+                scanned = 0;
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                break;
+            }
+            end += read;
+        }
+        if (!skipping && begin < end) {
+            if (quoted) {
+                reject(line, "Comillas sin cerrar al final de los datos");
+            } else {
+                int from = first ? skipByteOrderMark(buffer, begin, end) : begin;
+                record(buffer, from, end > from && buffer[end - 1] == '\r' ? end - 1 : end, line);
+            }
+        }
+    }
+
+    private void record(byte[] bytes, int from, int to, long line) {
+        if (isBlank(bytes, from, to)) {
+            return;
+        }
+        Book book;
+        try {
+            if (format == Format.NDJSON) {
+                book = parseJson(bytes, from, to);
+            } else {
+                List<String> fields = parseCsv(bytes, from, to);
+                if (titleColumn < 0) {
+                    if (findHeader(fields)) {
+                        return;
+                    }
+                    titleColumn = 0;
+                    authorColumn = 1;
+                }
+                if (fields.size() <= Math.max(titleColumn, authorColumn)) {
+                    throw new BadRecord("Faltan columnas: se esperaban el título y el autor");
+                }
+                book = new Book(fields.get(titleColumn), fields.get(authorColumn));
+            }
+            if (book.getTitle().isBlank() || book.getAuthor().isBlank()) {
+                throw new BadRecord("El título y el autor no pueden estar vacíos");
+            }
+        } catch (BadRecord e) {
+            records++;
+            reject(line, e.getMessage());
+            return;
+        }
+        records++;
+        batch.add(book);
+        if (batch.size() == batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!batch.isEmpty()) {
+            int added = store.addAll(batch);
+            imported += added;
+            duplicates += batch.size() - added;
+            batch.clear();
+        }
+    }
+
+    private void reject(long line, String message) {
+        rejected++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new LineError(line, message));
+        }
+    }
+
+    /**
+     * Takes the first CSV record as the header if it names the title and author columns.
+     */
+    private boolean findHeader(List<String> fields) {
+        int title = -1;
+        int author = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.get(i).trim().toLowerCase();
+            if (name.equals("title") && title < 0) {
+                title = i;
+            } else if (name.equals("author") && author < 0) {
+                author = i;
+            }
+        }
+        if (title < 0 || author < 0) {
+            return false;
+        }
+        titleColumn = title;
+        authorColumn = author;
+        return true;
+    }
+
+    // NDJSON
+
+    /**
+     * Parses a JSON object and takes its title and author. The values of other fields are skipped.
+     */
+    private static Book parseJson(byte[] bytes, int from, int to) throws BadRecord {
+        int[] at = {skipSpaces(bytes, from, to)};
+        expect(bytes, at, to, '{');
+        String title = null;
+        String author = null;
+        at[0] = skipSpaces(bytes, at[0], to);
+        if (at[0] < to && bytes[at[0]] == '}') {
+            at[0]++;
+        } else {
+            while (true) {
+                at[0] = skipSpaces(bytes, at[0], to);
+                expect(bytes, at, to, '"');
+                String name = parseString(bytes, at, to);
+                at[0] = skipSpaces(bytes, at[0], to);
+                expect(bytes, at, to, ':');
+                at[0] = skipSpaces(bytes, at[0], to);
+                boolean wanted = name.equals("title") || name.equals("author");
+                if (wanted) {
+                    if (at[0] >= to || bytes[at[0]] != '"') {
+                        throw new BadRecord("El campo " + name + " debe ser una cadena");
+                    }
+                    at[0]++;
+                    String value = parseString(bytes, at, to);
+                    if (name.equals("title")) {
+                        title = value;
+                    } else {
+                        author = value;
+                    }
+                } else {
+                    skipValue(bytes, at, to);
+                }
+                at[0] = skipSpaces(bytes, at[0], to);
+                if (at[0] < to && bytes[at[0]] == ',') {
+                    at[0]++;
+                    continue;
+                }
+                expect(bytes, at, to, '}');
+                break;
+            }
+        }
+        if (skipSpaces(bytes, at[0], to) != to) {
+            throw new BadRecord("JSON no válido: hay datos después del objeto");
+        }
+        if (title == null || author == null) {
+            throw new BadRecord("Faltan los campos title y author");
+        }
+        return new Book(title, author);
+    }
+
+    /**
+     * Parses the rest of a JSON string, after its opening quote, and moves past its closing quote.
+     */
+    private static String parseString(byte[] bytes, int[] at, int to) throws BadRecord {
+        int start = at[0];
+        int i = start;
+        // Fast path: a string without escapes is decoded at once
+        while (i < to && bytes[i] != '"' && bytes[i] != '\\' && (bytes[i] & 0xff) >= 0x20) {
+            i++;
+        }
+        if (i < to && bytes[i] == '"') {
+            at[0] = i + 1;
+            return new String(bytes, start, i - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder text = new StringBuilder(i - start + 16);
+        int segment = start; // Start of the bytes not yet decoded
+        while (i < to) {
+            byte b = bytes[i];
+            if (b == '"') {
+                text.append(new String(bytes, segment, i - segment, StandardCharsets.UTF_8));
+                at[0] = i + 1;
+                return text.toString();
+            }
+            if ((b & 0xff) < 0x20) {
+                throw new BadRecord("JSON no válido: carácter de control en una cadena");
+            }
+            if (b != '\\') {
+                i++;
+                continue;
+            }
+            text.append(new String(bytes, segment, i - segment, StandardCharsets.UTF_8));
+            if (i + 1 >= to) {
+                break;
+            }
+            char escaped = (char) bytes[i + 1];
+            i += 2;
+            switch (escaped) {
+                case '"', '\\', '/' -> text.append(escaped);
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    if (i + 4 > to) {
+                        throw new BadRecord("JSON no válido: escape unicode incompleto");
+                    }
+                    int code = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int digit = Character.digit(bytes[i + k], 16);
+                        if (digit < 0) {
+                            throw new BadRecord("JSON no válido: escape unicode incompleto");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    i += 4;
+                }
+                default -> throw new BadRecord("JSON no válido: escape desconocido");
+            }
+            segment = i;
+        }
+        throw new BadRecord("JSON no válido: cadena sin cerrar");
+    }
+
+    /**
+     * Skips a JSON value of a field that is not imported: a string, a number, a literal, or an object or array
+     * with anything inside.
+     */
+    private static void skipValue(byte[] bytes, int[] at, int to) throws BadRecord {
+        if (at[0] >= to) {
+            throw new BadRecord("JSON no válido: falta un valor");
+        }
+        byte b = bytes[at[0]];
+        if (b == '"') {
+            at[0]++;
+            parseString(bytes, at, to);
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            while (at[0] < to) {
+                byte c = bytes[at[0]++];
+                if (c == '"') {
+                    parseString(bytes, at, to);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return;
+                }
+            }
+            throw new BadRecord("JSON no válido: objeto sin cerrar");
+        } else {
+            int start = at[0];
+            while (at[0] < to && bytes[at[0]] != ',' && bytes[at[0]] != '}' && !isSpace(bytes[at[0]])) {
+                at[0]++;
+            }
+            if (at[0] == start) {
+                throw new BadRecord("JSON no válido: falta un valor");
+            }
+        }
+    }
+
+    private static void expect(byte[] bytes, int[] at, int to, char expected) throws BadRecord {
+        if (at[0] >= to || bytes[at[0]] != expected) {
+            throw new BadRecord("JSON no válido: se esperaba '" + expected + "'");
+        }
+        at[0]++;
+    }
+
+    // CSV
+
+    /**
+     * Splits a CSV record into its fields, removing the quotes.
+     */
+    private static List<String> parseCsv(byte[] bytes, int from, int to) throws BadRecord {
+        List<String> fields = new ArrayList<>(4);
+        int i = from;
+        while (true) {
+            if (i < to && bytes[i] == '"') {
+                // Quoted field: runs to the next quote that is not doubled
+                StringBuilder field = null;
+                int segment = ++i;
+                while (true) {
+                    if (i >= to) {
+                        throw new BadRecord("Comillas sin cerrar");
+                    }
+                    if (bytes[i] == '"') {
+                        if (i + 1 < to && bytes[i + 1] == '"') {
+                            field = (field == null ? new StringBuilder() : field)
+                                    .append(new String(bytes, segment, i + 1 - segment, StandardCharsets.UTF_8));
+                            i += 2;
+                            segment = i;
+                            continue;
+                        }
+                        String last = new String(bytes, segment, i - segment, StandardCharsets.UTF_8);
+                        fields.add(field == null ? last : field.append(last).toString());
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+                if (i < to && bytes[i] != ',') {
+                    throw new BadRecord("CSV no válido: texto después de un campo entre comillas");
+                }
+            } else {
+                int start = i;
+                while (i < to && bytes[i] != ',') {
+                    if (bytes[i] == '"') {
+                        throw new BadRecord("CSV no válido: comillas dentro de un campo sin comillas");
+                    }
+                    i++;
+                }
+                fields.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            }
+            if (i >= to) {
+                return fields;
+            }
+            i++; // Comma
+        }
+    }
+
+    private static int skipByteOrderMark(byte[] bytes, int from, int to) {
+        boolean mark = to - from >= 3 && (bytes[from] & 0xff) == 0xef && (bytes[from + 1] & 0xff) == 0xbb
+                && (bytes[from + 2] & 0xff) == 0xbf;
+        return mark ? from + 3 : from;
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        return skipSpaces(bytes, from, to) == to;
+    }
+
+    private static int skipSpaces(byte[] bytes, int from, int to) {
+        while (from < to && isSpace(bytes[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,468 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal that makes a {@link BookStore} survive restarts.
+ *
+ * <p>Every add and delete is appended, while the store holds its write lock, to a log segment mapped into
+ * memory, so a write costs a few memory copies and the record is safe from a crash of the process as soon as
+ * it is written. A background thread forces the mapped pages to disk every {@code flush.ms}, committing
+ * every record written meanwhile at once; in synchronous mode a write also waits for the flush that covers
+ * it, and the writes that arrive meanwhile share that flush. Each record carries its length and a CRC32, so a
+ * record torn by a crash is detected and dropped on recovery.</p>
+ *
+ * <p>Another background thread writes a snapshot of the catalog every {@code snapshot.interval.ms} if it
+ * changed, and deletes the segments it covers. The snapshot records the journal position taken before it
+ * starts reading the catalog; since adds and deletes can be replayed over a catalog that already has them,
+ * the snapshot does not need to stop the writers. Recovery loads the snapshot and replays the log from that
+ * position.</p>
+ *
+ * <p>Files: {@code snapshot.dat} and {@code journal-<sequence>.log}, in the store directory.</p>
+ */
+public class BookJournal implements AutoCloseable {
+
+    private static final int SNAPSHOT_MAGIC = 0x424b5331; // "BKS1"
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_HEADER = 8; // Length and CRC of the payload
+    private static final int MAX_RECORD = 1 << 20;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final boolean sync;
+    private final long flushMillis;
+
+    // Guarded by this
+    private MappedByteBuffer segment;
+    private long sequence;
+    private int offset;
+    private long requested; // Highest position a synchronous writer waits for
+    private boolean closed;
+
+    private volatile long durable; // Position up to which the log is forced to disk
+    private long snapshotPosition = -1; // Position of the last snapshot; guarded by snapshotLock
+    private final Object snapshotLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private ScheduledExecutorService snapshots;
+
+    private BookJournal(Path dir, int segmentSize, boolean sync, long flushMillis) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.flushMillis = flushMillis;
+        this.flusher = new Thread(this::flushLoop, "book-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Recovers the catalog stored in a directory and starts journaling its changes.
+     *
+     * @param dir              The directory of the snapshot and the log, created if it does not exist.
+     * @param segmentSize      The size of each log segment, in bytes.
+     * @param sync             Whether a write waits until its record is forced to disk.
+     * @param flushMillis      The maximum time between two flushes of the log.
+     * @param snapshotInterval The time between two snapshots, in milliseconds; 0 disables them.
+     * @return The recovered catalog, whose changes are journaled from now on.
+     * @throws IOException If the directory cannot be read or written.
+     */
+    public static BookStore open(Path dir, int segmentSize, boolean sync, long flushMillis, long snapshotInterval) throws IOException {
+        return open(dir, segmentSize, sync, flushMillis, snapshotInterval, false);
+    }
+
+    /**
+     * Opens the catalog stored in a directory, as {@link #open(Path, int, boolean, long, long)}, into a compact
+     * catalog if requested (see {@link CompactBooks}).
+     *
+     * @param compact Whether the recovered catalog is compact.
+     * @return The recovered catalog, whose changes are journaled from now on.
+     * @throws IOException If the directory cannot be read or written.
+     */
+    public static BookStore open(Path dir, int segmentSize, boolean sync, long flushMillis, long snapshotInterval,
+                                 boolean compact) throws IOException {
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+        BookJournal journal = new BookJournal(dir, segmentSize, sync, flushMillis);
+        List<Book> snapshot = new ArrayList<>();
+        long position = journal.loadSnapshot(snapshot);
+        BookStore store = new BookStore(snapshot, compact);
+        int loaded = store.size();
+        long replayed = journal.replay(store, position);
+        store.attach(journal);
+        journal.flusher.start();
+        if (snapshotInterval > 0) {
+            journal.snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "book-journal-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journal.snapshots.scheduleWithFixedDelay(() -> {
+                try {
+                    journal.snapshot(store);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("No se pudo escribir la instantánea del catálogo: " + e);
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (snapshotInterval > 0) {
+                // A last snapshot makes the next start read it instead of replaying the log
+                try {
+                    journal.snapshot(store);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("No se pudo escribir la instantánea del catálogo: " + e);
+                }
+            }
+            journal.close();
+        }));
+        System.out.printf("Catálogo recuperado de %s: %d libros de la instantánea, %d operaciones del registro, en %d ms%n",
+                dir, loaded, replayed, (System.nanoTime() - start) / 1_000_000);
+        return store;
+    }
+
+    /**
+     * Appends the addition of a book. Called by the store while it holds its write lock.
+     *
+     * @return The position after the record.
+     */
+    synchronized long appendAdd(Book book) {
+        return append(ADD, book.getTitle(), book.getAuthor());
+    }
+
+    /**
+     * Appends the removal of the books with a title. Called by the store while it holds its write lock.
+     *
+     * @return The position after the record.
+     */
+    synchronized long appendRemove(String title) {
+        return append(REMOVE, title, null);
+    }
+
+    private long append(byte operation, String title, String author) {
+        if (closed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] authorBytes = author == null ? null : author.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + titleBytes.length + (authorBytes == null ? 0 : 4 + authorBytes.length);
+        if (length > MAX_RECORD || RECORD_HEADER + length > segmentSize) {
+            throw new IllegalArgumentException("The record does not fit in a journal segment: " + length + " bytes");
+        }
+        if (offset + RECORD_HEADER + length > segmentSize) {
+            roll();
+        }
+        // The payload goes first and the length last, so a record is never seen with a length and no payload
+        int payload = offset + RECORD_HEADER;
+        segment.put(payload, operation);
+        segment.putInt(payload + 1, titleBytes.length);
+        segment.put(payload + 5, titleBytes);
+        if (authorBytes != null) {
+            segment.putInt(payload + 5 + titleBytes.length, authorBytes.length);
+            segment.put(payload + 9 + titleBytes.length, authorBytes);
+        }
+        crc.reset();
+        crc.update(segment.slice(payload, length));
+        segment.putInt(offset + 4, (int) crc.getValue());
+        segment.putInt(offset, length);
+        offset += RECORD_HEADER + length;
+        return position(sequence, offset);
+    }
+
+    /**
+     * Forces the current segment to disk and maps the next one.
+     */
+    private void roll() {
+        try {
+            segment.force();
+            durable = position(sequence, offset);
+            sequence++;
+            segment = map(sequence);
+            offset = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create journal segment " + sequence, e);
+        }
+    }
+
+    /**
+     * Waits until the log is forced to disk up to a position, if the journal is synchronous.
+     * Called by the store after it releases its write lock, so writers can share a flush.
+     *
+     * @param position The position returned when the record was appended.
+     */
+    void awaitDurable(long position) {
+        if (!sync || durable >= position) {
+            return;
+        }
+        synchronized (this) {
+            if (position > requested) {
+                requested = position;
+                notifyAll(); // Wakes the flusher up
+            }
+            while (durable < position && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the log is forced to disk up to a position.
+     */
+    boolean isDurable(long position) {
+        return durable >= position;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            MappedByteBuffer current;
+            long target;
+            synchronized (this) {
+                long deadline = System.nanoTime() + flushMillis * 1_000_000;
+                long wait;
+                while (!closed && requested <= durable && (wait = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                current = segment;
+                target = position(sequence, offset);
+            }
+            if (target > durable) {
+                // Outside the lock, so writers keep appending while the pages are written
+                current.force();
+                synchronized (this) {
+                    durable = Math.max(durable, target);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the position after the last record. Called by the store while it holds its write lock.
+     */
+    synchronized long position() {
+        return position(sequence, offset);
+    }
+
+    private static long position(long sequence, int offset) {
+        return sequence << 32 | offset;
+    }
+
+    /**
+     * Writes a snapshot of the catalog if it changed since the last one, then deletes the segments it covers.
+     *
+     * @param store The catalog, whose writers keep running.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void snapshot(BookStore store) throws IOException {
+        synchronized (snapshotLock) {
+            long position = store.journalPosition();
+            if (position == snapshotPosition) {
+                return;
+            }
+            long start = System.nanoTime();
+            Path temporary = dir.resolve("snapshot.tmp");
+            long count = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(position);
+                for (Book book : store.books()) {
+                    writeString(out, book.getTitle());
+                    writeString(out, book.getAuthor());
+                    count++;
+                }
+                out.writeInt(-1);
+                out.writeLong(count);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, dir.resolve("snapshot.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotPosition = position;
+            for (long old : segments()) {
+                if (old < position >>> 32) {
+                    Files.deleteIfExists(segmentPath(old));
+                }
+            }
+            System.out.printf("Instantánea del catálogo: %d libros en %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the books of the snapshot.
+     *
+     * @return The journal position the snapshot covers, or 0 if there is none.
+     */
+    private long loadSnapshot(List<Book> books) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve("snapshot.dat")), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a catalog snapshot: " + dir.resolve("snapshot.dat"));
+            }
+            long position = in.readLong();
+            long count = 0;
+            for (int length; (length = in.readInt()) >= 0; count++) {
+                String title = readString(in, length);
+                books.add(new Book(title, readString(in, in.readInt())));
+            }
+            if (in.readLong() != count) {
+                throw new IOException("Truncated catalog snapshot: " + dir.resolve("snapshot.dat"));
+            }
+            snapshotPosition = position;
+            return position;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (EOFException e) {
+            throw new IOException("Truncated catalog snapshot: " + dir.resolve("snapshot.dat"), e);
+        }
+    }
+
+    /**
+     * Replays the log from a position and leaves the last segment mapped for the next records.
+     *
+     * @return The number of operations replayed.
+     */
+    private long replay(BookStore store, long from) throws IOException {
+        List<Long> sequences = segments();
+        long replayed = 0;
+        long first = from >>> 32;
+        for (long seq : sequences) {
+            if (seq < first) {
+                continue;
+            }
+            MappedByteBuffer buffer = map(seq);
+            int position = seq == first ? (int) from : 0;
+            while (position + RECORD_HEADER <= segmentSize) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER + length > segmentSize) {
+                    break; // End of the records of the segment
+                }
+                crc.reset();
+                crc.update(buffer.slice(position + RECORD_HEADER, length));
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    System.err.printf("Registro dañado en %s, posición %d: se descarta el resto del segmento%n", segmentPath(seq), position);
+                    break;
+                }
+                apply(store, buffer.slice(position + RECORD_HEADER, length));
+                position += RECORD_HEADER + length;
+                replayed++;
+            }
+            segment = buffer;
+            sequence = seq;
+            offset = position;
+        }
+        if (segment == null) {
+            sequence = first;
+            segment = map(sequence);
+            offset = (int) from;
+        }
+        // Clears what a torn record may have left after the last one, so it is not read as a record later
+        int end = (int) Math.min(segmentSize, (long) offset + RECORD_HEADER + MAX_RECORD);
+        segment.put(offset, new byte[end - offset]);
+        durable = position(sequence, offset);
+        return replayed;
+    }
+
+    private static void apply(BookStore store, ByteBuffer record) {
+        byte operation = record.get();
+        String title = readString(record);
+        if (operation == ADD) {
+            store.add(new Book(title, readString(record)));
+        } else if (operation == REMOVE) {
+            store.removeByTitle(title);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("journal-") && name.endsWith(".log"))
+                    .forEach(name -> sequences.add(Long.parseLong(name, 8, name.length() - 4, 16)));
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    private Path segmentPath(long sequence) {
+        return dir.resolve(String.format("journal-%016x.log", sequence));
+    }
+
+    private MappedByteBuffer map(long sequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * Stops the background threads and forces the log to disk.
+     */
+    @Override
+    public void close() {
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            durable = position(sequence, offset);
+            notifyAll();
+        }
+    }
+}
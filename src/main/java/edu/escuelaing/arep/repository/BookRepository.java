@@ -0,0 +1,55 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage where the catalog is kept outside the server, e.g. {@link MongoBookRepository}.
+ *
+ * <p>The server never waits for it while answering a request: {@link BookStore} is an in-memory cache of the
+ * whole catalog, loaded from the repository when it starts, and its changes reach the repository later and
+ * in batches through a {@link BookWriteBehind}. Implementations only need to be called by one thread at a time.</p>
+ */
+public interface BookRepository extends AutoCloseable {
+
+    /**
+     * Reads every book of the repository.
+     *
+     * @return The books, in no particular order.
+     * @throws IOException If the repository cannot be read.
+     */
+    List<Book> findAll() throws IOException;
+
+    /**
+     * Applies a batch of changes as a few bulk writes. Books are identified by their title and author, ignoring
+     * case, and a book appears at most once in a batch, so the order of the changes does not matter. Saving a
+     * book that is already stored and deleting one that is not are not errors, so a batch can be written again
+     * after a failure.
+     *
+     * @param saved   The books to insert, or to replace if they are already stored.
+     * @param deleted The books to delete.
+     * @throws IOException If the batch could not be written; part of it may have been applied.
+     */
+    void writeBatch(Collection<Book> saved, Collection<Book> deleted) throws IOException;
+
+    /**
+     * Releases the connections of the repository.
+     *
+     * @throws IOException If an error occurs while closing them.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Builds the key that identifies a book: its title and author in lowercase.
+     *
+     * @param book The book.
+     * @return The key of the book.
+     */
+    static String key(Book book) {
+        return book.getTitle().toLowerCase() + "|" + book.getAuthor().toLowerCase();
+    }
+}
@@ -0,0 +1,678 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * Inverted index over the words of the titles and authors of the books, for full-text and type-ahead search.
+ * Each book gets a numeric id when it is added, and each word maps to the ids of the books that contain it,
+ * kept as a sorted primitive int array. The words are kept in a sorted map, so the words that start with a
+ * prefix are a contiguous range of it. Each first letter also keeps the ids of the books with a word that starts
+ * with it, so a one-letter prefix reads a single list instead of a large part of the words.
+ *
+ * <p>Words are compared in lowercase and without accents, so "garcia" finds "García". A query matches the
+ * books that contain all its words; the last word also matches as a prefix, so results follow the user as
+ * they type. The index is updated incrementally and guarded by a read-write lock: queries run in parallel
+ * and a write only blocks them while it updates the posting lists of one book.</p>
+ *
+ * <p>The index gives the ids and keeps the books itself, unless it is created over the ids of a catalog that
+ * stores the books (see {@link CompactBooks}). The ids it gives are renumbered once more than half of them
+ * belong to removed books, so the index does not grow with the books that were added and removed.</p>
+ */
+public class BookSearchIndex {
+
+    // Above this many words, a prefix is checked against the words of each candidate rather than their lists
+    private static final int FEW_WORDS = 8;
+    // Rough cost of checking the words of a book, in ids merged from the lists of the prefix
+    private static final int CHECK_COST = 32;
+    // Ids given by the index below which removed ones are not renumbered
+    private static final int MIN_COMPACT = 1024;
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+    private final HashMap<Character, Postings> initials = new HashMap<>(); // Books with a word of each initial
+    private Book[] books; // Book of each id, null once it is removed; null if the ids are given
+    private final IntFunction<Book> catalog; // Book of each given id
+    private int nextId; // Above every id in the index
+    private int removed; // Ids given by the index whose book has been removed
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Sorted ids of the books that contain a word. Ids are given in increasing order, so adding a book appends.
+     */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return; // The word appears twice in the same book
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Appends the ids of another list, which are all above these.
+         */
+        void addAll(Postings more) {
+            if (size + more.size > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(size * 2, size + more.size));
+            }
+            System.arraycopy(more.ids, 0, ids, size, more.size);
+            size += more.size;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+
+        /**
+         * Replaces each id with its new number, which keeps their order, and trims the spare room.
+         */
+        void renumber(int[] renumbered) {
+            for (int i = 0; i < size; i++) {
+                ids[i] = renumbered[ids[i]];
+            }
+            if (ids.length > 2 * size + 4) {
+                ids = Arrays.copyOf(ids, Math.max(4, size));
+            }
+        }
+    }
+
+    /**
+     * Creates an empty index that gives each book its id.
+     */
+    public BookSearchIndex() {
+        books = new Book[1024];
+        catalog = null;
+    }
+
+    /**
+     * Creates an empty index over the ids of a catalog, which are given with each book.
+     *
+     * @param catalog Finds the book of an id, as long as the index holds it.
+     */
+    BookSearchIndex(IntFunction<Book> catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Adds a book to the index.
+     *
+     * @param book The book to add.
+     */
+    public void add(Book book) {
+        lock.writeLock().lock();
+        try {
+            int id = nextId++;
+            if (id == books.length) {
+                books = Arrays.copyOf(books, id * 2);
+            }
+            books[id] = book;
+            for (String word : tokenize(book.getTitle() + " " + book.getAuthor())) {
+                words.computeIfAbsent(word, w -> new Postings()).add(id);
+                initials.computeIfAbsent(word.charAt(0), c -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many books at once, e.g. a batch of an import or the catalog when it is recovered. The words of the
+     * batch are found before the lock is taken, and each word of the index is then looked up once per batch.
+     *
+     * @param added The books to add.
+     */
+    public void addAll(Collection<Book> added) {
+        Batch batch = new Batch(added);
+        lock.writeLock().lock();
+        try {
+            int[] ids = new int[added.size()];
+            int position = 0;
+            for (Book book : added) {
+                int id = nextId++;
+                if (id == books.length) {
+                    books = Arrays.copyOf(books, id * 2);
+                }
+                books[id] = book;
+                ids[position++] = id;
+            }
+            merge(batch, ids);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The words of a batch of books, each with the positions in the batch of the books that contain it.
+     */
+    private static final class Batch {
+        final HashMap<String, Postings> words = new HashMap<>();
+        final HashMap<Character, Postings> initials = new HashMap<>();
+
+        Batch(Collection<Book> books) {
+            int position = 0;
+            for (Book book : books) {
+                for (String word : tokenize(book.getTitle() + " " + book.getAuthor())) {
+                    words.computeIfAbsent(word, w -> new Postings()).add(position);
+                    initials.computeIfAbsent(word.charAt(0), c -> new Postings()).add(position);
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Adds the words of a batch to the index. The lists of the batch are renumbered to the ids of its books and
+     * appended to those of the index; a word new to the index keeps the list of the batch.
+     *
+     * @param ids The id of each book of the batch, above the ids already in the index.
+     */
+    private void merge(Batch batch, int[] ids) {
+        for (Map.Entry<String, Postings> entry : batch.words.entrySet()) {
+            String word = entry.getKey();
+            Postings postings = entry.getValue();
+            postings.renumber(ids);
+            Postings existing = words.get(word);
+            if (existing == null) {
+                words.put(word, postings);
+            } else {
+                existing.addAll(postings);
+            }
+        }
+        for (Map.Entry<Character, Postings> entry : batch.initials.entrySet()) {
+            Postings postings = entry.getValue();
+            postings.renumber(ids);
+            Postings existing = initials.putIfAbsent(entry.getKey(), postings);
+            if (existing != null) {
+                existing.addAll(postings);
+            }
+        }
+    }
+
+    /**
+     * Removes a book from the index.
+     *
+     * @param book The book to remove, as it was added.
+     */
+    public void remove(Book book) {
+        lock.writeLock().lock();
+        try {
+            List<String> bookWords = tokenize(book.getTitle() + " " + book.getAuthor());
+            // The id of the book is in the list of each of its words; the shortest one is searched
+            Postings rarest = null;
+            for (String word : bookWords) {
+                Postings postings = words.get(word);
+                if (postings == null) {
+                    return; // The book is not in the index
+                }
+                if (rarest == null || postings.size < rarest.size) {
+                    rarest = postings;
+                }
+            }
+            int id = -1;
+            for (int i = 0; rarest != null && i < rarest.size && id < 0; i++) {
+                if (books[rarest.ids[i]] == book) {
+                    id = rarest.ids[i];
+                }
+            }
+            if (id < 0) {
+                return;
+            }
+            books[id] = null;
+            removeWords(id, bookWords);
+            if (++removed > nextId / 2 && nextId >= MIN_COMPACT) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Renumbers the books in the order they were added, so the ids of the removed ones are freed. The order of
+     * the ids is kept, so the posting lists stay sorted and are renumbered in place.
+     */
+    private void compact() {
+        int[] renumbered = new int[nextId];
+        int live = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (books[id] != null) {
+                renumbered[id] = live;
+                books[live++] = books[id];
+            }
+        }
+        books = Arrays.copyOf(books, Math.max(MIN_COMPACT, live * 2));
+        for (Postings postings : words.values()) {
+            postings.renumber(renumbered);
+        }
+        for (Postings postings : initials.values()) {
+            postings.renumber(renumbered);
+        }
+        nextId = live;
+        removed = 0;
+    }
+
+    /**
+     * Retrieves the number of ids the index has given, removed books included until they are renumbered.
+     */
+    int idCount() {
+        lock.readLock().lock();
+        try {
+            return nextId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a book with the id given by the catalog, which must be above the ids already added.
+     */
+    void add(int id, Book book) {
+        lock.writeLock().lock();
+        try {
+            nextId = id + 1;
+            for (String word : tokenize(book.getTitle() + " " + book.getAuthor())) {
+                words.computeIfAbsent(word, w -> new Postings()).add(id);
+                initials.computeIfAbsent(word.charAt(0), c -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many books with the ids given by the catalog, in increasing order and above the ids already added,
+     * like {@link #addAll(Collection)}.
+     *
+     * @param ids   The id of each book.
+     * @param batch The books, as many as the ids.
+     */
+    void addAll(int[] ids, List<Book> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Batch words = new Batch(batch);
+        lock.writeLock().lock();
+        try {
+            nextId = ids[batch.size() - 1] + 1;
+            merge(words, ids);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the book of an id given by the catalog.
+     */
+    void remove(int id, Book book) {
+        lock.writeLock().lock();
+        try {
+            removeWords(id, tokenize(book.getTitle() + " " + book.getAuthor()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeWords(int id, List<String> bookWords) {
+        for (String word : bookWords) {
+            Postings postings = words.get(word);
+            if (postings != null) {
+                postings.remove(id);
+                if (postings.size == 0) {
+                    words.remove(word);
+                }
+            }
+            Postings initial = initials.get(word.charAt(0));
+            if (initial != null) {
+                initial.remove(id);
+                if (initial.size == 0) {
+                    initials.remove(word.charAt(0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the books that contain every word of a query, the last one as a prefix.
+     *
+     * @param query The words to find, e.g. "garcia soled".
+     * @param limit The maximum number of books to return.
+     * @return The books found, in the order they were added; empty if the query has no words.
+     */
+    public List<Book> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit < 1) {
+            return List.of();
+        }
+        String prefix = terms.remove(terms.size() - 1);
+        lock.readLock().lock();
+        try {
+            // The exact words narrow the candidates, starting with the rarest one
+            Postings[] exact = new Postings[terms.size()];
+            for (int i = 0; i < exact.length; i++) {
+                exact[i] = words.get(terms.get(i));
+                if (exact[i] == null) {
+                    return List.of();
+                }
+            }
+            Arrays.sort(exact, (a, b) -> Integer.compare(a.size, b.size));
+            Collection<Postings> prefixed = prefix.length() == 1
+                    ? initials.containsKey(prefix.charAt(0)) ? List.of(initials.get(prefix.charAt(0))) : List.of()
+                    : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+            if (prefixed.isEmpty()) {
+                return List.of();
+            }
+            List<Book> found = new ArrayList<>(Math.min(limit, 64));
+            Postings[] few = fewLists(prefixed);
+            if (exact.length == 0) {
+                if (few != null && few.length == 1) {
+                    for (int i = 0; i < few[0].size && found.size() < limit; i++) {
+                        found.add(book(few[0].ids[i]));
+                    }
+                } else {
+                    // Only the first ids of the lists are merged, however long they are
+                    Merge merge = new Merge(prefixed, limit);
+                    int id;
+                    while (found.size() < limit && (id = merge.next()) >= 0) {
+                        found.add(book(id));
+                    }
+                }
+                return found;
+            }
+            // Walks the rarest word and stops as soon as the page is full
+            int[] positions = new int[exact.length];
+            Postings rarest = exact[0];
+            Merge matches = few == null && postingsWithin(prefixed, (long) rarest.size * CHECK_COST) ? new Merge(prefixed, Integer.MAX_VALUE) : null;
+            candidates:
+            for (int i = 0; i < rarest.size && found.size() < limit; i++) {
+                int id = rarest.ids[i];
+                for (int j = 1; j < exact.length; j++) {
+                    // Candidates grow, so each list is searched from where the previous search stopped
+                    int position = Arrays.binarySearch(exact[j].ids, positions[j], exact[j].size, id);
+                    positions[j] = position >= 0 ? position : -position - 1;
+                    if (position < 0) {
+                        continue candidates;
+                    }
+                }
+                boolean match = few != null ? containsAny(few, id)
+                        : matches != null ? matches.advanceTo(id) == id
+                        : startsWord(book(id), prefix);
+                if (match) {
+                    found.add(book(id));
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of distinct words in the index.
+     *
+     * @return The number of words.
+     */
+    public int wordCount() {
+        lock.readLock().lock();
+        try {
+            return words.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the posting lists of a prefix if there are at most {@link #FEW_WORDS}, which are then searched
+     * directly for each candidate; otherwise null, and the candidates are checked against a merge of the
+     * lists or, if the lists are much longer than the candidates, against their own words.
+     */
+    private static Postings[] fewLists(Collection<Postings> lists) {
+        Postings[] few = new Postings[FEW_WORDS];
+        int count = 0;
+        for (Postings postings : lists) {
+            if (count == FEW_WORDS) {
+                return null;
+            }
+            few[count++] = postings;
+        }
+        return Arrays.copyOf(few, count);
+    }
+
+    /**
+     * Checks whether the posting lists hold at most a number of ids, without counting past it.
+     */
+    private static boolean postingsWithin(Collection<Postings> lists, long budget) {
+        long total = 0;
+        for (Postings postings : lists) {
+            total += postings.size;
+            if (total > budget) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(Postings[] lists, int id) {
+        for (Postings postings : lists) {
+            if (Arrays.binarySearch(postings.ids, 0, postings.size, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Book book(int id) {
+        return catalog == null ? books[id] : catalog.apply(id);
+    }
+
+    private static boolean startsWord(Book book, String prefix) {
+        return startsWord(book.getTitle(), prefix) || startsWord(book.getAuthor(), prefix);
+    }
+
+    /**
+     * Checks whether a word of a text starts with a prefix, as {@link #tokenize} would split and fold it,
+     * without building the words.
+     */
+    private static boolean startsWord(String text, String prefix) {
+        String plain = plain(text);
+        int matched = -1; // Characters of the prefix matched by the current word, or -1 if it does not match
+        boolean inWord = false;
+        for (int i = 0; i < plain.length(); i++) {
+            char c = plain.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (!Character.isLetterOrDigit(c)) {
+                inWord = false;
+                continue;
+            }
+            if (!inWord) {
+                inWord = true;
+                matched = 0;
+            }
+            if (matched >= 0) {
+                matched = Character.toLowerCase(c) == prefix.charAt(matched) ? matched + 1 : -1;
+                if (matched == prefix.length()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The ids of several posting lists in increasing order and without repeats, merged with a min-heap on the
+     * next id of each list. Ids are only read as they are asked for, so a search that stops at its limit does
+     * not go through the lists.
+     */
+    private static final class Merge {
+        private final Postings[] lists;
+        private final int[] positions; // Position of the next id of each list
+        private final int[] heap; // Lists with ids left, ordered by their next id
+        private int size;
+
+        /**
+         * @param merged The lists to merge.
+         * @param limit  The most ids that will be read; the lists whose first id comes after that many others
+         *               are left out of the heap.
+         */
+        Merge(Collection<Postings> merged, int limit) {
+            lists = merged.toArray(new Postings[0]);
+            positions = new int[lists.length];
+            heap = new int[lists.length];
+            int last = limit < lists.length ? lastOfFirstIds(limit) : Integer.MAX_VALUE;
+            for (int i = 0; i < lists.length; i++) {
+                if (lists[i].size > 0 && lists[i].ids[0] <= last) {
+                    heap[size++] = i;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        /**
+         * @return The next id, or -1 once every list has been read.
+         */
+        int next() {
+            if (size == 0) {
+                return -1;
+            }
+            int id = head(heap[0]);
+            while (size > 0 && head(heap[0]) == id) { // Several words of a book may start with the prefix
+                int list = heap[0];
+                if (++positions[list] == lists[list].size) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(0);
+            }
+            return id;
+        }
+
+        /**
+         * Skips the ids below an id, searching each list from where it was.
+         *
+         * @return The smallest id that is not below it, or -1 if there is none.
+         */
+        int advanceTo(int id) {
+            while (size > 0 && head(heap[0]) < id) {
+                int list = heap[0];
+                Postings postings = lists[list];
+                int position = Arrays.binarySearch(postings.ids, positions[list], postings.size, id);
+                positions[list] = position >= 0 ? position : -position - 1;
+                if (positions[list] == postings.size) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(0);
+            }
+            return size > 0 ? head(heap[0]) : -1;
+        }
+
+        /**
+         * Finds the largest of the smallest distinct first ids of the lists, as many as the limit. Every id
+         * read before the limit is at most that one.
+         */
+        private int lastOfFirstIds(int limit) {
+            int[] smallest = new int[limit]; // Sorted
+            int count = 0;
+            for (Postings postings : lists) {
+                if (postings.size == 0) {
+                    continue;
+                }
+                int id = postings.ids[0];
+                if (count == limit && id >= smallest[count - 1]) {
+                    continue;
+                }
+                int index = Arrays.binarySearch(smallest, 0, count, id);
+                if (index >= 0) {
+                    continue;
+                }
+                index = -index - 1;
+                int moved = Math.min(count, limit - 1) - index;
+                System.arraycopy(smallest, index, smallest, index + 1, moved);
+                smallest[index] = id;
+                count = Math.min(count + 1, limit);
+            }
+            return count < limit ? Integer.MAX_VALUE : smallest[count - 1];
+        }
+
+        private int head(int list) {
+            return lists[list].ids[positions[list]];
+        }
+
+        private void siftDown(int index) {
+            int list = heap[index];
+            int id = size > index ? head(list) : 0;
+            while (2 * index + 1 < size) {
+                int child = 2 * index + 1;
+                if (child + 1 < size && head(heap[child + 1]) < head(heap[child])) {
+                    child++;
+                }
+                if (head(heap[child]) >= id) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = list;
+        }
+    }
+
+    /**
+     * Splits a text into its words, in lowercase and without accents.
+     *
+     * @param text The text to split.
+     * @return The words of the text, in order.
+     */
+    static List<String> tokenize(String text) {
+        String plain = plain(text);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < plain.length(); i++) {
+            char c = plain.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue; // An accent separated from its letter by the normalization
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (!token.isEmpty()) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Decomposes the accented letters of a text, so the accents can be skipped; ASCII text is returned as it is.
+     */
+    private static String plain(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return Normalizer.normalize(text, Normalizer.Form.NFD);
+            }
+        }
+        return text;
+    }
+}
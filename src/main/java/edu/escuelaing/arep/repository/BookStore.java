@@ -0,0 +1,606 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import edu.escuelaing.arep.server.ServerConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory catalog of books.
+ * Books are kept in a hash map by their key (title and author, ignoring case) and in two concurrent skip
+ * lists, one ordered by title and then author and one by author and then title, so a page of the catalog in
+ * either order, ascending or descending, costs O(log n + page size). A secondary index from the lowercase
+ * title to the books with that title finds or deletes the books of a title without scanning the catalog,
+ * and a {@link BookSearchIndex} finds books by the words of their title and author.
+ *
+ * <p>A compact catalog keeps the same books and indexes in a few primitive arrays instead (see
+ * {@link CompactBooks}), for catalogs of millions of books.</p>
+ *
+ * <p>Reads take no lock. Writes are serialized and bump a version counter twice, before and after the
+ * change, so the version is odd while a write is in progress and a reader can tell whether the catalog
+ * changed while it was reading it.</p>
+ */
+public class BookStore {
+
+    // Times the books of the repository are requested at startup, a second apart
+    private static final int REPOSITORY_ATTEMPTS = 10;
+
+    private final ConcurrentHashMap<String, Book> books;
+    private final ConcurrentSkipListMap<SortKey, Book> byTitle;
+    private final ConcurrentSkipListMap<SortKey, Book> byAuthor;
+    // Books of each lowercase title; the arrays are replaced, never modified, so readers need no lock
+    private final ConcurrentHashMap<String, Book[]> titles;
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    private volatile CompactBooks compact; // Null unless the catalog is compact; replaced when it is rebuilt
+    private final AtomicLong version = new AtomicLong();
+    private final Object writeLock = new Object();
+    private BookJournal journal; // Null while the catalog is recovered, or if it is not persisted
+    private BookWriteBehind writeBehind; // Null if the catalog is not copied to a repository
+
+    /**
+     * Order of a page of the catalog. Titles and authors are compared ignoring case.
+     */
+    public enum Sort {
+        TITLE("title", false, false),
+        TITLE_DESC("-title", false, true),
+        AUTHOR("author", true, false),
+        AUTHOR_DESC("-author", true, true);
+
+        private final String parameter;
+        final boolean byAuthor;
+        final boolean descending;
+
+        Sort(String parameter, boolean byAuthor, boolean descending) {
+            this.parameter = parameter;
+            this.byAuthor = byAuthor;
+            this.descending = descending;
+        }
+
+        /**
+         * Parses the value of a sort parameter: "title", "author", or either preceded by "-" for descending order.
+         *
+         * @param parameter The value of the parameter.
+         * @return The order.
+         * @throws IllegalArgumentException If the value is not one of the above.
+         */
+        public static Sort parse(String parameter) {
+            for (Sort sort : values()) {
+                if (sort.parameter.equalsIgnoreCase(parameter)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Unknown sort: " + parameter);
+        }
+    }
+
+    /**
+     * A page of the catalog.
+     *
+     * @param books      The books of the page, in order.
+     * @param nextCursor The cursor of the next page, or null if this is the last one.
+     */
+    public record Page(List<Book> books, String nextCursor) {
+    }
+
+    /**
+     * Position in one of the sorted indexes: the lowercase title and author, in the order of the index.
+     */
+    record SortKey(String first, String second) implements Comparable<SortKey> {
+        @Override
+        public int compareTo(SortKey other) {
+            int order = first.compareTo(other.first);
+            return order != 0 ? order : second.compareTo(other.second);
+        }
+    }
+
+    /**
+     * Creates an empty catalog.
+     */
+    public BookStore() {
+        this(false);
+    }
+
+    /**
+     * Creates an empty catalog, compact or not.
+     *
+     * @param compact Whether the books are kept in a {@link CompactBooks}.
+     */
+    public BookStore(boolean compact) {
+        books = new ConcurrentHashMap<>();
+        byTitle = new ConcurrentSkipListMap<>();
+        byAuthor = new ConcurrentSkipListMap<>();
+        titles = new ConcurrentHashMap<>();
+        this.compact = compact ? new CompactBooks() : null;
+    }
+
+    /**
+     * Creates a catalog with many books at once, e.g. those of a snapshot. The skip lists are built from sorted
+     * maps, which takes linear time instead of a search per book: the books are sorted by title, which is
+     * cheap for a snapshot since it is written in that order, and the author order is obtained by grouping
+     * them by author, so only the distinct authors are sorted. Repeated books are dropped.
+     *
+     * @param loaded The books of the catalog.
+     */
+    BookStore(List<Book> loaded) {
+        this(loaded, false);
+    }
+
+    /**
+     * Creates a catalog with many books at once, compact or not. A compact catalog adds them one by one, which
+     * is fastest in title order, as a snapshot lists them. Repeated books are dropped.
+     *
+     * @param loaded  The books of the catalog.
+     * @param compact Whether the books are kept in a {@link CompactBooks}.
+     */
+    BookStore(List<Book> loaded, boolean compact) {
+        if (compact) {
+            books = new ConcurrentHashMap<>();
+            byTitle = new ConcurrentSkipListMap<>();
+            byAuthor = new ConcurrentSkipListMap<>();
+            titles = new ConcurrentHashMap<>();
+            CompactBooks packed = new CompactBooks();
+            List<Book> added = new ArrayList<>(loaded.size());
+            int[] ids = new int[loaded.size()];
+            for (Book book : loaded) {
+                if (!packed.contains(book)) {
+                    ids[added.size()] = packed.addUnindexed(book);
+                    added.add(book);
+                }
+            }
+            packed.index(ids, added);
+            this.compact = packed;
+        } else {
+            int capacity = Math.max(16, loaded.size() + loaded.size() / 3);
+            books = new ConcurrentHashMap<>(capacity);
+            titles = new ConcurrentHashMap<>(capacity);
+            TreeMap<SortKey, Book> sortedByTitle = new TreeMap<>();
+            for (Book book : loaded) {
+                String title = book.getTitle().toLowerCase();
+                String author = book.getAuthor().toLowerCase();
+                if (books.putIfAbsent(title + "|" + author, book) == null) {
+                    sortedByTitle.put(new SortKey(title, author), book);
+                }
+            }
+            // The books of each author, already in title order
+            TreeMap<String, List<Map.Entry<SortKey, Book>>> authors = new TreeMap<>();
+            HashMap<String, List<Map.Entry<SortKey, Book>>> byAuthorName = new HashMap<>();
+            for (Map.Entry<SortKey, Book> entry : sortedByTitle.entrySet()) {
+                SortKey key = entry.getKey();
+                Book book = entry.getValue();
+                titles.merge(key.first(), new Book[]{book}, BookStore::concat);
+                byAuthorName.computeIfAbsent(key.second(), author -> new ArrayList<>())
+                        .add(Map.entry(new SortKey(key.second(), key.first()), book));
+            }
+            authors.putAll(byAuthorName);
+            TreeMap<SortKey, Book> sortedByAuthor = new TreeMap<>();
+            for (List<Map.Entry<SortKey, Book>> written : authors.values()) {
+                for (Map.Entry<SortKey, Book> entry : written) {
+                    sortedByAuthor.put(entry.getKey(), entry.getValue()); // Ascending, so each put is at the end
+                }
+            }
+            byTitle = new ConcurrentSkipListMap<>(sortedByTitle);
+            byAuthor = new ConcurrentSkipListMap<>(sortedByAuthor);
+            searchIndex.addAll(byTitle.values());
+        }
+        if (size() > 0) {
+            version.set(2); // Loading the books counts as one write, so readers do not take it for an empty catalog
+        }
+    }
+
+    /**
+     * Opens the catalog of the server. If {@code store.dir} is set, the catalog is recovered from that directory
+     * and its changes are journaled there (see {@link BookJournal}), with the settings
+     * {@code store.journal.segment.size} (default 64 MB), {@code store.journal.sync} (default false),
+     * {@code store.journal.flush.ms} (default 50) and {@code store.snapshot.interval.ms} (default 5 minutes).
+     *
+     * <p>If {@code store.repository} is {@code mongo} (see {@link MongoBookRepository}, configured with
+     * {@code store.mongo.address}, {@code store.mongo.database}, {@code store.mongo.collection} and
+     * {@code store.mongo.timeout.ms}) or {@code memory} (see {@link InMemoryBookRepository}), the catalog is
+     * loaded from the repository, unless the journal recovered some books, and its changes are copied to it in
+     * the background by a {@link BookWriteBehind} with the settings {@code store.writebehind.batch.size}
+     * (default 500) and {@code store.writebehind.flush.ms} (default 200).</p>
+     *
+     * <p>With neither, the catalog only lives in memory.</p>
+     *
+     * <p>With {@code store.compact=true} the catalog is kept in a {@link CompactBooks}, which takes a fraction of
+     * the memory for large catalogs.</p>
+     *
+     * @return The catalog.
+     * @throws UncheckedIOException If the catalog cannot be recovered.
+     */
+    public static BookStore open() {
+        String dir = ServerConfig.getString("store.dir", "");
+        boolean compact = ServerConfig.getBoolean("store.compact", false);
+        BookRepository repository = openRepository();
+        BookStore store = null;
+        try {
+            if (!dir.isEmpty()) {
+                store = BookJournal.open(Path.of(dir),
+                        ServerConfig.getInt("store.journal.segment.size", 64 * 1024 * 1024),
+                        ServerConfig.getBoolean("store.journal.sync", false),
+                        ServerConfig.getLong("store.journal.flush.ms", 50),
+                        ServerConfig.getLong("store.snapshot.interval.ms", 300_000), compact);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the catalog in " + dir, e);
+        }
+        if (repository == null) {
+            return store != null ? store : new BookStore(compact);
+        }
+        if (store == null || store.size() == 0) {
+            List<Book> loaded = load(repository);
+            if (store == null) {
+                store = new BookStore(loaded, compact);
+            } else {
+                loaded.forEach(store::add); // Journaled, so the next start recovers them locally
+            }
+            System.out.println("Catálogo cargado del repositorio: " + store.size() + " libros");
+        }
+        BookWriteBehind writeBehind = new BookWriteBehind(repository,
+                ServerConfig.getInt("store.writebehind.batch.size", 500),
+                ServerConfig.getLong("store.writebehind.flush.ms", 200));
+        store.attach(writeBehind);
+        Runtime.getRuntime().addShutdownHook(new Thread(writeBehind::close));
+        return store;
+    }
+
+    private static BookRepository openRepository() {
+        String repository = ServerConfig.getString("store.repository", "");
+        return switch (repository) {
+            case "" -> null;
+            case "memory" -> new InMemoryBookRepository();
+            case "mongo" -> new MongoBookRepository(
+                    ServerConfig.getString("store.mongo.address", "localhost:27017"),
+                    ServerConfig.getString("store.mongo.database", "library"),
+                    ServerConfig.getString("store.mongo.collection", "books"),
+                    ServerConfig.getInt("store.mongo.timeout.ms", 5000));
+            default -> throw new IllegalArgumentException("Unknown store.repository: " + repository);
+        };
+    }
+
+    /**
+     * Reads the books of the repository, waiting for it for a few seconds if it is not up yet (e.g. a database
+     * container that starts with the server).
+     */
+    private static List<Book> load(BookRepository repository) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return repository.findAll();
+            } catch (IOException e) {
+                if (attempt == REPOSITORY_ATTEMPTS) {
+                    throw new UncheckedIOException("Could not load the catalog from the repository", e);
+                }
+                System.err.println("Esperando al repositorio del catálogo: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException("Interrupted while loading the catalog", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a book unless a book with the same title and author is already in the catalog.
+     *
+     * @param book The book to add.
+     * @return true if the book was added, false if it was already in the catalog.
+     */
+    public boolean add(Book book) {
+        long position;
+        synchronized (writeLock) {
+            if (contains(book)) {
+                return false;
+            }
+            // Journaled first, so a change that could not be journaled is not applied
+            position = journal == null ? 0 : journal.appendAdd(book);
+            version.incrementAndGet();
+            insert(book);
+            version.incrementAndGet();
+            if (writeBehind != null) {
+                writeBehind.saved(book);
+            }
+        }
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+        return true;
+    }
+
+    /**
+     * Adds many books as one write, e.g. a batch of an import: the write lock is taken and the version bumped
+     * once for the whole batch, a synchronous journal is flushed once and the search index is updated once.
+     * Books already in the catalog, or repeated in the batch, are skipped; a batch that adds nothing leaves the
+     * version as it was.
+     *
+     * @param batch The books to add.
+     * @return The number of books added.
+     */
+    public int addAll(List<Book> batch) {
+        int added = 0;
+        long position = 0;
+        boolean writing = false;
+        List<Book> inserted = new ArrayList<>(batch.size());
+        int[] ids = new int[batch.size()];
+        synchronized (writeLock) {
+            try {
+                for (Book book : batch) {
+                    if (contains(book)) {
+                        continue;
+                    }
+                    if (journal != null) {
+                        position = journal.appendAdd(book);
+                    }
+                    if (!writing) {
+                        version.incrementAndGet(); // Odd from the first change of the batch on
+                        writing = true;
+                    }
+                    CompactBooks packed = compact;
+                    if (packed != null) {
+                        ids[inserted.size()] = packed.addUnindexed(book);
+                    } else {
+                        store(book);
+                    }
+                    inserted.add(book);
+                    if (writeBehind != null) {
+                        writeBehind.saved(book);
+                    }
+                    added++;
+                }
+            } finally {
+                if (writing) {
+                    try {
+                        // The books stored before a failure are indexed as well
+                        if (compact != null) {
+                            compact.index(ids, inserted);
+                        } else {
+                            searchIndex.addAll(inserted);
+                        }
+                    } finally {
+                        version.incrementAndGet(); // Even if the journal failed part way, the version must become even
+                    }
+                }
+            }
+        }
+        if (journal != null && added > 0) {
+            journal.awaitDurable(position);
+        }
+        return added;
+    }
+
+    /**
+     * Removes every book with a title, ignoring case. The books are found through the title index, so the
+     * catalog is not scanned.
+     *
+     * @param title The title of the books to remove.
+     * @return true if at least one book was removed.
+     */
+    public boolean removeByTitle(String title) {
+        long position;
+        synchronized (writeLock) {
+            if (findByTitle(title).isEmpty()) {
+                return false;
+            }
+            position = journal == null ? 0 : journal.appendRemove(title);
+            version.incrementAndGet();
+            List<Book> removed = compact != null ? compact.removeTitle(title) : removeTitle(title.toLowerCase());
+            version.incrementAndGet();
+            if (writeBehind != null) {
+                removed.forEach(writeBehind::deleted);
+            }
+            if (compact != null && compact.isWasteful()) {
+                // The books are the same, so the version does not change; readers finish with the old catalog
+                compact = compact.rebuilt();
+            }
+        }
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the books with a title, ignoring case, in constant time.
+     *
+     * @param title The title of the books.
+     * @return The books with that title, one per author; empty if there are none.
+     */
+    public List<Book> findByTitle(String title) {
+        CompactBooks packed = compact;
+        if (packed != null) {
+            return packed.findByTitle(title);
+        }
+        Book[] found = titles.get(title.toLowerCase());
+        return found == null ? List.of() : List.of(found);
+    }
+
+    /**
+     * Finds the books whose title and author contain every word of a query, the last one as a prefix.
+     * See {@link BookSearchIndex#search(String, int)}.
+     *
+     * @param query The words to find.
+     * @param limit The maximum number of books to return.
+     * @return The books found, oldest first.
+     */
+    public List<Book> search(String query, int limit) {
+        CompactBooks packed = compact;
+        return packed != null ? packed.search(query, limit) : searchIndex.search(query, limit);
+    }
+
+    private boolean contains(Book book) {
+        CompactBooks packed = compact;
+        if (packed != null) {
+            return packed.contains(book);
+        }
+        return books.containsKey(book.getTitle().toLowerCase() + "|" + book.getAuthor().toLowerCase());
+    }
+
+    private void insert(Book book) {
+        if (compact != null) {
+            compact.add(book);
+            return;
+        }
+        store(book);
+        searchIndex.add(book);
+    }
+
+    /**
+     * Adds a book to the maps and the sorted indexes, but not to the search index.
+     */
+    private void store(Book book) {
+        String title = book.getTitle().toLowerCase();
+        String author = book.getAuthor().toLowerCase();
+        books.put(title + "|" + author, book);
+        byTitle.put(new SortKey(title, author), book);
+        byAuthor.put(new SortKey(author, title), book);
+        titles.merge(title, new Book[]{book}, BookStore::concat);
+    }
+
+    private List<Book> removeTitle(String lowercase) {
+        Book[] found = titles.remove(lowercase);
+        for (Book book : found) {
+            String author = book.getAuthor().toLowerCase();
+            books.remove(lowercase + "|" + author);
+            byTitle.remove(new SortKey(lowercase, author));
+            byAuthor.remove(new SortKey(author, lowercase));
+            searchIndex.remove(book);
+        }
+        return List.of(found);
+    }
+
+    private static Book[] concat(Book[] books, Book[] more) {
+        Book[] all = Arrays.copyOf(books, books.length + more.length);
+        System.arraycopy(more, 0, all, books.length, more.length);
+        return all;
+    }
+
+    /**
+     * Starts journaling the changes of the catalog, once it has been recovered.
+     */
+    void attach(BookJournal journal) {
+        synchronized (writeLock) {
+            this.journal = journal;
+        }
+    }
+
+    /**
+     * Starts copying the changes of the catalog to a repository.
+     */
+    void attach(BookWriteBehind writeBehind) {
+        synchronized (writeLock) {
+            this.writeBehind = writeBehind;
+        }
+    }
+
+    /**
+     * Retrieves the journal of the catalog, or null if it is not persisted.
+     */
+    BookJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Retrieves the journal position that the current catalog reflects, with no write in progress.
+     */
+    long journalPosition() {
+        synchronized (writeLock) {
+            return journal.position();
+        }
+    }
+
+    /**
+     * Retrieves the version of the catalog: it is even when no write is in progress and grows by two with each write.
+     *
+     * @return The version.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Retrieves the number of books.
+     *
+     * @return The number of books in the catalog.
+     */
+    public int size() {
+        CompactBooks packed = compact;
+        return packed != null ? packed.size() : books.size();
+    }
+
+    /**
+     * Retrieves a live view of the books ordered by title. Iterating it while the catalog changes is safe
+     * and sees some of the changes.
+     *
+     * @return The books of the catalog.
+     */
+    public Collection<Book> books() {
+        CompactBooks packed = compact;
+        return packed != null ? packed.books() : byTitle.values();
+    }
+
+    /**
+     * Retrieves a page of the catalog. The cursor names the last book of the previous page rather than its
+     * offset, so books added or removed meanwhile do not make the next page skip or repeat books.
+     *
+     * @param sort   The order of the books.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param limit  The maximum number of books of the page, at least 1.
+     * @return The page.
+     * @throws IllegalArgumentException If the cursor is malformed or was issued for another order.
+     */
+    public Page page(Sort sort, String cursor, int limit) {
+        CompactBooks packed = compact;
+        if (packed != null) {
+            return packed.page(sort, cursor == null ? null : decodeCursor(sort, cursor), limit);
+        }
+        NavigableMap<SortKey, Book> index = sort.byAuthor ? byAuthor : byTitle;
+        if (sort.descending) {
+            index = index.descendingMap();
+        }
+        if (cursor != null) {
+            index = index.tailMap(decodeCursor(sort, cursor), false);
+        }
+        List<Book> page = new ArrayList<>(Math.min(limit, 64));
+        SortKey last = null;
+        for (Map.Entry<SortKey, Book> entry : index.entrySet()) {
+            if (page.size() == limit) {
+                return new Page(page, encodeCursor(sort, last));
+            }
+            page.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new Page(page, null);
+    }
+
+    static String encodeCursor(Sort sort, SortKey key) {
+        String position = sort.parameter + '\0' + key.first() + '\0' + key.second();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SortKey decodeCursor(Sort sort, String cursor) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\0", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        if (!parts[0].equals(sort.parameter)) {
+            throw new IllegalArgumentException("The cursor belongs to another sort: " + parts[0]);
+        }
+        return new SortKey(parts[1], parts[2]);
+    }
+}
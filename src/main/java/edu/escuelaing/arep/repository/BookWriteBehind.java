@@ -0,0 +1,249 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the changes of a {@link BookStore} to a {@link BookRepository} in the background, so a request never
+ * waits for the repository.
+ *
+ * <p>Changes are queued by book key, and a newer change of a book replaces the one still queued: adding and
+ * then deleting a book before it is sent only sends the delete. A background thread sends the queue in
+ * batches of at most {@code batchSize} books, as soon as that many are queued or {@code flushMillis} after the
+ * oldest queued change. If the repository fails, the batch is queued again behind any newer change of the
+ * same books and retried with an increasing delay, so the queue never holds more than one change per book.</p>
+ */
+public class BookWriteBehind implements AutoCloseable {
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final BookRepository repository;
+    private final int batchSize;
+    private final long flushMillis;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Change> pending = new LinkedHashMap<>();
+    private long oldest; // Time the oldest pending change was queued, in nanoseconds
+    private boolean closed;
+
+    private final Object sending = new Object(); // Serializes batches, so two changes of a book never race
+    private final Thread flusher;
+
+    /**
+     * Change of a book waiting to be sent.
+     *
+     * @param book    The book.
+     * @param deleted Whether the book was deleted rather than saved.
+     */
+    private record Change(Book book, boolean deleted) {
+    }
+
+    /**
+     * Creates the queue of a repository and starts its background thread.
+     *
+     * @param repository  The repository that receives the changes.
+     * @param batchSize   The maximum number of books in a batch, and the number that triggers one.
+     * @param flushMillis The maximum time a change waits to be sent, unless the repository is failing.
+     */
+    public BookWriteBehind(BookRepository repository, int batchSize, long flushMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.repository = repository;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.flusher = new Thread(this::flushLoop, "book-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the addition of a book. Called by the store while it holds its write lock, so the changes of a
+     * book are queued in the order they were made.
+     *
+     * @param book The book added.
+     */
+    void saved(Book book) {
+        queue(book, false);
+    }
+
+    /**
+     * Queues the deletion of a book. Called by the store while it holds its write lock.
+     *
+     * @param book The book deleted.
+     */
+    void deleted(Book book) {
+        queue(book, true);
+    }
+
+    private synchronized void queue(Book book, boolean deleted) {
+        boolean wasEmpty = pending.isEmpty();
+        if (wasEmpty) {
+            oldest = System.nanoTime();
+        }
+        pending.put(BookRepository.key(book), new Change(book, deleted));
+        // The flusher waits without a timeout while the queue is empty, and for the flush interval otherwise
+        if (wasEmpty || pending.size() == batchSize) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Retrieves the number of books whose changes have not been sent yet.
+     *
+     * @return The number of pending changes.
+     */
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Sends every pending change now, in the calling thread.
+     *
+     * @throws IOException If the repository fails; the changes not sent stay queued.
+     */
+    public void flush() throws IOException {
+        synchronized (sending) {
+            while (true) {
+                List<Change> batch = takeBatch();
+                if (batch.isEmpty()) {
+                    return;
+                }
+                send(batch);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending changes, stops the background thread and closes the repository.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(flushMillis + 1000);
+            flush();
+        } catch (IOException e) {
+            System.err.println("Cambios del catálogo no enviados al repositorio: " + pending() + " (" + e + ")");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            repository.close();
+        } catch (IOException e) {
+            System.err.println("No se pudo cerrar el repositorio: " + e);
+        }
+    }
+
+    private void flushLoop() {
+        int failures = 0;
+        while (true) {
+            try {
+                if (!awaitBatch()) {
+                    return;
+                }
+                synchronized (sending) {
+                    List<Change> batch = takeBatch();
+                    if (!batch.isEmpty()) { // Unless flush() sent it meanwhile
+                        send(batch);
+                    }
+                }
+                failures = 0;
+            } catch (IOException | RuntimeException e) {
+                failures++;
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(flushMillis, 100) << Math.min(failures, 16));
+                System.err.printf("No se pudieron enviar los cambios del catálogo (%d pendientes), reintento en %d ms: %s%n",
+                        pending(), delay, e);
+                if (!sleep(delay)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until a batch is due: the queue holds a full batch, or its oldest change is {@code flushMillis} old.
+     *
+     * @return false if the queue was closed.
+     */
+    private synchronized boolean awaitBatch() throws InterruptedException {
+        while (!closed) {
+            if (pending.size() >= batchSize) {
+                return true;
+            }
+            if (!pending.isEmpty()) {
+                long wait = flushMillis - (System.nanoTime() - oldest) / 1_000_000;
+                if (wait <= 0) {
+                    return true;
+                }
+                wait(wait);
+            } else {
+                wait();
+            }
+        }
+        return false;
+    }
+
+    private synchronized List<Change> takeBatch() {
+        List<Change> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+        Iterator<Change> changes = pending.values().iterator();
+        while (changes.hasNext() && batch.size() < batchSize) {
+            batch.add(changes.next());
+            changes.remove();
+        }
+        return batch;
+    }
+
+    private void send(List<Change> batch) throws IOException {
+        List<Book> saved = new ArrayList<>();
+        List<Book> deleted = new ArrayList<>();
+        for (Change change : batch) {
+            (change.deleted() ? deleted : saved).add(change.book());
+        }
+        try {
+            repository.writeBatch(saved, deleted);
+        } catch (IOException | RuntimeException e) {
+            requeue(batch);
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a failed batch again, unless a newer change of the same book was queued meanwhile.
+     */
+    private synchronized void requeue(List<Change> batch) {
+        Map<String, Change> newer = new LinkedHashMap<>(pending);
+        if (newer.isEmpty()) {
+            oldest = System.nanoTime();
+        }
+        pending.clear();
+        for (Change change : batch) {
+            pending.put(BookRepository.key(change.book()), change);
+        }
+        pending.putAll(newer);
+        notifyAll();
+    }
+
+    private synchronized boolean sleep(long millis) {
+        long end = System.nanoTime() + millis * 1_000_000;
+        try {
+            for (long left = millis; !closed && left > 0; left = (end - System.nanoTime()) / 1_000_000) {
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !closed;
+    }
+}
@@ -0,0 +1,226 @@
+package edu.escuelaing.arep.repository;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal BSON codec, enough for the commands of {@link MongoBookRepository} and their replies.
+ *
+ * <p>Documents are {@link Map}s whose iteration order is the order of their fields, which matters for
+ * commands (the command name comes first). Encoded values can be strings, booleans, ints, longs, doubles,
+ * null, nested maps and lists; decoding also turns object ids into hex strings, dates into longs and binary
+ * data into byte arrays.</p>
+ */
+final class Bson {
+
+    private static final byte DOUBLE = 0x01;
+    private static final byte STRING = 0x02;
+    private static final byte DOCUMENT = 0x03;
+    private static final byte ARRAY = 0x04;
+    private static final byte BINARY = 0x05;
+    private static final byte OBJECT_ID = 0x07;
+    private static final byte BOOLEAN = 0x08;
+    private static final byte DATE = 0x09;
+    private static final byte NULL = 0x0a;
+    private static final byte INT32 = 0x10;
+    private static final byte TIMESTAMP = 0x11;
+    private static final byte INT64 = 0x12;
+
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    private Bson() {
+    }
+
+    /**
+     * Encodes a document.
+     *
+     * @param document The fields of the document, in order.
+     * @return The BSON bytes.
+     * @throws IllegalArgumentException If a value has a type that is not supported.
+     */
+    static byte[] encode(Map<String, ?> document) {
+        Bson out = new Bson();
+        out.document(document);
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    /**
+     * Decodes the document that starts at the position of a little-endian buffer, and moves past it.
+     *
+     * @param buffer The buffer.
+     * @return The fields of the document, in order.
+     * @throws IOException If the bytes are not a valid document of the supported types.
+     */
+    static Map<String, Object> decode(ByteBuffer buffer) throws IOException {
+        try {
+            return readDocument(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Malformed BSON document", e);
+        }
+    }
+
+    private void document(Map<String, ?> document) {
+        int start = size;
+        int32(0); // Patched with the length
+        for (Map.Entry<String, ?> field : document.entrySet()) {
+            element(field.getKey(), field.getValue());
+        }
+        put((byte) 0);
+        patchInt32(start, size - start);
+    }
+
+    private void array(List<?> list) {
+        int start = size;
+        int32(0);
+        for (int i = 0; i < list.size(); i++) {
+            element(Integer.toString(i), list.get(i));
+        }
+        put((byte) 0);
+        patchInt32(start, size - start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void element(String name, Object value) {
+        int type = size;
+        put((byte) 0); // Patched with the type
+        cstring(name);
+        if (value == null) {
+            bytes[type] = NULL;
+        } else if (value instanceof String text) {
+            bytes[type] = STRING;
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            int32(utf8.length + 1);
+            put(utf8);
+            put((byte) 0);
+        } else if (value instanceof Boolean flag) {
+            bytes[type] = BOOLEAN;
+            put((byte) (flag ? 1 : 0));
+        } else if (value instanceof Integer number) {
+            bytes[type] = INT32;
+            int32(number);
+        } else if (value instanceof Long number) {
+            bytes[type] = INT64;
+            int64(number);
+        } else if (value instanceof Double number) {
+            bytes[type] = DOUBLE;
+            int64(Double.doubleToRawLongBits(number));
+        } else if (value instanceof Map<?, ?> map) {
+            bytes[type] = DOCUMENT;
+            document((Map<String, ?>) map);
+        } else if (value instanceof List<?> list) {
+            bytes[type] = ARRAY;
+            array(list);
+        } else {
+            throw new IllegalArgumentException("Unsupported BSON value for " + name + ": " + value.getClass().getName());
+        }
+    }
+
+    private void cstring(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        for (byte b : utf8) {
+            if (b == 0) {
+                throw new IllegalArgumentException("BSON field names cannot contain NUL: " + text);
+            }
+        }
+        put(utf8);
+        put((byte) 0);
+    }
+
+    private void int32(int value) {
+        ensure(4);
+        patchInt32(size, value);
+        size += 4;
+    }
+
+    private void int64(long value) {
+        int32((int) value);
+        int32((int) (value >>> 32));
+    }
+
+    private void patchInt32(int at, int value) {
+        bytes[at] = (byte) value;
+        bytes[at + 1] = (byte) (value >>> 8);
+        bytes[at + 2] = (byte) (value >>> 16);
+        bytes[at + 3] = (byte) (value >>> 24);
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        bytes[size++] = b;
+    }
+
+    private void put(byte[] more) {
+        ensure(more.length);
+        System.arraycopy(more, 0, bytes, size, more.length);
+        size += more.length;
+    }
+
+    private void ensure(int more) {
+        if (size + more > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+        }
+    }
+
+    private static Map<String, Object> readDocument(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int length = buffer.getInt();
+        Map<String, Object> document = new LinkedHashMap<>();
+        byte type;
+        while ((type = buffer.get()) != 0) {
+            String name = readCString(buffer);
+            document.put(name, readValue(buffer, type, name));
+        }
+        if (buffer.position() - start != length) {
+            throw new IOException("BSON document length mismatch: " + length + " declared, " + (buffer.position() - start) + " read");
+        }
+        return document;
+    }
+
+    private static Object readValue(ByteBuffer buffer, byte type, String name) throws IOException {
+        return switch (type) {
+            case DOUBLE -> buffer.getDouble();
+            case STRING -> {
+                int length = buffer.getInt();
+                String text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length - 1, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                yield text;
+            }
+            case DOCUMENT -> readDocument(buffer);
+            case ARRAY -> new ArrayList<>(readDocument(buffer).values());
+            case BINARY -> {
+                byte[] data = new byte[buffer.getInt()];
+                buffer.get(); // Subtype
+                buffer.get(data);
+                yield data;
+            }
+            case OBJECT_ID -> {
+                byte[] id = new byte[12];
+                buffer.get(id);
+                yield HexFormat.of().formatHex(id);
+            }
+            case BOOLEAN -> buffer.get() != 0;
+            case DATE, TIMESTAMP, INT64 -> buffer.getLong();
+            case NULL -> null;
+            case INT32 -> buffer.getInt();
+            default -> throw new IOException("Unsupported BSON type " + type + " in field " + name);
+        };
+    }
+
+    private static String readCString(ByteBuffer buffer) {
+        int start = buffer.position();
+        while (buffer.get() != 0) {
+            // Finds the terminator
+        }
+        return new String(buffer.array(), buffer.arrayOffset() + start, buffer.position() - start - 1, StandardCharsets.UTF_8);
+    }
+}
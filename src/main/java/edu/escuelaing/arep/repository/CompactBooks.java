@@ -0,0 +1,577 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Catalog laid out for millions of books, used by {@link BookStore} with {@code store.compact=true}. Instead
+ * of a {@link Book}, a key string and several map nodes per book, each book is a record of a few primitive
+ * arrays indexed by its id, and the catalog holds a few large objects whatever its size, which the garbage
+ * collector marks at once:
+ * <ul>
+ *     <li>The titles are stored as UTF-8 bytes, one after the other, in slabs of {@link #SLAB_SIZE} bytes.
+ *     A record keeps the position of its title as one long.</li>
+ *     <li>The authors are dictionary-encoded: each distinct author is stored once and records keep its int
+ *     code. Books returned by the catalog share the author string.</li>
+ *     <li>Titles are looked up in a primitive open-addressing hash table of ids, with linear probing. Books
+ *     with the same title and different authors are found by walking the probe sequence of the title.</li>
+ *     <li>The two sorted orders are {@link SortedIds} of ids, and the {@link BookSearchIndex} refers to the
+ *     books by the same ids.</li>
+ * </ul>
+ * Books are materialized from their record when they are read. Titles and authors are compared ignoring case
+ * code point by code point.
+ *
+ * <p>There is a single writer at a time, the write lock of the store. Readers take no lock: a record is
+ * written before its id is published in the hash table or a sorted index, and records are never modified, so
+ * a reader that finds an id can read its book even if it is deleted meanwhile. The bytes of deleted books are
+ * therefore not reused; once they outnumber the live books, {@link #isWasteful()} tells the store to rebuild
+ * the catalog.</p>
+ */
+final class CompactBooks {
+
+    // Size of a slab of titles; a longer title gets a slab of its own
+    static final int SLAB_SIZE = 1 << 20;
+    // Longest title, in UTF-8 bytes. The position of a title takes 20 bits for the slab, 20 for the offset in
+    // the slab and 24 for the length
+    static final int MAX_TITLE = (1 << 24) - 1;
+    // Deleted books kept before the catalog may be rebuilt
+    private static final int MIN_WASTE = 1024;
+
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+
+    // Titles, as UTF-8 bytes
+    private volatile byte[][] slabs = new byte[16][];
+    private int slabCount;
+    private int slabUsed; // Bytes used in the last slab
+
+    // Records, indexed by id: the position of the title (slab, offset and length), the author code and the
+    // hash of the title ignoring case
+    private volatile long[] titles = new long[1024];
+    private volatile int[] authors = new int[1024];
+    private volatile int[] hashes = new int[1024];
+    private int nextId;
+
+    // Authors, indexed by code, with their lowercase key; the codes are only looked up by the writer
+    private volatile String[] authorNames = new String[256];
+    private volatile String[] authorKeys = new String[256];
+    private final HashMap<String, Integer> authorCodes = new HashMap<>();
+
+    // Hash table of titles: id + 1 of the book of each slot, EMPTY or DELETED
+    private volatile AtomicIntegerArray slots = new AtomicIntegerArray(1024);
+    private int used; // Slots that are not EMPTY
+
+    private volatile int size;
+    private int deleted;
+
+    private final SortedIds byTitle = new SortedIds(this::compareByTitle);
+    private final SortedIds byAuthor = new SortedIds(this::compareByAuthor);
+    private final BookSearchIndex searchIndex = new BookSearchIndex(this::book);
+
+    /**
+     * Checks whether a book with the same title and author, ignoring case, is in the catalog.
+     */
+    boolean contains(Book book) {
+        String title = book.getTitle();
+        String author = fold(book.getAuthor());
+        int hash = hash(title);
+        AtomicIntegerArray table = slots;
+        for (int i = start(hash, table.length()); ; i = (i + 1) & (table.length() - 1)) {
+            int slot = table.get(i);
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot != DELETED && matches(slot - 1, hash, title) && authorKeys[authors[slot - 1]].equals(author)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds a book that is not in the catalog.
+     *
+     * @throws IllegalArgumentException If the title is longer than {@link #MAX_TITLE} bytes.
+     */
+    void add(Book book) {
+        searchIndex.add(addUnindexed(book), book);
+    }
+
+    /**
+     * Adds a book that is not in the catalog without indexing it for search, so a batch of books can be
+     * indexed at once with {@link #index(int[], List)}.
+     *
+     * @return The id of the book.
+     * @throws IllegalArgumentException If the title is longer than {@link #MAX_TITLE} bytes.
+     */
+    int addUnindexed(Book book) {
+        String title = book.getTitle();
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TITLE) {
+            throw new IllegalArgumentException("Title too long for the compact catalog: " + bytes.length + " bytes");
+        }
+        int id = nextId;
+        if (id == titles.length) {
+            titles = Arrays.copyOf(titles, id * 2);
+            authors = Arrays.copyOf(authors, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        int hash = hash(title);
+        titles[id] = store(bytes);
+        authors[id] = authorCode(book.getAuthor());
+        hashes[id] = hash;
+        nextId++;
+        // Publishing the id makes the record visible to readers
+        insertSlot(id, hash);
+        byTitle.add(id);
+        byAuthor.add(id);
+        size++;
+        return id;
+    }
+
+    /**
+     * Indexes for search the books added with {@link #addUnindexed(Book)}, in the order they were added.
+     *
+     * @param ids   The id of each book.
+     * @param added The books, as many as the ids.
+     */
+    void index(int[] ids, List<Book> added) {
+        searchIndex.addAll(ids, added);
+    }
+
+    /**
+     * Removes the books with a title, ignoring case.
+     *
+     * @return The books removed.
+     */
+    List<Book> removeTitle(String title) {
+        int hash = hash(title);
+        AtomicIntegerArray table = slots;
+        List<Book> removed = new ArrayList<>(1);
+        for (int i = start(hash, table.length()); ; i = (i + 1) & (table.length() - 1)) {
+            int slot = table.get(i);
+            if (slot == EMPTY) {
+                break;
+            }
+            if (slot != DELETED && matches(slot - 1, hash, title)) {
+                int id = slot - 1;
+                Book book = book(id);
+                table.set(i, DELETED);
+                byTitle.remove(id);
+                byAuthor.remove(id);
+                searchIndex.remove(id, book);
+                removed.add(book);
+            }
+        }
+        deleted += removed.size();
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * Finds the books with a title, ignoring case.
+     */
+    List<Book> findByTitle(String title) {
+        int hash = hash(title);
+        AtomicIntegerArray table = slots;
+        List<Book> found = null;
+        for (int i = start(hash, table.length()); ; i = (i + 1) & (table.length() - 1)) {
+            int slot = table.get(i);
+            if (slot == EMPTY) {
+                return found == null ? List.of() : found;
+            }
+            if (slot != DELETED && matches(slot - 1, hash, title)) {
+                if (found == null) {
+                    found = new ArrayList<>(1);
+                }
+                found.add(book(slot - 1));
+            }
+        }
+    }
+
+    /**
+     * Finds books by the words of their title and author. See {@link BookSearchIndex#search(String, int)}.
+     */
+    List<Book> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves a live view of the books ordered by title, materialized as they are iterated.
+     */
+    Collection<Book> books() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Book> iterator() {
+                PrimitiveIterator.OfInt ids = byTitle.iterator(false);
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return ids.hasNext();
+                    }
+
+                    @Override
+                    public Book next() {
+                        return book(ids.nextInt());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a page of the catalog. See {@link BookStore#page}.
+     *
+     * @param after The sort key of the last book of the previous page, lowercase, or null for the first page.
+     */
+    BookStore.Page page(BookStore.Sort sort, BookStore.SortKey after, int limit) {
+        SortedIds index = sort.byAuthor ? byAuthor : byTitle;
+        PrimitiveIterator.OfInt ids = after == null ? index.iterator(sort.descending)
+                : index.iteratorAfter(target(sort.byAuthor, after), sort.descending);
+        List<Book> page = new ArrayList<>(Math.min(limit, 64));
+        int last = -1;
+        while (ids.hasNext()) {
+            if (page.size() == limit) {
+                String title = fold(title(last));
+                String author = authorKeys[authors[last]];
+                return new BookStore.Page(page, BookStore.encodeCursor(sort,
+                        sort.byAuthor ? new BookStore.SortKey(author, title) : new BookStore.SortKey(title, author)));
+            }
+            last = ids.nextInt();
+            page.add(book(last));
+        }
+        return new BookStore.Page(page, null);
+    }
+
+    /**
+     * Indicates whether the deleted books take more room than the live ones, so the catalog should be rebuilt.
+     */
+    boolean isWasteful() {
+        return deleted >= MIN_WASTE && deleted > size;
+    }
+
+    /**
+     * Builds a copy of the catalog with only its live books, in title order. Readers of this catalog are not
+     * disturbed; they let go of it when they finish.
+     */
+    CompactBooks rebuilt() {
+        CompactBooks rebuilt = new CompactBooks();
+        List<Book> live = new ArrayList<>(size);
+        for (Book book : books()) {
+            live.add(book);
+        }
+        int[] ids = new int[live.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = rebuilt.addUnindexed(live.get(i));
+        }
+        rebuilt.index(ids, live);
+        return rebuilt;
+    }
+
+    /**
+     * Materializes the book of an id.
+     */
+    Book book(int id) {
+        return new Book(title(id), authorNames[authors[id]]);
+    }
+
+    private String title(int id) {
+        long position = titles[id];
+        return new String(slabs[slab(position)], offset(position), length(position), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the bytes of a title to the slabs and returns its position.
+     */
+    private long store(byte[] bytes) {
+        // A slab of its own is full once its title is in
+        if (slabCount == 0 || slabUsed >= SLAB_SIZE || slabUsed + bytes.length > slabs[slabCount - 1].length) {
+            byte[][] all = slabs;
+            if (slabCount == all.length) {
+                all = Arrays.copyOf(all, slabCount * 2);
+            }
+            all[slabCount++] = new byte[Math.max(SLAB_SIZE, bytes.length)];
+            slabs = all;
+            slabUsed = 0;
+        }
+        System.arraycopy(bytes, 0, slabs[slabCount - 1], slabUsed, bytes.length);
+        long position = (long) (slabCount - 1) << 44 | (long) slabUsed << 24 | bytes.length;
+        slabUsed += bytes.length;
+        return position;
+    }
+
+    private static int slab(long position) {
+        return (int) (position >>> 44);
+    }
+
+    private static int offset(long position) {
+        return (int) (position >>> 24) & (SLAB_SIZE - 1);
+    }
+
+    private static int length(long position) {
+        return (int) position & MAX_TITLE;
+    }
+
+    private int authorCode(String author) {
+        Integer code = authorCodes.get(author);
+        if (code != null) {
+            return code;
+        }
+        int next = authorCodes.size();
+        String[] names = authorNames;
+        String[] keys = authorKeys;
+        if (next == names.length) {
+            names = Arrays.copyOf(names, next * 2);
+            keys = Arrays.copyOf(keys, next * 2);
+        }
+        names[next] = author;
+        keys[next] = fold(author);
+        authorNames = names;
+        authorKeys = keys;
+        authorCodes.put(author, next);
+        return next;
+    }
+
+    /**
+     * Puts an id in the hash table, reusing the first deleted slot of its probe sequence. The table is rebuilt,
+     * without the deleted slots, when more than two thirds of it are used.
+     */
+    private void insertSlot(int id, int hash) {
+        AtomicIntegerArray table = slots;
+        if ((used + 1) * 3L > table.length() * 2L) {
+            table = rehash(Math.max(1024, Integer.highestOneBit(Math.max(1, size) * 3) * 2));
+        }
+        int i = start(hash, table.length());
+        while (table.get(i) != EMPTY && table.get(i) != DELETED) {
+            i = (i + 1) & (table.length() - 1);
+        }
+        if (table.get(i) == EMPTY) {
+            used++;
+        }
+        table.set(i, id + 1);
+    }
+
+    private AtomicIntegerArray rehash(int capacity) {
+        AtomicIntegerArray old = slots;
+        AtomicIntegerArray table = new AtomicIntegerArray(capacity);
+        int count = 0;
+        for (int j = 0; j < old.length(); j++) {
+            int slot = old.get(j);
+            if (slot != EMPTY && slot != DELETED) {
+                int i = start(hashes[slot - 1], capacity);
+                while (table.getPlain(i) != EMPTY) {
+                    i = (i + 1) & (capacity - 1);
+                }
+                table.setPlain(i, slot);
+                count++;
+            }
+        }
+        used = count;
+        slots = table;
+        return table;
+    }
+
+    /**
+     * Checks whether the book of an id has a title, ignoring case.
+     */
+    private boolean matches(int id, int hash, String title) {
+        return hashes[id] == hash && compareTitle(id, title) == 0;
+    }
+
+    private int compareByTitle(int a, int b) {
+        int order = compareTitles(a, b);
+        if (order == 0) {
+            order = compareFolded(authorKeys[authors[a]], authorKeys[authors[b]]);
+        }
+        return order != 0 ? order : Integer.compare(a, b);
+    }
+
+    private int compareByAuthor(int a, int b) {
+        int order = compareFolded(authorKeys[authors[a]], authorKeys[authors[b]]);
+        if (order == 0) {
+            order = compareTitles(a, b);
+        }
+        return order != 0 ? order : Integer.compare(a, b);
+    }
+
+    /**
+     * Compares a sort key with the books of the ids, in the order of one of the sorted indexes.
+     */
+    private IntUnaryOperator target(boolean byAuthor, BookStore.SortKey key) {
+        return id -> {
+            String author = authorKeys[authors[id]];
+            int order = byAuthor ? compareFolded(key.first(), author) : -compareTitle(id, key.first());
+            if (order == 0) {
+                order = byAuthor ? -compareTitle(id, key.second()) : compareFolded(key.second(), author);
+            }
+            return order;
+        };
+    }
+
+    private int compareTitles(int a, int b) {
+        long first = titles[a];
+        long second = titles[b];
+        byte[][] all = slabs;
+        byte[] x = all[slab(first)];
+        byte[] y = all[slab(second)];
+        int i = offset(first);
+        int j = offset(second);
+        int xEnd = i + length(first);
+        int yEnd = j + length(second);
+        while (i < xEnd && j < yEnd) {
+            int c = x[i];
+            int d = y[j];
+            if ((c | d) >= 0) {
+                // Both ASCII, the usual case
+                if (c != d) {
+                    int order = lowerAscii(c) - lowerAscii(d);
+                    if (order != 0) {
+                        return order;
+                    }
+                }
+                i++;
+                j++;
+                continue;
+            }
+            int order = Character.toLowerCase(codePoint(x, i)) - Character.toLowerCase(codePoint(y, j));
+            if (order != 0) {
+                return order;
+            }
+            i += sequenceLength(c);
+            j += sequenceLength(d);
+        }
+        return Boolean.compare(i < xEnd, j < yEnd);
+    }
+
+    /**
+     * Compares the title of a book with a text, ignoring case.
+     */
+    private int compareTitle(int id, String text) {
+        long position = titles[id];
+        byte[] x = slabs[slab(position)];
+        int i = offset(position);
+        int end = i + length(position);
+        int j = 0;
+        while (i < end && j < text.length()) {
+            int c = x[i];
+            int d = text.charAt(j);
+            if (c >= 0 && d < 0x80) {
+                if (c != d) {
+                    int order = lowerAscii(c) - lowerAscii(d);
+                    if (order != 0) {
+                        return order;
+                    }
+                }
+                i++;
+                j++;
+                continue;
+            }
+            int e = text.codePointAt(j);
+            int order = Character.toLowerCase(codePoint(x, i)) - Character.toLowerCase(e);
+            if (order != 0) {
+                return order;
+            }
+            i += sequenceLength(c);
+            j += Character.charCount(e);
+        }
+        return Boolean.compare(i < end, j < text.length());
+    }
+
+    /**
+     * Compares two lowercase texts code point by code point, the order of the titles.
+     */
+    private static int compareFolded(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int c = a.codePointAt(i);
+            int d = b.codePointAt(j);
+            if (c != d) {
+                return c - d;
+            }
+            i += Character.charCount(c);
+            j += Character.charCount(d);
+        }
+        return Boolean.compare(i < a.length(), j < b.length());
+    }
+
+    /**
+     * Converts a text to lowercase code point by code point, as titles and authors are compared.
+     */
+    static String fold(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            if (Character.toLowerCase(c) != c) {
+                StringBuilder folded = new StringBuilder(text.length()).append(text, 0, i);
+                while (i < text.length()) {
+                    int d = text.codePointAt(i);
+                    folded.appendCodePoint(Character.toLowerCase(d));
+                    i += Character.charCount(d);
+                }
+                return folded.toString();
+            }
+            i += Character.charCount(c);
+        }
+        return text;
+    }
+
+    /**
+     * Hashes a title ignoring case, consistently with {@link #compareTitle}.
+     */
+    static int hash(String title) {
+        int hash = 0;
+        for (int i = 0; i < title.length(); ) {
+            int c = title.codePointAt(i);
+            hash = 31 * hash + Character.toLowerCase(c);
+            i += Character.charCount(c);
+        }
+        return hash;
+    }
+
+    /**
+     * First slot of the probe sequence of a hash, spread over the table by a multiplicative hash.
+     */
+    private static int start(int hash, int capacity) {
+        return (hash * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private static int lowerAscii(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+
+    private static int sequenceLength(int lead) {
+        return lead >= 0 ? 1 : (lead & 0xE0) == 0xC0 ? 2 : (lead & 0xF0) == 0xE0 ? 3 : 4;
+    }
+
+    /**
+     * Decodes the UTF-8 sequence that starts at a position.
+     */
+    private static int codePoint(byte[] bytes, int i) {
+        int lead = bytes[i];
+        return switch (sequenceLength(lead)) {
+            case 1 -> lead;
+            case 2 -> (lead & 0x1F) << 6 | bytes[i + 1] & 0x3F;
+            case 3 -> (lead & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F;
+            default -> (lead & 0x07) << 18 | (bytes[i + 1] & 0x3F) << 12 | (bytes[i + 2] & 0x3F) << 6 | bytes[i + 3] & 0x3F;
+        };
+    }
+}
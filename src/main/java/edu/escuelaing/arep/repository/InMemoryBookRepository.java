@@ -0,0 +1,57 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BookRepository} kept in the memory of the process: a stand-in for a database in tests and local runs
+ * ({@code store.repository=memory}). It counts the batches it receives, so the batching can be observed.
+ */
+public class InMemoryBookRepository implements BookRepository {
+
+    private final ConcurrentHashMap<String, Book> books = new ConcurrentHashMap<>();
+    private final AtomicInteger batches = new AtomicInteger();
+
+    @Override
+    public List<Book> findAll() {
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public void writeBatch(Collection<Book> saved, Collection<Book> deleted) {
+        for (Book book : saved) {
+            books.put(BookRepository.key(book), book);
+        }
+        for (Book book : deleted) {
+            books.remove(BookRepository.key(book));
+        }
+        batches.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Retrieves the number of books stored.
+     *
+     * @return The number of books.
+     */
+    public int size() {
+        return books.size();
+    }
+
+    /**
+     * Retrieves the number of batches written so far.
+     *
+     * @return The number of calls to {@link #writeBatch(Collection, Collection)}.
+     */
+    public int batches() {
+        return batches.get();
+    }
+}
@@ -0,0 +1,234 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link BookRepository} backed by a MongoDB collection, spoken to directly over the wire protocol (OP_MSG,
+ * MongoDB 3.6 and later) through one socket, so the server needs no driver.
+ *
+ * <p>Each book is a document {@code {_id: "<title>|<author>", title, author}} whose id is the lowercase key of
+ * the book. A batch becomes at most two commands: an {@code update} with one upsert per saved book and a
+ * {@code delete} with one statement per deleted book, both unordered so the server can apply them in bulk.
+ * The connection is opened on the first command and again after an error.</p>
+ */
+public class MongoBookRepository implements BookRepository {
+
+    private static final int OP_MSG = 2013;
+    private static final int HEADER = 16;
+    private static final int MAX_MESSAGE = 48_000_000;
+    private static final int FIND_BATCH_SIZE = 10_000;
+
+    private final String host;
+    private final int port;
+    private final String database;
+    private final String collection;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+    private int requestId;
+
+    /**
+     * Creates a repository for a collection. No connection is opened until it is used.
+     *
+     * @param address       The address of the server, as host:port (the port defaults to 27017).
+     * @param database      The name of the database.
+     * @param collection    The name of the collection.
+     * @param timeoutMillis The time allowed to connect and to wait for each reply.
+     */
+    public MongoBookRepository(String address, String database, String collection, int timeoutMillis) {
+        int colon = address.lastIndexOf(':');
+        this.host = colon < 0 ? address : address.substring(0, colon);
+        this.port = colon < 0 ? 27017 : Integer.parseInt(address.substring(colon + 1));
+        this.database = database;
+        this.collection = collection;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public synchronized List<Book> findAll() throws IOException {
+        List<Book> books = new ArrayList<>();
+        Map<String, Object> find = new LinkedHashMap<>();
+        find.put("find", collection);
+        find.put("batchSize", FIND_BATCH_SIZE);
+        Map<String, Object> cursor = cursor(command(find));
+        addBooks(books, cursor.get("firstBatch"));
+        long cursorId = ((Number) cursor.get("id")).longValue();
+        while (cursorId != 0) {
+            Map<String, Object> getMore = new LinkedHashMap<>();
+            getMore.put("getMore", cursorId);
+            getMore.put("collection", collection);
+            getMore.put("batchSize", FIND_BATCH_SIZE);
+            cursor = cursor(command(getMore));
+            addBooks(books, cursor.get("nextBatch"));
+            cursorId = ((Number) cursor.get("id")).longValue();
+        }
+        return books;
+    }
+
+    @Override
+    public synchronized void writeBatch(Collection<Book> saved, Collection<Book> deleted) throws IOException {
+        if (!saved.isEmpty()) {
+            List<Object> updates = new ArrayList<>(saved.size());
+            for (Book book : saved) {
+                String id = BookRepository.key(book);
+                Map<String, Object> document = new LinkedHashMap<>();
+                document.put("_id", id);
+                document.put("title", book.getTitle());
+                document.put("author", book.getAuthor());
+                Map<String, Object> update = new LinkedHashMap<>();
+                update.put("q", Map.of("_id", id));
+                update.put("u", document);
+                update.put("upsert", true);
+                updates.add(update);
+            }
+            Map<String, Object> command = new LinkedHashMap<>();
+            command.put("update", collection);
+            command.put("updates", updates);
+            command.put("ordered", false);
+            checkWrite(command(command));
+        }
+        if (!deleted.isEmpty()) {
+            List<Object> deletes = new ArrayList<>(deleted.size());
+            for (Book book : deleted) {
+                Map<String, Object> delete = new LinkedHashMap<>();
+                delete.put("q", Map.of("_id", BookRepository.key(book)));
+                delete.put("limit", 1);
+                deletes.add(delete);
+            }
+            Map<String, Object> command = new LinkedHashMap<>();
+            command.put("delete", collection);
+            command.put("deletes", deletes);
+            command.put("ordered", false);
+            checkWrite(command(command));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket != null) {
+            Socket open = socket;
+            socket = null;
+            open.close();
+        }
+    }
+
+    /**
+     * Sends a command to the database and reads its reply.
+     *
+     * @throws IOException If the command cannot be sent, its reply cannot be read, or the reply is not ok.
+     */
+    private Map<String, Object> command(Map<String, Object> command) throws IOException {
+        command.put("$db", database);
+        byte[] document = Bson.encode(command);
+        try {
+            if (socket == null) {
+                connect();
+            }
+            int id = ++requestId;
+            // Header, flags and one section of kind 0 with the command
+            ByteBuffer message = ByteBuffer.allocate(HEADER + 4 + 1 + document.length).order(ByteOrder.LITTLE_ENDIAN);
+            message.putInt(message.capacity()).putInt(id).putInt(0).putInt(OP_MSG)
+                    .putInt(0)
+                    .put((byte) 0)
+                    .put(document);
+            out.write(message.array());
+            out.flush();
+            return readReply(id);
+        } catch (IOException e) {
+            close(); // The state of the connection is unknown
+            throw e;
+        }
+    }
+
+    private Map<String, Object> readReply(int id) throws IOException {
+        byte[] header = new byte[HEADER];
+        in.readFully(header);
+        ByteBuffer head = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int length = head.getInt();
+        head.getInt(); // Id of the reply
+        int responseTo = head.getInt();
+        int opCode = head.getInt();
+        if (opCode != OP_MSG || responseTo != id || length < HEADER + 5 || length > MAX_MESSAGE) {
+            throw new IOException("Unexpected MongoDB reply: opCode " + opCode + ", responseTo " + responseTo + ", length " + length);
+        }
+        byte[] body = new byte[length - HEADER];
+        in.readFully(body);
+        ByteBuffer reply = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        reply.getInt(); // Flags
+        if (reply.get() != 0) {
+            throw new IOException("Unexpected MongoDB reply section");
+        }
+        Map<String, Object> document = Bson.decode(reply);
+        Object ok = document.get("ok");
+        if (!(ok instanceof Number number) || number.doubleValue() != 1) {
+            throw new IOException("MongoDB command failed: " + document.get("errmsg") + " (code " + document.get("code") + ")");
+        }
+        return document;
+    }
+
+    private void connect() throws IOException {
+        Socket opened = new Socket();
+        try {
+            opened.connect(new InetSocketAddress(host, port), timeoutMillis);
+            opened.setSoTimeout(timeoutMillis);
+            opened.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(opened.getInputStream()));
+            out = opened.getOutputStream();
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        socket = opened;
+    }
+
+    /**
+     * Fails if a write command reports errors for some of its statements, which do not make the reply not ok.
+     */
+    private static void checkWrite(Map<String, Object> reply) throws IOException {
+        Object errors = reply.get("writeErrors");
+        if (errors instanceof List<?> list && !list.isEmpty()) {
+            throw new IOException(list.size() + " MongoDB write errors, the first: " + list.get(0));
+        }
+        if (reply.get("writeConcernError") != null) {
+            throw new IOException("MongoDB write concern error: " + reply.get("writeConcernError"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> cursor(Map<String, Object> reply) throws IOException {
+        if (!(reply.get("cursor") instanceof Map<?, ?> cursor)) {
+            throw new IOException("MongoDB reply without a cursor: " + reply);
+        }
+        return (Map<String, Object>) cursor;
+    }
+
+    private static void addBooks(List<Book> books, Object batch) {
+        if (!(batch instanceof List<?> documents)) {
+            return;
+        }
+        for (Object document : documents) {
+            if (document instanceof Map<?, ?> fields && fields.get("title") instanceof String title
+                    && fields.get("author") instanceof String author) {
+                books.add(new Book(title, author));
+            } else {
+                System.err.println("Documento de libro ignorado: " + document);
+            }
+        }
+    }
+}
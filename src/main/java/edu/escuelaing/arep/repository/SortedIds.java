@@ -0,0 +1,246 @@
+package edu.escuelaing.arep.repository;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Ordered set of int ids, the sorted index of the compact catalog (see {@link CompactBooks}). The ids are kept
+ * in sorted leaves of up to {@link #LEAF_SIZE} ids, and the leaves in a directory in order, so an id costs
+ * about 5 bytes instead of the node, key and index objects of a skip list. The order is given by a comparator
+ * of ids, which compares the books they stand for.
+ *
+ * <p>There is a single writer at a time. Leaves are never modified: an insert or a delete copies the leaf and
+ * puts the copy in the directory, and the directory is only copied when a leaf is split or emptied. Readers
+ * take no lock and see each leaf either before or after a write; like the iterators of the concurrent
+ * collections, an iteration sees some of the writes made meanwhile.</p>
+ */
+final class SortedIds {
+
+    // Largest leaf; a full leaf is split in two halves
+    static final int LEAF_SIZE = 256;
+
+    /**
+     * Order of the ids, e.g. by the title and author of the books.
+     */
+    interface Order {
+        int compare(int a, int b);
+    }
+
+    private final Order order;
+    private volatile AtomicReferenceArray<int[]> leaves = new AtomicReferenceArray<>(0);
+    private int size; // Only read by the writer
+
+    SortedIds(Order order) {
+        this.order = order;
+    }
+
+    /**
+     * Adds an id that is not in the set.
+     */
+    void add(int id) {
+        AtomicReferenceArray<int[]> directory = leaves;
+        if (directory.length() == 0) {
+            leaves = new AtomicReferenceArray<>(new int[][]{{id}});
+            size++;
+            return;
+        }
+        int leafIndex = leafOf(directory, other -> order.compare(id, other));
+        int[] leaf = directory.get(leafIndex);
+        int position = upperBound(leaf, other -> order.compare(id, other));
+        int[] grown = new int[leaf.length + 1];
+        System.arraycopy(leaf, 0, grown, 0, position);
+        grown[position] = id;
+        System.arraycopy(leaf, position, grown, position + 1, leaf.length - position);
+        if (grown.length <= LEAF_SIZE) {
+            directory.set(leafIndex, grown);
+        } else {
+            int half = grown.length / 2;
+            int[][] split = new int[directory.length() + 1][];
+            for (int i = 0; i < leafIndex; i++) {
+                split[i] = directory.get(i);
+            }
+            split[leafIndex] = Arrays.copyOfRange(grown, 0, half);
+            split[leafIndex + 1] = Arrays.copyOfRange(grown, half, grown.length);
+            for (int i = leafIndex + 1; i < directory.length(); i++) {
+                split[i + 1] = directory.get(i);
+            }
+            leaves = new AtomicReferenceArray<>(split);
+        }
+        size++;
+    }
+
+    /**
+     * Removes an id of the set. The comparator must still place it where it was added.
+     */
+    void remove(int id) {
+        AtomicReferenceArray<int[]> directory = leaves;
+        if (directory.length() == 0) {
+            return;
+        }
+        int leafIndex = leafOf(directory, other -> order.compare(id, other));
+        int[] leaf = directory.get(leafIndex);
+        int position = upperBound(leaf, other -> order.compare(id, other)) - 1;
+        if (position < 0 || leaf[position] != id) {
+            return;
+        }
+        if (leaf.length > 1) {
+            int[] shrunk = new int[leaf.length - 1];
+            System.arraycopy(leaf, 0, shrunk, 0, position);
+            System.arraycopy(leaf, position + 1, shrunk, position, shrunk.length - position);
+            directory.set(leafIndex, shrunk);
+        } else {
+            int[][] rest = new int[directory.length() - 1][];
+            for (int i = 0, j = 0; i < directory.length(); i++) {
+                if (i != leafIndex) {
+                    rest[j++] = directory.get(i);
+                }
+            }
+            leaves = new AtomicReferenceArray<>(rest);
+        }
+        size--;
+    }
+
+    /**
+     * Retrieves the number of ids.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Iterates the ids from the first one, or from the last one if descending.
+     */
+    PrimitiveIterator.OfInt iterator(boolean descending) {
+        AtomicReferenceArray<int[]> directory = leaves;
+        if (descending) {
+            int last = directory.length() - 1;
+            return new Walk(directory, last, last < 0 ? -1 : directory.get(last).length - 1, true);
+        }
+        return new Walk(directory, 0, 0, false);
+    }
+
+    /**
+     * Iterates the ids that come after a position, or before it if descending. The position does not need to be
+     * an id of the set, e.g. the last book of a page that was deleted since.
+     *
+     * @param target Compares the position with an id: negative if the position comes before the id.
+     */
+    PrimitiveIterator.OfInt iteratorAfter(IntUnaryOperator target, boolean descending) {
+        AtomicReferenceArray<int[]> directory = leaves;
+        if (directory.length() == 0) {
+            return new Walk(directory, 0, 0, false);
+        }
+        int leafIndex = leafOf(directory, target);
+        int[] leaf = directory.get(leafIndex);
+        if (descending) {
+            // The last id strictly before the position
+            int position = lowerBound(leaf, target) - 1;
+            return new Walk(directory, leafIndex, position, true, leaf);
+        }
+        return new Walk(directory, leafIndex, upperBound(leaf, target), false, leaf);
+    }
+
+    /**
+     * Finds the leaf where a position belongs: the last one whose first id does not come after it, or the first.
+     */
+    private static int leafOf(AtomicReferenceArray<int[]> directory, IntUnaryOperator target) {
+        int low = 1;
+        int high = directory.length() - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (target.applyAsInt(directory.get(middle)[0]) >= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the index of the first id of a leaf that comes after a position.
+     */
+    private static int upperBound(int[] leaf, IntUnaryOperator target) {
+        int low = 0;
+        int high = leaf.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (target.applyAsInt(leaf[middle]) >= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the index of the first id of a leaf that does not come before a position.
+     */
+    private static int lowerBound(int[] leaf, IntUnaryOperator target) {
+        int low = 0;
+        int high = leaf.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (target.applyAsInt(leaf[middle]) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Walks the leaves of a directory. The leaf being walked is read once, so a write to it does not shift the
+     * ids under the walk.
+     */
+    private static final class Walk implements PrimitiveIterator.OfInt {
+        private final AtomicReferenceArray<int[]> directory;
+        private final boolean descending;
+        private int leafIndex;
+        private int[] leaf;
+        private int position;
+
+        Walk(AtomicReferenceArray<int[]> directory, int leafIndex, int position, boolean descending) {
+            this(directory, leafIndex, position, descending,
+                    leafIndex >= 0 && leafIndex < directory.length() ? directory.get(leafIndex) : new int[0]);
+        }
+
+        Walk(AtomicReferenceArray<int[]> directory, int leafIndex, int position, boolean descending, int[] leaf) {
+            this.directory = directory;
+            this.descending = descending;
+            this.leafIndex = leafIndex;
+            this.leaf = leaf;
+            this.position = position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position < 0 || position >= leaf.length) {
+                leafIndex += descending ? -1 : 1;
+                if (leafIndex < 0 || leafIndex >= directory.length()) {
+                    return false;
+                }
+                leaf = directory.get(leafIndex);
+                position = descending ? leaf.length - 1 : 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int id = leaf[position];
+            position += descending ? -1 : 1;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package edu.escuelaing.arep.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ChannelOutputStream} over a blocking socket channel, used by the socket engines of {@link HttpServer}.
+ * Every write completes before returning.
+ */
+public class BlockingChannelOutputStream extends ChannelOutputStream {
+
+    private final WritableByteChannel channel;
+
+    /**
+     * Creates an output stream that writes to a blocking channel.
+     *
+     * @param channel The channel of the client connection.
+     */
+    public BlockingChannelOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        written(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers) throws IOException {
+        if (!(channel instanceof GatheringByteChannel gathering)) {
+            super.write(buffers);
+            return;
+        }
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        written(remaining);
+        while (remaining > 0) {
+            remaining -= gathering.write(buffers);
+        }
+    }
+
+    @Override
+    public void transferFrom(Path file, long position, long count) throws IOException {
+        written(count);
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                long sent = fileChannel.transferTo(position, end - position, channel);
+                if (sent <= 0 && position >= fileChannel.size()) {
+                    throw new IOException("File truncated while sending: " + file);
+                }
+                position += sent;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
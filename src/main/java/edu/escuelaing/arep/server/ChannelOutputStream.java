@@ -0,0 +1,78 @@
+package edu.escuelaing.arep.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Output stream of a client connection that is backed by a socket channel.
+ * Besides plain bytes, it can send a {@link ByteBuffer} (e.g. a memory-mapped file) or a region of a file
+ * without copying the file into the heap, which is how {@link FileHandler} sends static files.
+ * It counts the bytes written, for the {@link Metrics} of the responses.
+ */
+public abstract class ChannelOutputStream extends OutputStream {
+
+    private long bytesWritten; // Only used by the thread writing to the connection
+
+    /**
+     * Retrieves the number of bytes written so far, including those still queued to be sent.
+     *
+     * @return The bytes written to the stream.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Counts bytes written by a subclass.
+     *
+     * @param bytes The number of bytes written.
+     */
+    protected void written(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    /**
+     * Writes all the remaining bytes of a buffer.
+     *
+     * @param buffer The buffer to write; it must not be modified until it has been written.
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    public abstract void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Writes all the remaining bytes of several buffers, in order. Channels that support it write them
+     * with a single gathering write. Unlike {@link #write(ByteBuffer)}, the buffers may be reused as soon
+     * as the method returns.
+     *
+     * @param buffers The buffers to write.
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    public void write(ByteBuffer[] buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            write(buffer);
+        }
+    }
+
+    /**
+     * Sends a region of a file to the connection with {@link java.nio.channels.FileChannel#transferTo},
+     * so the operating system copies the file to the socket directly (sendfile).
+     *
+     * @param file     The file to send.
+     * @param position The position of the first byte to send.
+     * @param count    The number of bytes to send.
+     * @throws IOException If an error occurs while reading the file or writing to the connection.
+     */
+    public abstract void transferFrom(Path file, long position, long count) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(bytes, offset, length));
+    }
+}
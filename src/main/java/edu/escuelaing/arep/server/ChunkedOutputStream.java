@@ -0,0 +1,208 @@
+package edu.escuelaing.arep.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Body of a streamed response, sent with {@code Transfer-Encoding: chunked}.
+ * Writes are gathered in a buffer of {@code server.chunk.flush.threshold} bytes (default 8 KB) and sent as
+ * one chunk when the buffer fills up or {@link #flush()} is called, so a handler can produce a large body
+ * with constant memory. The response head is written together with the first chunk, which lets the handler
+ * choose the content type until it starts writing. {@link #close()} sends the last chunk; the connection
+ * itself stays open.
+ *
+ * <p>HTTP/1.0 clients do not understand chunked bodies: for them the body is sent as it is and the connection
+ * is closed to mark its end.</p>
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    // Bytes gathered before a chunk is sent
+    public static final int FLUSH_THRESHOLD = ServerConfig.getInt("server.chunk.flush.threshold", 8192);
+
+    private static final byte[] CHUNKED = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] statusLine;
+    private final Supplier<String> contentType;
+    private final boolean chunked;
+    private final boolean keepAlive;
+    private final byte[] buffer;
+    private final byte[] chunkHeader = new byte[10]; // Up to 8 hex digits and CRLF
+    private int count;
+    private boolean headSent;
+    private boolean closed;
+
+    /**
+     * Creates the body stream of a response.
+     *
+     * @param out         The output stream of the connection.
+     * @param statusLine  The precomputed status line, ending in CRLF.
+     * @param contentType Gives the content type when the head is sent.
+     * @param chunked     Whether the body is chunked; false for HTTP/1.0 clients, whose connection is closed.
+     * @param keepAlive   Whether the connection stays open after the response; ignored if the body is not chunked.
+     * @param threshold   The number of bytes gathered before a chunk is sent.
+     */
+    public ChunkedOutputStream(OutputStream out, byte[] statusLine, Supplier<String> contentType,
+                               boolean chunked, boolean keepAlive, int threshold) {
+        this.out = out;
+        this.statusLine = statusLine;
+        this.contentType = contentType;
+        this.chunked = chunked;
+        this.keepAlive = chunked && keepAlive;
+        this.buffer = new byte[Math.max(16, threshold)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length >= buffer.length) {
+            // Bigger than the buffer: send what is gathered and then these bytes as their own chunk, without copying
+            if (count > 0) {
+                sendChunk(buffer, 0, count);
+                count = 0;
+            }
+            sendChunk(bytes, offset, length);
+            return;
+        }
+        if (length > buffer.length - count) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * Sends the gathered bytes as a chunk right away, e.g. to reduce the time to the first byte.
+     *
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0 || !headSent) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * Sends the remaining bytes and the last chunk. The connection is not closed.
+     *
+     * @throws IOException If an error occurs while writing to the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (count > 0 || !headSent) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+        if (chunked) {
+            out.write(LAST_CHUNK);
+        }
+        out.flush();
+        closed = true;
+    }
+
+    /**
+     * Indicates whether the connection stays open after the response.
+     *
+     * @return false if the body is not chunked, so its end is marked by closing the connection.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The response has already been sent");
+        }
+    }
+
+    /**
+     * Sends the head (the first time) and a chunk with one gathering write when the connection supports it.
+     */
+    private void sendChunk(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer head = headSent ? null : ByteBuffer.wrap(head());
+        headSent = true;
+        if (!chunked) {
+            if (head != null) {
+                out.write(head.array());
+            }
+            out.write(bytes, offset, length);
+            return;
+        }
+        if (length == 0) {
+            // An empty chunk would end the body, only the head is sent
+            if (head != null && out instanceof ChannelOutputStream channel) {
+                channel.write(new ByteBuffer[]{head});
+            } else if (head != null) {
+                out.write(head.array());
+            }
+            return;
+        }
+        int headerLength = chunkHeader(length);
+        if (out instanceof ChannelOutputStream channel) {
+            ByteBuffer chunkStart = ByteBuffer.wrap(chunkHeader, 0, headerLength);
+            ByteBuffer data = ByteBuffer.wrap(bytes, offset, length);
+            ByteBuffer chunkEnd = ByteBuffer.wrap(CRLF);
+            channel.write(head == null
+                    ? new ByteBuffer[]{chunkStart, data, chunkEnd}
+                    : new ByteBuffer[]{head, chunkStart, data, chunkEnd});
+        } else {
+            if (head != null) {
+                out.write(head.array());
+            }
+            out.write(chunkHeader, 0, headerLength);
+            out.write(bytes, offset, length);
+            out.write(CRLF);
+        }
+    }
+
+    private byte[] head() {
+        StringBuilder head = new StringBuilder(128)
+                .append(new String(statusLine, StandardCharsets.US_ASCII))
+                .append("Content-Type: ").append(contentType.get()).append("\r\n");
+        if (chunked) {
+            head.append(new String(CHUNKED, StandardCharsets.US_ASCII));
+        }
+        head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n").append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the size of a chunk in hexadecimal followed by CRLF into the chunk header.
+     *
+     * @return The length of the chunk header.
+     */
+    private int chunkHeader(int length) {
+        int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 3) / 4);
+        for (int i = digits - 1; i >= 0; i--) {
+            chunkHeader[i] = HEX[length & 0xf];
+            length >>>= 4;
+        }
+        chunkHeader[digits] = '\r';
+        chunkHeader[digits + 1] = '\n';
+        return digits + 2;
+    }
+}
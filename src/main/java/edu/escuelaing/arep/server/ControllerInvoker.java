@@ -0,0 +1,304 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.Response;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.function.BiFunction;
+
+/**
+ * Handler that calls a controller method without reflection.
+ * Everything that does not depend on the request is prepared when the route is registered: the annotations of
+ * the parameters become an {@link ArgumentResolver} each, and the method is linked with
+ * {@link LambdaMetafactory} to a small functional interface implemented by a generated class. A request then
+ * resolves the arguments and makes an ordinary interface call that the JIT can inline down to the method.
+ * Methods with more than {@value #MAX_LINKED_ARGUMENTS} parameters, or that cannot be linked, are called
+ * through a {@link MethodHandle} instead.
+ */
+abstract class ControllerInvoker implements BiFunction<Request, Response, String> {
+
+    static final int MAX_LINKED_ARGUMENTS = 3;
+
+    /**
+     * Produces the value of one parameter of a controller method.
+     */
+    @FunctionalInterface
+    interface ArgumentResolver {
+        Object resolve(Request req, Response res);
+    }
+
+    // Public because the generated classes are defined in the package of the controller
+    // Linked to methods that return a value
+    @FunctionalInterface
+    public interface Call0 { Object call(Object controller); }
+    @FunctionalInterface
+    public interface Call1 { Object call(Object controller, Object a); }
+    @FunctionalInterface
+    public interface Call2 { Object call(Object controller, Object a, Object b); }
+    @FunctionalInterface
+    public interface Call3 { Object call(Object controller, Object a, Object b, Object c); }
+
+    // Linked to void methods, which stream their response
+    @FunctionalInterface
+    public interface Run0 { void run(Object controller); }
+    @FunctionalInterface
+    public interface Run1 { void run(Object controller, Object a); }
+    @FunctionalInterface
+    public interface Run2 { void run(Object controller, Object a, Object b); }
+    @FunctionalInterface
+    public interface Run3 { void run(Object controller, Object a, Object b, Object c); }
+
+    private static final Class<?>[] CALLS = {Call0.class, Call1.class, Call2.class, Call3.class};
+    private static final Class<?>[] RUNS = {Run0.class, Run1.class, Run2.class, Run3.class};
+
+    final Object controller;
+
+    private ControllerInvoker(Object controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Prepares the invoker of a mapped method.
+     *
+     * @param controller The controller instance, shared by all requests.
+     * @param method     The mapped method, returning a String or void.
+     * @return The handler of the route.
+     * @throws IllegalArgumentException If the method cannot be accessed.
+     */
+    static ControllerInvoker of(Object controller, Method method) {
+        ArgumentResolver[] resolvers = resolvers(method);
+        MethodHandle target;
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            target = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + method, e);
+        }
+        if (resolvers.length <= MAX_LINKED_ARGUMENTS) {
+            try {
+                Object function = link(lookup, target, method, resolvers.length);
+                return switch (resolvers.length) {
+                    case 0 -> new Linked0(controller, function);
+                    case 1 -> new Linked1(controller, function, resolvers[0]);
+                    case 2 -> new Linked2(controller, function, resolvers[0], resolvers[1]);
+                    default -> new Linked3(controller, function, resolvers[0], resolvers[1], resolvers[2]);
+                };
+            } catch (Throwable e) {
+                System.err.println("No se pudo enlazar " + method + ", se usará un MethodHandle: " + e);
+            }
+        }
+        return new Spread(controller, target, resolvers);
+    }
+
+    /**
+     * Builds the resolvers of the parameters of a method from their annotations and types.
+     */
+    static ArgumentResolver[] resolvers(Method method) {
+        Parameter[] parameters = method.getParameters();
+        ArgumentResolver[] resolvers = new ArgumentResolver[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            if (parameter.isAnnotationPresent(RequestParam.class)) {
+                RequestParam requestParam = parameter.getAnnotation(RequestParam.class);
+                String name = requestParam.value();
+                String defaultValue = requestParam.defaultValue();
+                resolvers[i] = (req, res) -> req.getQueryParams().getOrDefault(name, defaultValue);
+            } else if (parameter.isAnnotationPresent(PathVariable.class)) {
+                String name = parameter.getAnnotation(PathVariable.class).value();
+                resolvers[i] = (req, res) -> req.getPathVariable(name);
+            } else if (parameter.getType() == Request.class) {
+                resolvers[i] = (req, res) -> req;
+            } else if (parameter.getType() == Response.class) {
+                resolvers[i] = (req, res) -> res;
+            } else {
+                resolvers[i] = (req, res) -> null;
+            }
+        }
+        return resolvers;
+    }
+
+    /**
+     * Generates an implementation of the Call or Run interface of the arity that calls the method directly.
+     */
+    private static Object link(MethodHandles.Lookup lookup, MethodHandle target, Method method, int arity) throws Throwable {
+        boolean isVoid = method.getReturnType() == void.class;
+        Class<?> functionalInterface = (isVoid ? RUNS : CALLS)[arity];
+        String name = isVoid ? "run" : "call";
+        MethodType erased = MethodType.genericMethodType(arity + 1);
+        if (isVoid) {
+            erased = erased.changeReturnType(void.class);
+        }
+        // The exact types of the method, which the generated class casts the arguments to
+        MethodType instantiated = target.type().wrap();
+        if (isVoid) {
+            instantiated = instantiated.changeReturnType(void.class);
+        }
+        return LambdaMetafactory.metafactory(lookup, name, MethodType.methodType(functionalInterface),
+                erased, target, instantiated).getTarget().invoke();
+    }
+
+    /**
+     * Converts the result of a controller method into the body of the response.
+     */
+    static String body(Object result) {
+        return result == null ? null : result.toString();
+    }
+
+    static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        return new RuntimeException("Error invoking method", e);
+    }
+
+    private static final class Linked0 extends ControllerInvoker {
+        private final Call0 call;
+        private final Run0 run;
+
+        private Linked0(Object controller, Object function) {
+            super(controller);
+            this.call = function instanceof Call0 c ? c : null;
+            this.run = function instanceof Run0 r ? r : null;
+        }
+
+        @Override
+        public String apply(Request req, Response res) {
+            try {
+                if (call != null) {
+                    return body(call.call(controller));
+                }
+                run.run(controller);
+                return null;
+            } catch (Exception e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    private static final class Linked1 extends ControllerInvoker {
+        private final Call1 call;
+        private final Run1 run;
+        private final ArgumentResolver a;
+
+        private Linked1(Object controller, Object function, ArgumentResolver a) {
+            super(controller);
+            this.call = function instanceof Call1 c ? c : null;
+            this.run = function instanceof Run1 r ? r : null;
+            this.a = a;
+        }
+
+        @Override
+        public String apply(Request req, Response res) {
+            try {
+                if (call != null) {
+                    return body(call.call(controller, a.resolve(req, res)));
+                }
+                run.run(controller, a.resolve(req, res));
+                return null;
+            } catch (Exception e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    private static final class Linked2 extends ControllerInvoker {
+        private final Call2 call;
+        private final Run2 run;
+        private final ArgumentResolver a;
+        private final ArgumentResolver b;
+
+        private Linked2(Object controller, Object function, ArgumentResolver a, ArgumentResolver b) {
+            super(controller);
+            this.call = function instanceof Call2 c ? c : null;
+            this.run = function instanceof Run2 r ? r : null;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public String apply(Request req, Response res) {
+            try {
+                if (call != null) {
+                    return body(call.call(controller, a.resolve(req, res), b.resolve(req, res)));
+                }
+                run.run(controller, a.resolve(req, res), b.resolve(req, res));
+                return null;
+            } catch (Exception e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    private static final class Linked3 extends ControllerInvoker {
+        private final Call3 call;
+        private final Run3 run;
+        private final ArgumentResolver a;
+        private final ArgumentResolver b;
+        private final ArgumentResolver c;
+
+        private Linked3(Object controller, Object function, ArgumentResolver a, ArgumentResolver b, ArgumentResolver c) {
+            super(controller);
+            this.call = function instanceof Call3 f ? f : null;
+            this.run = function instanceof Run3 r ? r : null;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        @Override
+        public String apply(Request req, Response res) {
+            try {
+                if (call != null) {
+                    return body(call.call(controller, a.resolve(req, res), b.resolve(req, res), c.resolve(req, res)));
+                }
+                run.run(controller, a.resolve(req, res), b.resolve(req, res), c.resolve(req, res));
+                return null;
+            } catch (Exception e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    /**
+     * Fallback for methods with many parameters: a method handle bound to the controller that takes an array.
+     */
+    private static final class Spread extends ControllerInvoker {
+        private final MethodHandle handle;
+        private final ArgumentResolver[] resolvers;
+
+        private Spread(Object controller, MethodHandle target, ArgumentResolver[] resolvers) {
+            super(controller);
+            MethodHandle bound = target.bindTo(controller);
+            if (bound.type().returnType() == void.class) {
+                bound = MethodHandles.filterReturnValue(bound, MethodHandles.constant(Object.class, null));
+            }
+            this.handle = bound.asSpreader(Object[].class, resolvers.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            this.resolvers = resolvers;
+        }
+
+        @Override
+        public String apply(Request req, Response res) {
+            Object[] args = new Object[resolvers.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = resolvers[i].resolve(req, res);
+            }
+            try {
+                return body(handle.invokeExact(args));
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+    }
+}
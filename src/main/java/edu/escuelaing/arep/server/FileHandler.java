@@ -1,14 +1,48 @@
 package edu.escuelaing.arep.server;
 
+import edu.escuelaing.arep.controller.Request;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 /**
  * Handles the reading and serving of files in the HTTP server.
  * This class serves static files from a base directory and determines their MIME type.
+ * Responses of small files are kept pre-rendered in a {@link StaticFileCache}; larger files are streamed
+ * from the file system to the connection, so serving them does not allocate heap memory proportional to their size.
+ * Responses carry ETag and Last-Modified headers, and conditional requests are answered with 304 Not Modified.
+ * Range requests are answered with 206 Partial Content, sending only the requested slices of the file.
  */
 public class FileHandler {
+
+    // Files of at least this size are memory-mapped instead of being sent with transferTo
+    private static final long MMAP_THRESHOLD = ServerConfig.getLong("static.mmap.threshold", 1024 * 1024);
+    private static final Map<Path, MappedFile> mappedFiles = new ConcurrentHashMap<>();
+    private static final StaticFileCache cache = new StaticFileCache(
+            ServerConfig.getLong("static.cache.max.bytes", 16 * 1024 * 1024),
+            ServerConfig.getLong("static.cache.max.entry", 256 * 1024));
+    private static final byte[] OK_KEEP_ALIVE = "HTTP/1.1 200 OK\r\nConnection: keep-alive\r\n".getBytes();
+    private static final byte[] OK_CLOSE = "HTTP/1.1 200 OK\r\nConnection: close\r\n".getBytes();
+    private static final byte[] CRLF = "\r\n".getBytes();
+    // Requests asking for more ranges than this are answered with the whole file
+    private static final int MAX_RANGES = 16;
+
     /**
      * Serves static files from the folder configured in WebFramework.
      *
@@ -17,6 +51,19 @@ public class FileHandler {
      * @throws IOException If an error occurs while reading the file or writing to the output stream.
      */
     public static void serveFile(String resource, OutputStream out) throws IOException {
+        serveFile(new Request("GET", resource, "HTTP/1.1", new HashMap<>(), new HashMap<>()), out);
+    }
+
+    /**
+     * Serves the static file named by the path of a request.
+     *
+     * @param req The request whose path names the file; it also decides whether the connection stays open.
+     * @param out The output stream where the requested file will be sent.
+     * @return The status code of the response: 200, 206, 304, 404 or 416.
+     * @throws IOException If an error occurs while reading the file or writing to the output stream.
+     */
+    public static int serveFile(Request req, OutputStream out) throws IOException {
+        String resource = req.getPath();
         if (resource.equals("/")) {
             resource = "/index.html";
         }
@@ -25,30 +72,352 @@ public class FileHandler {
         String staticFolder = WebFramework.getStaticFolder();
         Path filePath = Path.of(staticFolder + resource);
 
-        if (Files.exists(filePath) && !Files.isDirectory(filePath)) {
+        BasicFileAttributes attributes = readAttributes(filePath);
+        if (attributes != null && attributes.isRegularFile()) {
             // If the file exists, send the headers and content
-            String contentType = getContentType(resource);
-            byte[] fileBytes = Files.readAllBytes(filePath);
+            StaticFileCache.Entry entry = cache.lookup(filePath, attributes, getContentType(resource));
+            StaticFileCache.Variant variant = entry.select(req.getHeader("Accept-Encoding"));
+            if (isNotModified(req, entry, variant)) {
+                cache.recordNotModified(entry);
+                String response = "HTTP/1.1 304 Not Modified\r\n" +
+                        "ETag: " + variant.etag() + "\r\n" +
+                        "Last-Modified: " + entry.getLastModifiedHeader() + "\r\n" +
+                        (entry.isCompressed() ? "Vary: Accept-Encoding\r\n" : "") +
+                        WebFramework.connectionHeader(req) +
+                        "\r\n";
+                out.write(response.getBytes());
+                out.flush();
+                return 304;
+            }
 
-            String responseHeader = "HTTP/1.1 200 OK\r\n" +
-                    "Content-Type: " + contentType + "\r\n" +
-                    "Access-Control-Allow-Origin: *\r\n" + // Permite solicitudes desde cualquier origen
-                    "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n" + // Métodos permitidos
-                    "Access-Control-Allow-Headers: Content-Type\r\n" + // Encabezados permitidos
-                    "Content-Length: " + fileBytes.length + "\r\n" +
-                    "\r\n";
+            String range = req.getHeader("Range");
+            if (!range.isEmpty() && "GET".equalsIgnoreCase(req.getMethod()) && isRangeCurrent(req, entry)) {
+                List<ByteRange> ranges = parseRanges(range, entry.getSize());
+                if (ranges != null) {
+                    return sendRanges(req, filePath, getContentType(resource), entry, ranges, out);
+                }
+            }
 
-            out.write(responseHeader.getBytes());
-            out.write(fileBytes);
+            out.write(req.isKeepAlive() ? OK_KEEP_ALIVE : OK_CLOSE);
+            out.write(variant.response());
+            if (!variant.hasBody()) {
+                sendFileContent(filePath, 0, entry.getSize(), out);
+            }
+            return 200;
         } else {
             String response = "HTTP/1.1 404 Not Found\r\n" +
                     "Access-Control-Allow-Origin: *\r\n" +
                     "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n" +
                     "Access-Control-Allow-Headers: Content-Type\r\n" +
+                    "Content-Length: 13\r\n" +
+                    WebFramework.connectionHeader(req) +
                     "\r\n" +
                     "404 Not Found";
             out.write(response.getBytes());
+            return 404;
+        }
+    }
+
+    /**
+     * Reads the attributes of a file with a single file system call.
+     *
+     * @param filePath The file.
+     * @return The attributes of the file, or null if it does not exist.
+     * @throws IOException If an error occurs while reading the attributes.
+     */
+    private static BasicFileAttributes readAttributes(Path filePath) throws IOException {
+        try {
+            return Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the conditional headers of a request against the current version of a file.
+     * If-None-Match takes precedence over If-Modified-Since, as required by RFC 9110.
+     *
+     * @param req     The request.
+     * @param entry   The cached responses of the file.
+     * @param variant The encoding of the file selected for the request, whose ETag the client must match.
+     * @return true if the client's copy is current and a 304 Not Modified response must be sent.
+     */
+    static boolean isNotModified(Request req, StaticFileCache.Entry entry, StaticFileCache.Variant variant) {
+        if (!req.getHeader("If-None-Match").isEmpty()) {
+            return req.ifNoneMatch(variant.etag());
+        }
+        String ifModifiedSince = req.getHeader("If-Modified-Since");
+        if (!ifModifiedSince.isEmpty()) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                return entry.getLastModified() / 1000 <= since; // HTTP dates have a resolution of one second
+            } catch (DateTimeParseException e) {
+                return false; // An invalid date is ignored
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the files of a static folder into the cache, including their compressed variants,
+     * so that the first requests for them do not pay for reading and compressing them.
+     *
+     * @param folder The static files folder.
+     */
+    public static void preload(String folder) {
+        Path root = Path.of(folder);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.forEach(file -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        cache.lookup(file, attributes, getContentType(file.getFileName().toString()));
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error loading static file " + file + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error loading static folder " + folder + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the cache of rendered static file responses, with its hit and byte counters.
+     *
+     * @return The static file cache.
+     */
+    public static StaticFileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * A range of bytes of a file, with both ends inclusive.
+     *
+     * @param start The position of the first byte.
+     * @param end   The position of the last byte.
+     */
+    record ByteRange(long start, long end) {
+
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Evaluates the If-Range header: the Range header only applies if the client's copy of the file is
+     * still current, otherwise the whole file is sent. If-Range uses the strong comparison of the ETag,
+     * or an exact match of the Last-Modified date.
+     *
+     * @param req   The request.
+     * @param entry The cached responses of the file.
+     * @return true if the Range header must be honored.
+     */
+    static boolean isRangeCurrent(Request req, StaticFileCache.Entry entry) {
+        String ifRange = req.getHeader("If-Range").trim();
+        if (ifRange.isEmpty()) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(entry.getEtag());
+        }
+        return ifRange.equals(entry.getLastModifiedHeader());
+    }
+
+    /**
+     * Parses a Range header of the "bytes" unit, e.g. "bytes=0-499, 1000-, -200".
+     *
+     * @param header The Range header.
+     * @param size   The size of the file.
+     * @return The satisfiable ranges, clamped to the file size (empty if none is satisfiable),
+     * or null if the header is invalid or asks for too many ranges and must be ignored.
+     */
+    static List<ByteRange> parseRanges(String header, long size) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                long start;
+                long end;
+                if (dash == 0) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        end = size - 1; // Open range: up to the end of the file
+                    } else {
+                        end = Long.parseLong(spec.substring(dash + 1));
+                        if (end < start) {
+                            return null;
+                        }
+                        end = Math.min(end, size - 1);
+                    }
+                }
+                if (start < size && start <= end) {
+                    ranges.add(new ByteRange(start, end));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Sends a 206 Partial Content response with the requested ranges of a file: a single range is sent as is,
+     * several ranges are sent as a multipart/byteranges body. If no range is satisfiable, a 416 response is sent.
+     * The slices are sent from the file, without reading the whole file.
+     *
+     * @param req         The request.
+     * @param filePath    The file.
+     * @param contentType The MIME type of the file.
+     * @param entry       The cached responses of the file, with its size and validators.
+     * @param ranges      The satisfiable ranges.
+     * @param out         The output stream of the connection.
+     * @return The status code of the response, 206 or 416.
+     * @throws IOException If an error occurs while reading the file or writing to the output stream.
+     */
+    private static int sendRanges(Request req, Path filePath, String contentType, StaticFileCache.Entry entry,
+                                   List<ByteRange> ranges, OutputStream out) throws IOException {
+        long size = entry.getSize();
+        String validators = "Accept-Ranges: bytes\r\n" +
+                "ETag: " + entry.getEtag() + "\r\n" +
+                "Last-Modified: " + entry.getLastModifiedHeader() + "\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" +
+                WebFramework.connectionHeader(req);
+        if (ranges.isEmpty()) {
+            String response = "HTTP/1.1 416 Range Not Satisfiable\r\n" +
+                    "Content-Range: bytes */" + size + "\r\n" +
+                    "Content-Length: 0\r\n" +
+                    validators +
+                    "\r\n";
+            out.write(response.getBytes());
+            out.flush();
+            return 416;
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            String response = "HTTP/1.1 206 Partial Content\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: bytes " + range.start() + "-" + range.end() + "/" + size + "\r\n" +
+                    "Content-Length: " + range.length() + "\r\n" +
+                    validators +
+                    "\r\n";
+            out.write(response.getBytes());
+            sendFileContent(filePath, range.start(), range.length(), out);
+            out.flush();
+            return 206;
         }
+
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(size);
+        byte[][] partHeaders = new byte[ranges.size()][];
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            partHeaders[i] = ("--" + boundary + "\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: bytes " + range.start() + "-" + range.end() + "/" + size + "\r\n" +
+                    "\r\n").getBytes();
+            contentLength += partHeaders[i].length + range.length() + 2;
+        }
+        byte[] closing = ("--" + boundary + "--\r\n").getBytes();
+        contentLength += closing.length;
+
+        String response = "HTTP/1.1 206 Partial Content\r\n" +
+                "Content-Type: multipart/byteranges; boundary=" + boundary + "\r\n" +
+                "Content-Length: " + contentLength + "\r\n" +
+                validators +
+                "\r\n";
+        out.write(response.getBytes());
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(partHeaders[i]);
+            sendFileContent(filePath, ranges.get(i).start(), ranges.get(i).length(), out);
+            out.write(CRLF);
+        }
+        out.write(closing);
+        out.flush();
+        return 206;
+    }
+
+    /**
+     * Sends a region of a file without reading it into the heap.
+     * On a socket channel, files above the mapping threshold are sent from a memory-mapped buffer that is
+     * shared by every request, and smaller files are sent with {@link FileChannel#transferTo} (sendfile).
+     * Any other stream receives the file through a small fixed-size transfer buffer.
+     *
+     * @param filePath The file to send.
+     * @param position The position of the first byte to send.
+     * @param count    The number of bytes to send.
+     * @param out      The output stream of the connection.
+     * @throws IOException If an error occurs while reading the file or writing to the output stream.
+     */
+    private static void sendFileContent(Path filePath, long position, long count, OutputStream out) throws IOException {
+        if (out instanceof ChannelOutputStream channelOut) {
+            long fileSize = Files.size(filePath);
+            if (fileSize >= MMAP_THRESHOLD && fileSize <= Integer.MAX_VALUE) {
+                channelOut.write(mappedFile(filePath).slice((int) position, (int) count));
+            } else {
+                channelOut.transferFrom(filePath, position, count);
+            }
+            return;
+        }
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long end = position + count;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    throw new IOException("File truncated while sending: " + filePath);
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /**
+     * Retrieves a read-only memory mapping of a file, mapping it again if it changed since it was mapped.
+     *
+     * @param filePath The file to map.
+     * @return A new buffer view of the mapping, positioned at the start of the file.
+     * @throws IOException If an error occurs while mapping the file.
+     */
+    private static ByteBuffer mappedFile(Path filePath) throws IOException {
+        long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+        long size = Files.size(filePath);
+        MappedFile mapped = mappedFiles.get(filePath);
+        if (mapped == null || mapped.lastModified != lastModified || mapped.buffer.capacity() != size) {
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                mapped = new MappedFile(file.map(FileChannel.MapMode.READ_ONLY, 0, size), lastModified);
+            }
+            mappedFiles.put(filePath, mapped);
+        }
+        return mapped.buffer.duplicate();
+    }
+
+    /**
+     * A memory-mapped static file and the modification time it was mapped at.
+     */
+    private record MappedFile(MappedByteBuffer buffer, long lastModified) {
     }
 
     /**
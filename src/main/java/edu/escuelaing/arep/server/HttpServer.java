@@ -4,22 +4,29 @@ import edu.escuelaing.arep.controller.BookController;
 import edu.escuelaing.arep.controller.RequestHandler;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Implements a concurrent HTTP server using a thread pool.
  * This class listens for incoming client connections and processes requests concurrently.
+ * The engine is selected at startup with the {@code server.engine} setting (see {@link ServerConfig}):
+ * "pool" (default) serves each connection on the thread pool, "virtual" serves each connection on its own
+ * virtual thread and "nio" uses the non-blocking {@link NioServer}.
  */
 public class HttpServer {
 
     private static final int PORT = 6100; // Port on which the server listens
     private static final int THREAD_POOL_SIZE = 10; // Size of the thread pool
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE); // Pool de threads
-    private static boolean isRunning = true; // Flag to control the server loop
+    private static final int BACKLOG = 1024; // Pending connections queued by the operating system
+    private static ExecutorService threadPool; // Pool de threads, or one virtual thread per connection
+    private static volatile boolean isRunning = true; // Flag to control the server loop
+    private static NioServer nioServer; // Non-blocking engine, when selected
 
     /**
      * Starts the HTTP server.
@@ -27,9 +34,37 @@ public class HttpServer {
      * @throws IOException If an error occurs while creating the server or accepting client connections.
      */
     public static void start() throws IOException {
-        ServerSocket serverSocket = new ServerSocket(PORT);
-        WebFramework.registerControllers(new BookController());
-        System.out.println("Server listening on port " + PORT);
+        if (!WebFramework.loadRouteRegistry()) {
+            WebFramework.registerControllers(new BookController());
+        }
+        WebFramework.get("/metrics", Metrics::handle);
+        WebFramework.compileRoutes();
+
+        String engine = ServerConfig.getString("server.engine", "pool");
+        if (engine.equalsIgnoreCase("nio")) {
+            int eventLoops = ServerConfig.getInt("server.nio.loops", Math.min(4, Runtime.getRuntime().availableProcessors()));
+            nioServer = new NioServer(PORT, eventLoops, ServerConfig.getInt("server.max.request.size", 1024 * 1024));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Shutting down the server...");
+                nioServer.stop();
+                System.out.println("Server closed.");
+            }));
+            nioServer.start();
+            return;
+        }
+
+        if (engine.equalsIgnoreCase("virtual")) {
+            // Blocking socket reads unmount the virtual thread. File I/O (the attributes, reads and transferTo of
+            // static files) keeps its carrier busy, and the scheduler makes up for it with extra carriers
+            threadPool = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            threadPool = Executors.newFixedThreadPool(ServerConfig.getInt("server.pool.size", THREAD_POOL_SIZE));
+        }
+
+        // The sockets are opened through channels so static files can be sent with FileChannel.transferTo
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(PORT), BACKLOG);
+        System.out.println("Server listening on port " + PORT + " (" + engine + ")");
 
         // Shutdown hook to safely shut down the server
 
@@ -54,8 +89,9 @@ public class HttpServer {
 
         while (isRunning) {
             try {
-                Socket clientSocket = serverSocket.accept(); // Aceptar una nueva conexión
+                Socket clientSocket = serverSocket.accept().socket(); // Aceptar una nueva conexión
                 System.out.println("New connection accepted: " + clientSocket.getInetAddress());
+                Metrics.connectionOpened();
 
                 // Submit the request to the thread pool for processing
                 threadPool.submit(() -> {
@@ -64,6 +100,7 @@ public class HttpServer {
                     } catch (IOException e) {
                         System.err.println("Error handling request: " + e.getMessage());
                     } finally {
+                        Metrics.connectionClosed();
                         try {
                             clientSocket.close();
                         } catch (IOException e) {
@@ -78,10 +115,32 @@ public class HttpServer {
             }
         }
     }
+
+    /**
+     * Retrieves the number of connections waiting for a thread of the pool engine.
+     *
+     * @return The length of the queue of the pool, or 0 with the other engines.
+     */
+    public static int getQueueDepth() {
+        return threadPool instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * Retrieves the number of threads of the pool engine that are serving a connection.
+     *
+     * @return The active threads of the pool, or 0 with the other engines.
+     */
+    public static int getActiveThreads() {
+        return threadPool instanceof ThreadPoolExecutor pool ? pool.getActiveCount() : 0;
+    }
+
     /**
      * Stops the server.
      */
     public static void stop() {
         isRunning = false;
+        if (nioServer != null) {
+            nioServer.stop();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.Response;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of the server, exposed in the Prometheus text format on {@code /metrics}.
+ * For each route and method it counts the requests by status code, the bytes of the request bodies and of
+ * the responses, and the latency in a histogram of fixed buckets. Static files are counted under the route
+ * "static" and requests that match no route under "unmatched", so the number of series does not grow with
+ * the paths that clients ask for. It also reports the open connections, the queue and threads of the pool
+ * engine, and the counters of the static file cache.
+ *
+ * <p>Recording takes no lock: the counters are {@link LongAdder}s, which threads update without contending,
+ * and the series of a route is created once and then found with a lookup in a concurrent map. A scrape sums
+ * the counters, so it does not stop the requests being recorded; a request recorded meanwhile may be counted
+ * in some series and not yet in others. Recording can be turned off with {@code server.metrics=false}.</p>
+ */
+public final class Metrics {
+
+    static final boolean ENABLED = ServerConfig.getBoolean("server.metrics", true);
+
+    // Upper bounds of the latency buckets, in nanoseconds, from 100 µs to 10 s; slower requests only count in +Inf
+    private static final long[] BUCKETS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+    private static final String[] BUCKET_LABELS = {
+            "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05",
+            "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+    private static final String[] METHODS = {"GET", "POST", "DELETE", "OTHER"};
+
+    private static final ConcurrentHashMap<String, AtomicReferenceArray<Series>> routes = new ConcurrentHashMap<>();
+    private static final AtomicInteger activeConnections = new AtomicInteger();
+
+    private Metrics() {
+    }
+
+    /**
+     * Counters of the requests of one route and method.
+     */
+    private static final class Series {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1]; // The last one is +Inf
+        private final LongAdder latencyNanos = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        // Requests by status code, created on the first request with that code
+        private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(600);
+
+        private Series() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(int status, long in, long out, long nanos) {
+            int bucket = 0;
+            while (bucket < BUCKETS.length && nanos > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            latencyNanos.add(nanos);
+            bytesIn.add(in);
+            bytesOut.add(out);
+            if (status < 100 || status >= statuses.length()) {
+                status = 500;
+            }
+            LongAdder count = statuses.get(status);
+            if (count == null) {
+                statuses.compareAndSet(status, null, new LongAdder());
+                count = statuses.get(status);
+            }
+            count.increment();
+        }
+    }
+
+    /**
+     * Records a request that has been handled, whether it was answered or failed.
+     *
+     * @param method The method of the request; methods other than GET, POST and DELETE are counted together.
+     * @param route  The pattern of the route that answered it, "static" or "unmatched".
+     * @param status The status code of the response.
+     * @param in     The bytes of the request body.
+     * @param out    The bytes of the response, headers included.
+     * @param nanos  The time taken to answer, in nanoseconds.
+     */
+    public static void record(String method, String route, int status, long in, long out, long nanos) {
+        if (!ENABLED) {
+            return;
+        }
+        AtomicReferenceArray<Series> series = routes.get(route);
+        if (series == null) {
+            series = routes.computeIfAbsent(route, key -> new AtomicReferenceArray<>(METHODS.length));
+        }
+        int index = methodIndex(method);
+        Series methodSeries = series.get(index);
+        if (methodSeries == null) {
+            series.compareAndSet(index, null, new Series());
+            methodSeries = series.get(index);
+        }
+        methodSeries.record(status, in, out, nanos);
+    }
+
+    private static int methodIndex(String method) {
+        if ("GET".equalsIgnoreCase(method)) {
+            return 0;
+        } else if ("POST".equalsIgnoreCase(method)) {
+            return 1;
+        } else if ("DELETE".equalsIgnoreCase(method)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Counts a connection that has been accepted.
+     */
+    public static void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection that has been closed.
+     */
+    public static void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Retrieves the number of open client connections.
+     *
+     * @return The connections accepted and not closed yet.
+     */
+    public static int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Handles {@code GET /metrics}: answers with the metrics in the Prometheus text format (version 0.0.4).
+     *
+     * @param req The request.
+     * @param res The response, whose content type is set.
+     * @return The metrics.
+     */
+    public static String handle(Request req, Response res) {
+        res.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        return render();
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text format. The routes are listed in alphabetical order.
+     *
+     * @return The metrics, one sample per line.
+     */
+    public static String render() {
+        Map<String, AtomicReferenceArray<Series>> sorted = new TreeMap<>(routes);
+        StringBuilder text = new StringBuilder(4096);
+
+        header(text, "http_requests_total", "counter", "Requests handled, by route, method and status code; 500 when the handler failed.");
+        forEachSeries(sorted, (labels, series) -> {
+            for (int status = 0; status < series.statuses.length(); status++) {
+                LongAdder count = series.statuses.get(status);
+                if (count != null) {
+                    text.append("http_requests_total{").append(labels).append(",status=\"").append(status).append("\"} ")
+                            .append(count.sum()).append('\n');
+                }
+            }
+        });
+
+        header(text, "http_request_duration_seconds", "histogram", "Time taken to answer a request, by route and method.");
+        forEachSeries(sorted, (labels, series) -> {
+            long cumulative = 0;
+            for (int i = 0; i < series.buckets.length; i++) {
+                cumulative += series.buckets[i].sum();
+                text.append("http_request_duration_seconds_bucket{").append(labels).append(",le=\"")
+                        .append(i < BUCKET_LABELS.length ? BUCKET_LABELS[i] : "+Inf").append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            text.append("http_request_duration_seconds_sum{").append(labels).append("} ")
+                    .append(series.latencyNanos.sum() / 1e9).append('\n');
+            text.append("http_request_duration_seconds_count{").append(labels).append("} ")
+                    .append(cumulative).append('\n');
+        });
+
+        header(text, "http_request_body_bytes_total", "counter", "Bytes of the request bodies, by route and method.");
+        forEachSeries(sorted, (labels, series) -> text.append("http_request_body_bytes_total{").append(labels)
+                .append("} ").append(series.bytesIn.sum()).append('\n'));
+        header(text, "http_response_bytes_total", "counter", "Bytes of the responses, headers included, by route and method.");
+        forEachSeries(sorted, (labels, series) -> text.append("http_response_bytes_total{").append(labels)
+                .append("} ").append(series.bytesOut.sum()).append('\n'));
+
+        gauge(text, "http_active_connections", "Open client connections.", activeConnections.get());
+        gauge(text, "http_pool_queue_depth", "Connections waiting for a thread of the pool engine.", HttpServer.getQueueDepth());
+        gauge(text, "http_pool_active_threads", "Threads of the pool engine serving a connection.", HttpServer.getActiveThreads());
+
+        StaticFileCache cache = FileHandler.getCache();
+        header(text, "static_cache_hits_total", "counter", "Static file lookups answered from the cache.");
+        text.append("static_cache_hits_total ").append(cache.getHits()).append('\n');
+        header(text, "static_cache_misses_total", "counter", "Static file lookups that rendered the response.");
+        text.append("static_cache_misses_total ").append(cache.getMisses()).append('\n');
+        header(text, "static_cache_uncacheable_total", "counter", "Static file lookups of files too large to be cached, sent from disk.");
+        text.append("static_cache_uncacheable_total ").append(cache.getUncacheable()).append('\n');
+        header(text, "static_cache_not_modified_total", "counter", "Static file requests answered with 304 Not Modified.");
+        text.append("static_cache_not_modified_total ").append(cache.getNotModified()).append('\n');
+        gauge(text, "static_cache_bytes", "Bytes kept by the static file cache.", cache.getCachedBytes());
+        return text.toString();
+    }
+
+    private interface SeriesWriter {
+        void write(String labels, Series series);
+    }
+
+    private static void forEachSeries(Map<String, AtomicReferenceArray<Series>> sorted, SeriesWriter writer) {
+        for (Map.Entry<String, AtomicReferenceArray<Series>> entry : sorted.entrySet()) {
+            for (int i = 0; i < METHODS.length; i++) {
+                Series methodSeries = entry.getValue().get(i);
+                if (methodSeries != null) {
+                    writer.write("route=\"" + escapeLabel(entry.getKey()) + "\",method=\"" + METHODS[i] + "\"", methodSeries);
+                }
+            }
+        }
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        header(text, name, "gauge", help);
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escapes a label value for the Prometheus text format: backslashes, double quotes and line feeds.
+     */
+    static String escapeLabel(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '"' ? "\\\"" : c == '\n' ? "\\n" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                escaped.append(replacement != null ? replacement : String.valueOf(c));
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    /**
+     * Forgets the recorded requests, e.g. those replayed by the warm-up. The open connections are kept.
+     */
+    static void reset() {
+        routes.clear();
+    }
+}
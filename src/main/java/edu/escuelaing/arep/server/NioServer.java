@@ -0,0 +1,694 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.HttpRequestParser;
+import edu.escuelaing.arep.controller.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking HTTP server engine built on a {@link ServerSocketChannel} and a few {@link Selector} event loops.
+ * The acceptor hands every new connection to one of the event loops in round-robin order. Each event loop
+ * reads the bytes of its connections into a {@link ByteBuffer} and feeds them to the {@link HttpRequestParser}
+ * of the connection, which keeps the partial request between reads. Complete requests are handed to
+ * {@link WebFramework#handleRequest} on a virtual thread, so a handler that blocks (reading a file, waiting
+ * for the journal, rebuilding the catalog) does not stall the other connections of its event loop; the
+ * handler queues its response and the event loop sends it. Idle connections cost a buffer instead of a thread.
+ * Connections are persistent: pipelined requests are answered in the order they arrive, and a connection
+ * is closed when it stays idle longer than the idle timeout or reaches the maximum number of requests.
+ */
+public class NioServer {
+
+    private static final int BUFFER_SIZE = 8192; // Size of the read buffer of each connection
+
+    private final int port;
+    private final EventLoop[] eventLoops;
+    private final int maxRequestSize;
+    private final long idleTimeout = ServerConfig.getLong("server.keepalive.timeout", 5000);
+    private final int maxRequestsPerConnection = ServerConfig.getInt("server.keepalive.max.requests", 100);
+    // Bytes of a response held in memory for a client that reads slower than the handler writes
+    private final long maxQueued = ServerConfig.getLong("server.nio.max.queued", 256 * 1024);
+    // Threads that run the handlers, one virtual thread per request
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean isRunning = true;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Creates a new NIO server.
+     *
+     * @param port           The port on which the server listens.
+     * @param eventLoops     The number of selector threads that serve the connections.
+     * @param maxRequestSize The maximum size in bytes of a request body.
+     */
+    public NioServer(int port, int eventLoops, int maxRequestSize) {
+        this.port = port;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoops)];
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Opens the server channel, starts the event loops and accepts connections until the server is stopped.
+     *
+     * @throws IOException If an error occurs while opening the server channel or the selectors.
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+            Thread thread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        System.out.println("Server listening on port " + port + " (NIO, " + eventLoops.length + " event loops)");
+
+        int next = 0;
+        while (isRunning) {
+            try {
+                SocketChannel client = serverChannel.accept(); // The acceptor blocks, the event loops do not
+                client.configureBlocking(false);
+                eventLoops[next].register(client);
+                next = (next + 1) % eventLoops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the selectors of the event loops.
+     */
+    public void stop() {
+        isRunning = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+        handlers.shutdown();
+    }
+
+    /**
+     * Per-connection state kept by an event loop. Only the event loop touches it, except for the queue of
+     * responses, which the handler of the current request fills from its own thread.
+     */
+    private class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private final HttpRequestParser parser;
+        private final Outbox out;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private SelectionKey key;
+        private boolean busy; // A request is being handled; the next ones wait in the read buffer
+        private boolean closeAfterWrite;
+        private int served;
+        private long lastActivity = System.currentTimeMillis();
+
+        private Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.parser = new HttpRequestParser(maxRequestSize);
+            this.out = new Outbox(maxQueued, this::scheduleWrite);
+        }
+
+        /**
+         * Asks the event loop to send what the handler has queued; called from the thread of the handler.
+         */
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    writeScheduled.set(false);
+                    if (key.isValid()) {
+                        loop.writeOrClose(key, this);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * A selector thread that reads and parses the requests of the connections assigned to it, hands them to
+     * the handler threads and sends their responses.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Posted by the handler threads
+        private long lastSweep = System.currentTimeMillis();
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Queues a new connection to be registered by the event loop thread.
+         *
+         * @param channel The accepted client channel.
+         */
+        private void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs a task on the event loop thread.
+         */
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                try {
+                    selector.select(Math.max(1, idleTimeout / 2));
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        Connection connection = new Connection(this, channel);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        Metrics.connectionOpened();
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                    closeIdleConnections();
+                } catch (IOException e) {
+                    System.err.println("Error in event loop: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Closes the connections that have not sent or received anything within the idle timeout. A connection
+         * whose request is being handled is left to its handler, which fails if the client stops reading.
+         */
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < idleTimeout / 2) {
+                return; // Sweep at most twice per timeout period
+            }
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && !connection.busy && now - connection.lastActivity > idleTimeout) {
+                    close(key);
+                }
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    read(key, connection);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    write(key, connection);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error handling request: " + e.getMessage());
+                close(key);
+            }
+        }
+
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            int read = connection.channel.read(connection.in);
+            if (read == -1) {
+                if (connection.parser.isStarted()) {
+                    badRequest(connection, 400);
+                    write(key, connection);
+                } else {
+                    close(key);
+                }
+                return;
+            }
+            connection.lastActivity = System.currentTimeMillis();
+            processRequests(key, connection);
+        }
+
+        /**
+         * Parses the read buffer until a request is complete and hands it to a handler thread. The requests of
+         * a connection are handled one at a time, so the responses are queued in the same order as the
+         * requests: the bytes of pipelined requests stay in the buffer until the current one has been answered.
+         * The parser keeps an incomplete request until the rest arrives.
+         */
+        private void processRequests(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer in = connection.in;
+            HttpRequestParser parser = connection.parser;
+            int position = 0;
+            while (position < in.position() && !connection.closeAfterWrite && !connection.busy) {
+                position += parser.parse(in.array(), position, in.position() - position);
+                if (parser.hasError()) {
+                    badRequest(connection, parser.getErrorStatus());
+                } else if (parser.isComplete()) {
+                    Request req = parser.getRequest();
+                    System.out.println("Solicitud recibida: " + parser.getRequestLine());
+                    parser.reset();
+                    dispatch(key, connection, req);
+                }
+            }
+            in.flip().position(position);
+            in.compact(); // Keep the requests that wait for the one being handled
+            write(key, connection);
+        }
+
+        /**
+         * Hands a parsed request to a handler thread. The connection stops reading until the handler returns;
+         * meanwhile the event loop sends what the handler queues.
+         */
+        private void dispatch(SelectionKey key, Connection connection, Request req) {
+            connection.served++;
+            req.setKeepAlive(isRunning && req.wantsKeepAlive() && connection.served < maxRequestsPerConnection);
+            connection.busy = true;
+
+            QueuedOutputStream out = new QueuedOutputStream(connection.out, connection.channel, idleTimeout);
+            handlers.execute(() -> {
+                boolean failed = false;
+                try {
+                    WebFramework.handleRequest(req, out);
+                    out.flush();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error handling request: " + e.getMessage());
+                    failed = true;
+                }
+                boolean closeConnection = failed;
+                execute(() -> finish(key, connection, req, closeConnection));
+            });
+        }
+
+        /**
+         * Runs on the event loop once the handler of a request has returned: sends the rest of its response
+         * and goes on with the next request of the connection.
+         */
+        private void finish(SelectionKey key, Connection connection, Request req, boolean failed) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (failed) {
+                close(key);
+                return;
+            }
+            connection.busy = false;
+            connection.closeAfterWrite = !req.isKeepAlive(); // A streamed response may have to close the connection
+            try {
+                processRequests(key, connection);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error handling request: " + e.getMessage());
+                close(key);
+            }
+        }
+
+        /**
+         * Queues the response to a rejected request and marks the connection to be closed once it has been written.
+         *
+         * @param status The status code given by the parser: 400, 413, 414, 431 or 501.
+         */
+        private void badRequest(Connection connection, int status) throws IOException {
+            connection.out.add(ByteBuffer.wrap(HttpRequestParser.errorResponse(status)));
+            connection.closeAfterWrite = true;
+        }
+
+        private void writeOrClose(SelectionKey key, Connection connection) {
+            try {
+                write(key, connection);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error writing response: " + e.getMessage());
+                close(key);
+            }
+        }
+
+        /**
+         * Writes the queued responses. While the client does not read them, the connection stops reading
+         * new requests, so pipelining cannot queue an unbounded amount of responses.
+         */
+        private void write(SelectionKey key, Connection connection) throws IOException {
+            boolean sentAll = connection.out.writeTo(connection.channel);
+            connection.lastActivity = System.currentTimeMillis();
+            if (!sentAll) {
+                key.interestOps(SelectionKey.OP_WRITE); // The socket is full, continue when it is writable
+            } else if (connection.busy) {
+                key.interestOps(0); // Wait for the handler to queue more
+            } else if (connection.closeAfterWrite) {
+                close(key);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            Connection connection = (Connection) key.attachment();
+            if (connection != null) {
+                connection.out.close(); // A handler waiting for room fails instead of waiting for the timeout
+            }
+            if (key.channel().isOpen()) {
+                Metrics.connectionClosed();
+            }
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                System.err.println("Error closing client channel: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Responses of a connection waiting to be sent: buffers and file regions, in order. The handler thread adds
+     * to it and the event loop sends it, so the event loop never waits for a handler nor a handler blocks the
+     * event loop. The bytes copied to the heap are counted: a handler that would queue more than
+     * {@code maxQueued} of them for a client that reads slower waits until the event loop has sent enough.
+     * Direct buffers, such as the memory-mapped files of {@link FileHandler}, and file regions are not counted,
+     * since the file is read when the socket takes it.
+     */
+    static final class Outbox {
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final long maxQueued;
+        private final Runnable onQueued;
+        private final ReentrantLock lock = new ReentrantLock(); // Virtual threads park on it without pinning
+        private final Condition room = lock.newCondition();
+        private long queued; // Heap bytes in the queue, guarded by lock
+        private boolean closed;
+
+        /**
+         * @param maxQueued The heap bytes above which a handler waits.
+         * @param onQueued  Called after something is queued, to have it sent.
+         */
+        Outbox(long maxQueued, Runnable onQueued) {
+            this.maxQueued = maxQueued;
+            this.onQueued = onQueued;
+        }
+
+        private static long heapBytes(Object pending) {
+            return pending instanceof ByteBuffer buffer && !buffer.isDirect() ? buffer.remaining() : 0;
+        }
+
+        /**
+         * Queues a {@link ByteBuffer} or {@link FileRegion} to be sent after what is already queued.
+         *
+         * @throws IOException If the connection has been closed.
+         */
+        void add(Object pending) throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("The connection was closed");
+                }
+                queue.add(pending);
+                queued += heapBytes(pending);
+            } finally {
+                lock.unlock();
+            }
+            onQueued.run();
+        }
+
+        boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        /**
+         * Retrieves the heap bytes that wait to be sent.
+         */
+        long getQueued() {
+            lock.lock();
+            try {
+                return queued;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits until the queue holds at most {@code maxQueued} heap bytes.
+         *
+         * @param timeoutMillis How long to wait without the client reading anything.
+         * @throws IOException If the client reads nothing within the timeout, or the connection is closed.
+         */
+        void awaitRoom(long timeoutMillis) throws IOException {
+            lock.lock();
+            try {
+                while (queued > maxQueued && !closed) {
+                    long before = queued;
+                    if (room.awaitNanos(timeoutMillis * 1_000_000) <= 0 && queued >= before) {
+                        throw new IOException("The client did not read the response within " + timeoutMillis + " ms");
+                    }
+                }
+                if (closed) {
+                    throw new IOException("The connection was closed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the client", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sends as much of the queue as the socket accepts; only called by the event loop.
+         *
+         * @return true if the whole queue has been sent.
+         * @throws IOException If an error occurs while writing to the socket or reading a file.
+         */
+        boolean writeTo(SocketChannel channel) throws IOException {
+            Object pending;
+            while ((pending = queue.peek()) != null) {
+                boolean done;
+                if (pending instanceof FileRegion region) {
+                    done = region.transferTo(channel);
+                } else {
+                    ByteBuffer buffer = (ByteBuffer) pending;
+                    long before = heapBytes(buffer);
+                    channel.write(buffer);
+                    sent(before - heapBytes(buffer));
+                    done = !buffer.hasRemaining();
+                }
+                if (!done) {
+                    return false;
+                }
+                queue.poll();
+            }
+            return true;
+        }
+
+        private void sent(long bytes) {
+            if (bytes == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                queued -= bytes;
+                if (queued <= maxQueued) {
+                    room.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops what is queued and wakes the handler if it waits for room.
+         */
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                room.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (Object pending : queue) {
+                if (pending instanceof FileRegion region) {
+                    region.close();
+                }
+            }
+            queue.clear();
+        }
+    }
+
+    /**
+     * Output of a request handled off the event loop. Plain bytes are gathered into a buffer, while buffers and
+     * file regions are queued as they are, so the event loop sends static files with transferTo when the socket
+     * is writable instead of copying them to the heap. Gathering writes go straight to the socket while nothing
+     * is queued, and only the part the socket did not accept is copied.
+     *
+     * <p>The bytes copied to the heap are bounded: once more than {@code maxQueued} of them wait for a client
+     * that reads slower than the handler writes, the handler thread parks until the event loop has sent enough,
+     * while the event loop goes on serving its other connections. If the client reads nothing within the
+     * timeout, the write fails and the connection is closed.</p>
+     */
+    static class QueuedOutputStream extends ChannelOutputStream {
+        private final Outbox outbox;
+        private final SocketChannel channel;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final long timeoutMillis;
+
+        QueuedOutputStream(Outbox outbox, SocketChannel channel, long timeoutMillis) {
+            this.outbox = outbox;
+            this.channel = channel;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            bytes.write(b, offset, length);
+            written(length);
+            if (outbox.getQueued() + bytes.size() > outbox.maxQueued) {
+                flush();
+                outbox.awaitRoom(timeoutMillis);
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            flush();
+            written(buffer.remaining());
+            outbox.add(buffer);
+            outbox.awaitRoom(timeoutMillis);
+        }
+
+        @Override
+        public void write(ByteBuffer[] buffers) throws IOException {
+            int size = 0;
+            for (ByteBuffer buffer : buffers) {
+                size += buffer.remaining();
+            }
+            written(size);
+            if (outbox.isEmpty() && bytes.size() == 0) {
+                // Nothing is waiting, so the event loop is not writing: write what the socket accepts now, so
+                // streamed chunks go out as they are produced
+                size -= (int) channel.write(buffers);
+            }
+            // The buffers are reused by the caller, so the rest is copied into one buffer for the queue
+            if (size == 0) {
+                return;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(size);
+            for (ByteBuffer buffer : buffers) {
+                copy.put(buffer);
+            }
+            flush();
+            outbox.add(copy.flip());
+            outbox.awaitRoom(timeoutMillis);
+        }
+
+        @Override
+        public void transferFrom(Path file, long position, long count) throws IOException {
+            flush();
+            written(count);
+            outbox.add(new FileRegion(file, position, count));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (bytes.size() > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                bytes.reset();
+                outbox.add(buffer);
+            }
+        }
+
+        /**
+         * Retrieves the bytes copied to the heap that wait to be sent.
+         */
+        long getQueued() {
+            return outbox.getQueued() + bytes.size();
+        }
+    }
+
+    /**
+     * A region of a file waiting to be sent to a non-blocking socket.
+     */
+    private static class FileRegion {
+        private final Path file;
+        private long position;
+        private final long end;
+        private FileChannel channel;
+
+        private FileRegion(Path file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        /**
+         * Sends as much of the region as the socket accepts.
+         *
+         * @return true if the whole region has been sent.
+         */
+        private boolean transferTo(SocketChannel socket) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            long sent;
+            do {
+                sent = channel.transferTo(position, end - position, socket);
+                position += sent;
+            } while (sent > 0 && position < end);
+            if (position >= end) {
+                close();
+                return true;
+            }
+            if (position >= channel.size()) {
+                close();
+                throw new IOException("File truncated while sending: " + file);
+            }
+            return false;
+        }
+
+        private void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the responses of the routes registered in {@link WebFramework}.
+ * The status line and the common headers are precomputed byte arrays, the body is encoded as UTF-8 straight
+ * into a pooled buffer, and the head and the body go out in one gathering write, so a response does not
+ * build intermediate strings or byte arrays. Buffers are borrowed from a bounded pool shared by every
+ * thread (a thread-local would not be reused by virtual threads) and can be direct buffers, which a socket
+ * channel writes without an extra copy.
+ */
+public class ResponseWriter {
+
+    // Number of buffer pairs kept in the pool
+    private static final int POOL_SIZE = ServerConfig.getInt("server.response.pool.size", 64);
+    // Size of the body buffers of the pool; bigger bodies use a buffer that is not pooled
+    private static final int BUFFER_SIZE = ServerConfig.getInt("server.response.buffer.size", 16 * 1024);
+    // Whether the pool allocates direct buffers
+    private static final boolean DIRECT = ServerConfig.getBoolean("server.response.direct", false);
+    private static final int HEAD_SIZE = 512;
+
+    static final byte[] STATUS_200 = "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    // Status lines of the codes 100 to 599, built when the class is initialized so every thread sees them whole
+    private static final byte[][] STATUS_LINES = buildStatusLines();
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "Connection: keep-alive\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    // "Content-Type: ...\r\n" lines, built once per content type
+    private static final Map<String, byte[]> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+    private static final BlockingQueue<ByteBuffer[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ResponseWriter() {
+    }
+
+    /**
+     * Writes a complete response with a Content-Length header.
+     *
+     * @param out         The output stream of the connection.
+     * @param statusLine  The precomputed status line, ending in CRLF (e.g. {@link #STATUS_200}).
+     * @param contentType The content type of the body.
+     * @param body        The body, encoded as UTF-8.
+     * @param keepAlive   Whether the connection stays open after the response.
+     * @throws IOException If an error occurs while writing to the output stream.
+     */
+    public static void write(OutputStream out, byte[] statusLine, String contentType, String body, boolean keepAlive) throws IOException {
+        write(out, statusLine, contentType, null, body, null, true, keepAlive);
+    }
+
+    /**
+     * Writes the response prepared by a handler: its status code, its extra headers and its body, which is
+     * either the bytes set with {@link Response#setBody(byte[])}, sent without being copied, or the string the
+     * handler returned. A string is sent as application/json unless the handler set another content type.
+     * 204 and 304 responses are sent without a body.
+     *
+     * @param out       The output stream of the connection.
+     * @param res       The response prepared by the handler.
+     * @param body      The string returned by the handler; ignored if the handler set the body as bytes.
+     * @param keepAlive Whether the connection stays open after the response.
+     * @throws IOException If an error occurs while writing to the output stream.
+     */
+    public static void write(OutputStream out, Response res, String body, boolean keepAlive) throws IOException {
+        int status = res.getStatus();
+        boolean hasBody = status >= 200 && status != 204 && status != 304;
+        String contentType = res.getBody() != null || res.isContentTypeSet() ? res.getContentType() : "application/json";
+        write(out, statusLine(status), contentType, res, hasBody && body != null ? body : "",
+                hasBody ? res.getBody() : null, hasBody, keepAlive);
+    }
+
+    private static void write(OutputStream out, byte[] statusLine, String contentType, Response res,
+                              String text, byte[] bytes, boolean hasBody, boolean keepAlive) throws IOException {
+        ByteBuffer[] buffers = acquire();
+        try {
+            ByteBuffer head = buffers[0];
+            ByteBuffer content = buffers[1];
+            byte[] contentTypeHeader = contentTypeHeader(contentType);
+            int headLength = statusLine.length + contentTypeHeader.length + CONTENT_LENGTH.length + 10 + KEEP_ALIVE.length + 2 * CRLF.length;
+            int headerCount = res == null ? 0 : res.getHeaderCount();
+            for (int i = 0; i < headerCount; i++) {
+                headLength += res.getHeaderName(i).length() + res.getHeaderValue(i).length() + 4;
+            }
+            if (headLength > head.capacity()) {
+                head = ByteBuffer.allocate(headLength);
+            }
+            int length;
+            ByteBuffer bodyBuffer = content;
+            if (bytes != null) {
+                length = bytes.length;
+                bodyBuffer = ByteBuffer.wrap(bytes);
+            } else {
+                length = utf8Length(text);
+                if (length > content.capacity()) {
+                    bodyBuffer = DIRECT ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+                }
+                encodeUtf8(text, bodyBuffer);
+                bodyBuffer.flip();
+            }
+
+            head.put(statusLine);
+            if (hasBody) {
+                head.put(contentTypeHeader)
+                        .put(CONTENT_LENGTH);
+                putDecimal(head, length);
+                head.put(CRLF);
+            }
+            for (int i = 0; i < headerCount; i++) {
+                putLatin1(head, res.getHeaderName(i));
+                head.put((byte) ':').put((byte) ' ');
+                putLatin1(head, res.getHeaderValue(i));
+                head.put(CRLF);
+            }
+            head.put(keepAlive ? KEEP_ALIVE : CLOSE)
+                    .put(CRLF)
+                    .flip();
+            send(out, head == buffers[0] && bodyBuffer == buffers[1] ? buffers : new ByteBuffer[]{head, bodyBuffer});
+        } finally {
+            release(buffers);
+        }
+    }
+
+    /**
+     * Retrieves the status line of a status code, e.g. "HTTP/1.1 304 Not Modified\r\n".
+     *
+     * @param status The status code, from 100 to 599.
+     * @return The status line, ending in CRLF.
+     */
+    static byte[] statusLine(int status) {
+        if (status < 100 || status >= STATUS_LINES.length) {
+            throw new IllegalArgumentException("Invalid status code: " + status);
+        }
+        return STATUS_LINES[status];
+    }
+
+    private static byte[][] buildStatusLines() {
+        byte[][] lines = new byte[600][];
+        for (int status = 100; status < lines.length; status++) {
+            lines[status] = ("HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return lines;
+    }
+
+    private static String reasonPhrase(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 412 -> "Precondition Failed";
+            case 413 -> "Payload Too Large";
+            case 415 -> "Unsupported Media Type";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> status < 200 ? "Informational" : status < 300 ? "Success" : status < 400 ? "Redirection"
+                    : status < 500 ? "Client Error" : "Server Error";
+        };
+    }
+
+    /**
+     * Writes a header name or value as ISO-8859-1, the charset of HTTP headers.
+     */
+    private static void putLatin1(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer.put(c < 0x100 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void send(OutputStream out, ByteBuffer[] buffers) throws IOException {
+        if (out instanceof ChannelOutputStream channel) {
+            channel.write(buffers);
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                writeTo(out, buffer);
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeTo(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] contentTypeHeader(String contentType) {
+        return CONTENT_TYPES.computeIfAbsent(contentType,
+                type -> ("Content-Type: " + type + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Borrows a head and a body buffer from the pool, or allocates them if the pool is empty.
+     */
+    private static ByteBuffer[] acquire() {
+        ByteBuffer[] buffers = POOL.poll();
+        if (buffers == null) {
+            buffers = DIRECT
+                    ? new ByteBuffer[]{ByteBuffer.allocateDirect(HEAD_SIZE), ByteBuffer.allocateDirect(BUFFER_SIZE)}
+                    : new ByteBuffer[]{ByteBuffer.allocate(HEAD_SIZE), ByteBuffer.allocate(BUFFER_SIZE)};
+        }
+        return buffers;
+    }
+
+    /**
+     * Returns the buffers to the pool; they are dropped if the pool is full.
+     */
+    private static void release(ByteBuffer[] buffers) {
+        buffers[0].clear();
+        buffers[1].clear();
+        POOL.offer(buffers);
+    }
+
+    /**
+     * Counts the bytes of a string encoded as UTF-8, as {@link String#getBytes} would produce them
+     * (an unpaired surrogate is encoded as '?').
+     */
+    static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a string as UTF-8 into a buffer that has room for {@link #utf8Length} bytes.
+     */
+    static void encodeUtf8(String text, ByteBuffer buffer) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6))
+                        .put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xf0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3f))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3f))
+                        .put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12))
+                        .put((byte) (0x80 | c >> 6 & 0x3f))
+                        .put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Writes a non-negative number in decimal without creating a string.
+     */
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
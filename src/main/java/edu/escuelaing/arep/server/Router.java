@@ -0,0 +1,293 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Immutable radix tree of the routes of one HTTP method.
+ * Route patterns are made of static text, {@code {name}} segments, which match one path segment, and a final
+ * wildcard, {@code *} or {@code {name*}}, which matches the rest of the path. Static prefixes shared by several
+ * routes are stored once, so a lookup compares each character of the path at most once per branch tried.
+ * When several routes match, static text wins over a parameter and a parameter wins over a wildcard.
+ *
+ * <p>Matching does not allocate: the positions of the parameters are written into an array supplied by the
+ * caller, and the strings are only cut from the path when the handler asks for them.</p>
+ */
+public final class Router {
+
+    /**
+     * A compiled route.
+     *
+     * @param pattern    The pattern the route was registered with.
+     * @param handler    The handler of the route.
+     * @param paramNames The names of the parameters of the pattern, in order; a bare wildcard is named "*".
+     */
+    public record Route(String pattern, BiFunction<Request, Response, String> handler, String[] paramNames) {
+    }
+
+    private final Node root;
+    private final int maxParams;
+
+    private Router(Node root, int maxParams) {
+        this.root = root;
+        this.maxParams = maxParams;
+    }
+
+    /**
+     * Compiles the routes registered for one HTTP method.
+     *
+     * @param routes The handlers keyed by route pattern.
+     * @return The router.
+     * @throws IllegalArgumentException If a pattern is malformed or two patterns name the same parameter differently.
+     */
+    public static Router compile(Map<String, BiFunction<Request, Response, String>> routes) {
+        Builder root = new Builder("");
+        int maxParams = 0;
+        for (Map.Entry<String, BiFunction<Request, Response, String>> entry : routes.entrySet()) {
+            List<Token> tokens = tokenize(entry.getKey());
+            String[] names = tokens.stream().filter(token -> token.kind != Kind.STATIC).map(Token::text).toArray(String[]::new);
+            maxParams = Math.max(maxParams, names.length);
+            root.insert(tokens, 0, new Route(entry.getKey(), entry.getValue(), names));
+        }
+        return new Router(root.compile(), maxParams);
+    }
+
+    /**
+     * Retrieves the largest number of parameters of a route.
+     *
+     * @return The number of parameters; the capture array given to {@link #match} needs twice as many elements.
+     */
+    public int getMaxParams() {
+        return maxParams;
+    }
+
+    /**
+     * Finds the route of a path.
+     *
+     * @param path     The path of the request, without the query string.
+     * @param captures Receives the start and end index in the path of each parameter of the route, in order.
+     * @return The route, or null if no route matches.
+     */
+    public Route match(String path, int[] captures) {
+        return root.match(path, 0, captures, 0);
+    }
+
+    private enum Kind { STATIC, PARAM, WILDCARD }
+
+    private record Token(Kind kind, String text) {
+    }
+
+    /**
+     * Splits a pattern into static text, parameters and a final wildcard.
+     */
+    private static List<Token> tokenize(String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("A route must start with '/': " + pattern);
+        }
+        List<Token> tokens = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if ((c == '{' || c == '*') && pattern.charAt(i - 1) == '/') {
+                int end = c == '*' ? i + 1 : pattern.indexOf('}', i) + 1;
+                if (end == 0 || (end < pattern.length() && pattern.charAt(end) != '/')) {
+                    throw new IllegalArgumentException("A parameter must be a whole segment: " + pattern);
+                }
+                String name = c == '*' ? "*" : pattern.substring(i + 1, end - 1);
+                boolean wildcard = c == '*' || name.endsWith("*");
+                if (wildcard && end != pattern.length()) {
+                    throw new IllegalArgumentException("A wildcard must be the last segment: " + pattern);
+                }
+                if (wildcard && name.length() > 1) {
+                    name = name.substring(0, name.length() - 1);
+                }
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("A parameter needs a name: " + pattern);
+                }
+                if (!text.isEmpty()) {
+                    tokens.add(new Token(Kind.STATIC, text.toString()));
+                    text.setLength(0);
+                }
+                tokens.add(new Token(wildcard ? Kind.WILDCARD : Kind.PARAM, name));
+                i = end;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        if (!text.isEmpty()) {
+            tokens.add(new Token(Kind.STATIC, text.toString()));
+        }
+        return tokens;
+    }
+
+    /**
+     * Mutable node used while the routes are inserted.
+     */
+    private static final class Builder {
+        private String prefix;
+        private final List<Builder> children = new ArrayList<>();
+        private Builder param;
+        private String paramName;
+        private Builder wildcard;
+        private String wildcardName;
+        private Route route;
+
+        private Builder(String prefix) {
+            this.prefix = prefix;
+        }
+
+        private void insert(List<Token> tokens, int index, Route newRoute) {
+            if (index == tokens.size()) {
+                route = newRoute;
+                return;
+            }
+            Token token = tokens.get(index);
+            switch (token.kind) {
+                case STATIC -> insertStatic(token.text, tokens, index, newRoute);
+                case PARAM -> {
+                    if (param == null) {
+                        param = new Builder("");
+                        paramName = token.text;
+                    } else if (!paramName.equals(token.text)) {
+                        throw new IllegalArgumentException("Conflicting parameter names {" + paramName + "} and {"
+                                + token.text + "} in " + newRoute.pattern());
+                    }
+                    param.insert(tokens, index + 1, newRoute);
+                }
+                case WILDCARD -> {
+                    if (wildcard == null) {
+                        wildcard = new Builder("");
+                        wildcardName = token.text;
+                    } else if (!wildcardName.equals(token.text)) {
+                        throw new IllegalArgumentException("Conflicting wildcard names in " + newRoute.pattern());
+                    }
+                    wildcard.insert(tokens, index + 1, newRoute);
+                }
+            }
+        }
+
+        private void insertStatic(String text, List<Token> tokens, int index, Route newRoute) {
+            for (int c = 0; c < children.size(); c++) {
+                Builder child = children.get(c);
+                if (child.prefix.charAt(0) != text.charAt(0)) {
+                    continue;
+                }
+                int common = 0;
+                int max = Math.min(child.prefix.length(), text.length());
+                while (common < max && child.prefix.charAt(common) == text.charAt(common)) {
+                    common++;
+                }
+                if (common < child.prefix.length()) {
+                    // Split the edge: the shared part becomes a new node above the child
+                    Builder shared = new Builder(child.prefix.substring(0, common));
+                    child.prefix = child.prefix.substring(common);
+                    shared.children.add(child);
+                    children.set(c, shared);
+                    child = shared;
+                }
+                if (common == text.length()) {
+                    child.insert(tokens, index + 1, newRoute);
+                } else {
+                    child.insertStatic(text.substring(common), tokens, index, newRoute);
+                }
+                return;
+            }
+            Builder child = new Builder(text);
+            children.add(child);
+            child.insert(tokens, index + 1, newRoute);
+        }
+
+        private Node compile() {
+            children.sort((a, b) -> Character.compare(a.prefix.charAt(0), b.prefix.charAt(0)));
+            char[] firstChars = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                firstChars[i] = children.get(i).prefix.charAt(0);
+                nodes[i] = children.get(i).compile();
+            }
+            return new Node(prefix, firstChars, nodes,
+                    param == null ? null : param.compile(),
+                    wildcard == null ? null : wildcard.compile(),
+                    route);
+        }
+    }
+
+    /**
+     * Immutable node of the compiled tree. The prefix of a node is matched by its parent.
+     */
+    private static final class Node {
+        private final String prefix;
+        private final char[] firstChars; // First character of each static child, sorted
+        private final Node[] children;
+        private final Node param;
+        private final Node wildcard;
+        private final Route route;
+
+        private Node(String prefix, char[] firstChars, Node[] children, Node param, Node wildcard, Route route) {
+            this.prefix = prefix;
+            this.firstChars = firstChars;
+            this.children = children;
+            this.param = param;
+            this.wildcard = wildcard;
+            this.route = route;
+        }
+
+        /**
+         * Matches the rest of the path, starting at {@code position}, against the subtree of this node.
+         */
+        private Route match(String path, int position, int[] captures, int captured) {
+            int length = path.length();
+            if (position == length && route != null) {
+                return route;
+            }
+            if (position < length) {
+                int child = indexOf(path.charAt(position));
+                if (child >= 0) {
+                    Node next = children[child];
+                    if (path.startsWith(next.prefix, position)) {
+                        Route found = next.match(path, position + next.prefix.length(), captures, captured);
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                }
+                if (param != null) {
+                    int end = path.indexOf('/', position);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    if (end > position) {
+                        captures[2 * captured] = position;
+                        captures[2 * captured + 1] = end;
+                        Route found = param.match(path, end, captures, captured + 1);
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                }
+            }
+            if (wildcard != null && wildcard.route != null) {
+                captures[2 * captured] = position;
+                captures[2 * captured + 1] = length;
+                return wildcard.route;
+            }
+            return null;
+        }
+
+        private int indexOf(char c) {
+            for (int i = 0; i < firstChars.length; i++) {
+                if (firstChars[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
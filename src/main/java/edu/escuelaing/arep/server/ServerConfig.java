@@ -0,0 +1,71 @@
+package edu.escuelaing.arep.server;
+
+/**
+ * Reads the server settings that can be tuned at startup.
+ * Each setting is looked up first as a JVM system property (e.g. {@code -Dserver.engine=nio})
+ * and then as an environment variable with the same name in upper case and with dots
+ * replaced by underscores (e.g. {@code SERVER_ENGINE=nio}), which is how the Docker image is configured.
+ */
+public class ServerConfig {
+
+    private ServerConfig() {
+    }
+
+    /**
+     * Retrieves a setting as a string.
+     *
+     * @param key          The name of the setting, e.g. "server.engine".
+     * @param defaultValue The value used when the setting is not defined.
+     * @return The configured value, or the default value if it is not defined.
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Retrieves a setting as an integer.
+     *
+     * @param key          The name of the setting.
+     * @param defaultValue The value used when the setting is not defined or is not a number.
+     * @return The configured value, or the default value.
+     */
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * Retrieves a setting as a long.
+     *
+     * @param key          The name of the setting.
+     * @param defaultValue The value used when the setting is not defined or is not a number.
+     * @return The configured value, or the default value.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Retrieves a setting as a boolean.
+     *
+     * @param key          The name of the setting.
+     * @param defaultValue The value used when the setting is not defined.
+     * @return The configured value, or the default value.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
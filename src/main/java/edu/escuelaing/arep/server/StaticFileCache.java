@@ -0,0 +1,462 @@
+package edu.escuelaing.arep.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of pre-rendered static file responses (headers plus body), keyed by file path.
+ * The cache keeps at most a fixed number of bytes and evicts the least recently used entries first.
+ * A hit takes no lock: the entries are in a concurrent map, and a hit only stamps its entry with the current
+ * tick of a clock that advances when an entry is added, so recency is approximate (entries used since the
+ * last addition are equally recent). Adding an entry and evicting are serialized.
+ * An entry is rendered again when the modification time or the size of its file changes.
+ * Files larger than the maximum entry size are not cached: only their headers are rendered, and their
+ * content is sent from the file system. They are counted apart, neither as hits nor as misses.
+ * Compressible files (HTML, CSS, JavaScript, JSON...) are also rendered compressed with gzip and deflate
+ * when they are cached, so choosing an encoding for a request costs no compression work.
+ */
+public class StaticFileCache {
+
+    // HTTP dates always use two-digit days, which DateTimeFormatter.RFC_1123_DATE_TIME does not
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong(); // Advances each time an entry is added
+    private final Object writeLock = new Object(); // Serializes the changes to the entries and to cachedBytes
+    private volatile long cachedBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxBytes      The maximum number of bytes kept by the cache.
+     * @param maxEntryBytes The maximum size of a file whose response is cached.
+     */
+    public StaticFileCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    }
+
+    /**
+     * A rendered response of a file in one content encoding. The response starts after the status line,
+     * with the headers (ending in an empty line), followed by the file content when the file is cached.
+     *
+     * @param response     The rendered headers and content. It must not be modified.
+     * @param headerLength The number of bytes of the response that are headers.
+     * @param etag         The strong entity tag of this encoding of the file, including the quotes.
+     */
+    public record Variant(byte[] response, int headerLength, String etag) {
+
+        /**
+         * @return true if the response contains the file content.
+         */
+        public boolean hasBody() {
+            return response.length > headerLength;
+        }
+    }
+
+    /**
+     * The rendered responses of a file: the identity encoding and, for compressible files, gzip and deflate.
+     */
+    public static class Entry {
+        private final long lastModified;
+        private final long size;
+        private final String lastModifiedHeader;
+        private final Variant identity;
+        private final Variant gzip;
+        private final Variant deflate;
+        private volatile long lastUsed; // Tick of the clock when the entry was last added or hit
+
+        private Entry(long lastModified, long size, String lastModifiedHeader, Variant identity, Variant gzip, Variant deflate) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.lastModifiedHeader = lastModifiedHeader;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+
+        /**
+         * @return The strong entity tag of the identity encoding of the file, including the quotes.
+         */
+        public String getEtag() {
+            return identity.etag();
+        }
+
+        /**
+         * @return The modification time of the file in milliseconds.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The Last-Modified header value of the file.
+         */
+        public String getLastModifiedHeader() {
+            return lastModifiedHeader;
+        }
+
+        /**
+         * @return The size of the file in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return true if the responses contain the file content.
+         */
+        public boolean hasBody() {
+            return identity.hasBody();
+        }
+
+        /**
+         * @return true if the entry has compressed variants, in which case responses must carry "Vary: Accept-Encoding".
+         */
+        public boolean isCompressed() {
+            return gzip != null || deflate != null;
+        }
+
+        /**
+         * @return The response in the identity encoding.
+         */
+        public Variant getIdentity() {
+            return identity;
+        }
+
+        /**
+         * Chooses the variant to send for an Accept-Encoding header. The encoding with the highest
+         * quality value among the available ones wins; gzip is preferred over deflate on a tie and
+         * the identity encoding is used when no compressed variant is acceptable.
+         *
+         * @param acceptEncoding The Accept-Encoding header of the request, possibly empty.
+         * @return The selected variant.
+         */
+        public Variant select(String acceptEncoding) {
+            if (!isCompressed() || acceptEncoding.isEmpty()) {
+                return identity;
+            }
+            double gzipQuality = -1; // -1 means the encoding is not mentioned
+            double deflateQuality = -1;
+            double anyQuality = -1;
+            for (String coding : acceptEncoding.split(",")) {
+                String name = coding;
+                double quality = 1;
+                int semicolon = coding.indexOf(';');
+                if (semicolon >= 0) {
+                    name = coding.substring(0, semicolon);
+                    String parameter = coding.substring(semicolon + 1).trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                name = name.trim().toLowerCase();
+                if (name.equals("gzip") || name.equals("x-gzip")) {
+                    gzipQuality = quality;
+                } else if (name.equals("deflate")) {
+                    deflateQuality = quality;
+                } else if (name.equals("*")) {
+                    anyQuality = quality;
+                }
+            }
+            // "*" applies to the encodings that are not mentioned explicitly
+            if (gzipQuality < 0) {
+                gzipQuality = Math.max(anyQuality, 0);
+            }
+            if (deflateQuality < 0) {
+                deflateQuality = Math.max(anyQuality, 0);
+            }
+            boolean useGzip = gzip != null && gzipQuality > 0;
+            boolean useDeflate = deflate != null && deflateQuality > 0;
+            if (useGzip && (!useDeflate || gzipQuality >= deflateQuality)) {
+                return gzip;
+            }
+            return useDeflate ? deflate : identity;
+        }
+
+        private long bytes() {
+            return identity.response().length
+                    + (gzip != null ? gzip.response().length : 0)
+                    + (deflate != null ? deflate.response().length : 0);
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().toMillis() == lastModified && attributes.size() == size;
+        }
+    }
+
+    /**
+     * Retrieves the rendered response of a file, rendering it again if the file changed.
+     *
+     * @param filePath    The file.
+     * @param attributes  The current attributes of the file.
+     * @param contentType The MIME type of the file.
+     * @return The rendered response.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public Entry lookup(Path filePath, BasicFileAttributes attributes, String contentType) throws IOException {
+        if (attributes.size() > maxEntryBytes) {
+            uncacheable.increment();
+            if (entries.containsKey(filePath)) {
+                remove(filePath); // The file has grown since it was cached
+            }
+            return render(filePath, attributes, contentType);
+        }
+        Entry entry = entries.get(filePath);
+        if (entry != null && entry.matches(attributes)) {
+            long tick = clock.get();
+            if (entry.lastUsed != tick) {
+                entry.lastUsed = tick; // Skip the write if it changes nothing, hot entries are read by every core
+            }
+            hits.increment();
+            bytesSaved.add(entry.size);
+            return entry;
+        }
+        misses.increment();
+        entry = render(filePath, attributes, contentType);
+        if (entry.hasBody()) {
+            put(filePath, entry);
+        } else {
+            remove(filePath);
+        }
+        return entry;
+    }
+
+    /**
+     * Records a response answered with 304 Not Modified, whose body was not sent.
+     *
+     * @param entry The entry of the file that was not sent.
+     */
+    public void recordNotModified(Entry entry) {
+        notModified.increment();
+        bytesSaved.add(entry.size);
+    }
+
+    private Entry render(Path filePath, BasicFileAttributes attributes, String contentType) throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        String etag = Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+        String lastModifiedHeader = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+        boolean compressible = isCompressible(contentType) && size <= maxEntryBytes;
+        String headers = "Content-Type: " + contentType + "\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" + // Permite solicitudes desde cualquier origen
+                "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n" + // Métodos permitidos
+                "Access-Control-Allow-Headers: Content-Type\r\n" + // Encabezados permitidos
+                "Last-Modified: " + lastModifiedHeader + "\r\n" +
+                "Accept-Ranges: bytes\r\n" +
+                (compressible ? "Vary: Accept-Encoding\r\n" : "");
+        if (size > maxEntryBytes) {
+            return new Entry(lastModified, size, lastModifiedHeader,
+                    renderVariant(headers, null, etag, size, null), null, null);
+        }
+        byte[] content = Files.readAllBytes(filePath);
+        if (content.length != size) {
+            // The file changed while it was read, send it without caching it
+            return new Entry(lastModified, size, lastModifiedHeader,
+                    renderVariant(headers, null, etag, size, null), null, null);
+        }
+        Variant identity = renderVariant(headers, null, etag, size, content);
+        Variant gzip = null;
+        Variant deflate = null;
+        if (compressible) {
+            byte[] gzipped = gzip(content);
+            if (gzipped.length < content.length) {
+                gzip = renderVariant(headers, "gzip", etag + "-gzip", gzipped.length, gzipped);
+            }
+            byte[] deflated = deflate(content);
+            if (deflated.length < content.length) {
+                deflate = renderVariant(headers, "deflate", etag + "-deflate", deflated.length, deflated);
+            }
+        }
+        return new Entry(lastModified, size, lastModifiedHeader, identity, gzip, deflate);
+    }
+
+    /**
+     * Renders the headers and, if given, the content of one encoding of a file.
+     */
+    private static Variant renderVariant(String headers, String encoding, String etag, long length, byte[] content) {
+        String quotedEtag = "\"" + etag + "\"";
+        byte[] head = (headers +
+                (encoding != null ? "Content-Encoding: " + encoding + "\r\n" : "") +
+                "Content-Length: " + length + "\r\n" +
+                "ETag: " + quotedEtag + "\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+        if (content == null) {
+            return new Variant(head, head.length, quotedEtag);
+        }
+        ByteArrayOutputStream response = new ByteArrayOutputStream(head.length + content.length);
+        response.writeBytes(head);
+        response.writeBytes(content);
+        return new Variant(response.toByteArray(), head.length, quotedEtag);
+    }
+
+    /**
+     * Indicates whether files of a MIME type are worth compressing.
+     *
+     * @param contentType The MIME type.
+     * @return true for text formats, false for already compressed formats such as images.
+     */
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.equals("application/json")
+                || contentType.equals("application/javascript")
+                || contentType.equals("image/svg+xml");
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content) throws IOException {
+        // HTTP "deflate" is the zlib format, which is what Deflater produces by default
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater)) {
+            deflate.write(content);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private void put(Path filePath, Entry entry) {
+        synchronized (writeLock) {
+            entry.lastUsed = clock.getAndIncrement();
+            Entry previous = entries.put(filePath, entry);
+            long bytes = cachedBytes + entry.bytes() - (previous != null ? previous.bytes() : 0);
+            // Evict the least recently used entries until the cache fits its budget; the new one goes last
+            while (bytes > maxBytes && !entries.isEmpty()) {
+                Map.Entry<Path, Entry> eldest = null;
+                for (Map.Entry<Path, Entry> candidate : entries.entrySet()) {
+                    if (eldest == null || age(candidate.getValue(), entry) < age(eldest.getValue(), entry)) {
+                        eldest = candidate;
+                    }
+                }
+                entries.remove(eldest.getKey());
+                bytes -= eldest.getValue().bytes();
+            }
+            cachedBytes = bytes;
+        }
+    }
+
+    /**
+     * Orders the entries to evict: the lower the value, the sooner; the entry being added is evicted last.
+     */
+    private static long age(Entry candidate, Entry added) {
+        return candidate == added ? Long.MAX_VALUE : candidate.lastUsed;
+    }
+
+    private void remove(Path filePath) {
+        synchronized (writeLock) {
+            Entry previous = entries.remove(filePath);
+            if (previous != null) {
+                cachedBytes -= previous.bytes();
+            }
+        }
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            entries.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     * Sets the counters back to zero and keeps the cached entries, e.g. after the warm-up.
+     */
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+        uncacheable.reset();
+        notModified.reset();
+        bytesSaved.reset();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to render the response.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of lookups of files larger than the maximum entry size, whose content is not cached.
+     */
+    public long getUncacheable() {
+        return uncacheable.sum();
+    }
+
+    /**
+     * @return The number of responses answered with 304 Not Modified.
+     */
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    /**
+     * @return The number of file bytes that were not read from disk (cache hits) or not sent (304 responses).
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * @return The fraction of lookups answered from the cache, between 0 and 1.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return The number of bytes currently kept by the cache.
+     */
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+}
@@ -0,0 +1,224 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.RequestHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Warm-up stage run before the server accepts connections, so the first real requests do not hit interpreted code.
+ * Synthetic requests are replayed through the same code as a connection of the pool engine: the bytes are parsed
+ * by {@link RequestHandler#handleConnection}, dispatched by {@link WebFramework} and the responses written to a
+ * channel that discards them, all in memory. The requests are sent in rounds until a round no longer adds JIT
+ * compilation time, or the maximum time runs out.
+ *
+ * <p>Settings: {@code server.warmup.requests}, the comma-separated requests to replay, e.g.
+ * {@code "GET /getBooks,GET /index.html"} (only GET and HEAD, so the warm-up does not change any data);
+ * {@code server.warmup.max.ms}, the maximum duration (default 10 s); and {@code server.warmup.settle.ms}, the
+ * compilation time a round may add and still count as settled (default 2 ms).</p>
+ *
+ * <p>The replayed requests are not counted: the {@link Metrics} and the counters of the static file cache are
+ * reset when the warm-up ends, while the files it read stay cached.</p>
+ */
+public final class WarmUp {
+
+    static final String DEFAULT_REQUESTS = "GET /getBooks,GET /greeting?name=warmup,GET /index.html,GET /index.css";
+    private static final int REQUESTS_PER_CONNECTION = 64; // Below the keep-alive limit of a connection
+    private static final int CONNECTIONS_PER_ROUND = 16;
+    private static final int SETTLED_ROUNDS = 2; // Consecutive quiet rounds needed to stop
+    private static final int MIN_ROUNDS = 3;
+
+    /**
+     * Outcome of a warm-up.
+     *
+     * @param millis            The duration of the warm-up.
+     * @param requests          The number of requests replayed.
+     * @param compiledMethods   The number of methods compiled by the JIT meanwhile, or -1 if the JVM cannot record it.
+     * @param compilationMillis The JIT compilation time spent meanwhile, or -1 if the JVM does not monitor it.
+     * @param settled           Whether compilation settled before the maximum time.
+     */
+    public record Result(long millis, long requests, long compiledMethods, long compilationMillis, boolean settled) {
+    }
+
+    private WarmUp() {
+    }
+
+    /**
+     * Runs the warm-up with the configured settings and prints how it went.
+     * The routes must be registered already and the static files folder configured.
+     *
+     * @return The outcome of the warm-up.
+     */
+    public static Result run() {
+        Result result = run(parseRequests(ServerConfig.getString("server.warmup.requests", DEFAULT_REQUESTS)),
+                ServerConfig.getLong("server.warmup.max.ms", 10_000),
+                ServerConfig.getLong("server.warmup.settle.ms", 2));
+        System.out.printf("Calentamiento: %d solicitudes en %d ms, %s métodos compilados (%d ms de compilación)%s%n",
+                result.requests(), result.millis(),
+                result.compiledMethods() < 0 ? "n/d" : String.valueOf(result.compiledMethods()),
+                result.compilationMillis(), result.settled() ? "" : ", sin estabilizarse");
+        return result;
+    }
+
+    /**
+     * Replays the requests in rounds until the JIT compilation settles or the maximum time runs out.
+     *
+     * @param requests     The request lines to replay, e.g. "GET /index.html".
+     * @param maxMillis    The maximum duration.
+     * @param settleMillis The compilation time a round may add and still count as settled.
+     * @return The outcome of the warm-up.
+     */
+    static Result run(List<String> requests, long maxMillis, long settleMillis) {
+        if (requests.isEmpty()) {
+            return new Result(0, 0, 0, 0, false);
+        }
+        long start = System.nanoTime();
+        byte[] connection = connectionBytes(requests);
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean monitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+        long compilationStart = monitored ? compiler.getTotalCompilationTime() : 0;
+        CompilationCounter counter = CompilationCounter.start();
+        long deadline = System.nanoTime() + maxMillis * 1_000_000; // The recorder takes a while to start
+
+        long replayed = 0;
+        int rounds = 0;
+        int quietRounds = 0;
+        boolean settled = false;
+        long lastCompilation = compilationStart;
+        try {
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < CONNECTIONS_PER_ROUND; i++) {
+                    replay(connection);
+                }
+                replayed += (long) CONNECTIONS_PER_ROUND * REQUESTS_PER_CONNECTION;
+                rounds++;
+                if (!monitored) {
+                    continue; // Without compilation times the warm-up lasts the maximum time
+                }
+                long compilation = compiler.getTotalCompilationTime();
+                quietRounds = compilation - lastCompilation <= settleMillis ? quietRounds + 1 : 0;
+                lastCompilation = compilation;
+                if (rounds >= MIN_ROUNDS && quietRounds >= SETTLED_ROUNDS) {
+                    settled = true;
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("El calentamiento se detuvo por un error: " + e);
+        }
+        long compiledMethods = counter.stop();
+        // The replayed requests are not traffic: start the server with empty request and cache counters
+        Metrics.reset();
+        FileHandler.getCache().resetCounters();
+        return new Result((System.nanoTime() - start) / 1_000_000, replayed, compiledMethods,
+                monitored ? compiler.getTotalCompilationTime() - compilationStart : -1, settled);
+    }
+
+    /**
+     * Parses the configured requests, e.g. "GET /index.html,/getBooks"; a path without method is a GET.
+     */
+    static List<String> parseRequests(String setting) {
+        List<String> requests = new ArrayList<>();
+        for (String entry : setting.split(",")) {
+            String request = entry.trim();
+            if (request.isEmpty()) {
+                continue;
+            }
+            if (request.startsWith("/")) {
+                request = "GET " + request;
+            }
+            String method = request.substring(0, request.indexOf(' ') < 0 ? request.length() : request.indexOf(' '));
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                System.err.println("Solicitud de calentamiento ignorada, solo se permiten GET y HEAD: " + request);
+                continue;
+            }
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    /**
+     * Builds the bytes of one persistent connection that sends the requests in turn, the last one asking to close.
+     */
+    private static byte[] connectionBytes(List<String> requests) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < REQUESTS_PER_CONNECTION; i++) {
+            String close = i == REQUESTS_PER_CONNECTION - 1 ? "Connection: close\r\n" : "";
+            bytes.writeBytes((requests.get(i % requests.size()) + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: warm-up\r\n"
+                    + close + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void replay(byte[] connection) throws IOException {
+        OutputStream out = new BlockingChannelOutputStream(Channels.newChannel(OutputStream.nullOutputStream()));
+        RequestHandler.handleConnection(new ByteArrayInputStream(connection), out, false);
+    }
+
+    /**
+     * Counts the methods compiled by the JIT with a JDK Flight Recorder recording of the compilation events.
+     */
+    private static final class CompilationCounter {
+        private final Recording recording;
+
+        private CompilationCounter(Recording recording) {
+            this.recording = recording;
+        }
+
+        static CompilationCounter start() {
+            try {
+                Recording recording = new Recording();
+                recording.enable("jdk.Compilation").withThreshold(Duration.ZERO);
+                recording.start();
+                return new CompilationCounter(recording);
+            } catch (RuntimeException | LinkageError e) {
+                return new CompilationCounter(null); // Flight Recorder is not available in this JVM
+            }
+        }
+
+        /**
+         * Stops the recording.
+         *
+         * @return The number of successful compilations, or -1 if they could not be recorded.
+         */
+        long stop() {
+            if (recording == null) {
+                return -1;
+            }
+            Path file = null;
+            try {
+                recording.stop();
+                file = Files.createTempFile("warmup", ".jfr");
+                recording.dump(file);
+                return RecordingFile.readAllEvents(file).stream()
+                        .filter(event -> !event.hasField("succeded") || event.getBoolean("succeded"))
+                        .count();
+            } catch (IOException | RuntimeException e) {
+                return -1;
+            } finally {
+                recording.close();
+                if (file != null) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                        // The temporary file is left behind
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package edu.escuelaing.arep.server;
 
+import edu.escuelaing.arep.annotations.DeleteMapping;
 import edu.escuelaing.arep.annotations.GetMapping;
 import edu.escuelaing.arep.annotations.PostMapping;
 import edu.escuelaing.arep.annotations.RestController;
 import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.RequestBodyException;
 import edu.escuelaing.arep.controller.Response;
+import edu.escuelaing.arep.processor.RouteRegistryProcessor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringReader;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.BiFunction;
 
 /**
@@ -29,10 +32,31 @@ public class WebFramework {
     static final Map<String, BiFunction<Request, Response, String>> postRoutes = new HashMap<>();
     static final Map<String, BiFunction<Request, Response, String>> deleteRoutes = new HashMap<>();
 
+    private static final int[] NO_BOUNDS = new int[0];
+    private static final String[] NO_NAMES = new String[0];
+    // Capture arrays of the path variables, borrowed by a request while it is handled; a bounded pool shared by
+    // every thread, like the buffers of ResponseWriter
+    private static final BlockingQueue<int[]> BOUNDS = new ArrayBlockingQueue<>(
+            ServerConfig.getInt("server.response.pool.size", 64));
+
+    private static boolean registryLoaded;
+
+    // Routers compiled from the maps above, or null until the next request after a route is registered
+    private static volatile Routers routers;
+
+    // bounds is the size of the capture array that the routes with the most parameters need
+    private record Routers(Router get, Router post, Router delete, int bounds) {
+
+        private Routers(Router get, Router post, Router delete) {
+            this(get, post, delete, 2 * Math.max(get.getMaxParams(), Math.max(post.getMaxParams(), delete.getMaxParams())));
+        }
+    }
+
     /**
      * Configures the location of static files.
      * If the application is running in Docker, it uses a specific path.
      * Otherwise, it uses the local path.
+     * The files of the folder are loaded into the static file cache, compressed variants included.
      *
      * @param folder The directory where static files are stored in the local environment.
      */
@@ -44,6 +68,7 @@ public class WebFramework {
         } else {
             staticFolder = "src/main/resources/" + folder;
         }
+        FileHandler.preload(staticFolder);
     }
 
     /**
@@ -54,6 +79,7 @@ public class WebFramework {
      */
     public static void get(String path, BiFunction<Request, Response, String> handler) {
         getRoutes.put(path, handler);
+        routers = null;
     }
 
     /**
@@ -64,6 +90,7 @@ public class WebFramework {
      */
     public static void post(String path, BiFunction<Request, Response, String> handler) {
         postRoutes.put(path, handler);
+        routers = null;
     }
 
     /**
@@ -74,12 +101,78 @@ public class WebFramework {
      */
     public static void delete(String path, BiFunction<Request, Response, String> handler) {
         deleteRoutes.put(path, handler);
+        routers = null;
+    }
+
+    /**
+     * Compiles the registered routes into immutable radix trees, see {@link Router}.
+     * The server calls it once the controllers are registered; a route registered later makes the next request
+     * compile them again.
+     *
+     * @throws IllegalArgumentException If a route pattern is malformed.
+     */
+    public static void compileRoutes() {
+        routers();
+    }
+
+    private static Routers routers() {
+        Routers compiled = routers;
+        if (compiled == null) {
+            synchronized (WebFramework.class) {
+                compiled = routers;
+                if (compiled == null) {
+                    compiled = new Routers(Router.compile(getRoutes), Router.compile(postRoutes), Router.compile(deleteRoutes));
+                    routers = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Finds the route of a request in a router and binds the path variables of the route to the request.
+     *
+     * @param bounds The capture array borrowed for the request, see {@link #borrowBounds}.
+     * @return The route, or null if no route matches the path.
+     */
+    static Router.Route route(Router router, Request req, int[] bounds) {
+        Router.Route route = router.match(req.getPath(), bounds);
+        if (route == null) {
+            return null;
+        }
+        if (route.paramNames().length > 0) {
+            req.setPathVariables(route.paramNames(), bounds);
+        }
+        return route;
+    }
+
+    /**
+     * Borrows a capture array of at least the given size from the pool, or allocates one if the pool has none.
+     * The request keeps it while it is handled; afterwards it is returned to the pool and the request no longer
+     * has path variables.
+     */
+    static int[] borrowBounds(int size) {
+        if (size == 0) {
+            return NO_BOUNDS;
+        }
+        int[] bounds = BOUNDS.poll();
+        return bounds != null && bounds.length >= size ? bounds : new int[size];
+    }
+
+    /**
+     * Unbinds the path variables of a request that has been handled and returns its capture array to the pool.
+     */
+    static void returnBounds(Request req, int[] bounds) {
+        if (bounds != NO_BOUNDS) {
+            req.setPathVariables(NO_NAMES, NO_BOUNDS);
+            BOUNDS.offer(bounds); // Dropped if the pool is full
+        }
     }
 
     /**
      * Handles incoming requests based on the HTTP method and requested resource.
      * If the request is a GET, POST, or DELETE and the route is registered, it executes the corresponding handler.
-     * Otherwise, it attempts to serve a static file.
+     * Otherwise, it attempts to serve a static file. The connection is closed after the response.
      *
      * @param method      The HTTP method (e.g., "GET", "POST", "DELETE").
      * @param resource    The requested resource path.
@@ -89,45 +182,100 @@ public class WebFramework {
      * @throws IOException If an error occurs while writing to the output stream.
      */
     public static void handleRequest(String method, String resource, Map<String, String> queryParams, String body, OutputStream out) throws IOException {
-        Request req = new Request(queryParams);
+        Request req = new Request(method, resource, "HTTP/1.1", queryParams, new HashMap<>());
 
-        // Convert the body into a BufferedReader before assigning it
         if (body != null && !body.isEmpty()) {
-            req.setBodyReader(new BufferedReader(new StringReader(body)));
+            req.setBody(body.getBytes(StandardCharsets.UTF_8));
         }
-        Response res = new Response();
-        String responseBody;
+        handleRequest(req, out);
+    }
 
-        // Map the request to the corresponding controller
-        BiFunction<Request, Response, String> handler = null;
+    /**
+     * Handles a request read from a connection.
+     * The route is looked up in the compiled {@link Router} of the method; a GET that matches no route is
+     * answered from the static files.
+     * The response announces "Connection: keep-alive" or "Connection: close" according to {@link Request#isKeepAlive()},
+     * and always carries a Content-Length so the client can find where it ends on a persistent connection.
+     * Route responses are written by {@link ResponseWriter} with pooled buffers, unless the handler streams the
+     * body through {@link Response#getOutputStream()}; a streamed response to an HTTP/1.0 client clears
+     * {@link Request#isKeepAlive()}, so the caller must check it again after this method returns.
+     * Each request is recorded in the {@link Metrics} under the pattern of its route, failed ones included: a
+     * handler that throws is recorded with status 500, or with the status of a body that could not be read.
+     *
+     * @param req The request, with its method, path, headers and body.
+     * @param out The output stream where the response will be sent.
+     * @throws IOException If an error occurs while writing to the output stream.
+     */
+    public static void handleRequest(Request req, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        long written = bytesWritten(out);
+        String recordedRoute = "unmatched";
+        int status = 500; // Unless a response is produced
+        int[] bounds = NO_BOUNDS;
+        try {
+            String method = req.getMethod();
+            Response res = new Response(req, out);
+            Routers compiled = routers();
+            bounds = borrowBounds(compiled.bounds());
+            String responseBody;
+
+            // Map the request to the corresponding controller
+            Router.Route route = null;
 
-        if ("GET".equalsIgnoreCase(method)) {
-            if (getRoutes.containsKey(resource)) {
-                handler = getRoutes.get(resource);
-                responseBody = handler.apply(req, res);
+            if ("GET".equalsIgnoreCase(method)) {
+                route = route(compiled.get(), req, bounds);
+                if (route == null) {
+                    recordedRoute = "static";
+                    status = FileHandler.serveFile(req, out);
+                    return;
+                }
+                recordedRoute = route.pattern();
+                responseBody = route.handler().apply(req, res);
+            } else if ("POST".equalsIgnoreCase(method)) {
+                route = route(compiled.post(), req, bounds);
+                recordedRoute = route == null ? recordedRoute : route.pattern();
+                responseBody = route == null ? "404 Not Found" : route.handler().apply(req, res);
+            } else if ("DELETE".equalsIgnoreCase(method)) {
+                route = route(compiled.delete(), req, bounds);
+                recordedRoute = route == null ? recordedRoute : route.pattern();
+                responseBody = route == null ? "{\"error\": \"Ruta no encontrada.\"}" : route.handler().apply(req, res);
             } else {
-                FileHandler.serveFile(resource, out);
-                return;
+                responseBody = "405 Method Not Allowed";
             }
-        } else if ("POST".equalsIgnoreCase(method)) {
-            handler = postRoutes.getOrDefault(resource, (r, s) -> "404 Not Found");
-            responseBody = handler.apply(req, res);
-        }else if ("DELETE".equalsIgnoreCase(method)) {
-                handler = deleteRoutes.getOrDefault(resource, (r, s) -> "{\"error\": \"Ruta no encontrada.\"}");
-                responseBody = handler.apply(req, res);
-        }
-        else {
-            responseBody = "405 Method Not Allowed";
+            if (res.isStreaming()) {
+                res.finish(); // The handler wrote the body, send its last chunk
+            } else {
+                ResponseWriter.write(out, res, responseBody, req.isKeepAlive());
+            }
+            status = res.getStatus();
+        } catch (IOException | RuntimeException e) {
+            // The caller answers a body that failed to be read with its status; anything else gets no response
+            RequestBodyException bodyError = RequestBodyException.find(e);
+            status = bodyError != null ? bodyError.getStatus() : 500;
+            throw e;
+        } finally {
+            returnBounds(req, bounds);
+            Metrics.record(req.getMethod(), recordedRoute, status, req.getBodySize(), bytesWritten(out) - written,
+                    System.nanoTime() - start);
         }
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: application/json\r\n" +
-                "Content-Length: " + responseBody.getBytes().length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" +
-                responseBody;
+    }
 
-        out.write(response.getBytes());
-        out.flush();
+    /**
+     * Retrieves the bytes written so far to the output of a connection. Only the streams of the server engines
+     * count them; the responses written to any other stream are recorded with 0 bytes.
+     */
+    private static long bytesWritten(OutputStream out) {
+        return out instanceof ChannelOutputStream channel ? channel.getBytesWritten() : 0;
+    }
+
+    /**
+     * Builds the Connection header of a response.
+     *
+     * @param req The request being answered.
+     * @return "Connection: keep-alive" if the connection stays open, "Connection: close" otherwise, ending in CRLF.
+     */
+    static String connectionHeader(Request req) {
+        return req.isKeepAlive() ? "Connection: keep-alive\r\n" : "Connection: close\r\n";
     }
 
     /**
@@ -139,9 +287,37 @@ public class WebFramework {
         return staticFolder;
     }
 
+    /**
+     * Registers the routes of the route table generated at compile time by {@link RouteRegistryProcessor},
+     * which creates the controllers and maps their methods without scanning packages or reading annotations.
+     * Calling it again does nothing.
+     *
+     * @return true if the routes are registered, false if the build did not generate the route table.
+     */
+    public static synchronized boolean loadRouteRegistry() {
+        if (registryLoaded) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            Class<?> registry = Class.forName(RouteRegistryProcessor.REGISTRY_NAME);
+            int routes = (int) registry.getMethod("register").invoke(null);
+            registryLoaded = true;
+            System.out.printf("%d rutas registradas desde %s en %.1f ms%n", routes,
+                    RouteRegistryProcessor.REGISTRY_NAME, (System.nanoTime() - start) / 1e6);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load " + RouteRegistryProcessor.REGISTRY_NAME, e);
+        }
+    }
+
     /**
      * Registers controllers that are annotated with @RestController.
-     * Scans methods annotated with @GetMapping and @PostMapping to map them to their respective routes.
+     * Scans methods annotated with @GetMapping, @PostMapping and @DeleteMapping to map them to their respective routes.
+     * Each instance serves all the requests of its routes, and each method is linked once to a
+     * {@link ControllerInvoker}, so a request does not go through reflection.
      *
      * @param controllers The controllers to be registered.
      */
@@ -151,52 +327,15 @@ public class WebFramework {
             if (clazz.isAnnotationPresent(RestController.class)) {
                 for (Method method : clazz.getDeclaredMethods()) {
                     if (method.isAnnotationPresent(GetMapping.class)) {
-                        String path = method.getAnnotation(GetMapping.class).value();
-                        get(path, (req, res) -> {
-                            try {
-                                return (String) method.invoke(controller);
-                            } catch (IllegalAccessException | InvocationTargetException e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
+                        get(method.getAnnotation(GetMapping.class).value(), ControllerInvoker.of(controller, method));
                     } else if (method.isAnnotationPresent(PostMapping.class)) {
-                        String path = method.getAnnotation(PostMapping.class).value();
-                        post(path, (req, res) -> {
-                            try {
-                                Object[] args = extractMethodArguments(method, req);
-                                return (String) method.invoke(controller, args);
-                            } catch (IllegalAccessException | InvocationTargetException e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
+                        post(method.getAnnotation(PostMapping.class).value(), ControllerInvoker.of(controller, method));
+                    } else if (method.isAnnotationPresent(DeleteMapping.class)) {
+                        delete(method.getAnnotation(DeleteMapping.class).value(), ControllerInvoker.of(controller, method));
                     }
                 }
             }
         }
     }
 
-    /**
-     * Extracts the arguments for an annotated method based on request parameters.
-     *
-     * @param method The method to extract arguments for.
-     * @param req    The request object containing query parameters.
-     * @return An array of extracted method arguments.
-     */
-    private static Object[] extractMethodArguments(Method method, Request req) {
-        Object[] args = new Object[method.getParameterCount()];
-        int index = 0;
-
-        for (java.lang.reflect.Parameter parameter : method.getParameters()) {
-            if (parameter.isAnnotationPresent(edu.escuelaing.arep.annotations.RequestParam.class)) {
-                edu.escuelaing.arep.annotations.RequestParam requestParam = parameter.getAnnotation(edu.escuelaing.arep.annotations.RequestParam.class);
-                String paramName = requestParam.value();
-                String defaultValue = requestParam.defaultValue();
-                String value = req.getQueryParams().getOrDefault(paramName, defaultValue);
-                args[index] = value;
-            }
-            index++;
-        }
-        return args;
-    }
-
 }
\ No newline at end of file
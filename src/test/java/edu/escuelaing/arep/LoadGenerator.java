@@ -0,0 +1,81 @@
+package edu.escuelaing.arep;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generador de carga usado para comparar los motores del servidor.
+ * Abre N clientes concurrentes (un hilo virtual por cliente); cada cliente repite solicitudes GET
+ * durante el tiempo indicado y se mide el throughput y la latencia p50/p99 de las respuestas.
+ *
+ * <p>Uso: {@code java -cp target/test-classes edu.escuelaing.arep.LoadGenerator host port clientes segundos [ruta]}</p>
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int clients = Integer.parseInt(args[2]);
+        long durationNanos = Long.parseLong(args[3]) * 1_000_000_000L;
+        String path = args.length > 4 ? args[4] : "/getBooks";
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        ConcurrentLinkedQueue<long[]> samples = new ConcurrentLinkedQueue<>();
+        LongAdder errors = new LongAdder();
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    byte[] buffer = new byte[8192];
+                    while (System.nanoTime() < end) {
+                        long sent = System.nanoTime();
+                        try (Socket socket = new Socket(host, port)) {
+                            OutputStream out = socket.getOutputStream();
+                            out.write(request);
+                            out.flush();
+                            InputStream in = socket.getInputStream();
+                            while (in.read(buffer) != -1) {
+                                // Leer hasta que el servidor cierre la conexión
+                            }
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = System.nanoTime() - sent;
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                    samples.add(Arrays.copyOf(latencies, count));
+                    done.countDown();
+                });
+            }
+            done.await();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("clients=%d requests=%d errors=%d throughput=%.0f req/s p50=%.1f ms p99=%.1f ms%n",
+                clients, all.length, errors.sum(), all.length / (elapsed / 1e9),
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
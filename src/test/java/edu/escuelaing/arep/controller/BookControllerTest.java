@@ -3,6 +3,11 @@ package edu.escuelaing.arep.controller;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class BookControllerTest {
@@ -48,5 +53,151 @@ class BookControllerTest {
         String response = bookController.deleteBook("Libro inexistente");
         assertEquals("{\"error\": \"Libro no encontrado\"}", response);
     }
-}
 
+    @Test
+    void testGetBookByTitle() {
+        bookController.addBook("Ensayo sobre la ceguera", "José Saramago");
+        assertEquals("{ \"books\": [{\"title\": \"Ensayo sobre la ceguera\", \"author\": \"José Saramago\"}] }",
+                bookController.getBook("ENSAYO SOBRE LA CEGUERA"));
+        bookController.deleteBook("Ensayo sobre la ceguera");
+        assertEquals("{\"error\": \"Libro no encontrado\"}", bookController.getBook("Ensayo sobre la ceguera"));
+    }
+
+    @Test
+    void testSearchBooks() {
+        bookController.addBook("Crónica de una muerte anunciada", "Gabriel García Márquez");
+        assertEquals("{ \"books\": [{\"title\": \"Crónica de una muerte anunciada\", \"author\": \"Gabriel García Márquez\"}] }",
+                bookController.searchBooks("cronica muerte anun", "20"));
+        assertEquals("{\"error\": \"El parámetro limit debe estar entre 1 y 100.\"}", bookController.searchBooks("cronica", "0"));
+        bookController.deleteBook("Crónica de una muerte anunciada");
+        assertEquals("{ \"books\": [] }", bookController.searchBooks("cronica muerte anun", "20"));
+    }
+
+    @Test
+    void testSnapshotIsReusedUntilTheNextWrite() {
+        Response first = serve(null);
+        Response second = serve(null);
+        assertSame(first.getBody(), second.getBody(), "Las lecturas sin escrituras deben reutilizar los mismos bytes");
+        assertEquals(first.getHeaderValue(0), second.getHeaderValue(0));
+
+        bookController.addBook("Rayuela", "Julio Cortázar");
+        Response third = serve(null);
+        assertNotEquals(first.getHeaderValue(0), third.getHeaderValue(0), "El ETag debe cambiar tras añadir un libro");
+        assertTrue(new String(third.getBody(), StandardCharsets.UTF_8).contains("Rayuela"));
+
+        bookController.deleteBook("Libro inexistente");
+        assertSame(third.getBody(), serve(null).getBody(), "Un borrado fallido no cambia la versión");
+        bookController.deleteBook("Rayuela");
+    }
+
+    @Test
+    void testMatchingETagGetsNotModified() {
+        Response full = serve(null);
+        assertEquals("ETag", full.getHeaderName(0));
+        String etag = full.getHeaderValue(0);
+        assertTrue(etag.startsWith("\"books-") && etag.endsWith("\""), "El ETag debe ser fuerte: " + etag);
+
+        Response notModified = serve(etag);
+        assertEquals(304, notModified.getStatus());
+        assertNull(notModified.getBody());
+        assertEquals(200, serve("\"otro\"").getStatus());
+    }
+
+    @Test
+    void testPagedListing() {
+        bookController.addBook("Zz Paginado Uno", "Autor");
+        bookController.addBook("Zz Paginado Dos", "Autor");
+        bookController.addBook("Zz Paginado Tres", "Autor");
+
+        HashMap<String, String> params = new HashMap<>();
+        params.put("sort", "-title");
+        params.put("limit", "2");
+        Response res = new Response();
+        bookController.serveBooks(new Request("GET", "/getBooks", "HTTP/1.1", params, new HashMap<>()), res);
+        String page = new String(res.getBody(), StandardCharsets.UTF_8);
+        assertTrue(page.startsWith("{ \"books\": [{\"title\": \"Zz Paginado Uno\", \"author\": \"Autor\"},"
+                + "{\"title\": \"Zz Paginado Tres\", \"author\": \"Autor\"}], \"nextCursor\": \""), page);
+
+        params.put("limit", "5000");
+        Response tooLarge = new Response();
+        bookController.serveBooks(new Request("GET", "/getBooks", "HTTP/1.1", params, new HashMap<>()), tooLarge);
+        assertEquals(400, tooLarge.getStatus());
+
+        bookController.deleteBook("Zz Paginado Uno");
+        bookController.deleteBook("Zz Paginado Dos");
+        bookController.deleteBook("Zz Paginado Tres");
+    }
+
+    @Test
+    void testImportBooks() throws IOException {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("content-type", "text/csv");
+        Request req = new Request("POST", "/importBooks", "HTTP/1.1", new HashMap<>(), headers);
+        req.setBody("author,title\nJuan Rulfo,Zz Importado Uno\nJuan Rulfo\nJuan Rulfo,Zz Importado Dos\n"
+                .getBytes(StandardCharsets.UTF_8));
+        Response res = new Response();
+        bookController.importBooks(req, res);
+        String summary = new String(res.getBody(), StandardCharsets.UTF_8);
+        assertTrue(summary.startsWith("{\"records\": 3, \"imported\": 2, \"duplicates\": 0, \"rejected\": 1, "), summary);
+        assertTrue(summary.endsWith("\"errors\": [{\"line\": 3, \"error\": \"Faltan columnas: se esperaban el título y el autor\"}]}"), summary);
+        assertTrue(bookController.getBook("Zz Importado Dos").contains("Juan Rulfo"));
+
+        HashMap<String, String> params = new HashMap<>();
+        params.put("format", "xml");
+        Response unknown = new Response();
+        bookController.importBooks(new Request("POST", "/importBooks", "HTTP/1.1", params, new HashMap<>()), unknown);
+        assertEquals(400, unknown.getStatus());
+
+        bookController.deleteBook("Zz Importado Uno");
+        bookController.deleteBook("Zz Importado Dos");
+    }
+
+    @Test
+    void testImportErrorsAreEscaped() throws IOException {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("content-type", "application/x-ndjson");
+        Request req = new Request("POST", "/importBooks", "HTTP/1.1", new HashMap<>(), headers);
+        req.setBody("{title: \"x\", \"author\": \"y\"}\n".getBytes(StandardCharsets.UTF_8));
+        Response res = new Response();
+        bookController.importBooks(req, res);
+        String summary = new String(res.getBody(), StandardCharsets.UTF_8);
+        assertTrue(summary.endsWith("\"errors\": [{\"line\": 1, \"error\": \"JSON no válido: se esperaba '\\\"'\"}]}"), summary);
+    }
+
+    @Test
+    void testExportBooksStreamsEscapedRecords() throws IOException {
+        bookController.addBook("Zz \"Exportado\"", "Autor, Uno");
+        assertTrue(bookController.getBook("Zz \"Exportado\"").contains("\"title\": \"Zz \\\"Exportado\\\"\""),
+                "Las comillas se escapan en el JSON");
+
+        HashMap<String, String> params = new HashMap<>();
+        params.put("format", "csv");
+        // HTTP/1.0 receives the body without chunks, which keeps it readable here
+        Request req = new Request("GET", "/exportBooks", "HTTP/1.0", params, new HashMap<>());
+        ByteArrayOutputStream connection = new ByteArrayOutputStream();
+        Response res = new Response(req, connection);
+        bookController.exportBooks(req, res);
+        res.finish();
+        String response = connection.toString(StandardCharsets.UTF_8);
+        assertTrue(response.contains("Content-Type: text/csv; charset=utf-8\r\n"), response);
+        assertTrue(response.contains("\r\n\r\ntitle,author\r\n"), response);
+        assertTrue(response.contains("\r\n\"Zz \"\"Exportado\"\"\",\"Autor, Uno\"\r\n"), response);
+
+        params.put("format", "xml");
+        Response unknown = new Response();
+        bookController.exportBooks(new Request("GET", "/exportBooks", "HTTP/1.1", params, new HashMap<>()), unknown);
+        assertEquals(400, unknown.getStatus());
+
+        bookController.deleteBook("Zz \"Exportado\"");
+    }
+
+    private Response serve(String ifNoneMatch) {
+        HashMap<String, String> headers = new HashMap<>();
+        if (ifNoneMatch != null) {
+            headers.put("if-none-match", ifNoneMatch);
+        }
+        Response res = new Response();
+        bookController.serveBooks(new Request("GET", "/getBooks", "HTTP/1.1", new HashMap<>(), headers), res);
+        return res;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.escuelaing.arep.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpRequestParserTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Request parseWhole(String text) {
+        HttpRequestParser parser = new HttpRequestParser(1024);
+        byte[] request = bytes(text);
+        assertEquals(request.length, parser.parse(request, 0, request.length));
+        assertTrue(parser.isComplete(), "La solicitud debe estar completa");
+        return parser.getRequest();
+    }
+
+    private static int errorOf(String text, int maxBodySize) {
+        HttpRequestParser parser = new HttpRequestParser(maxBodySize);
+        byte[] request = bytes(text);
+        parser.parse(request, 0, request.length);
+        assertTrue(parser.hasError());
+        return parser.getErrorStatus();
+    }
+
+    @Test
+    void testRequestLineAndQuery() {
+        Request req = parseWhole("GET /App/hello?name=Pedro%20P%C3%A9rez&age=20&vacio= HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertEquals("GET", req.getMethod());
+        assertEquals("/App/hello", req.getPath());
+        assertEquals("HTTP/1.1", req.getProtocol());
+        assertEquals("Pedro Pérez", req.getValues("name"));
+        assertEquals("20", req.getValues("age"));
+        assertFalse(req.getQueryParams().containsKey("vacio"));
+    }
+
+    @Test
+    void testHeadersAreCaseInsensitive() {
+        Request req = parseWhole("GET / HTTP/1.1\r\nCONTENT-type:   text/plain  \r\nX-Custom-Header: Valor\r\n\r\n");
+        assertEquals("text/plain", req.getHeader("Content-Type"));
+        assertEquals("Valor", req.getHeaders().get("x-custom-header"));
+    }
+
+    @Test
+    void testBytesFedOneAtATime() {
+        HttpRequestParser parser = new HttpRequestParser(1024);
+        byte[] request = bytes("POST /echo HTTP/1.1\r\nContent-Length: 10\r\n\r\ntext=hola!");
+        for (int i = 0; i < request.length; i++) {
+            assertFalse(parser.isComplete());
+            assertEquals(1, parser.parse(request, i, 1));
+        }
+        assertTrue(parser.isComplete());
+        assertEquals("hola!", parser.getRequest().getBodyParam("text"));
+    }
+
+    @Test
+    void testContentLengthCountsBytes() {
+        Request req = parseWhole("POST /echo HTTP/1.1\r\nContent-Length: 13\r\n\r\ntext=canción");
+        assertEquals("canción", req.getBodyParam("text"));
+        assertEquals("text=canción", req.getBody());
+    }
+
+    @Test
+    void testPipelinedRequestsAreParsedOneByOne() {
+        HttpRequestParser parser = new HttpRequestParser(1024);
+        byte[] requests = bytes("GET /uno HTTP/1.1\r\n\r\nGET /dos HTTP/1.1\r\n\r\n");
+        int consumed = parser.parse(requests, 0, requests.length);
+        assertTrue(parser.isComplete());
+        assertEquals("/uno", parser.getRequest().getPath());
+
+        parser.reset();
+        consumed += parser.parse(requests, consumed, requests.length - consumed);
+        assertEquals(requests.length, consumed);
+        assertEquals("/dos", parser.getRequest().getPath());
+    }
+
+    @Test
+    void testLeadingEmptyLinesAndMissingProtocol() {
+        Request req = parseWhole("\r\nGET /viejo\r\n\r\n");
+        assertEquals("/viejo", req.getPath());
+        assertEquals("HTTP/1.0", req.getProtocol());
+    }
+
+    @Test
+    void testMalformedRequests() {
+        assertEquals(400, errorOf("GARBAGE\r\n\r\n", 1024));
+        assertEquals(400, errorOf("GET / HTTP/1.1\r\nSin dos puntos\r\n\r\n", 1024));
+        assertEquals(400, errorOf("GET / HTTP/1.1\r\nContent-Length: diez\r\n\r\n", 1024));
+        assertEquals(400, errorOf("GET / HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 2\r\n\r\n", 1024));
+    }
+
+    @Test
+    void testSizeLimits() {
+        assertEquals(414, errorOf("GET /" + "a".repeat(HttpRequestParser.MAX_REQUEST_LINE) + " HTTP/1.1\r\n\r\n", 1024));
+        assertEquals(431, errorOf("GET / HTTP/1.1\r\nX: " + "a".repeat(HttpRequestParser.MAX_HEADER_SIZE) + "\r\n\r\n", 1024));
+        assertEquals(431, errorOf("GET / HTTP/1.1\r\n" + "X-A: 1\r\n".repeat(HttpRequestParser.MAX_HEADERS + 1) + "\r\n", 1024));
+        assertEquals(413, errorOf("POST / HTTP/1.1\r\nContent-Length: 2048\r\n\r\n", 1024));
+    }
+
+    @Test
+    void testErrorResponse() {
+        String response = new String(HttpRequestParser.errorResponse(431), StandardCharsets.US_ASCII);
+        assertTrue(response.startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n"));
+        assertTrue(response.contains("Connection: close"));
+        assertTrue(response.endsWith("431 Request Header Fields Too Large"));
+    }
+
+    @Test
+    void testChunkedBodyIsBuffered() {
+        HttpRequestParser parser = new HttpRequestParser(1024);
+        byte[] request = bytes("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "5\r\ntext=\r\n5\r\nhola!\r\n0\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+        int consumed = 0;
+        while (!parser.isComplete()) {
+            consumed += parser.parse(request, consumed, Math.min(7, request.length - consumed));
+        }
+        Request req = parser.getRequest();
+        assertEquals("text=hola!", req.getBody());
+        assertEquals("hola!", req.getBodyParam("text"));
+        assertEquals("GET / HTTP/1.1\r\n\r\n", new String(request, consumed, request.length - consumed, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTransferEncodingErrors() {
+        assertEquals(413, errorOf("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n800\r\n", 1024));
+        assertEquals(400, errorOf("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 3\r\n\r\n", 1024));
+        assertEquals(501, errorOf("POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n", 1024));
+    }
+
+    @Test
+    void testStreamedBodyIsLeftOnTheConnection() {
+        HttpRequestParser parser = new HttpRequestParser(1024, true);
+        byte[] request = bytes("POST /echo HTTP/1.1\r\nContent-Length: 4\r\n\r\nhola");
+        int consumed = parser.parse(request, 0, request.length);
+        assertTrue(parser.isComplete());
+        assertEquals(request.length - 4, consumed);
+        assertEquals(4, parser.getContentLength());
+        assertFalse(parser.isChunked());
+    }
+}
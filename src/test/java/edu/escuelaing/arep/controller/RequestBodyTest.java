@@ -0,0 +1,90 @@
+package edu.escuelaing.arep.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestBodyTest {
+
+    private static ConnectionInput input(String bytes, int bufferSize) {
+        return new ConnectionInput(new ByteArrayInputStream(bytes.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    }
+
+    /**
+     * Returns the bytes of the connection that follow the body.
+     */
+    private static String rest(ConnectionInput in) throws IOException {
+        return new String(in.buffer, in.start, in.available(), StandardCharsets.UTF_8)
+                + new String(in.in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testContentLengthBodyStopsAtItsLength() throws IOException {
+        ConnectionInput in = input("text=hola!GET /siguiente", 4);
+        RequestBody body = new RequestBody(in, 10, false, 1024);
+        assertEquals("text=hola!", new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals("GET /siguiente", rest(in), "La siguiente solicitud queda en la conexión");
+    }
+
+    @Test
+    void testDrainSkipsTheUnreadBody() throws IOException {
+        ConnectionInput in = input("0123456789XY", 64);
+        RequestBody body = new RequestBody(in, 10, false, 1024);
+        assertEquals('0', body.read());
+        body.drain();
+        assertEquals("XY", rest(in));
+    }
+
+    @Test
+    void testChunkedBodyIsDecoded() throws IOException {
+        ConnectionInput in = input("5;ext=1\r\nhola \r\n6\r\nmundo!\r\n0\r\nX-Trailer: si\r\n\r\nGET", 3);
+        RequestBody body = new RequestBody(in, 0, true, 1024);
+        assertEquals("hola mundo!", new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals("GET", rest(in));
+    }
+
+    @Test
+    void testChunkedBodyOverTheLimitIsRejected() {
+        RequestBody body = new RequestBody(input("10\r\n0123456789abcdef\r\n0\r\n\r\n", 64), 0, true, 8);
+        RequestBodyException e = assertThrows(RequestBodyException.class, body::readAllBytes);
+        assertEquals(413, e.getStatus());
+    }
+
+    @Test
+    void testStreamedBodyCanExceedTheBufferedLimit() throws IOException {
+        RequestBody buffered = new RequestBody(input("0123456789abcdef", 64), 16, false, 8, 1024);
+        assertEquals(413, assertThrows(RequestBodyException.class, buffered::readAllBytes).getStatus());
+
+        RequestBody streamed = new RequestBody(input("0123456789abcdef", 64), 16, false, 8, 1024);
+        streamed.allowStreaming();
+        assertEquals("0123456789abcdef", new String(streamed.readAllBytes(), StandardCharsets.UTF_8));
+
+        RequestBody chunked = new RequestBody(input("10\r\n0123456789abcdef\r\n0\r\n\r\n", 64), 0, true, 8, 1024);
+        chunked.allowStreaming();
+        assertEquals(16, chunked.readAllBytes().length);
+    }
+
+    @Test
+    void testLargeUnreadBodyIsNotDrained() {
+        RequestBody body = new RequestBody(input("0123456789abcdef", 64), 16, false, 8, 1024);
+        assertEquals(413, assertThrows(RequestBodyException.class, body::drain).getStatus(),
+                "Un cuerpo que el manejador no leyó no se descarta más allá del límite");
+    }
+
+    @Test
+    void testMalformedChunkIsRejected() {
+        RequestBody body = new RequestBody(input("zz\r\nhola\r\n", 64), 0, true, 1024);
+        assertEquals(400, assertThrows(RequestBodyException.class, body::readAllBytes).getStatus());
+    }
+
+    @Test
+    void testConnectionClosedBeforeTheEnd() {
+        RequestBody body = new RequestBody(input("corto", 64), 10, false, 1024);
+        assertThrows(EOFException.class, body::readAllBytes);
+    }
+}
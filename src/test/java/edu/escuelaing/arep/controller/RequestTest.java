@@ -4,6 +4,8 @@ import edu.escuelaing.arep.controller.Request;
 import org.junit.jupiter.api.Test;
 import java.util.HashMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RequestTest {
 
@@ -25,4 +27,67 @@ public class RequestTest {
         String value = request.getValues("age");
         assertEquals("", value, "El valor del parámetro 'age' debería ser una cadena vacía");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testHeadersAreCaseInsensitive() {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("content-type", "application/json");
+        Request request = new Request("GET", "/", "HTTP/1.1", new HashMap<>(), headers);
+
+        assertEquals("application/json", request.getHeader("Content-Type"));
+        assertEquals("", request.getHeader("Accept"));
+    }
+
+    @Test
+    public void testWantsKeepAlive() {
+        HashMap<String, String> close = new HashMap<>();
+        close.put("connection", "close");
+        HashMap<String, String> keepAlive = new HashMap<>();
+        keepAlive.put("connection", "keep-alive");
+
+        assertTrue(new Request("GET", "/", "HTTP/1.1", new HashMap<>(), new HashMap<>()).wantsKeepAlive());
+        assertFalse(new Request("GET", "/", "HTTP/1.1", new HashMap<>(), close).wantsKeepAlive());
+        assertFalse(new Request("GET", "/", "HTTP/1.0", new HashMap<>(), new HashMap<>()).wantsKeepAlive());
+        assertTrue(new Request("GET", "/", "HTTP/1.0", new HashMap<>(), keepAlive).wantsKeepAlive());
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("if-none-match", "\"a\", W/\"b\"");
+        Request request = new Request("GET", "/", "HTTP/1.1", new HashMap<>(), headers);
+
+        assertTrue(request.ifNoneMatch("\"a\""));
+        assertTrue(request.ifNoneMatch("\"b\""), "La comparación débil ignora el prefijo W/");
+        assertFalse(request.ifNoneMatch("\"c\""));
+        headers.put("if-none-match", "*");
+        assertTrue(new Request("GET", "/", "HTTP/1.1", new HashMap<>(), headers).ifNoneMatch("\"c\""));
+        assertFalse(new Request("GET", "/", "HTTP/1.1", new HashMap<>(), new HashMap<>()).ifNoneMatch("\"a\""));
+    }
+
+    @Test
+    public void testFormFieldsAreParsedOnFirstAccess() {
+        Request request = new Request("POST", "/", "HTTP/1.1", new HashMap<>(), new HashMap<>());
+        CountingStream body = new CountingStream("bookTitle=Cien+a%C3%B1os&bookAuthor=Garc%C3%ADa");
+        request.setBody(body);
+        assertEquals(0, body.reads, "El cuerpo no se lee hasta que se pide");
+
+        assertEquals("Cien años", request.getBodyParam("bookTitle"));
+        assertEquals("García", request.getBodyParam("bookAuthor"));
+        assertEquals("bookTitle=Cien+a%C3%B1os&bookAuthor=Garc%C3%ADa", request.getBody());
+    }
+
+    private static class CountingStream extends java.io.ByteArrayInputStream {
+        private int reads;
+
+        CountingStream(String text) {
+            super(text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            reads++;
+            return super.read(b, off, len);
+        }
+    }
+}
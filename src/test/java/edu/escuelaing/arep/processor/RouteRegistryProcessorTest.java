@@ -0,0 +1,96 @@
+package edu.escuelaing.arep.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteRegistryProcessorTest {
+
+    private static JavaFileObject source(String className, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    /**
+     * Compiles the sources with the processor and returns the errors reported.
+     */
+    private static List<Diagnostic<? extends JavaFileObject>> compile(Path output, JavaFileObject... sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = List.of("-d", output.toString(), "-s", output.toString(),
+                "-classpath", System.getProperty("java.class.path"), "-proc:only",
+                "-processor", RouteRegistryProcessor.class.getName());
+        compiler.getTask(null, null, diagnostics, options, null, List.of(sources)).call();
+        return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).toList();
+    }
+
+    @Test
+    void testGeneratesDirectCalls(@TempDir Path output) throws IOException {
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(output, source("demo.ItemController", """
+                package demo;
+                import edu.escuelaing.arep.annotations.*;
+                import edu.escuelaing.arep.controller.Response;
+                @RestController
+                public class ItemController {
+                    @GetMapping("/items/{id}")
+                    public String item(@PathVariable("id") String id, @RequestParam(value = "q", defaultValue = "\\"x\\"") String q) {
+                        return id + q;
+                    }
+                    @PostMapping("/items")
+                    public int count() { return 1; }
+                    @DeleteMapping("/items/{id}")
+                    public void remove(@PathVariable("id") String id, Response res) throws java.io.IOException { }
+                    public String notMapped() { return ""; }
+                }
+                """));
+        assertTrue(errors.isEmpty(), errors.toString());
+
+        String registry = Files.readString(output.resolve("edu/escuelaing/arep/RouteRegistry.java"));
+        assertTrue(registry.contains("demo.ItemController controller0 = new demo.ItemController();"));
+        assertTrue(registry.contains("WebFramework.get(\"/items/{id}\", (req, res) -> { return controller0.item("
+                + "req.getPathVariable(\"id\"), req.getQueryParams().getOrDefault(\"q\", \"\\\"x\\\"\")); });"));
+        assertTrue(registry.contains("return java.util.Objects.toString(controller0.count(), null);"));
+        assertTrue(registry.contains("controller0.remove(req.getPathVariable(\"id\"), res); return null;"));
+        assertTrue(registry.contains("throw new RuntimeException(\"Error invoking method\", e);"));
+        assertFalse(registry.contains("notMapped"));
+        assertTrue(registry.contains("return 3;"));
+    }
+
+    @Test
+    void testRejectsControllersItCannotCall(@TempDir Path output) {
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(output, source("demo.HiddenController", """
+                package demo;
+                import edu.escuelaing.arep.annotations.*;
+                @RestController
+                public class HiddenController {
+                    @GetMapping("/hidden")
+                    private String hidden() { return ""; }
+                }
+                """), source("demo.NoDefaultConstructor", """
+                package demo;
+                import edu.escuelaing.arep.annotations.*;
+                @RestController
+                public class NoDefaultConstructor {
+                    public NoDefaultConstructor(String name) { }
+                }
+                """));
+        assertEquals(2, errors.size(), errors.toString());
+    }
+}
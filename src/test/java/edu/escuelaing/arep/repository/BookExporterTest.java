@@ -0,0 +1,91 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookExporterTest {
+
+    private static final List<Book> TRICKY = List.of(
+            new Book("El \"Aleph\"", "Borges, Jorge Luis"),
+            new Book("C:\\libros\\uno", "Autor\tcon\ttabuladores"),
+            new Book("Dos\r\nlíneas", "Control \u0001"),
+            new Book("Rayuela", "Julio Cortázar"));
+
+    @Test
+    void testJsonIsEscaped() {
+        String plain = "Cien años de soledad";
+        assertSame(plain, BookExporter.escapeJson(plain), "Un texto sin nada que escapar no se copia");
+        assertEquals("El \\\"Aleph\\\" \\\\ \\n\\r\\t\\u0001\\u001f", BookExporter.escapeJson("El \"Aleph\" \\ \n\r\t\u0001\u001f"));
+    }
+
+    @Test
+    void testNdjsonHasOneEscapedObjectPerLine() throws IOException {
+        StringWriter out = new StringWriter();
+        assertEquals(4, BookExporter.export(TRICKY, BookImporter.Format.NDJSON, out));
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length, "Los saltos de línea de los campos se escapan");
+        assertEquals("{\"title\": \"El \\\"Aleph\\\"\", \"author\": \"Borges, Jorge Luis\"}", lines[0]);
+        assertEquals("{\"title\": \"Dos\\r\\nlíneas\", \"author\": \"Control \\u0001\"}", lines[2]);
+    }
+
+    @Test
+    void testCsvQuotesOnlyTheFieldsThatNeedIt() throws IOException {
+        StringWriter out = new StringWriter();
+        BookExporter.export(TRICKY.subList(0, 1), BookImporter.Format.CSV, out);
+        BookExporter.export(TRICKY.subList(3, 4), BookImporter.Format.CSV, out);
+        assertEquals("title,author\r\n\"El \"\"Aleph\"\"\",\"Borges, Jorge Luis\"\r\n"
+                + "title,author\r\nRayuela,Julio Cortázar\r\n", out.toString());
+    }
+
+    @Test
+    void testExportCanBeImportedAgain() throws IOException {
+        for (BookImporter.Format format : BookImporter.Format.values()) {
+            StringWriter out = new StringWriter();
+            BookExporter.export(TRICKY, format, out);
+            BookStore store = new BookStore();
+            BookImporter.Summary summary = new BookImporter(store, format, 100)
+                    .importFrom(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8)));
+            assertEquals(TRICKY.size(), summary.imported(), format + ": " + summary.errors());
+            for (Book book : TRICKY) {
+                assertEquals(book.getAuthor(), store.findByTitle(book.getTitle()).get(0).getAuthor(), format.toString());
+            }
+        }
+    }
+
+    @Test
+    void testCatalogCanChangeDuringTheExport() throws IOException {
+        BookStore store = new BookStore();
+        for (int i = 0; i < 100; i++) {
+            store.add(new Book(String.format("Libro %03d", i), "Autor"));
+        }
+        // Each of the first books written adds one after it and deletes one that was already written
+        Writer out = new StringWriter() {
+            private int written;
+
+            @Override
+            public void write(String text) {
+                super.write(text);
+                if (text.endsWith("\n") && written < 100) {
+                    store.add(new Book("Nuevo " + written, "Autor"));
+                    store.removeByTitle(String.format("Libro %03d", written++));
+                }
+            }
+        };
+        long exported = BookExporter.export(store.books(), BookImporter.Format.NDJSON, out);
+        String ndjson = out.toString();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ndjson.contains(String.format("\"Libro %03d\"", i)), "Los libros presentes al empezar se exportan");
+        }
+        assertEquals(exported, ndjson.lines().count());
+        assertEquals(exported, ndjson.lines().distinct().count(), "Ningún libro se exporta dos veces");
+    }
+}
@@ -0,0 +1,105 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookImporterTest {
+
+    @Test
+    void testNdjsonRecordsAreImportedAndErrorsReported() throws IOException {
+        BookStore store = new BookStore();
+        store.add(new Book("Aura", "Carlos Fuentes"));
+        String body = """
+                {"title": "Rayuela", "author": "Julio Cortázar", "year": 1963, "tags": ["novela", {"x": "}"}]}
+                {"author":"Jorge Luis Borges","title":"El \\"Aleph\\"\\u00e9"}\r
+
+                {"title": "Aura", "author": "Carlos Fuentes"}
+                {"title": "Sin autor"}
+                {"title": 42, "author": "Nadie"}
+                {"title": "Roto", "author": "Nadie"
+                no es json
+                {"title": "Pedro Páramo", "author": "Juan Rulfo"}""";
+        BookImporter.Summary summary = new BookImporter(store, BookImporter.Format.NDJSON, 2).importFrom(stream(body));
+
+        assertEquals(8, summary.records(), "Las líneas en blanco no cuentan");
+        assertEquals(3, summary.imported());
+        assertEquals(1, summary.duplicates());
+        assertEquals(4, summary.rejected());
+        assertEquals(List.of(5L, 6L, 7L, 8L), summary.errors().stream().map(BookImporter.LineError::line).toList());
+        assertEquals("Faltan los campos title y author", summary.errors().get(0).message());
+        assertEquals(1, store.findByTitle("El \"Aleph\"é").size(), "Los escapes se decodifican");
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    void testCsvWithHeaderQuotesAndLineBreaks() throws IOException {
+        BookStore store = new BookStore();
+        String body = "\uFEFFyear,Author,Title\r\n"
+                + "1967,Gabriel García Márquez,\"Cien años de soledad\"\r\n"
+                + "1944,\"Borges, Jorge Luis\",\"Ficciones\"\r\n"
+                + "1990,\"Autor \"\"entre comillas\"\"\",\"Dos\nlíneas\"\r\n"
+                + "2000,Falta el título\r\n"
+                + "2001,Autor,\"sin cerrar\n";
+        BookImporter.Summary summary = new BookImporter(store, BookImporter.Format.CSV, 100).importFrom(stream(body));
+
+        assertEquals(3, summary.imported());
+        assertEquals(List.of(new BookImporter.LineError(6, "Faltan columnas: se esperaban el título y el autor"),
+                new BookImporter.LineError(7, "Comillas sin cerrar al final de los datos")), summary.errors(),
+                "Los números de línea cuentan los saltos dentro de las comillas");
+        assertEquals("Borges, Jorge Luis", store.findByTitle("Ficciones").get(0).getAuthor());
+        assertEquals("Autor \"entre comillas\"", store.findByTitle("Dos\nlíneas").get(0).getAuthor());
+    }
+
+    @Test
+    void testCsvWithoutHeaderUsesTitleThenAuthor() throws IOException {
+        BookStore store = new BookStore();
+        BookImporter.Summary summary = new BookImporter(store, BookImporter.Format.CSV, 100)
+                .importFrom(stream("Rayuela,Julio Cortázar\nAura,Carlos Fuentes"));
+        assertEquals(2, summary.imported());
+        assertEquals("Julio Cortázar", store.findByTitle("Rayuela").get(0).getAuthor());
+    }
+
+    @Test
+    void testRecordLongerThanTheBufferIsSkipped() throws IOException {
+        BookStore store = new BookStore();
+        String body = "{\"title\": \"" + "x".repeat(3 * BookImporter.MAX_RECORD) + "\", \"author\": \"A\"}\n"
+                + "{\"title\": \"Corto\", \"author\": \"B\"}\n";
+        BookImporter.Summary summary = new BookImporter(store, BookImporter.Format.NDJSON, 100).importFrom(stream(body));
+        assertEquals(1, summary.imported());
+        assertEquals(1, summary.rejected(), "El registro largo se rechaza una sola vez");
+        assertEquals(1, summary.errors().get(0).line());
+        assertEquals(1, store.findByTitle("Corto").size());
+    }
+
+    @Test
+    void testBooksAreAddedInBatchesWhateverTheReads() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            body.append("{\"title\": \"Libro ").append(i).append("\", \"author\": \"Autor\"}\n");
+        }
+        BookStore store = new BookStore();
+        // A stream that returns a few bytes per read, as a slow connection would
+        InputStream trickle = new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] bytes, int offset, int length) {
+                return super.read(bytes, offset, Math.min(length, 7));
+            }
+        };
+        BookImporter.Summary summary = new BookImporter(store, BookImporter.Format.NDJSON, 10).importFrom(trickle);
+        assertEquals(25, summary.imported());
+        assertEquals(0, summary.rejected());
+        assertEquals(6, store.version(), "Un cambio de versión por lote: 10, 10 y 5 libros");
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,113 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testChangesSurviveARestart() throws IOException {
+        BookStore store = open(false);
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.add(new Book("Ficciones", "Jorge Luis Borges"));
+        store.add(new Book("Aura", "Carlos Fuentes"));
+        store.removeByTitle("FICCIONES");
+        store.journal().close();
+
+        BookStore recovered = open(false);
+        assertEquals(List.of("Aura", "Rayuela"), titles(recovered));
+        assertEquals(List.of("Julio Cortázar"), recovered.findByTitle("rayuela").stream().map(Book::getAuthor).toList());
+        recovered.journal().close();
+    }
+
+    @Test
+    void testSnapshotAndLogTailAreCombined() throws IOException {
+        BookStore store = open(false);
+        for (int i = 0; i < 200; i++) {
+            store.add(new Book("Libro " + i, "Autor " + i % 7));
+        }
+        assertTrue(segments() > 1, "El registro debe ocupar varios segmentos");
+        store.journal().snapshot(store);
+        assertEquals(1, segments(), "La instantánea borra los segmentos que cubre");
+        // Cambios posteriores a la instantánea, que solo están en el registro
+        store.removeByTitle("Libro 0");
+        store.add(new Book("Libro 200", "Autor 0"));
+        store.journal().close();
+
+        BookStore recovered = open(false);
+        assertEquals(200, recovered.size());
+        assertTrue(recovered.version() > 0, "Un catálogo recuperado no puede confundirse con uno vacío");
+        assertTrue(recovered.findByTitle("Libro 0").isEmpty());
+        assertEquals(1, recovered.findByTitle("Libro 200").size());
+        assertEquals(11, recovered.search("libro 19", 20).size(), "El índice de búsqueda también se reconstruye");
+        recovered.journal().close();
+    }
+
+    @Test
+    void testTornRecordIsDropped() throws IOException {
+        BookStore store = open(false);
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.journal().close();
+        // Un registro a medio escribir: longitud y datos, pero con un CRC que no coincide
+        try (RandomAccessFile file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+            long end = 8 + 1 + 4 + "Rayuela".length() + 4 + "Julio Cortázar".getBytes().length;
+            file.seek(end);
+            file.writeInt(20);
+            file.writeInt(12345);
+            file.write(new byte[]{1, 0, 0, 0, 3, 'a', 'b', 'c'});
+        }
+
+        BookStore recovered = open(false);
+        assertEquals(List.of("Rayuela"), titles(recovered));
+        recovered.add(new Book("Aura", "Carlos Fuentes"));
+        recovered.journal().close();
+
+        BookStore again = open(false);
+        assertEquals(List.of("Aura", "Rayuela"), titles(again), "Los registros nuevos sustituyen al dañado");
+        again.journal().close();
+    }
+
+    @Test
+    void testSynchronousWritesWaitForTheFlush() throws IOException {
+        BookStore store = open(true);
+        store.add(new Book("Pedro Páramo", "Juan Rulfo"));
+        assertTrue(store.journal().isDurable(store.journalPosition()), "La escritura vuelve cuando el registro está en disco");
+        store.journal().close();
+        assertEquals(List.of("Pedro Páramo"), titles(open(true)));
+    }
+
+    private BookStore open(boolean sync) throws IOException {
+        return BookJournal.open(dir, SEGMENT_SIZE, sync, 10, 0);
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    private static List<String> titles(BookStore store) {
+        return store.books().stream().map(Book::getTitle).toList();
+    }
+}
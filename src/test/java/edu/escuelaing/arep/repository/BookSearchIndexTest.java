@@ -0,0 +1,111 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookSearchIndexTest {
+
+    private BookSearchIndex index;
+    private Book soledad;
+    private Book amor;
+
+    @BeforeEach
+    void setUp() {
+        index = new BookSearchIndex();
+        soledad = new Book("Cien años de soledad", "Gabriel García Márquez");
+        amor = new Book("El amor en los tiempos del cólera", "Gabriel García Márquez");
+        index.add(soledad);
+        index.add(amor);
+        index.add(new Book("La casa de los espíritus", "Isabel Allende"));
+        index.add(new Book("Paula", "Isabel Allende"));
+    }
+
+    @Test
+    void testWordsIgnoreCaseAndAccents() {
+        assertEquals(List.of(soledad, amor), index.search("GARCIA", 10));
+        assertEquals(List.of(amor), index.search("colera", 10));
+        assertEquals(List.of("cien", "anos", "de", "soledad"), BookSearchIndex.tokenize("Cien años de soledad"));
+    }
+
+    @Test
+    void testAllWordsMustMatchAndTheLastIsAPrefix() {
+        assertEquals(List.of(soledad), index.search("garcía sol", 10));
+        assertEquals(List.of(soledad, amor), index.search("gabriel m", 10));
+        assertEquals(2, index.search("isab", 10).size());
+        assertTrue(index.search("allende sol", 10).isEmpty(), "Ningún libro de Allende empieza por sol");
+        assertTrue(index.search("borges", 10).isEmpty());
+        assertTrue(index.search("  ¡! ", 10).isEmpty(), "Una consulta sin palabras no encuentra nada");
+    }
+
+    @Test
+    void testLimit() {
+        assertEquals(List.of(soledad), index.search("gabriel", 1));
+        assertEquals(4, index.search("a", 10).size());
+        assertEquals(3, index.search("a", 3).size());
+    }
+
+    @Test
+    void testPrefixesWithManyWords() {
+        // Muchas palabras con el mismo prefijo: se comprueban mezclando sus listas o con las palabras de cada libro
+        for (int i = 0; i < 500; i++) {
+            index.add(new Book("Volumen" + i, "Editorial Varia"));
+        }
+        Book rare = new Book("Volumen especial", "Gabriel García Márquez");
+        index.add(rare);
+        assertEquals(List.of(rare), index.search("gabriel volu", 10), "Pocas candidatas: se revisan sus palabras");
+        assertEquals(10, index.search("varia volumen1", 10).size(), "Muchas candidatas: se mezclan las listas del prefijo");
+        assertEquals(111, index.search("editorial volumen1", 200).size());
+        assertEquals(20, index.search("volumen", 20).size());
+    }
+
+    @Test
+    void testRemovedBooksAreNotFound() {
+        index.remove(soledad);
+        assertEquals(List.of(amor), index.search("garcia", 10));
+        assertTrue(index.search("soledad", 10).isEmpty());
+        assertEquals(List.of(amor), index.search("garcia c", 10), "El libro eliminado sale de la lista de su inicial");
+        int words = index.wordCount();
+        index.remove(amor);
+        assertTrue(index.wordCount() < words, "Las palabras sin libros se eliminan del índice");
+        assertTrue(index.search("gabriel", 10).isEmpty());
+    }
+
+    @Test
+    void testPrefixMergesTheListsInOrderWithoutRepeats() {
+        Book twice = new Book("Volumen volátil", "Editorial Varia");
+        for (int i = 0; i < 20; i++) {
+            index.add(new Book("Volumen" + i, "Editorial Varia"));
+        }
+        index.add(twice);
+        List<Book> found = index.search("vol", 100);
+        assertEquals(21, found.size(), "Un libro con dos palabras del prefijo aparece una sola vez");
+        assertEquals(twice, found.get(20), "Los libros salen en el orden en que se agregaron");
+        assertEquals(found.subList(0, 5), index.search("vol", 5));
+    }
+
+    @Test
+    void testRemovedIdsAreRenumbered() {
+        Book kept = new Book("Volumen conservado", "Editorial Varia");
+        index.add(kept);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                Book book = new Book("Volumen" + i, "Editorial Varia");
+                index.add(book);
+                index.remove(book);
+            }
+        }
+        assertTrue(index.idCount() <= 2048, "Los ids de los libros eliminados se reutilizan: " + index.idCount());
+        assertEquals(List.of(soledad, amor), index.search("garcia", 10));
+        assertEquals(List.of(kept), index.search("volumen", 10));
+        assertEquals(List.of(kept), index.search("varia vol", 10));
+        assertEquals(List.of(kept), index.search("varia v", 10), "La lista de la inicial también se renumera");
+        Book added = new Book("Volumen nuevo", "Editorial Varia");
+        index.add(added);
+        assertEquals(List.of(kept, added), index.search("vol", 10));
+    }
+}
@@ -0,0 +1,130 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookStoreTest {
+
+    BookStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = newStore();
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.add(new Book("Ficciones", "Jorge Luis Borges"));
+        store.add(new Book("El Aleph", "Jorge Luis Borges"));
+        store.add(new Book("Pedro Páramo", "Juan Rulfo"));
+        store.add(new Book("Aura", "Carlos Fuentes"));
+    }
+
+    @Test
+    void testPagesFollowTheTitleOrder() {
+        BookStore.Page first = store.page(BookStore.Sort.TITLE, null, 2);
+        assertEquals(List.of("Aura", "El Aleph"), titles(first));
+        assertNotNull(first.nextCursor());
+
+        BookStore.Page second = store.page(BookStore.Sort.TITLE, first.nextCursor(), 2);
+        assertEquals(List.of("Ficciones", "Pedro Páramo"), titles(second));
+
+        BookStore.Page last = store.page(BookStore.Sort.TITLE, second.nextCursor(), 2);
+        assertEquals(List.of("Rayuela"), titles(last));
+        assertNull(last.nextCursor(), "La última página no tiene cursor");
+    }
+
+    @Test
+    void testDescendingAndAuthorOrders() {
+        assertEquals(List.of("Rayuela", "Pedro Páramo", "Ficciones"), titles(store.page(BookStore.Sort.TITLE_DESC, null, 3)));
+        // Por autor y, con el mismo autor, por título
+        assertEquals(List.of("Aura", "El Aleph", "Ficciones", "Pedro Páramo", "Rayuela"),
+                titles(store.page(BookStore.Sort.parse("author"), null, 10)));
+        assertEquals(List.of("Rayuela", "Pedro Páramo"), titles(store.page(BookStore.Sort.parse("-AUTHOR"), null, 2)));
+    }
+
+    @Test
+    void testCursorIsStableWhileTheCatalogChanges() {
+        BookStore.Page first = store.page(BookStore.Sort.TITLE, null, 2);
+        // Cambios antes del cursor, incluido el último libro de la página, y después de él
+        store.removeByTitle("El Aleph");
+        store.add(new Book("Abaddón", "Ernesto Sabato"));
+        store.add(new Book("Facundo", "Domingo Sarmiento"));
+
+        List<String> rest = new ArrayList<>();
+        String cursor = first.nextCursor();
+        while (cursor != null) {
+            BookStore.Page page = store.page(BookStore.Sort.TITLE, cursor, 2);
+            rest.addAll(titles(page));
+            cursor = page.nextCursor();
+        }
+        assertEquals(List.of("Facundo", "Ficciones", "Pedro Páramo", "Rayuela"), rest);
+    }
+
+    @Test
+    void testInvalidCursorsAreRejected() {
+        String cursor = store.page(BookStore.Sort.TITLE, null, 1).nextCursor();
+        assertThrows(IllegalArgumentException.class, () -> store.page(BookStore.Sort.AUTHOR, cursor, 1));
+        assertThrows(IllegalArgumentException.class, () -> store.page(BookStore.Sort.TITLE, "no es un cursor!", 1));
+        assertThrows(IllegalArgumentException.class, () -> BookStore.Sort.parse("year"));
+    }
+
+    @Test
+    void testVersionGrowsByTwoWithEachWrite() {
+        long version = store.version();
+        assertFalse(store.add(new Book("RAYUELA", "julio cortázar")), "Un libro repetido no se añade");
+        assertFalse(store.removeByTitle("Inexistente"));
+        assertEquals(version, store.version());
+        assertTrue(store.removeByTitle("aura"));
+        assertEquals(version + 2, store.version());
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    void testBatchThatAddsNothingKeepsTheVersion() {
+        long version = store.version();
+        assertEquals(0, store.addAll(List.of(new Book("RAYUELA", "julio cortázar"), new Book("Aura", "Carlos Fuentes"))));
+        assertEquals(version, store.version(), "Un lote sin libros nuevos no invalida la instantánea");
+        assertEquals(2, store.addAll(List.of(new Book("Aura", "Carlos Fuentes"), new Book("Nuevo", "Autor"),
+                new Book("Otro", "Autor"), new Book("NUEVO", "autor"))));
+        assertEquals(version + 2, store.version(), "Un lote sube la versión una sola vez");
+    }
+
+    @Test
+    void testBatchIsSearchable() {
+        assertEquals(2, store.addAll(List.of(new Book("El llano en llamas", "Juan Rulfo"),
+                new Book("Pedro Páramo", "Juan Rulfo"), new Book("Los de abajo", "Mariano Azuela"))));
+        assertEquals(List.of("Pedro Páramo", "El llano en llamas"), store.search("rulfo", 10).stream().map(Book::getTitle).toList(),
+                "Los libros del lote se indexan después de los anteriores, sin repetir los que ya estaban");
+        assertEquals(List.of("Los de abajo"), store.search("azuela ab", 10).stream().map(Book::getTitle).toList());
+        store.add(new Book("El gallo de oro", "Juan Rulfo"));
+        assertEquals(3, store.search("juan r", 10).size(), "Los libros agregados después del lote también se indexan");
+    }
+
+    @Test
+    void testTitleIndexFindsAndRemovesEveryAuthor() {
+        store.add(new Book("Ficciones", "Otro Autor"));
+        assertEquals(List.of("Jorge Luis Borges", "Otro Autor"),
+                store.findByTitle("FICCIONES").stream().map(Book::getAuthor).toList());
+        assertTrue(store.findByTitle("Ficción").isEmpty());
+
+        assertTrue(store.removeByTitle("ficciones"));
+        assertTrue(store.findByTitle("Ficciones").isEmpty());
+        assertEquals(List.of("Aura", "El Aleph", "Pedro Páramo", "Rayuela"), titles(store.page(BookStore.Sort.TITLE, null, 10)));
+        assertEquals(4, store.size());
+    }
+
+    /**
+     * Creates the catalog under test; subclasses test other layouts with the same cases.
+     */
+    BookStore newStore() {
+        return new BookStore();
+    }
+
+    static List<String> titles(BookStore.Page page) {
+        return page.books().stream().map(Book::getTitle).toList();
+    }
+}
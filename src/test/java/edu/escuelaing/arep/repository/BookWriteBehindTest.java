@@ -0,0 +1,130 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookWriteBehindTest {
+
+    @Test
+    void testChangesAreCoalescedAndSentInBatches() throws InterruptedException {
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+        repository.writeBatch(List.of(new Book("Aura", "Carlos Fuentes")), List.of());
+        BookWriteBehind writeBehind = new BookWriteBehind(repository, 3, 60_000);
+        BookStore store = new BookStore(repository.findAll());
+        store.attach(writeBehind);
+
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.removeByTitle("rayuela");
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.add(new Book("Ficciones", "Jorge Luis Borges"));
+        assertEquals(2, writeBehind.pending(), "Los cambios de un mismo libro se combinan");
+        assertEquals(1, repository.batches(), "Nada se envía antes de completar un lote");
+
+        store.removeByTitle("Aura");
+        awaitTrue(() -> repository.batches() == 2, "Un lote completo se envía sin esperar al temporizador");
+        assertEquals(0, writeBehind.pending());
+        assertEquals(2, repository.size(), "Aura se borra y los otros dos se guardan");
+        writeBehind.close();
+    }
+
+    @Test
+    void testPendingChangesAreSentAfterTheFlushInterval() throws InterruptedException {
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+        BookWriteBehind writeBehind = new BookWriteBehind(repository, 100, 20);
+        BookStore store = new BookStore();
+        store.attach(writeBehind);
+
+        store.add(new Book("Pedro Páramo", "Juan Rulfo"));
+        awaitTrue(() -> repository.size() == 1, "Un lote incompleto se envía al vencer el intervalo");
+        assertEquals(1, repository.batches());
+        writeBehind.close();
+    }
+
+    @Test
+    void testChangeIsSentWhenTheFlusherIsAlreadyWaiting() throws InterruptedException {
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+        BookWriteBehind writeBehind = new BookWriteBehind(repository, 100, 20);
+        BookStore store = new BookStore();
+        store.attach(writeBehind);
+
+        Thread.sleep(300); // The flusher is waiting on the empty queue
+        store.add(new Book("Pedro Páramo", "Juan Rulfo"));
+        awaitTrue(() -> repository.size() == 1, "Un cambio en una cola vacía despierta al hilo de envío");
+        assertEquals(0, writeBehind.pending());
+        writeBehind.close();
+    }
+
+    @Test
+    void testFailedBatchIsQueuedBehindNewerChanges() throws IOException {
+        FlakyRepository repository = new FlakyRepository();
+        BookWriteBehind writeBehind = new BookWriteBehind(repository, 100, 60_000);
+        BookStore store = new BookStore();
+        store.attach(writeBehind);
+
+        store.add(new Book("Rayuela", "Julio Cortázar"));
+        store.add(new Book("Aura", "Carlos Fuentes"));
+        repository.failures = 1;
+        assertThrows(IOException.class, writeBehind::flush);
+        assertEquals(2, writeBehind.pending(), "El lote fallido vuelve a la cola");
+
+        store.removeByTitle("Rayuela");
+        writeBehind.flush();
+        assertEquals(0, writeBehind.pending());
+        assertEquals(List.of("Aura"), repository.stored.findAll().stream().map(Book::getTitle).toList(),
+                "El borrado posterior sustituye al alta que falló");
+        writeBehind.close();
+    }
+
+    @Test
+    void testCloseSendsThePendingChanges() {
+        InMemoryBookRepository repository = new InMemoryBookRepository();
+        BookWriteBehind writeBehind = new BookWriteBehind(repository, 100, 60_000);
+        BookStore store = new BookStore();
+        store.attach(writeBehind);
+
+        store.add(new Book("Ficciones", "Jorge Luis Borges"));
+        writeBehind.close();
+        assertEquals(1, repository.size());
+    }
+
+    /**
+     * Repository that fails a number of writes before storing them in memory.
+     */
+    private static class FlakyRepository implements BookRepository {
+        final InMemoryBookRepository stored = new InMemoryBookRepository();
+        int failures;
+
+        @Override
+        public List<Book> findAll() {
+            return stored.findAll();
+        }
+
+        @Override
+        public void writeBatch(Collection<Book> saved, Collection<Book> deleted) throws IOException {
+            if (failures > 0) {
+                failures--;
+                throw new IOException("Repositorio caído");
+            }
+            stored.writeBatch(saved, deleted);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.escuelaing.arep.repository;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import edu.escuelaing.arep.model.Book;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark de memoria del catálogo: carga N libros sintéticos en un {@link BookStore} con mapas o compacto y
+ * mide los bytes por libro que quedan en el heap tras un GC completo, las pausas de GC durante la carga y la
+ * pausa de un GC completo con el catálogo lleno. Los títulos son de 3 a 5 palabras de un vocabulario de 5 000
+ * y hay un autor por cada 20 libros.
+ *
+ * <p>Uso: {@code java -Xmx4g -cp target/classes:target/test-classes edu.escuelaing.arep.repository.CatalogMemoryBenchmark libros maps|compact}</p>
+ */
+public class CatalogMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.parseInt(args[0]);
+        boolean compact = args.length > 1 && args[1].equals("compact");
+
+        long before = usedAfterGc();
+        AtomicLong pauses = new AtomicLong();
+        AtomicLong longest = new AtomicLong();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long duration = info.getGcInfo().getDuration();
+                    pauses.incrementAndGet();
+                    longest.accumulateAndGet(duration, Math::max);
+                }
+            }, null, null);
+        }
+
+        String[] vocabulary = vocabulary(5000);
+        Random random = new Random(42);
+        BookStore store = new BookStore(compact);
+        long start = System.nanoTime();
+        List<Book> batch = new ArrayList<>(10_000);
+        for (int i = 0; i < count; i++) {
+            batch.add(new Book(title(vocabulary, random), "Autor " + random.nextInt(Math.max(1, count / 20))));
+            if (batch.size() == 10_000 || i == count - 1) {
+                store.addAll(batch);
+                batch.clear();
+            }
+        }
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+        long loadPauses = pauses.get();
+        long loadLongest = longest.get();
+
+        long gcStart = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - gcStart) / 1_000_000;
+        long used = usedAfterGc() - before;
+
+        System.out.printf("Catálogo %s: %d libros cargados en %d ms%n", compact ? "compacto" : "con mapas", store.size(), loadMillis);
+        System.out.printf("Memoria: %d MB, %d bytes por libro%n", used >> 20, used / Math.max(1, store.size()));
+        System.out.printf("GC durante la carga: %d colecciones, la más larga de %d ms; GC completo: %d ms%n",
+                loadPauses, loadLongest, fullGcMillis);
+        // Mantener el catálogo vivo hasta después de medir
+        System.out.println("Búsqueda de prueba: " + store.search(vocabulary[0], 5).size() + " resultados");
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String[] vocabulary(int size) {
+        Random random = new Random(7);
+        String[] words = new String[size];
+        for (int i = 0; i < size; i++) {
+            char[] word = new char[4 + random.nextInt(6)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+
+    private static String title(String[] vocabulary, Random random) {
+        int words = 3 + random.nextInt(3);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                title.append(' ');
+            }
+            String word = vocabulary[random.nextInt(vocabulary.length)];
+            title.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the cases of {@link BookStoreTest} on a compact catalog, plus those of the compact layout.
+ */
+class CompactBooksTest extends BookStoreTest {
+
+    @Override
+    BookStore newStore() {
+        return new BookStore(true);
+    }
+
+    @Test
+    void testCaseIsIgnoredBeyondAscii() {
+        assertTrue(store.add(new Book("Ñandú Azul", "José Martí")));
+        assertFalse(store.add(new Book("ñANDÚ aZUL", "JOSÉ MARTÍ")), "Un libro repetido no se añade");
+        assertEquals("José Martí", store.findByTitle("ÑANDÚ AZUL").get(0).getAuthor());
+        assertTrue(store.add(new Book("Zorro", "Isabel Allende")));
+        List<String> titles = titles(store.page(BookStore.Sort.TITLE, null, 100));
+        assertEquals(List.of("Rayuela", "Zorro", "Ñandú Azul"), titles.subList(titles.size() - 3, titles.size()),
+                "Los títulos se ordenan por punto de código");
+    }
+
+    @Test
+    void testAuthorsAreStoredOnce() {
+        Book ficciones = store.findByTitle("Ficciones").get(0);
+        Book aleph = store.findByTitle("El Aleph").get(0);
+        assertSame(ficciones.getAuthor(), aleph.getAuthor(), "Los libros de un autor comparten su nombre");
+    }
+
+    @Test
+    void testLongTitlesGetTheirOwnSlab() {
+        String longTitle = "x".repeat(CompactBooks.SLAB_SIZE + 10);
+        assertTrue(store.add(new Book(longTitle, "Autor")));
+        assertTrue(store.add(new Book("Después", "Autor")));
+        assertEquals(longTitle, store.findByTitle(longTitle).get(0).getTitle());
+        assertEquals("Después", store.findByTitle("después").get(0).getTitle());
+    }
+
+    @Test
+    void testRandomChangesMatchTheMapLayout() {
+        BookStore maps = new BookStore();
+        BookStore compact = new BookStore(true);
+        Random random = new Random(11);
+        for (int round = 0; round < 3; round++) {
+            // Many adds, then so many deletes that the compact catalog is rebuilt
+            for (int i = 0; i < 3000; i++) {
+                Book book = new Book(title(random), "Autor " + random.nextInt(40));
+                assertEquals(maps.add(book), compact.add(book), book.getTitle());
+            }
+            for (int i = 0; i < 2500; i++) {
+                String title = title(random);
+                assertEquals(maps.removeByTitle(title), compact.removeByTitle(title), title);
+            }
+            assertEquals(maps.size(), compact.size());
+            for (BookStore.Sort sort : BookStore.Sort.values()) {
+                assertEquals(allPages(maps, sort), allPages(compact, sort), sort.toString());
+            }
+            for (int i = 0; i < 200; i++) {
+                String title = title(random);
+                assertEquals(keys(maps.findByTitle(title)), keys(compact.findByTitle(title)), title);
+            }
+            assertEquals(keys(maps.search("libro 1", 10_000)), keys(compact.search("libro 1", 10_000)));
+            assertEquals(keys(maps.search("autor 7", 10_000)), keys(compact.search("autor 7", 10_000)));
+        }
+    }
+
+    @Test
+    void testSnapshotIsLoadedIntoACompactCatalog() {
+        BookStore loaded = new BookStore(List.of(new Book("Aura", "Carlos Fuentes"), new Book("AURA", "carlos fuentes"),
+                new Book("Rayuela", "Julio Cortázar")), true);
+        assertEquals(2, loaded.size(), "Los libros repetidos se descartan");
+        assertEquals(2, loaded.version());
+        assertEquals(List.of("Aura", "Rayuela"), loaded.books().stream().map(Book::getTitle).toList());
+    }
+
+    private static String title(Random random) {
+        String title = "Libro " + random.nextInt(4000);
+        return random.nextBoolean() ? title : title.toUpperCase();
+    }
+
+    /**
+     * Lists the whole catalog page by page, as title and author ignoring case.
+     */
+    private static List<String> allPages(BookStore store, BookStore.Sort sort) {
+        List<String> all = new ArrayList<>();
+        String cursor = null;
+        do {
+            BookStore.Page page = store.page(sort, cursor, 97);
+            page.books().forEach(book -> all.add(key(book)));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        return all;
+    }
+
+    private static Set<String> keys(List<Book> books) {
+        return books.stream().map(CompactBooksTest::key).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private static String key(Book book) {
+        return (book.getTitle() + "|" + book.getAuthor()).toLowerCase();
+    }
+}
@@ -0,0 +1,184 @@
+package edu.escuelaing.arep.repository;
+
+import edu.escuelaing.arep.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoBookRepositoryTest {
+
+    private FakeMongo mongo;
+    private MongoBookRepository repository;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mongo = new FakeMongo();
+        repository = new MongoBookRepository("localhost:" + mongo.port(), "library", "books", 2000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        repository.close();
+        mongo.close();
+    }
+
+    @Test
+    void testBsonRoundTrip() throws IOException {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("insert", "books");
+        document.put("ordered", false);
+        document.put("count", 3);
+        document.put("cursor", 1L << 40);
+        document.put("ok", 1.0);
+        document.put("missing", null);
+        document.put("documents", List.of(Map.of("title", "Cien años de soledad")));
+        Map<String, Object> decoded = Bson.decode(ByteBuffer.wrap(Bson.encode(document)));
+        assertEquals(document, decoded);
+        assertEquals(List.copyOf(document.keySet()), List.copyOf(decoded.keySet()), "El orden de los campos se conserva");
+    }
+
+    @Test
+    void testFindAllFollowsTheCursor() throws IOException {
+        mongo.handler = command -> switch (firstKey(command)) {
+            case "find" -> ok(Map.of("cursor", Map.of("id", 42L, "ns", "library.books",
+                    "firstBatch", List.of(book("Rayuela", "Julio Cortázar"), Map.of("_id", "sin título")))));
+            case "getMore" -> ok(Map.of("cursor", Map.of("id", 0L, "ns", "library.books",
+                    "nextBatch", List.of(book("Aura", "Carlos Fuentes")))));
+            default -> Map.of("ok", 0.0, "errmsg", "unexpected");
+        };
+        List<Book> books = repository.findAll();
+        assertEquals(List.of("Rayuela", "Aura"), books.stream().map(Book::getTitle).toList());
+        assertEquals("library", mongo.commands.get(0).get("$db"));
+        assertEquals(42L, mongo.commands.get(1).get("getMore"));
+        assertEquals("books", mongo.commands.get(1).get("collection"));
+    }
+
+    @Test
+    void testBatchIsSentAsUpsertsAndDeletes() throws IOException {
+        mongo.handler = command -> ok(Map.of("n", 1));
+        repository.writeBatch(List.of(new Book("Rayuela", "Julio Cortázar"), new Book("Aura", "Carlos Fuentes")),
+                List.of(new Book("Ficciones", "Jorge Luis Borges")));
+
+        assertEquals(2, mongo.commands.size(), "Un comando por tipo de cambio");
+        Map<String, Object> update = mongo.commands.get(0);
+        assertEquals("books", update.get("update"));
+        assertEquals(false, update.get("ordered"));
+        List<?> updates = (List<?>) update.get("updates");
+        assertEquals(2, updates.size());
+        Map<?, ?> first = (Map<?, ?>) updates.get(0);
+        assertEquals(Map.of("_id", "rayuela|julio cortázar"), first.get("q"));
+        assertEquals(book("Rayuela", "Julio Cortázar"), first.get("u"));
+        assertEquals(true, first.get("upsert"));
+
+        Map<String, Object> delete = mongo.commands.get(1);
+        assertEquals("books", delete.get("delete"));
+        assertEquals(List.of(Map.of("q", Map.of("_id", "ficciones|jorge luis borges"), "limit", 1)), delete.get("deletes"));
+    }
+
+    @Test
+    void testErrorsAreReportedAndTheConnectionIsReopened() throws IOException {
+        mongo.handler = command -> Map.of("ok", 0.0, "errmsg", "not master", "code", 10107);
+        IOException failed = assertThrows(IOException.class, () -> repository.writeBatch(List.of(new Book("Aura", "Carlos Fuentes")), List.of()));
+        assertTrue(failed.getMessage().contains("not master"), failed.getMessage());
+
+        mongo.handler = command -> ok(Map.of("n", 1, "writeErrors", List.of(Map.of("index", 0, "code", 11000))));
+        assertThrows(IOException.class, () -> repository.writeBatch(List.of(new Book("Aura", "Carlos Fuentes")), List.of()));
+
+        mongo.handler = command -> ok(Map.of("n", 1));
+        repository.writeBatch(List.of(new Book("Aura", "Carlos Fuentes")), List.of());
+        assertEquals(2, mongo.connections, "Una orden fallida cierra la conexión; un error de escritura no");
+    }
+
+    private static Map<String, Object> book(String title, String author) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("_id", title.toLowerCase() + "|" + author.toLowerCase());
+        document.put("title", title);
+        document.put("author", author);
+        return document;
+    }
+
+    private static Map<String, Object> ok(Map<String, Object> fields) {
+        Map<String, Object> reply = new LinkedHashMap<>(fields);
+        reply.put("ok", 1.0);
+        return reply;
+    }
+
+    private static String firstKey(Map<String, Object> command) {
+        return command.keySet().iterator().next();
+    }
+
+    /**
+     * Server that speaks enough of the MongoDB wire protocol to answer one client: it decodes each OP_MSG
+     * command, records it and replies with the document built by {@link #handler}.
+     */
+    private static class FakeMongo implements AutoCloseable {
+        final List<Map<String, Object>> commands = Collections.synchronizedList(new ArrayList<>());
+        volatile Function<Map<String, Object>, Map<String, Object>> handler;
+        volatile int connections;
+        private final ServerSocket server = new ServerSocket(0);
+        private final Thread thread = new Thread(this::serve);
+
+        FakeMongo() throws IOException {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void serve() {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    connections++;
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    while (true) {
+                        byte[] header = new byte[16];
+                        in.readFully(header);
+                        ByteBuffer head = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                        int length = head.getInt();
+                        int requestId = head.getInt();
+                        byte[] body = new byte[length - 16];
+                        in.readFully(body);
+                        ByteBuffer message = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+                        message.getInt(); // Flags
+                        message.get(); // Section kind
+                        Map<String, Object> command = Bson.decode(message);
+                        commands.add(command);
+                        Map<String, Object> reply = handler.apply(command);
+                        byte[] document = Bson.encode(reply);
+                        ByteBuffer response = ByteBuffer.allocate(16 + 5 + document.length).order(ByteOrder.LITTLE_ENDIAN);
+                        response.putInt(response.capacity()).putInt(0).putInt(requestId).putInt(2013)
+                                .putInt(0).put((byte) 0).put(document);
+                        out.write(response.array());
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // The client closed the connection, or the server was closed
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package edu.escuelaing.arep.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedIdsTest {
+
+    // Ids ordered by their value divided by ten, then by their value descending, so the order is not the ids'
+    private static final SortedIds.Order ORDER = (a, b) -> a / 10 != b / 10 ? Integer.compare(a / 10, b / 10) : Integer.compare(b, a);
+
+    @Test
+    void testRandomChangesKeepTheOrder() {
+        SortedIds ids = new SortedIds(ORDER);
+        TreeSet<Integer> expected = new TreeSet<>(ORDER::compare);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                ids.remove(id);
+                expected.remove(id);
+            } else if (!expected.contains(id)) {
+                ids.add(id);
+                expected.add(id);
+            }
+        }
+        assertTrue(expected.size() > SortedIds.LEAF_SIZE * 4, "Hay varias hojas");
+        assertEquals(expected.size(), ids.size());
+        assertEquals(List.copyOf(expected), toList(ids.iterator(false)));
+        assertEquals(List.copyOf(expected.descendingSet()), toList(ids.iterator(true)));
+
+        // A position between ids, and one on an id
+        int position = 2505;
+        assertEquals(List.copyOf(expected.tailSet(position, false)), toList(ids.iteratorAfter(id -> ORDER.compare(position, id), false)));
+        assertEquals(List.copyOf(expected.headSet(position, false).descendingSet()),
+                toList(ids.iteratorAfter(id -> ORDER.compare(position, id), true)));
+        int first = expected.first();
+        assertEquals(List.copyOf(expected.tailSet(first, false)), toList(ids.iteratorAfter(id -> ORDER.compare(first, id), false)));
+        assertEquals(List.of(), toList(ids.iteratorAfter(id -> ORDER.compare(first, id), true)));
+    }
+
+    @Test
+    void testEmptiedLeavesAreDropped() {
+        SortedIds ids = new SortedIds(Integer::compare);
+        for (int i = 0; i < 1000; i++) {
+            ids.add(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            ids.remove(i);
+        }
+        assertEquals(0, ids.size());
+        assertFalse(ids.iterator(false).hasNext());
+        assertFalse(ids.iterator(true).hasNext());
+        assertFalse(ids.iteratorAfter(id -> 1, false).hasNext());
+        ids.add(5);
+        assertEquals(List.of(5), toList(ids.iterator(true)));
+    }
+
+    @Test
+    void testIterationSeesTheLeavesItStartedWith() {
+        SortedIds ids = new SortedIds(Integer::compare);
+        for (int i = 0; i < 10; i++) {
+            ids.add(i * 2);
+        }
+        PrimitiveIterator.OfInt iterator = ids.iterator(false);
+        assertEquals(0, iterator.nextInt());
+        // A write to the leaf being walked does not shift the ids under the iterator
+        ids.remove(2);
+        ids.add(1);
+        assertEquals(2, iterator.nextInt());
+        assertEquals(List.of(0, 1, 4), toList(ids.iterator(false)).subList(0, 3));
+    }
+
+    private static List<Integer> toList(PrimitiveIterator.OfInt iterator) {
+        List<Integer> list = new ArrayList<>();
+        iterator.forEachRemaining((int id) -> list.add(id));
+        return list;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.escuelaing.arep.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedOutputStreamTest {
+
+    private static final byte[] STATUS_200 = "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testChunksAreSentWhenTheBufferFills() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedOutputStream body = new ChunkedOutputStream(out, STATUS_200, () -> "text/plain", true, true, 16);
+
+        body.write("0123456789".getBytes());
+        assertEquals(0, out.size(), "Nada se envía antes de llenar el buffer");
+        body.write("abcdefghij".getBytes());
+        String head = out.toString();
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nTransfer-Encoding: chunked\r\n"));
+        assertTrue(head.endsWith("\r\n\r\na\r\n0123456789\r\n"));
+
+        body.close();
+        assertTrue(out.toString().endsWith("a\r\n0123456789\r\na\r\nabcdefghij\r\n0\r\n\r\n"));
+        assertTrue(body.isKeepAlive());
+    }
+
+    @Test
+    void testLargeWriteIsSentAsOneChunk() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedOutputStream body = new ChunkedOutputStream(out, STATUS_200, () -> "text/plain", true, true, 16);
+        body.write("x".repeat(300).getBytes());
+        body.close();
+        assertTrue(out.toString().endsWith("\r\n\r\n12c\r\n" + "x".repeat(300) + "\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    void testFlushSendsTheHeadAndPendingBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedOutputStream body = new ChunkedOutputStream(out, STATUS_200, () -> "application/json", true, false, 1024);
+        body.write('[');
+        body.flush();
+        assertTrue(out.toString().endsWith("Connection: close\r\n\r\n1\r\n[\r\n"));
+    }
+
+    @Test
+    void testHttp10BodyIsNotChunked() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedOutputStream body = new ChunkedOutputStream(out, STATUS_200, () -> "text/plain", false, true, 16);
+        body.write("hola".getBytes());
+        body.close();
+        String response = out.toString();
+        assertFalse(response.contains("Transfer-Encoding"));
+        assertTrue(response.contains("Connection: close"));
+        assertTrue(response.endsWith("\r\n\r\nhola"));
+        assertFalse(body.isKeepAlive());
+    }
+}
@@ -0,0 +1,122 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.controller.GreetingController;
+import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerInvokerTest {
+
+    static class SampleController {
+        int calls;
+
+        public String four(@RequestParam(value = "a", defaultValue = "1") String a, @RequestParam(value = "b") String b,
+                           @PathVariable("c") String c, Request req) {
+            calls++;
+            return a + b + c + req.getMethod();
+        }
+
+        public String two(@RequestParam(value = "a") String a, Response res) {
+            return a;
+        }
+
+        public String three(@RequestParam(value = "a") String a, @RequestParam(value = "b") String b, Request req) {
+            return a + b;
+        }
+
+        public void stream(Response res) throws IOException {
+            calls++;
+            res.getWriter().write("streamed");
+        }
+
+        public String fail() throws IOException {
+            throw new IOException("fallo");
+        }
+
+        private String hidden(@RequestParam(value = "x", defaultValue = "oculto") String x) {
+            return x;
+        }
+    }
+
+    private static Request requestWith(Map<String, String> query) {
+        return new Request("GET", "/", "HTTP/1.1", query, new HashMap<>());
+    }
+
+    @Test
+    void testLinkedMethodInAnotherPackage() throws NoSuchMethodException {
+        ControllerInvoker invoker = ControllerInvoker.of(new GreetingController(),
+                GreetingController.class.getMethod("greeting", String.class));
+        Map<String, String> query = new HashMap<>();
+        assertEquals("Hola, World!", invoker.apply(requestWith(query), new Response()));
+        query.put("name", "Ana");
+        assertEquals("Hola, Ana!", invoker.apply(requestWith(query), new Response()));
+    }
+
+    @Test
+    void testMethodsUpToThreeParametersAreLinked() throws NoSuchMethodException {
+        SampleController controller = new SampleController();
+        assertEquals("Linked0", invokerType(controller, SampleController.class.getMethod("fail")));
+        assertEquals("Linked1", invokerType(new GreetingController(), GreetingController.class.getMethod("greeting", String.class)));
+        assertEquals("Linked1", invokerType(controller, SampleController.class.getMethod("stream", Response.class)));
+        assertEquals("Linked1", invokerType(controller, SampleController.class.getDeclaredMethod("hidden", String.class)));
+        assertEquals("Linked2", invokerType(controller, SampleController.class.getMethod("two", String.class, Response.class)));
+        assertEquals("Linked3", invokerType(controller, SampleController.class.getMethod("three",
+                String.class, String.class, Request.class)));
+        assertEquals("Spread", invokerType(controller, SampleController.class.getMethod("four",
+                String.class, String.class, String.class, Request.class)), "Con más de tres parámetros se usa un MethodHandle");
+    }
+
+    private static String invokerType(Object controller, Method method) {
+        return ControllerInvoker.of(controller, method).getClass().getSimpleName();
+    }
+
+    @Test
+    void testMethodWithManyParametersUsesTheSameController() throws NoSuchMethodException {
+        SampleController controller = new SampleController();
+        ControllerInvoker invoker = ControllerInvoker.of(controller, SampleController.class.getMethod("four",
+                String.class, String.class, String.class, Request.class));
+        Map<String, String> query = new HashMap<>();
+        query.put("b", "2");
+        Request req = new Request("GET", "/x/3", "HTTP/1.1", query, new HashMap<>());
+        req.setPathVariables(new String[]{"c"}, new int[]{3, 4});
+        assertEquals("123GET", invoker.apply(req, new Response()));
+        assertEquals("123GET", invoker.apply(req, new Response()));
+        assertEquals(2, controller.calls, "El controlador se crea una sola vez");
+    }
+
+    @Test
+    void testVoidMethodStreamsTheResponse() throws NoSuchMethodException, IOException {
+        ControllerInvoker invoker = ControllerInvoker.of(new SampleController(),
+                SampleController.class.getMethod("stream", Response.class));
+        Request req = requestWith(new HashMap<>());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response(req, out);
+        assertNull(invoker.apply(req, res));
+        res.finish();
+        assertTrue(out.toString().contains("streamed"));
+    }
+
+    @Test
+    void testCheckedExceptionsAreWrapped() throws NoSuchMethodException {
+        ControllerInvoker invoker = ControllerInvoker.of(new SampleController(), SampleController.class.getMethod("fail"));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> invoker.apply(requestWith(new HashMap<>()), new Response()));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    void testPrivateMethod() throws NoSuchMethodException {
+        ControllerInvoker invoker = ControllerInvoker.of(new SampleController(),
+                SampleController.class.getDeclaredMethod("hidden", String.class));
+        assertEquals("oculto", invoker.apply(requestWith(new HashMap<>()), new Response()));
+    }
+}
@@ -0,0 +1,189 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Request;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHandlerTest {
+
+    private static final Path PATO = Path.of("src/main/resources/static/pato.png");
+
+    @BeforeEach
+    void setUp() {
+        WebFramework.staticfiles("static");
+    }
+
+    /**
+     * Returns the body of a raw HTTP response.
+     */
+    private static byte[] body(byte[] response) {
+        for (int i = 0; i + 3 < response.length; i++) {
+            if (response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n') {
+                return Arrays.copyOfRange(response, i + 4, response.length);
+            }
+        }
+        return new byte[0];
+    }
+
+    @Test
+    void testServeFileToStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileHandler.serveFile("/pato.png", out);
+
+        String response = out.toString();
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Content-Type: image/png"));
+        assertTrue(response.contains("Content-Length: " + Files.size(PATO)));
+        assertArrayEquals(Files.readAllBytes(PATO), body(out.toByteArray()));
+    }
+
+    @Test
+    void testServeFileToChannel(@TempDir Path tempDir) throws IOException {
+        Path target = tempDir.resolve("response");
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileHandler.serveFile("/pato.png", new BlockingChannelOutputStream(channel));
+        }
+        assertArrayEquals(Files.readAllBytes(PATO), body(Files.readAllBytes(target)));
+    }
+
+    @Test
+    void testFileNotFound() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileHandler.serveFile("/noexiste.html", out);
+
+        String response = out.toString();
+        assertTrue(response.startsWith("HTTP/1.1 404 Not Found"));
+        assertTrue(response.endsWith("404 Not Found"));
+    }
+
+    @Test
+    void testContentType() {
+        assertEquals("text/html", FileHandler.getContentType("/index.html"));
+        assertEquals("image/jpeg", FileHandler.getContentType("/fondo.jpg"));
+        assertEquals("application/octet-stream", FileHandler.getContentType("/archivo.xyz"));
+    }
+
+    private static String header(String response, String name) {
+        for (String line : response.split("\r\n")) {
+            if (line.startsWith(name + ": ")) {
+                return line.substring(name.length() + 2);
+            }
+        }
+        return null;
+    }
+
+    private static Request conditionalRequest(String header, String value) {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put(header.toLowerCase(), value);
+        return new Request("GET", "/index.css", "HTTP/1.1", new HashMap<>(), headers);
+    }
+
+    @Test
+    void testIfNoneMatchReturnsNotModified() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        FileHandler.serveFile("/index.css", first);
+        String etag = header(first.toString(), "ETag");
+        assertNotNull(etag);
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        FileHandler.serveFile(conditionalRequest("If-None-Match", etag), second);
+        String response = second.toString();
+        assertTrue(response.startsWith("HTTP/1.1 304 Not Modified"));
+        assertTrue(response.endsWith("\r\n\r\n"), "Una respuesta 304 no tiene cuerpo");
+
+        ByteArrayOutputStream third = new ByteArrayOutputStream();
+        FileHandler.serveFile(conditionalRequest("If-None-Match", "\"otro\""), third);
+        assertTrue(third.toString().startsWith("HTTP/1.1 200 OK"));
+    }
+
+    @Test
+    void testIfModifiedSince() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        FileHandler.serveFile("/index.css", first);
+        String lastModified = header(first.toString(), "Last-Modified");
+        assertNotNull(lastModified);
+
+        ByteArrayOutputStream notModified = new ByteArrayOutputStream();
+        FileHandler.serveFile(conditionalRequest("If-Modified-Since", lastModified), notModified);
+        assertTrue(notModified.toString().startsWith("HTTP/1.1 304 Not Modified"));
+
+        ByteArrayOutputStream modified = new ByteArrayOutputStream();
+        FileHandler.serveFile(conditionalRequest("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT"), modified);
+        assertTrue(modified.toString().startsWith("HTTP/1.1 200 OK"));
+    }
+
+    private static byte[] serveWithHeaders(String resource, String... headerPairs) throws IOException {
+        HashMap<String, String> headers = new HashMap<>();
+        for (int i = 0; i < headerPairs.length; i += 2) {
+            headers.put(headerPairs[i].toLowerCase(), headerPairs[i + 1]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileHandler.serveFile(new Request("GET", resource, "HTTP/1.1", new HashMap<>(), headers), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void testSingleRange() throws IOException {
+        byte[] pato = Files.readAllBytes(PATO);
+        byte[] response = serveWithHeaders("/pato.png", "Range", "bytes=100-199");
+
+        String head = new String(response, java.nio.charset.StandardCharsets.ISO_8859_1);
+        assertTrue(head.startsWith("HTTP/1.1 206 Partial Content"));
+        assertTrue(head.contains("Content-Range: bytes 100-199/" + pato.length));
+        assertTrue(head.contains("Content-Length: 100"));
+        assertArrayEquals(Arrays.copyOfRange(pato, 100, 200), body(response));
+    }
+
+    @Test
+    void testSuffixAndOpenRanges() throws IOException {
+        byte[] pato = Files.readAllBytes(PATO);
+        assertArrayEquals(Arrays.copyOfRange(pato, pato.length - 50, pato.length),
+                body(serveWithHeaders("/pato.png", "Range", "bytes=-50")));
+        assertArrayEquals(Arrays.copyOfRange(pato, pato.length - 10, pato.length),
+                body(serveWithHeaders("/pato.png", "Range", "bytes=" + (pato.length - 10) + "-")));
+    }
+
+    @Test
+    void testMultipleRanges() throws IOException {
+        byte[] pato = Files.readAllBytes(PATO);
+        byte[] response = serveWithHeaders("/pato.png", "Range", "bytes=0-9, 20-29");
+        String text = new String(response, java.nio.charset.StandardCharsets.ISO_8859_1);
+
+        assertTrue(text.startsWith("HTTP/1.1 206 Partial Content"));
+        String boundary = header(text, "Content-Type").substring("multipart/byteranges; boundary=".length());
+        assertTrue(text.contains("Content-Range: bytes 0-9/" + pato.length));
+        assertTrue(text.contains("Content-Range: bytes 20-29/" + pato.length));
+        assertTrue(text.endsWith("--" + boundary + "--\r\n"));
+        assertEquals(Integer.parseInt(header(text, "Content-Length")), body(response).length);
+        assertTrue(text.contains(new String(Arrays.copyOfRange(pato, 20, 30), java.nio.charset.StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void testUnsatisfiableRange() throws IOException {
+        String response = new String(serveWithHeaders("/pato.png", "Range", "bytes=999999-"));
+        assertTrue(response.startsWith("HTTP/1.1 416 Range Not Satisfiable"));
+        assertTrue(response.contains("Content-Range: bytes */" + Files.size(PATO)));
+    }
+
+    @Test
+    void testIfRangeWithOldValidatorSendsWholeFile() throws IOException {
+        String response = new String(serveWithHeaders("/pato.png", "Range", "bytes=0-9", "If-Range", "\"viejo\""));
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+
+        String etag = header(new String(serveWithHeaders("/pato.png")), "ETag");
+        String current = new String(serveWithHeaders("/pato.png", "Range", "bytes=0-9", "If-Range", etag));
+        assertTrue(current.startsWith("HTTP/1.1 206 Partial Content"));
+    }
+}
@@ -122,4 +122,32 @@ public class HttpServerTest {
         requestExecutor.shutdown();
     }
 
+    @Test
+    public void testPipelinedRequestsOnPersistentConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", 6100)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /getBooks HTTP/1.1\r\n\r\n" +
+                    "GET /getBooks HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes());
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes());
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.contains("Connection: keep-alive"));
+            assertTrue(response.lastIndexOf("HTTP/1.1 200 OK") > 0, "Deben llegar dos respuestas por la misma conexión");
+            assertTrue(response.contains("Connection: close"));
+        }
+    }
+
+    @Test
+    public void testChunkedRequestBody() throws IOException {
+        WebFramework.post("/chunked-echo", (req, res) -> req.getBodyParam("text"));
+        try (Socket socket = new Socket("localhost", 6100)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /chunked-echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                    "5\r\ntext=\r\n7\r\nhola%21\r\n0\r\n\r\n" +
+                    "GET /getBooks HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes());
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes());
+            assertTrue(response.contains("\r\n\r\nhola!HTTP/1.1 200 OK"), "El cuerpo se decodifica y la siguiente solicitud se atiende");
+        }
+    }
 }
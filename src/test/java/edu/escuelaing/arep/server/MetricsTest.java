@@ -0,0 +1,131 @@
+package edu.escuelaing.arep.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @BeforeEach
+    void setUp() {
+        Metrics.reset();
+        WebFramework.getRoutes.clear();
+        WebFramework.postRoutes.clear();
+        WebFramework.deleteRoutes.clear();
+    }
+
+    @Test
+    void testRequestsAreCountedByStatusAndBucket() {
+        Metrics.record("GET", "/metrics-test", 200, 0, 100, 50_000); // 50 µs
+        Metrics.record("GET", "/metrics-test", 200, 0, 100, 3_000_000); // 3 ms
+        Metrics.record("GET", "/metrics-test", 404, 0, 20, 20_000_000_000L); // 20 s, only in +Inf
+        Metrics.record("PATCH", "/metrics-test", 200, 7, 5, 1_000);
+        String text = Metrics.render();
+
+        assertEquals("2", sample(text, "http_requests_total{route=\"/metrics-test\",method=\"GET\",status=\"200\"}"));
+        assertEquals("1", sample(text, "http_requests_total{route=\"/metrics-test\",method=\"GET\",status=\"404\"}"));
+        assertEquals("1", sample(text, "http_requests_total{route=\"/metrics-test\",method=\"OTHER\",status=\"200\"}"),
+                "Los demás métodos se cuentan juntos");
+        String labels = "route=\"/metrics-test\",method=\"GET\"";
+        assertEquals("1", sample(text, "http_request_duration_seconds_bucket{" + labels + ",le=\"0.0001\"}"));
+        assertEquals("1", sample(text, "http_request_duration_seconds_bucket{" + labels + ",le=\"0.0025\"}"));
+        assertEquals("2", sample(text, "http_request_duration_seconds_bucket{" + labels + ",le=\"0.005\"}"),
+                "Los buckets son acumulativos");
+        assertEquals("2", sample(text, "http_request_duration_seconds_bucket{" + labels + ",le=\"10\"}"));
+        assertEquals("3", sample(text, "http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"}"));
+        assertEquals("3", sample(text, "http_request_duration_seconds_count{" + labels + "}"));
+        assertEquals(20.00305, Double.parseDouble(sample(text, "http_request_duration_seconds_sum{" + labels + "}")), 1e-9);
+        assertEquals("220", sample(text, "http_response_bytes_total{" + labels + "}"));
+        assertEquals("7", sample(text, "http_request_body_bytes_total{route=\"/metrics-test\",method=\"OTHER\"}"));
+        assertTrue(text.contains("# TYPE http_request_duration_seconds histogram\n"));
+        assertNotNull(sample(text, "http_active_connections"));
+    }
+
+    @Test
+    void testHandledRequestsAreRecordedByRoutePattern() throws IOException {
+        WebFramework.get("/metrics-books/{id}", (req, res) -> "Libro " + req.getPathVariable("id"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockingChannelOutputStream out = new BlockingChannelOutputStream(Channels.newChannel(bytes));
+
+        WebFramework.handleRequest("GET", "/metrics-books/1", new HashMap<>(), null, out);
+        WebFramework.handleRequest("GET", "/metrics-books/2", new HashMap<>(), null, out);
+        int firstResponses = bytes.size();
+        WebFramework.handleRequest("DELETE", "/metrics-missing", new HashMap<>(), null, out);
+        String text = Metrics.render();
+
+        assertEquals("2", sample(text, "http_requests_total{route=\"/metrics-books/{id}\",method=\"GET\",status=\"200\"}"),
+                "Las rutas con variables se cuentan por su patrón");
+        assertEquals(String.valueOf(firstResponses), sample(text, "http_response_bytes_total{route=\"/metrics-books/{id}\",method=\"GET\"}"));
+        assertEquals(String.valueOf(bytes.size() - firstResponses),
+                sample(text, "http_response_bytes_total{route=\"unmatched\",method=\"DELETE\"}"));
+    }
+
+    @Test
+    void testFailedRequestsAreRecorded() {
+        WebFramework.get("/metrics-failing", (req, res) -> {
+            throw new IllegalStateException("Fallo del controlador");
+        });
+        assertThrows(IllegalStateException.class,
+                () -> WebFramework.handleRequest("GET", "/metrics-failing", new HashMap<>(), null, new ByteArrayOutputStream()));
+
+        String text = Metrics.render();
+        assertEquals("1", sample(text, "http_requests_total{route=\"/metrics-failing\",method=\"GET\",status=\"500\"}"));
+        assertEquals("1", sample(text, "http_request_duration_seconds_count{route=\"/metrics-failing\",method=\"GET\"}"));
+    }
+
+    @Test
+    void testMetricsRouteAnswersInPrometheusFormat() throws IOException {
+        WebFramework.get("/metrics", Metrics::handle);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebFramework.handleRequest("GET", "/metrics", new HashMap<>(), null, out);
+        WebFramework.handleRequest("GET", "/metrics", new HashMap<>(), null, out);
+
+        String response = out.toString();
+        assertTrue(response.contains("Content-Type: text/plain; version=0.0.4; charset=utf-8"));
+        assertTrue(response.contains("http_requests_total{route=\"/metrics\",method=\"GET\",status=\"200\"} 1\n"),
+                "El segundo scrape ve el primero");
+    }
+
+    @Test
+    void testConcurrentRecordingLosesNoRequest() {
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        Metrics.record("POST", "/metrics-concurrent", i % 2 == 0 ? 201 : 400, 1, 2, i);
+                    }
+                });
+            }
+        }
+        String text = Metrics.render();
+        assertEquals("40000", sample(text, "http_requests_total{route=\"/metrics-concurrent\",method=\"POST\",status=\"201\"}"));
+        assertEquals("40000", sample(text, "http_requests_total{route=\"/metrics-concurrent\",method=\"POST\",status=\"400\"}"));
+        assertEquals("80000", sample(text, "http_request_body_bytes_total{route=\"/metrics-concurrent\",method=\"POST\"}"));
+    }
+
+    @Test
+    void testLabelValuesAreEscaped() {
+        assertEquals("/plain", Metrics.escapeLabel("/plain"));
+        assertEquals("/a\\\"b\\\\c\\nd", Metrics.escapeLabel("/a\"b\\c\nd"));
+    }
+
+    /**
+     * Finds the value of the sample whose name and labels are given.
+     */
+    private static String sample(String text, String series) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return line.substring(series.length() + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,299 @@
+package edu.escuelaing.arep.server;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class NioServerTest {
+
+    private static final int PORT = 35001;
+    private NioServer server;
+    private ExecutorService executor;
+
+    @BeforeAll
+    void setUp() throws InterruptedException {
+        WebFramework.staticfiles("static");
+        WebFramework.get("/nio", (req, res) -> "Hola, " + req.getValues("name") + "!");
+        WebFramework.post("/nio-echo", (req, res) -> req.getBodyParam("text"));
+        server = new NioServer(PORT, 2, 64 * 1024);
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                fail("No se pudo iniciar el servidor: " + e.getMessage());
+            }
+        });
+        Thread.sleep(500);
+    }
+
+    @AfterAll
+    void tearDown() {
+        server.stop();
+        executor.shutdownNow();
+    }
+
+    private byte[] sendBytes(String request) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            in.transferTo(response);
+            return response.toByteArray();
+        }
+    }
+
+    private String send(String request) throws IOException {
+        return new String(sendBytes(request), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testGetRoute() throws IOException {
+        String response = send("GET /nio?name=Pedro HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.endsWith("Hola, Pedro!"));
+    }
+
+    @Test
+    void testPostBodySplitAcrossWrites() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("POST /nio-echo HTTP/1.1\r\nContent-Le".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Thread.sleep(50);
+            out.write("ngth: 10\r\nConnection: close\r\n\r\ntext=".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Thread.sleep(50);
+            out.write("hola!".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.endsWith("hola!"));
+        }
+    }
+
+    @Test
+    void testMalformedRequest() throws IOException {
+        String response = send("GARBAGE\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"));
+    }
+
+    @Test
+    void testManyConcurrentConnections() throws Exception {
+        int clients = 200;
+        ExecutorService requestExecutor = Executors.newFixedThreadPool(20);
+        List<Future<String>> responses = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int id = i;
+            responses.add(requestExecutor.submit(() -> send("GET /nio?name=" + id + " HTTP/1.0\r\n\r\n")));
+        }
+        for (int i = 0; i < clients; i++) {
+            assertTrue(responses.get(i).get(5, TimeUnit.SECONDS).endsWith("Hola, " + i + "!"));
+        }
+        requestExecutor.shutdown();
+    }
+
+    @Test
+    void testPipelinedRequestsOnPersistentConnection() throws IOException {
+        String response = send("GET /nio?name=uno HTTP/1.1\r\n\r\n" +
+                "GET /nio?name=dos HTTP/1.1\r\n\r\n" +
+                "GET /nio?name=tres HTTP/1.1\r\nConnection: close\r\n\r\n");
+        int first = response.indexOf("Hola, uno!");
+        int second = response.indexOf("Hola, dos!");
+        int third = response.indexOf("Hola, tres!");
+        assertTrue(first > 0 && first < second && second < third, "Las respuestas deben llegar en orden");
+        assertTrue(response.contains("Connection: keep-alive"));
+        assertTrue(response.endsWith("Hola, tres!"));
+    }
+
+    @Test
+    void testStaticFileIsSentWhole() throws IOException {
+        byte[] expected = Files.readAllBytes(Path.of("src/main/resources/static/fondo.jpg"));
+        byte[] response = sendBytes("GET /fondo.jpg HTTP/1.1\r\nConnection: close\r\n\r\n");
+        String head = new String(response, 0, 1024, StandardCharsets.ISO_8859_1);
+        assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+        int bodyStart = head.indexOf("\r\n\r\n") + 4;
+        assertArrayEquals(expected, Arrays.copyOfRange(response, bodyStart, response.length));
+    }
+
+    @Test
+    void testSlowClientKeepsTheQueuedBytesBounded() throws Exception {
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel accepted = listener.accept()) {
+            accepted.configureBlocking(false);
+            NioServer.Outbox outbox = new NioServer.Outbox(64 * 1024, () -> {
+            });
+            NioServer.QueuedOutputStream out = new NioServer.QueuedOutputStream(outbox, accepted, 5000);
+            int total = 8 * 1024 * 1024;
+            ExecutorService threads = Executors.newFixedThreadPool(2);
+            Future<Integer> received = threads.submit(() -> {
+                Thread.sleep(300); // The client starts reading late
+                ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+                int count = 0;
+                while (count < total) {
+                    count += client.read(in);
+                    in.clear();
+                }
+                return count;
+            });
+            AtomicBoolean writing = new AtomicBoolean(true);
+            Future<?> eventLoop = threads.submit(() -> {
+                // Sends the queue as the event loop would
+                while (writing.get() || !outbox.isEmpty()) {
+                    outbox.writeTo(accepted);
+                    Thread.sleep(1);
+                }
+                return null;
+            });
+
+            byte[] chunk = new byte[8192];
+            long maxQueued = 0;
+            for (int written = 0; written < total; written += chunk.length) {
+                out.write(new ByteBuffer[]{ByteBuffer.wrap(chunk)});
+                maxQueued = Math.max(maxQueued, out.getQueued());
+            }
+            writing.set(false);
+            eventLoop.get(10, TimeUnit.SECONDS);
+            assertEquals(total, received.get(10, TimeUnit.SECONDS), "El cliente recibe toda la respuesta");
+            threads.shutdown();
+            assertTrue(maxQueued <= 64 * 1024 + chunk.length, "Bytes en memoria: " + maxQueued);
+        }
+    }
+
+    @Test
+    void testClientThatDoesNotReadMakesTheWriteFail() throws Exception {
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel accepted = listener.accept()) {
+            accepted.configureBlocking(false);
+            NioServer.Outbox outbox = new NioServer.Outbox(64 * 1024, () -> {
+            });
+            NioServer.QueuedOutputStream out = new NioServer.QueuedOutputStream(outbox, accepted, 200);
+            ByteBuffer[] chunk = {ByteBuffer.allocate(8192)};
+            assertThrows(IOException.class, () -> {
+                for (int i = 0; i < 32 * 128; i++) { // 32 MB, more than the socket buffers take
+                    chunk[0].clear();
+                    out.write(chunk);
+                }
+            });
+        }
+    }
+
+    @Test
+    void testBlockingHandlerDoesNotDelayOtherConnectionsOfItsEventLoop() throws Exception {
+        WebFramework.get("/nio-blocking", (req, res) -> {
+            try {
+                Thread.sleep(1500); // Like a synchronous journal or a disk read
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Lento";
+        });
+        NioServer oneLoop = new NioServer(PORT + 2, 1, 64 * 1024); // Every connection shares the event loop
+        ExecutorService threads = Executors.newCachedThreadPool();
+        threads.submit(() -> {
+            oneLoop.start();
+            return null;
+        });
+        Thread.sleep(300);
+        try (Socket slow = new Socket("localhost", PORT + 2)) {
+            slow.getOutputStream().write("GET /nio-blocking HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(100);
+
+            long start = System.nanoTime();
+            try (Socket other = new Socket("localhost", PORT + 2)) {
+                other.getOutputStream().write("GET /nio?name=otro HTTP/1.1\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                String response = new String(other.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(response.endsWith("Hola, otro!"));
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(millis < 1000, "La otra conexión esperó " + millis + " ms al controlador lento");
+            assertTrue(new String(slow.getInputStream().readAllBytes(), StandardCharsets.UTF_8).endsWith("Lento"));
+        } finally {
+            oneLoop.stop();
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void testOnlyHeapCopiesCountTowardsTheLimit() throws IOException {
+        NioServer.Outbox outbox = new NioServer.Outbox(64 * 1024, () -> {
+        });
+        outbox.add(ByteBuffer.allocateDirect(1024 * 1024)); // Like the slice of a memory-mapped file
+        assertEquals(0, outbox.getQueued());
+        outbox.awaitRoom(10); // Returns at once, a large mapped file does not make the handler wait
+        outbox.add(ByteBuffer.allocate(100));
+        assertEquals(100, outbox.getQueued());
+    }
+
+    @Test
+    void testSlowReaderDoesNotDelayOtherConnectionsOfItsEventLoop() throws Exception {
+        int total = 32 * 1024 * 1024;
+        WebFramework.get("/nio-slow-export", (req, res) -> {
+            byte[] chunk = new byte[8192];
+            try (OutputStream body = res.getOutputStream()) {
+                for (int written = 0; written < total; written += chunk.length) {
+                    body.write(chunk);
+                }
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            return null;
+        });
+        NioServer oneLoop = new NioServer(PORT + 1, 1, 64 * 1024); // Every connection shares the event loop
+        ExecutorService threads = Executors.newCachedThreadPool();
+        threads.submit(() -> {
+            oneLoop.start();
+            return null;
+        });
+        Thread.sleep(300);
+        try (Socket slow = new Socket("localhost", PORT + 1)) {
+            slow.getOutputStream().write("GET /nio-slow-export HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream slowIn = slow.getInputStream();
+            assertEquals('H', slowIn.read(), "La exportación empieza");
+            Thread.sleep(200); // The handler fills the socket and the queue, then waits for the client
+
+            long start = System.nanoTime();
+            try (Socket other = new Socket("localhost", PORT + 1)) {
+                other.getOutputStream().write("GET /nio?name=otro HTTP/1.1\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                other.setSoTimeout(2000);
+                String response = new String(other.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(response.endsWith("Hola, otro!"));
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(millis < 1000, "La otra conexión esperó " + millis + " ms al cliente lento");
+
+            long received = slowIn.transferTo(OutputStream.nullOutputStream());
+            assertTrue(received > total, "El cliente lento recibe toda la exportación: " + received + " bytes");
+        } finally {
+            oneLoop.stop();
+            threads.shutdownNow();
+        }
+    }
+}
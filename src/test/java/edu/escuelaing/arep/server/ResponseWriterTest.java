@@ -0,0 +1,96 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseWriterTest {
+
+    @Test
+    void testContentLengthCountsUtf8Bytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter.write(out, ResponseWriter.STATUS_200, "application/json", "{\"titulo\": \"Cien años\"}", true);
+
+        String response = out.toString(StandardCharsets.UTF_8);
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.contains("Content-Type: application/json\r\n"));
+        assertTrue(response.contains("Content-Length: 24\r\n"));
+        assertTrue(response.contains("Connection: keep-alive\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n{\"titulo\": \"Cien años\"}"));
+    }
+
+    @Test
+    void testEveryStatusLineIsBuiltUpFront() {
+        for (int status = 100; status < 600; status++) {
+            byte[] line = ResponseWriter.statusLine(status);
+            assertTrue(new String(line, StandardCharsets.US_ASCII).startsWith("HTTP/1.1 " + status + " "));
+            assertSame(line, ResponseWriter.statusLine(status), "Cada línea se construye una sola vez");
+        }
+        assertEquals("HTTP/1.1 418 Client Error\r\n", new String(ResponseWriter.statusLine(418), StandardCharsets.US_ASCII));
+        assertThrows(IllegalArgumentException.class, () -> ResponseWriter.statusLine(600));
+        assertThrows(IllegalArgumentException.class, () -> ResponseWriter.statusLine(99));
+    }
+
+    @Test
+    void testGatheringWriteToChannel(@TempDir Path tempDir) throws IOException {
+        Path target = tempDir.resolve("response");
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ResponseWriter.write(new BlockingChannelOutputStream(channel), ResponseWriter.STATUS_200, "text/plain", "hola", false);
+        }
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 4\r\nConnection: close\r\n\r\nhola",
+                Files.readString(target));
+    }
+
+    @Test
+    void testBodyLargerThanPooledBuffer() throws IOException {
+        String body = "ñ".repeat(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter.write(out, ResponseWriter.STATUS_200, "text/plain", body, true);
+        String response = out.toString(StandardCharsets.UTF_8);
+        assertTrue(response.contains("Content-Length: 200000\r\n"));
+        assertTrue(response.endsWith(body));
+    }
+
+    @Test
+    void testUtf8EncodingMatchesGetBytes() {
+        String text = "ascii é € 😀 \uD800 fin";
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, ResponseWriter.utf8Length(text));
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        ResponseWriter.encodeUtf8(text, buffer);
+        assertArrayEquals(expected, buffer.array());
+    }
+
+    @Test
+    void testPreparedResponseWithBytesAndHeaders() throws IOException {
+        Response res = new Response();
+        res.setContentType("application/json");
+        res.setHeader("ETag", "\"v1\"");
+        res.setBody("{\"ok\": true}".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter.write(out, res, "ignorado", true);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 12\r\nETag: \"v1\"\r\n"
+                + "Connection: keep-alive\r\n\r\n{\"ok\": true}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testNotModifiedHasNoBody() throws IOException {
+        Response res = new Response();
+        res.setStatus(304);
+        res.setHeader("ETag", "\"v1\"");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter.write(out, res, "cuerpo", false);
+        assertEquals("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\nConnection: close\r\n\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
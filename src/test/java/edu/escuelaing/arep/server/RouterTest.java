@@ -0,0 +1,82 @@
+package edu.escuelaing.arep.server;
+
+import edu.escuelaing.arep.controller.Request;
+import edu.escuelaing.arep.controller.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterTest {
+
+    private static Router routerOf(String... patterns) {
+        Map<String, BiFunction<Request, Response, String>> routes = new LinkedHashMap<>();
+        for (String pattern : patterns) {
+            routes.put(pattern, (req, res) -> pattern);
+        }
+        return Router.compile(routes);
+    }
+
+    private static String patternOf(Router router, String path) {
+        Router.Route route = router.match(path, new int[2 * Math.max(1, router.getMaxParams())]);
+        return route == null ? null : route.pattern();
+    }
+
+    @Test
+    void testStaticRoutesShareTheirPrefixes() {
+        Router router = routerOf("/App/hello", "/App/help", "/App", "/getBooks", "/greeting");
+        assertEquals("/App/hello", patternOf(router, "/App/hello"));
+        assertEquals("/App/help", patternOf(router, "/App/help"));
+        assertEquals("/App", patternOf(router, "/App"));
+        assertEquals("/getBooks", patternOf(router, "/getBooks"));
+        assertNull(patternOf(router, "/App/hel"));
+        assertNull(patternOf(router, "/App/hello/"));
+        assertNull(patternOf(router, "/index.html"));
+    }
+
+    @Test
+    void testPathVariablesAreCaptured() {
+        Router router = routerOf("/books/{id}", "/books/{id}/reviews/{review}");
+        int[] bounds = new int[2 * router.getMaxParams()];
+        String path = "/books/42/reviews/7";
+        Router.Route route = router.match(path, bounds);
+        assertEquals("/books/{id}/reviews/{review}", route.pattern());
+        assertArrayEquals(new String[]{"id", "review"}, route.paramNames());
+        assertEquals("42", path.substring(bounds[0], bounds[1]));
+        assertEquals("7", path.substring(bounds[2], bounds[3]));
+
+        assertEquals("/books/{id}", patternOf(router, "/books/abc"));
+        assertNull(patternOf(router, "/books/"), "Un parámetro no puede estar vacío");
+    }
+
+    @Test
+    void testStaticWinsOverParameterAndParameterOverWildcard() {
+        Router router = routerOf("/files/*", "/files/{name}", "/files/readme", "/files/{name}/raw");
+        assertEquals("/files/readme", patternOf(router, "/files/readme"));
+        assertEquals("/files/{name}", patternOf(router, "/files/readme.md"));
+        assertEquals("/files/{name}/raw", patternOf(router, "/files/readme/raw"));
+        assertEquals("/files/*", patternOf(router, "/files/a/b/c"));
+        assertEquals("/files/*", patternOf(router, "/files/"));
+    }
+
+    @Test
+    void testNamedWildcard() {
+        Router router = routerOf("/static/{path*}");
+        int[] bounds = new int[2];
+        String path = "/static/css/site.css";
+        Router.Route route = router.match(path, bounds);
+        assertArrayEquals(new String[]{"path"}, route.paramNames());
+        assertEquals("css/site.css", path.substring(bounds[0], bounds[1]));
+    }
+
+    @Test
+    void testInvalidPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> routerOf("books"));
+        assertThrows(IllegalArgumentException.class, () -> routerOf("/files/*/raw"));
+        assertThrows(IllegalArgumentException.class, () -> routerOf("/books/{id}x"));
+        assertThrows(IllegalArgumentException.class, () -> routerOf("/books/{id}", "/books/{name}/reviews"));
+    }
+}
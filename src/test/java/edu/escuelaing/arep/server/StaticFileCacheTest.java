@@ -0,0 +1,173 @@
+package edu.escuelaing.arep.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticFileCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path createFile(String name, int size) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.write(file, new byte[size]);
+        return file;
+    }
+
+    private static StaticFileCache.Entry lookup(StaticFileCache cache, Path file) throws IOException {
+        return cache.lookup(file, Files.readAttributes(file, BasicFileAttributes.class), "application/octet-stream");
+    }
+
+    @Test
+    void testHitAfterMiss() throws IOException {
+        StaticFileCache cache = new StaticFileCache(10_000, 1_000);
+        Path file = createFile("a.txt", 100);
+
+        StaticFileCache.Entry first = lookup(cache, file);
+        StaticFileCache.Entry second = lookup(cache, file);
+
+        assertSame(first, second);
+        assertTrue(second.hasBody());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(100, cache.getBytesSaved());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void testEntryIsInvalidatedWhenFileChanges() throws IOException {
+        StaticFileCache cache = new StaticFileCache(10_000, 1_000);
+        Path file = createFile("a.txt", 100);
+        StaticFileCache.Entry first = lookup(cache, file);
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(first.getLastModified() + 5_000));
+        StaticFileCache.Entry second = lookup(cache, file);
+
+        assertNotSame(first, second);
+        assertNotEquals(first.getEtag(), second.getEtag());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        StaticFileCache cache = new StaticFileCache(1_500, 1_000); // Two responses fit, three do not
+        Path a = createFile("a.txt", 300);
+        Path b = createFile("b.txt", 300);
+        Path c = createFile("c.txt", 300);
+
+        lookup(cache, a);
+        lookup(cache, b);
+        lookup(cache, a); // "a" is now more recent than "b"
+        lookup(cache, c); // Does not fit with both, "b" is evicted
+
+        assertTrue(cache.getCachedBytes() <= 1_500);
+        long misses = cache.getMisses();
+        lookup(cache, a);
+        assertEquals(misses, cache.getMisses(), "'a' debería seguir en la caché");
+        lookup(cache, b);
+        assertEquals(misses + 1, cache.getMisses(), "'b' debería haber sido expulsado");
+    }
+
+    @Test
+    void testLargeFilesAreNotCached() throws IOException {
+        StaticFileCache cache = new StaticFileCache(10_000, 1_000);
+        Path file = createFile("big.bin", 5_000);
+
+        StaticFileCache.Entry entry = lookup(cache, file);
+
+        assertFalse(entry.hasBody());
+        assertEquals(entry.getIdentity().headerLength(), entry.getIdentity().response().length);
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    void testLargeFilesAreNotCountedAsMisses() throws IOException {
+        StaticFileCache cache = new StaticFileCache(10_000, 1_000);
+        Path file = createFile("crece.bin", 500);
+        lookup(cache, file);
+        assertTrue(cache.getCachedBytes() > 0);
+
+        Files.write(file, new byte[5_000]);
+        lookup(cache, file);
+        lookup(cache, file);
+        assertEquals(1, cache.getMisses(), "Un archivo que no cabe en la caché no es un fallo");
+        assertEquals(2, cache.getUncacheable());
+        assertEquals(0, cache.getCachedBytes(), "La versión pequeña del archivo sale de la caché");
+    }
+
+    @Test
+    void testConcurrentHitsKeepTheBudget() throws Exception {
+        StaticFileCache cache = new StaticFileCache(2_000, 1_000);
+        Path[] files = new Path[8];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = createFile("f" + i + ".txt", 300);
+        }
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int first = thread;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        lookup(cache, files[(first + i / 100) % files.length]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+        assertEquals(8_000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > cache.getMisses());
+        assertTrue(cache.getCachedBytes() > 0 && cache.getCachedBytes() <= 2_000);
+    }
+
+    @Test
+    void testCompressedVariantsAreNegotiated() throws IOException {
+        StaticFileCache cache = new StaticFileCache(100_000, 10_000);
+        Path file = tempDir.resolve("index.html");
+        Files.writeString(file, "<html>" + "<p>Hola mundo</p>".repeat(200) + "</html>");
+        StaticFileCache.Entry entry = cache.lookup(file, Files.readAttributes(file, BasicFileAttributes.class), "text/html");
+
+        assertTrue(entry.isCompressed());
+        StaticFileCache.Variant gzip = entry.select("gzip, deflate, br");
+        StaticFileCache.Variant deflate = entry.select("gzip;q=0.5, deflate");
+        assertTrue(new String(gzip.response(), 0, gzip.headerLength()).contains("Content-Encoding: gzip"));
+        assertTrue(new String(deflate.response(), 0, deflate.headerLength()).contains("Content-Encoding: deflate"));
+        assertTrue(gzip.response().length < entry.getIdentity().response().length);
+        assertNotEquals(gzip.etag(), entry.getEtag());
+        assertSame(entry.getIdentity(), entry.select(""));
+        assertSame(entry.getIdentity(), entry.select("br"));
+        assertSame(entry.getIdentity(), entry.select("gzip;q=0, deflate;q=0"));
+        assertSame(gzip, entry.select("*"));
+
+        String html = new String(new GZIPInputStream(new ByteArrayInputStream(gzip.response(), gzip.headerLength(),
+                gzip.response().length - gzip.headerLength())).readAllBytes());
+        assertEquals(Files.readString(file), html);
+    }
+
+    @Test
+    void testImagesAreNotCompressed() throws IOException {
+        StaticFileCache cache = new StaticFileCache(100_000, 10_000);
+        Path file = createFile("imagen.png", 1_000);
+        StaticFileCache.Entry entry = cache.lookup(file, Files.readAttributes(file, BasicFileAttributes.class), "image/png");
+
+        assertFalse(entry.isCompressed());
+        assertSame(entry.getIdentity(), entry.select("gzip"));
+    }
+}
@@ -0,0 +1,46 @@
+package edu.escuelaing.arep.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmUpTest {
+
+    @Test
+    void testRequestsGoThroughTheWholePipeline() {
+        AtomicLong calls = new AtomicLong();
+        WebFramework.get("/warmup-test", (req, res) -> {
+            calls.incrementAndGet();
+            return "{\"keepAlive\": " + req.isKeepAlive() + "}";
+        });
+
+        WarmUp.Result result = WarmUp.run(List.of("GET /warmup-test?x=1", "GET /no-existe.html"), 300, 2);
+        assertTrue(result.requests() > 0);
+        assertEquals(result.requests() / 2, calls.get(), "Cada solicitud debe llegar al controlador");
+        assertTrue(result.millis() < 5_000);
+        assertTrue(result.compilationMillis() >= 0);
+    }
+
+    @Test
+    void testReplayedRequestsAreNotCountedInTheMetrics() {
+        WebFramework.get("/warmup-metrics", (req, res) -> "ok");
+        Metrics.record("GET", "/warmup-previo", 200, 0, 10, 1_000);
+
+        WarmUp.run(List.of("GET /warmup-metrics", "GET /no-existe.html"), 200, 2);
+        String text = Metrics.render();
+        assertFalse(text.contains("route=\"/warmup-metrics\""), "Las solicitudes del calentamiento no son tráfico real");
+        assertFalse(text.contains("route=\"static\""));
+        assertFalse(text.contains("route=\"/warmup-previo\""));
+        assertEquals(0, FileHandler.getCache().getMisses() + FileHandler.getCache().getHits());
+    }
+
+    @Test
+    void testOnlySafeRequestsAreReplayed() {
+        assertEquals(List.of("GET /getBooks", "GET /index.html", "HEAD /index.css"),
+                WarmUp.parseRequests("GET /getBooks, /index.html,POST /addBook?bookTitle=x,HEAD /index.css,"));
+        assertEquals(0, WarmUp.run(List.of(), 100, 2).requests());
+    }
+}
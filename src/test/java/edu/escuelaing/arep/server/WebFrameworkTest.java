@@ -1,5 +1,9 @@
 package edu.escuelaing.arep.server;
 
+import edu.escuelaing.arep.annotations.GetMapping;
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.RestController;
 import edu.escuelaing.arep.controller.Request;
 import edu.escuelaing.arep.controller.Response;
 import org.junit.jupiter.api.BeforeEach;
@@ -7,6 +11,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiFunction;
@@ -98,4 +103,82 @@ class WebFrameworkTest {
         assertTrue(response.contains("405 Method Not Allowed"));
     }
 
+    @Test
+    void testStreamedResponseIsChunked() throws IOException {
+        WebFramework.get("/stream", (req, res) -> {
+            res.setContentType("application/json");
+            try {
+                res.getWriter().write("{\"streamed\": true}");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        Request req = new Request("GET", "/stream", "HTTP/1.1", new HashMap<>(), new HashMap<>());
+        req.setKeepAlive(true);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WebFramework.handleRequest(req, outputStream);
+
+        String response = outputStream.toString();
+        assertTrue(response.contains("Content-Type: application/json\r\n"));
+        assertTrue(response.contains("Transfer-Encoding: chunked\r\n"));
+        assertFalse(response.contains("Content-Length"));
+        assertTrue(response.endsWith("\r\n\r\n12\r\n{\"streamed\": true}\r\n0\r\n\r\n"));
+        assertTrue(req.isKeepAlive());
+    }
+
+    @RestController
+    static class ItemController {
+        @GetMapping("/items/{id}")
+        public String item(@PathVariable("id") String id, @RequestParam(value = "format", defaultValue = "json") String format) {
+            return id + ":" + format;
+        }
+    }
+
+    @Test
+    void testPathVariablesAreBoundToControllerParameters() throws IOException {
+        WebFramework.registerControllers(new ItemController());
+        Map<String, String> query = new HashMap<>();
+        query.put("format", "xml");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WebFramework.handleRequest("GET", "/items/caf%C3%A9", query, "", outputStream);
+        assertTrue(outputStream.toString(java.nio.charset.StandardCharsets.UTF_8).endsWith("café:xml"));
+
+        WebFramework.get("/items/{id}/name", (req, res) -> "name of " + req.getPathVariable("id"));
+        outputStream.reset();
+        WebFramework.handleRequest("GET", "/items/7/name", new HashMap<>(), "", outputStream);
+        assertTrue(outputStream.toString().endsWith("name of 7"), "Una ruta registrada después se compila de nuevo");
+    }
+
+    @Test
+    void testRouteMatchingDoesNotAllocate() {
+        Map<String, BiFunction<Request, Response, String>> routes = new HashMap<>();
+        routes.put("/books/{id}/reviews/{review}", (req, res) -> "ok");
+        Router router = Router.compile(routes);
+        Request req = new Request("GET", "/books/42/reviews/7", "HTTP/1.1", new HashMap<>(), new HashMap<>());
+        int size = 2 * router.getMaxParams();
+
+        int[] bounds = WebFramework.borrowBounds(size);
+        assertNotNull(WebFramework.route(router, req, bounds));
+        assertEquals("7", req.getPathVariable("review"));
+        WebFramework.returnBounds(req, bounds);
+        assertNull(req.getPathVariable("review"), "Las variables no sobreviven a la solicitud");
+
+        for (int i = 0; i < 20_000; i++) { // Let the JIT compile the lookup
+            bounds = WebFramework.borrowBounds(size);
+            WebFramework.route(router, req, bounds);
+            WebFramework.returnBounds(req, bounds);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            bounds = WebFramework.borrowBounds(size);
+            WebFramework.route(router, req, bounds);
+            WebFramework.returnBounds(req, bounds);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < 10_000, "Buscar una ruta no debe reservar memoria: " + allocated + " bytes en 10000 búsquedas");
+    }
 }